@@ -0,0 +1,46 @@
+/**
+ * RunningProcessEntry
+ *
+ * A process as seen by the last processes query.  Returned by processes 
+ * and linked from the services that run in it.  The names are kept as ids 
+ * in the shared nameTable, the entry holds a reference to them while 
+ * processes keeps it in its list.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import android.graphics.drawable.Drawable;
+
+/**
+ * A utility class used to store the Process information we want to display.
+ */
+public class RunningProcessEntry
+{
+	public int				m_iId;
+	public int				m_iNameId;				//* The package name in the nameTable
+	public int				m_iApplicationNameId;	//* The application name in the nameTable
+	public String			m_sStateDescription;
+	public Drawable			m_dIcon;
+	public int				m_iImportance;
+	public int				m_iMemoryUsage;			//* The RSS in kB, -1 if /proc/[pid]/stat can't be read
+	public int				m_iPss;					//* The PSS in kB, -1 if the memory wasn't queried
+
+	/**
+	 * Return the package name of the process.
+	 */
+	public String getPackageName()
+	{
+		return nameTable.getShared().getName(this.m_iNameId);
+	}
+
+	/**
+	 * Return the application name of the process.
+	 *
+	 * @return The name or null if it wasn't resolved.
+	 */
+	public String getApplicationName()
+	{
+		return nameTable.getShared().getName(this.m_iApplicationNameId);
+	}
+}
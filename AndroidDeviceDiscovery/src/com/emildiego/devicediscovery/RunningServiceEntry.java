@@ -0,0 +1,53 @@
+/**
+ * RunningServiceEntry
+ *
+ * A service and its history, kept by services across queries.  The same 
+ * entry is updated in place, read it right after a query.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import android.content.ComponentName;
+
+/**
+ * A utility class used to store the service information.
+ */
+public class RunningServiceEntry
+{
+	public int					m_iId;
+	public int					m_iUidOwner;		//* The UID that owns this service.
+	public long					m_lActiveSince;		//* When the current run started (elapsedRealtime)
+	public long					m_lLastActivity;	//* When the service last had activity (elapsedRealtime)
+	public int					m_iNumClients;
+	public int					m_iCrashCount;		//* Crashes reported by the system
+	public ComponentName		m_xComponentName;	//* The service component.
+	public int					m_iProcessNameId;	//* The process the service runs in, in the nameTable
+	public int					m_iComponentId;		//* The flattened component in the nameTable
+
+	public boolean				m_bRunning;
+	public int					m_iStarts;			//* The runs we have seen, the first one included
+	public int					m_iRestarts;
+	public long					m_lPastUptime;		//* The uptime of the runs that ended
+	public long					m_lLastSeen;		//* The last time a query reported it (elapsedRealtime)
+	long						m_lLastQuery;		//* The last query that reported it
+	public RunningProcessEntry	m_xProcess;			//* The process it runs in as of the last query, its names read null once processes drops it
+
+	/**
+	 * The time the service has been up over all the runs we have seen.
+	 * 
+	 * @return The uptime in ms, up to the last query.
+	 */
+	public long getUptime()
+	{
+		return this.m_lPastUptime + (this.m_bRunning ? Math.max(0, this.m_lLastSeen - this.m_lActiveSince) : 0);
+	}
+
+	/**
+	 * Return the name of the process the service runs in.
+	 */
+	public String getProcessRunsIn()
+	{
+		return nameTable.getShared().getName(this.m_iProcessNameId);
+	}
+}
@@ -41,6 +41,16 @@ public class battery extends discoveryBase
 	 * The percentage of the batter that is charged.
 	 */
 	private float					m_fBatteryPercent;
+	
+	/**
+	 * Keeps the history and drain rates while tracking is on.
+	 */
+	private batteryTracker			m_xTracker;
+	
+	/**
+	 * Samples the fuel gauge directly, created the first time it is asked for.
+	 */
+	private powerSampler			m_xPowerSampler;
 
 	/**
 	 * Default constructor
@@ -55,6 +65,57 @@ public class battery extends discoveryBase
 		this.m_bChargingViaUSB		= false;
 		this.m_bChargingViaACPower	= false;
 		
+		this.m_xTracker				= new batteryTracker();
+	}
+	
+	/**
+	 * Subscribe to the battery broadcasts so the history and drain rates are tracked.
+	 * While tracking is on query() reads the latest broadcast instead of asking for
+	 * the sticky intent every time.
+	 * 
+	 * @return True if tracking started.
+	 */
+	public boolean startTracking()
+	{
+		if (this.m_xTracker.isTracking())
+			return true;
+		
+		if (!this.m_xTracker.start(new batteryReceiver(this.m_xContext)))
+		{
+			this.logError("Unable to register for battery broadcasts.");
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Unsubscribe from the battery broadcasts.  The history is kept.
+	 */
+	public void stopTracking()
+	{
+		this.m_xTracker.stop();
+	}
+	
+	/**
+	 * Get the tracker with the battery history, drain and charge rates.
+	 * @return The batteryTracker.
+	 */
+	public batteryTracker getTracker()
+	{
+		return this.m_xTracker;
+	}
+	
+	/**
+	 * Get the sampler that reads current and voltage from the fuel gauge many times a second.
+	 * It isn't started, call start() on it.
+	 * @return The powerSampler.
+	 */
+	public synchronized powerSampler getPowerSampler()
+	{
+		if (this.m_xPowerSampler == null)
+			this.m_xPowerSampler = new powerSampler(this.m_xContext, this.m_sTag);
+		
+		return this.m_xPowerSampler;
 	}
 
 	/**
@@ -101,27 +162,51 @@ public class battery extends discoveryBase
 	@Override
 	public boolean query() 
 	{
-		//* determine the state of the battery
-		IntentFilter xIntentFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
-		Intent batteryStatus = this.m_xContext.registerReceiver(null, xIntentFilter);
+		int			iStatus;
+		int			iChargePlug;
+		
+		//* while tracking the latest broadcast is already in the tracker
+		batteryTracker xTracker = this.m_xTracker;
+		int iLast = xTracker.getSampleCount() - 1;
+		if (xTracker.isTracking() && iLast >= 0)
+		{
+			iStatus					= xTracker.getSampleStatus(iLast);
+			iChargePlug				= xTracker.getSamplePlugged(iLast);
+			this.m_iBatteryLevel	= xTracker.getSampleLevel(iLast);
+			this.m_iBatteryScale	= xTracker.getSampleScale(iLast);
+			this.m_fBatteryPercent	= xTracker.getSamplePercent(iLast);
+		}
+		else
+		{
+			//* determine the state of the battery
+			IntentFilter xIntentFilter = new IntentFilter(Intent.ACTION_BATTERY_CHANGED);
+			Intent batteryStatus = this.m_xContext.registerReceiver(null, xIntentFilter);
+			if (batteryStatus == null)
+			{
+				this.logDebug("Unable to get the battery status.");
+				return false;
+			}
+			
+			//* Get the status of the battery
+			iStatus = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+			
+			//* Find out how we are charging the battery
+			iChargePlug	= batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
+			
+			//* Get the battery level
+			this.m_iBatteryLevel = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+			this.m_iBatteryScale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+	
+			this.m_fBatteryPercent = (m_iBatteryLevel / (float)m_iBatteryScale) * 100;
+		}
 		
-		//* Get the status of the battery
-		int iStatus = batteryStatus.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
 		this.m_bIsCharging = iStatus == BatteryManager.BATTERY_STATUS_CHARGING ||
 		                     iStatus == BatteryManager.BATTERY_STATUS_FULL;
 		
-		//* Find out how we are charging the battery
 		// How are we charging?
-		int iChargePlug	= batteryStatus.getIntExtra(BatteryManager.EXTRA_PLUGGED, -1);
 		this.m_bChargingViaUSB = iChargePlug == BatteryManager.BATTERY_PLUGGED_USB;
 		this.m_bChargingViaACPower = iChargePlug == BatteryManager.BATTERY_PLUGGED_AC;
 		
-		//* Get the battery level
-		this.m_iBatteryLevel = batteryStatus.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
-		this.m_iBatteryScale = batteryStatus.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
-
-		this.m_fBatteryPercent = (m_iBatteryLevel / (float)m_iBatteryScale) * 100;
-		
 		return true;
 	}
 
@@ -145,6 +230,9 @@ public class battery extends discoveryBase
 		//* Battery charged
 		sSummary += "The battery is " + this.m_fBatteryPercent + " charged.";
 		
+		if (this.m_xTracker.getSampleCount() > 0)
+			sSummary += "\n" + this.m_xTracker.summaryString();
+		
 		return sSummary;
 	}
 
@@ -0,0 +1,26 @@
+/**
+ * This interface is implemented by anything that can deliver battery changed
+ * events to a batteryTracker.  On a device that is a BroadcastReceiver, when
+ * testing it can be anything that feeds recorded or made up events.
+ *
+ * @author Emil Diego
+ *
+ */
+
+package com.emildiego.devicediscovery;
+
+public interface batteryEventSource
+{
+	/**
+	 * Start delivering events to the tracker.
+	 *
+	 * @param xTracker The tracker whose onBatteryChanged() is called for every event.
+	 * @return True if the source was started.
+	 */
+	public boolean start(batteryTracker xTracker);
+
+	/**
+	 * Stop delivering events.
+	 */
+	public void stop();
+}
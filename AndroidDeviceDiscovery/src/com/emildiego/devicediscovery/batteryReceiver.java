@@ -0,0 +1,94 @@
+/**
+ * batteryReceiver
+ *
+ * Subscribes once to ACTION_BATTERY_CHANGED and passes every broadcast on
+ * to a batteryTracker.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.SystemClock;
+
+public class batteryReceiver extends BroadcastReceiver implements batteryEventSource
+{
+	private Context					m_xContext;
+	private batteryTracker			m_xTracker;
+
+	public batteryReceiver(Context xContext)
+	{
+		super();
+
+		this.m_xContext = xContext;
+	}
+
+	/**
+	 * Register for the battery broadcasts.  The sticky intent returned by the
+	 * registration is delivered straight away so the tracker has a first sample.
+	 */
+	public synchronized boolean start(batteryTracker xTracker)
+	{
+		if (this.m_xTracker != null)
+			return false;
+
+		this.m_xTracker = xTracker;
+
+		Intent xSticky = this.m_xContext.registerReceiver(this, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		if (xSticky != null)
+			this.deliver(xTracker, xSticky);
+
+		return true;
+	}
+
+	public synchronized void stop()
+	{
+		if (this.m_xTracker == null)
+			return;
+
+		try
+		{
+			this.m_xContext.unregisterReceiver(this);
+		}
+		catch (IllegalArgumentException exp)
+		{
+			//* wasn't registered
+		}
+
+		this.m_xTracker = null;
+	}
+
+	@Override
+	public void onReceive(Context c, Intent intent)
+	{
+		batteryTracker xTracker;
+
+		synchronized (this)
+		{
+			xTracker = this.m_xTracker;
+		}
+
+		if (xTracker != null)
+			this.deliver(xTracker, intent);
+	}
+
+	/**
+	 * Pass a broadcast on to the tracker.  The time is taken from the clock
+	 * that counts deep sleep and isn't set back with the wall clock, the
+	 * tracker drops events that go back in time.
+	 */
+	private void deliver(batteryTracker xTracker, Intent xIntent)
+	{
+		xTracker.onBatteryChanged(SystemClock.elapsedRealtime(),
+				xIntent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1),
+				xIntent.getIntExtra(BatteryManager.EXTRA_SCALE, -1),
+				xIntent.getIntExtra(BatteryManager.EXTRA_VOLTAGE, 0),
+				xIntent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0),
+				xIntent.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0),
+				xIntent.getIntExtra(BatteryManager.EXTRA_STATUS, -1));
+	}
+}
@@ -0,0 +1,365 @@
+/**
+ * batteryTracker
+ *
+ * Records every battery changed event (level, voltage, temperature and
+ * plug state) into a ring of primitive arrays and keeps exponentially
+ * smoothed drain and charge rates in percent per hour.  From those it
+ * estimates how long until the battery is empty or full.
+ *
+ * The level only moves in whole steps, so a rate is measured each time the
+ * level changes, over the time since the previous change.  A measurement
+ * that starts in the middle of a step (the first event, or a change of
+ * power source) would cover only part of that step and overstate the
+ * rate, so its first level change only re-anchors and the rate starts
+ * from the first whole step.  The measurement
+ * is then blended into the smoothed rate with a weight that depends on how
+ * long the measurement took, so a burst of events doesn't count for more
+ * than a slow steady drain.  Plugging or unplugging starts a new
+ * measurement.
+ *
+ * The class has no Android dependencies, events come from a
+ * batteryEventSource or straight through onBatteryChanged().
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * The tracker class.
+ */
+public class batteryTracker
+{
+	/**
+	 * Returned by the time estimates when there isn't one.
+	 */
+	public static final long		UNKNOWN				= -1;
+
+	static final int				DEFAULT_CAPACITY	= 512;
+
+	/**
+	 * The time constant of the smoothing.  A measurement that took this long
+	 * replaces ~63% of the smoothed rate.
+	 */
+	static final long				DEFAULT_TIME_CONSTANT	= 30 * 60 * 1000L;
+
+	static final double				MS_PER_HOUR			= 3600000.0;
+
+	//* the ring of events
+	private long[]					m_aTimes;
+	private float[]					m_aPercent;
+	private int[]					m_aLevel;
+	private int[]					m_aScale;
+	private int[]					m_aVoltage;
+	private int[]					m_aTemperature;
+	private int[]					m_aPlugged;
+	private int[]					m_aStatus;
+	private int						m_iPos;
+	private int						m_iCount;
+
+	//* the start of the current rate measurement
+	private long					m_lAnchorTime;
+	private float					m_fAnchorPercent;
+	private boolean					m_bAnchorPlugged;
+	private boolean					m_bHasAnchor;
+	private boolean					m_bAnchorOnStep;	//* the anchor is at a level change, not mid step
+
+	//* the smoothed rates (%/hour, both positive), 0 until measured
+	private double					m_dDrainRate;
+	private double					m_dChargeRate;
+	private long					m_lTimeConstant;
+
+	private batteryEventSource		m_xSource;
+
+	/**
+	 * Default constructor.  Keeps the last 512 events.
+	 */
+	public batteryTracker()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param iCapacity The number of events kept.
+	 */
+	public batteryTracker(int iCapacity)
+	{
+		iCapacity = Math.max(2, iCapacity);
+
+		this.m_aTimes		= new long[iCapacity];
+		this.m_aPercent		= new float[iCapacity];
+		this.m_aLevel		= new int[iCapacity];
+		this.m_aScale		= new int[iCapacity];
+		this.m_aVoltage		= new int[iCapacity];
+		this.m_aTemperature	= new int[iCapacity];
+		this.m_aPlugged		= new int[iCapacity];
+		this.m_aStatus		= new int[iCapacity];
+
+		this.m_lTimeConstant	= DEFAULT_TIME_CONSTANT;
+	}
+
+	/**
+	 * Set the smoothing time constant.
+	 *
+	 * @param lMilliseconds Longer is smoother but slower to follow changes.
+	 */
+	public synchronized void setTimeConstant(long lMilliseconds)
+	{
+		this.m_lTimeConstant = Math.max(1, lMilliseconds);
+	}
+
+	/**
+	 * Start receiving events from the source.  Any previous source is stopped.
+	 *
+	 * @param xSource Where the events come from.
+	 * @return True if the source started.
+	 */
+	public boolean start(batteryEventSource xSource)
+	{
+		this.stop();
+
+		if (!xSource.start(this))
+			return false;
+
+		synchronized (this)
+		{
+			this.m_xSource = xSource;
+		}
+		return true;
+	}
+
+	/**
+	 * Stop receiving events.  The history and rates are kept.
+	 */
+	public void stop()
+	{
+		batteryEventSource xSource;
+
+		synchronized (this)
+		{
+			xSource = this.m_xSource;
+			this.m_xSource = null;
+		}
+
+		if (xSource != null)
+			xSource.stop();
+	}
+
+	/**
+	 * Check if a source is delivering events.
+	 */
+	public synchronized boolean isTracking()
+	{
+		return this.m_xSource != null;
+	}
+
+	/**
+	 * Record a battery changed event.
+	 *
+	 * @param lTime When it happened (ms), on a clock that isn't set back, like SystemClock.elapsedRealtime().
+	 * @param iLevel The battery level.
+	 * @param iScale The level of a full battery.
+	 * @param iVoltage The voltage in mV.
+	 * @param iTemperature The temperature in tenths of a degree C.
+	 * @param iPlugged What it is plugged into (BatteryManager.BATTERY_PLUGGED_ bits), 0 on battery.
+	 * @param iStatus The BatteryManager.BATTERY_STATUS_ value.
+	 */
+	public synchronized void onBatteryChanged(long lTime, int iLevel, int iScale, int iVoltage, int iTemperature, int iPlugged, int iStatus)
+	{
+		if (iLevel < 0 || iScale <= 0)
+			return;
+
+		//* events out of order are dropped, they would break the rates
+		if (this.m_iCount > 0 && lTime < this.m_aTimes[this.lastIndex()])
+			return;
+
+		float fPercent = iLevel * 100f / iScale;
+		boolean bPlugged = iPlugged != 0;
+
+		this.m_aTimes[this.m_iPos]			= lTime;
+		this.m_aPercent[this.m_iPos]		= fPercent;
+		this.m_aLevel[this.m_iPos]			= iLevel;
+		this.m_aScale[this.m_iPos]			= iScale;
+		this.m_aVoltage[this.m_iPos]		= iVoltage;
+		this.m_aTemperature[this.m_iPos]	= iTemperature;
+		this.m_aPlugged[this.m_iPos]		= iPlugged;
+		this.m_aStatus[this.m_iPos]			= iStatus;
+		this.m_iPos = (this.m_iPos + 1) % this.m_aTimes.length;
+		if (this.m_iCount < this.m_aTimes.length)
+			this.m_iCount++;
+
+		//* a change of power source starts a new measurement, somewhere in the middle of a step
+		if (!this.m_bHasAnchor || bPlugged != this.m_bAnchorPlugged)
+		{
+			this.setAnchor(lTime, fPercent, bPlugged, false);
+			return;
+		}
+
+		if (fPercent == this.m_fAnchorPercent)
+			return;
+
+		//* the first change after a mid step anchor only covered part of the step
+		long lElapsed = lTime - this.m_lAnchorTime;
+		if (lElapsed <= 0 || !this.m_bAnchorOnStep)
+		{
+			this.setAnchor(lTime, fPercent, bPlugged, true);
+			return;
+		}
+
+		double dRate = (fPercent - this.m_fAnchorPercent) * MS_PER_HOUR / lElapsed;
+		double dAlpha = 1 - Math.exp(-(double)lElapsed / this.m_lTimeConstant);
+
+		if (dRate < 0 && !bPlugged)
+			this.m_dDrainRate = (this.m_dDrainRate == 0) ? -dRate : this.m_dDrainRate + dAlpha * (-dRate - this.m_dDrainRate);
+		else if (dRate > 0 && bPlugged)
+			this.m_dChargeRate = (this.m_dChargeRate == 0) ? dRate : this.m_dChargeRate + dAlpha * (dRate - this.m_dChargeRate);
+
+		this.setAnchor(lTime, fPercent, bPlugged, true);
+	}
+
+	private void setAnchor(long lTime, float fPercent, boolean bPlugged, boolean bOnStep)
+	{
+		this.m_lAnchorTime		= lTime;
+		this.m_fAnchorPercent	= fPercent;
+		this.m_bAnchorPlugged	= bPlugged;
+		this.m_bHasAnchor		= true;
+		this.m_bAnchorOnStep	= bOnStep;
+	}
+
+	private int lastIndex()
+	{
+		return (this.m_iPos - 1 + this.m_aTimes.length) % this.m_aTimes.length;
+	}
+
+	private int index(int iEntry)
+	{
+		if (iEntry < 0 || iEntry >= this.m_iCount)
+			throw new IndexOutOfBoundsException("Entry " + iEntry + " of " + this.m_iCount);
+
+		return (this.m_iPos - this.m_iCount + iEntry + this.m_aTimes.length) % this.m_aTimes.length;
+	}
+
+	/**
+	 * Get the smoothed drain rate.
+	 * @return Percent per hour, 0 if it hasn't been measured yet.
+	 */
+	public synchronized double getDrainRate()
+	{
+		return this.m_dDrainRate;
+	}
+
+	/**
+	 * Get the smoothed charge rate.
+	 * @return Percent per hour, 0 if it hasn't been measured yet.
+	 */
+	public synchronized double getChargeRate()
+	{
+		return this.m_dChargeRate;
+	}
+
+	/**
+	 * Estimate how long until the battery is empty.
+	 * @return Seconds, or UNKNOWN if it is plugged in or the drain rate isn't known.
+	 */
+	public synchronized long getTimeToEmpty()
+	{
+		if (this.m_iCount == 0 || this.m_dDrainRate <= 0 || this.m_aPlugged[this.lastIndex()] != 0)
+			return UNKNOWN;
+
+		return (long)(this.m_aPercent[this.lastIndex()] / this.m_dDrainRate * 3600);
+	}
+
+	/**
+	 * Estimate how long until the battery is full.
+	 * @return Seconds, or UNKNOWN if it isn't plugged in or the charge rate isn't known.
+	 */
+	public synchronized long getTimeToFull()
+	{
+		if (this.m_iCount == 0 || this.m_dChargeRate <= 0 || this.m_aPlugged[this.lastIndex()] == 0)
+			return UNKNOWN;
+
+		return (long)((100 - this.m_aPercent[this.lastIndex()]) / this.m_dChargeRate * 3600);
+	}
+
+	/**
+	 * Get the number of events in the history, oldest is entry 0.
+	 */
+	public synchronized int getSampleCount()
+	{
+		return this.m_iCount;
+	}
+
+	public synchronized long getSampleTime(int iEntry)
+	{
+		return this.m_aTimes[this.index(iEntry)];
+	}
+
+	public synchronized float getSamplePercent(int iEntry)
+	{
+		return this.m_aPercent[this.index(iEntry)];
+	}
+
+	public synchronized int getSampleLevel(int iEntry)
+	{
+		return this.m_aLevel[this.index(iEntry)];
+	}
+
+	public synchronized int getSampleScale(int iEntry)
+	{
+		return this.m_aScale[this.index(iEntry)];
+	}
+
+	public synchronized int getSampleVoltage(int iEntry)
+	{
+		return this.m_aVoltage[this.index(iEntry)];
+	}
+
+	public synchronized int getSampleTemperature(int iEntry)
+	{
+		return this.m_aTemperature[this.index(iEntry)];
+	}
+
+	public synchronized int getSamplePlugged(int iEntry)
+	{
+		return this.m_aPlugged[this.index(iEntry)];
+	}
+
+	public synchronized int getSampleStatus(int iEntry)
+	{
+		return this.m_aStatus[this.index(iEntry)];
+	}
+
+	/**
+	 * Clear the history and the rates.
+	 */
+	public synchronized void reset()
+	{
+		this.m_iPos			= 0;
+		this.m_iCount		= 0;
+		this.m_bHasAnchor	= false;
+		this.m_dDrainRate	= 0;
+		this.m_dChargeRate	= 0;
+	}
+
+	/**
+	 * Summarize the rates and estimates into a string.
+	 */
+	public synchronized String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Drain Rate: " + String.format("%.2f", this.m_dDrainRate) + " %/hour\n";
+		sSummary += "Charge Rate: " + String.format("%.2f", this.m_dChargeRate) + " %/hour\n";
+
+		long lSeconds = this.getTimeToEmpty();
+		if (lSeconds != UNKNOWN)
+			sSummary += "Time To Empty: " + (lSeconds / 3600) + "h " + ((lSeconds / 60) % 60) + "m\n";
+
+		lSeconds = this.getTimeToFull();
+		if (lSeconds != UNKNOWN)
+			sSummary += "Time To Full: " + (lSeconds / 3600) + "h " + ((lSeconds / 60) % 60) + "m\n";
+
+		return sSummary;
+	}
+}
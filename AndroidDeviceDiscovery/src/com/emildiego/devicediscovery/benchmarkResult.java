@@ -0,0 +1,66 @@
+/**
+ * benchmarkResult
+ *
+ * The result of one storageBenchmark test: how much was moved, how long it
+ * took and the latency of every operation (microseconds).  Read results
+ * are flagged when they were likely served from the page cache.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * A single test result.
+ */
+public class benchmarkResult
+{
+	public int					m_iTest;
+	public int					m_iMode;
+	public int					m_iBlockSize;
+	public long					m_lBytes;
+	public long					m_lOperations;
+	public long					m_lElapsedNs;
+	public boolean				m_bCached;			//* read right after the write, mostly from the page cache
+	public latencyHistogram		m_xLatency;
+
+	public benchmarkResult(int iTest, int iMode, int iBlockSize)
+	{
+		this.m_iTest		= iTest;
+		this.m_iMode		= iMode;
+		this.m_iBlockSize	= iBlockSize;
+		this.m_xLatency		= new latencyHistogram();
+	}
+
+	/**
+	 * Get the throughput of the test.
+	 * @return Bytes per second.
+	 */
+	public double getThroughput()
+	{
+		if (this.m_lElapsedNs <= 0)
+			return 0;
+
+		return this.m_lBytes * 1e9 / this.m_lElapsedNs;
+	}
+
+	/**
+	 * Get the number of operations per second.
+	 */
+	public double getIops()
+	{
+		if (this.m_lElapsedNs <= 0)
+			return 0;
+
+		return this.m_lOperations * 1e9 / this.m_lElapsedNs;
+	}
+
+	/**
+	 * Summarize the result into a single line.
+	 */
+	public String summaryString()
+	{
+		return storageBenchmark.testName(this.m_iTest) + " (" + storageBenchmark.modeName(this.m_iMode) + ", " +
+				(this.m_iBlockSize / 1024) + "K" + (this.m_bCached ? ", cached" : "") + "): " + String.format("%.1f", this.getThroughput() / 1048576.0) + " MB/s, " +
+				String.format("%.0f", this.getIops()) + " IOPS, " + this.m_xLatency.summaryString("us");
+	}
+}
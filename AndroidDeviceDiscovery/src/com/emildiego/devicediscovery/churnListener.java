@@ -0,0 +1,23 @@
+/**
+ * This interface is implemented by anyone who wants to be told when a
+ * process keeps dying and being restarted.
+ *
+ * @author Emil Diego
+ *
+ */
+
+package com.emildiego.devicediscovery;
+
+public interface churnListener
+{
+	/**
+	 * Called from the thread that queried the processChurn when a process
+	 * name starts crash looping.  Called once per loop, the name has to
+	 * stay up for a whole window before it can fire again.
+	 *
+	 * @param sName The process name.
+	 * @param iRestarts The number of restarts within the window.
+	 * @param lWindowMs The window.
+	 */
+	public void onCrashLoop(String sName, int iRestarts, long lWindowMs);
+}
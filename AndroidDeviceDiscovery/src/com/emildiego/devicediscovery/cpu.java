@@ -12,7 +12,6 @@
  */
 package com.emildiego.devicediscovery;
 
-import java.io.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -57,6 +56,10 @@ public class cpu extends discoveryBase {
 	 */
 	static final String SYSTEM_CPU_REGEX = "((?i)(sys(tem)?\\s+[0-9]{1,2}(\\.[0-9]{1,2})?\\%))|([0-9]{1,2}\\.[0-9]{1,2}\\%\\s+(?i)(sys(tem)?))";
 
+	/**
+	 * How long top can take, it samples for a second.
+	 */
+	static final long TOP_TIMEOUT = 5000;
 	
 	/*
 	 * Default constructor
@@ -90,47 +93,23 @@ public class cpu extends discoveryBase {
 	 */
 	private void getCPUInfo()
 	{
-		BufferedReader 		ifp = null;
-		
 		this.logDebug("getCPUInfo()");
 		
 		//* empty the raw results buffer
 		this.m_sTopResults = "";
 		
-		try 
-		{
-			//* execute the top command 
-			Process process = null;
-			process = Runtime.getRuntime().exec("top -n 1 -d 1");
-			//* we only want to retrieve the top few lines
-			
-			//* read the output from the command
-			String sLine = new String();
-			ifp = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-			//* Read all the available output and store it in the class member
-			while ( (sLine = ifp.readLine()) != null)
-			{
-            	this.m_sTopResults += sLine + "\n";
-			}
-		} catch (IOException exp) {
-			this.logError("There was an error while trying to execute the TOP command.");
-			this.logStackTrace(exp.getStackTrace());
+		//* execute the top command in the shared shell, so we don't fork from the VM every time
+		shellResult xResult = shellSession.getShared().run("top -n 1 -d 1", TOP_TIMEOUT);
 		
-		}
-		finally
+		//* A missing top (127) or one that failed completes too, only a 0 exit is output we can parse
+		if (!xResult.isSuccess())
 		{
-			//* we need to close the stream once everything is done.
-			try {
-				if (ifp != null)
-					ifp.close();
-			}
-			catch (IOException exp)
-			{
-				this.logError("There was an error while trying close out input stream.");
-				this.logStackTrace(exp.getStackTrace());
-			}
+			this.logError("There was an error while trying to execute the TOP command (status " + xResult.m_iStatus + ", exit code " + xResult.m_iExitCode + ").");
+			return;
 		}
+		
+		//* store the output in the class member
+		this.m_sTopResults = xResult.m_sOutput;
 	}
 	
 	/**
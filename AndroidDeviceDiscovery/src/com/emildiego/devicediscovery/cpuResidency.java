@@ -0,0 +1,175 @@
+/**
+ * cpuResidency
+ *
+ * Reads how long each core has spent at each frequency from
+ * /sys/devices/system/cpu/cpuN/cpufreq/stats/time_in_state and reports it to
+ * an energyAttribution.  The file has a "<kHz> <time>" line per frequency,
+ * the time is in USER_HZ ticks like the CPU times in /proc/[pid]/stat.
+ *
+ * A core that has no power model, and no ALL_CORES model to fall back on,
+ * gets a rough one the first time its frequencies are read: a busy core
+ * draws DEFAULT_MAX_POWER_MW at its top frequency and the power falls with
+ * the cube of the frequency (P ~ f V^2, the voltage roughly following the
+ * frequency).  When the battery measures less than that predicts the
+ * attribution is scaled down to match.  Set the device's power_profile
+ * values with energyAttribution.setPowerModel() for better estimates.
+ *
+ * Offline cores have no cpufreq directory and are skipped until they come
+ * back online.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.File;
+
+/**
+ * The time_in_state reader.
+ */
+class cpuResidency
+{
+	static final String			CPU_DIR					= "/sys/devices/system/cpu";
+	static final String			TIME_IN_STATE			= "/cpufreq/stats/time_in_state";
+
+	/**
+	 * The power of a busy core at its top frequency in the default model.
+	 */
+	static final double			DEFAULT_MAX_POWER_MW	= 1000;
+
+	/**
+	 * The most frequencies of a core that are used.
+	 */
+	static final int			MAX_FREQS				= 64;
+
+	private procfsReader		m_xReader;
+	private String[]			m_aPaths;
+
+	//* the frequencies and times of the core being read
+	private long[]				m_aFreqs;
+	private long[]				m_aTicks;
+
+	/**
+	 * Constructor, finds the cores.
+	 */
+	cpuResidency()
+	{
+		this.m_xReader	= new procfsReader(1024);
+		this.m_aFreqs	= new long[MAX_FREQS];
+		this.m_aTicks	= new long[MAX_FREQS];
+
+		int iCpus = 0;
+		File[] aCpus = new File(CPU_DIR).listFiles();
+		if (aCpus != null)
+		{
+			for (int i = 0; i < aCpus.length; i++)
+			{
+				String sName = aCpus[i].getName();
+				if (sName.length() > 3 && sName.startsWith("cpu") && Character.isDigit(sName.charAt(3)))
+				{
+					try
+					{
+						iCpus = Math.max(iCpus, Integer.parseInt(sName.substring(3)) + 1);
+					}
+					catch (NumberFormatException exp)
+					{
+						//* not a cpu directory
+					}
+				}
+			}
+		}
+
+		this.m_aPaths = new String[iCpus];
+		for (int i = 0; i < iCpus; i++)
+			this.m_aPaths[i] = CPU_DIR + "/cpu" + i + TIME_IN_STATE;
+	}
+
+	/**
+	 * Read the residency of every core and report it.  Call between
+	 * energyAttribution.beginWindow() and endWindow().
+	 *
+	 * @param xEngine The attribution engine.
+	 * @return The number of cores read.
+	 */
+	int feed(energyAttribution xEngine)
+	{
+		int iRead = 0;
+
+		for (int i = 0; i < this.m_aPaths.length; i++)
+		{
+			if (this.m_xReader.read(this.m_aPaths[i]) && this.feed(xEngine, i, this.m_xReader))
+				iRead++;
+		}
+
+		return iRead;
+	}
+
+	/**
+	 * Report the residency of one core from the contents of its time_in_state.
+	 *
+	 * @param xEngine The attribution engine.
+	 * @param iCore The core.
+	 * @param xReader The file contents.
+	 * @return False if the contents had no frequencies.
+	 */
+	boolean feed(energyAttribution xEngine, int iCore, procfsReader xReader)
+	{
+		int iCount = 0;
+
+		xReader.rewind();
+		while (!xReader.atEnd() && iCount < MAX_FREQS)
+		{
+			long lFreq	= xReader.nextLong();
+			long lTicks	= xReader.nextLong();
+
+			if (lFreq > 0 && lTicks >= 0)
+			{
+				this.m_aFreqs[iCount]	= lFreq;
+				this.m_aTicks[iCount]	= lTicks;
+				iCount++;
+			}
+
+			xReader.nextLine();
+		}
+
+		if (iCount == 0)
+			return false;
+
+		if (!xEngine.hasPowerModel(iCore))
+			xEngine.setPowerModel(iCore, cpuResidency.defaultFreqs(this.m_aFreqs, iCount), cpuResidency.defaultPower(this.m_aFreqs, iCount));
+
+		for (int i = 0; i < iCount; i++)
+			xEngine.addResidency(iCore, this.m_aFreqs[i], this.m_aTicks[i]);
+
+		return true;
+	}
+
+	/**
+	 * Copy the frequencies of a core for its default model.
+	 */
+	static long[] defaultFreqs(long[] aFreqs, int iCount)
+	{
+		long[] aCopy = new long[iCount];
+		System.arraycopy(aFreqs, 0, aCopy, 0, iCount);
+		return aCopy;
+	}
+
+	/**
+	 * The default power of a busy core at each frequency, DEFAULT_MAX_POWER_MW
+	 * at the top one and falling with the cube of the frequency.
+	 */
+	static double[] defaultPower(long[] aFreqs, int iCount)
+	{
+		long lMax = 0;
+		for (int i = 0; i < iCount; i++)
+			lMax = Math.max(lMax, aFreqs[i]);
+
+		double[] aPower = new double[iCount];
+		for (int i = 0; i < iCount; i++)
+		{
+			double dRatio = (double)aFreqs[i] / lMax;
+			aPower[i] = DEFAULT_MAX_POWER_MW * dRatio * dRatio * dRatio;
+		}
+
+		return aPower;
+	}
+}
@@ -0,0 +1,583 @@
+/**
+ * directoryUsage
+ *
+ * Works out what is filling up a filesystem.  The tree is walked in
+ * parallel on a small thread pool and the totals of every directory are
+ * cached along with the directory's modification time.  A directory's
+ * mtime changes whenever an entry is added, removed or renamed in it, so on
+ * the next scan an unchanged directory isn't listed again and its files
+ * aren't stat'ed again, we only check the mtime and move on to its sub
+ * directories.  A re-scan of a mostly unchanged tree only costs one stat
+ * per directory instead of one per file.
+ *
+ * Note: a file that grows in place doesn't change its directory's mtime,
+ * so its new size is picked up when the directory changes or after
+ * invalidate().
+ *
+ * The largest directories and files are kept in bounded heaps, so only the
+ * top N are ever held no matter how big the tree is.
+ *
+ * Each scan hands its executor and latch down the walk.  A scan that times
+ * out shuts its executor down and waits for the workers to finish the
+ * directory they are on, so an abandoned walk can't race the next scan over
+ * the cached nodes.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The cached information for one directory.
+ */
+class directoryNode
+{
+	String					m_sPath;
+	directoryNode			m_xParent;
+
+	//* what we found the last time the directory was listed
+	long					m_lModified;
+	long					m_lListedAt;
+	long					m_lOwnBytes;
+	int						m_iOwnFiles;
+	String[]				m_aChildren;
+	String[]				m_aTopFiles;		//* the directory's largest files, largest first
+	long[]					m_aTopFileSizes;
+
+	//* per scan state
+	int						m_iGeneration;
+	AtomicLong				m_xSubtreeBytes		= new AtomicLong();
+	AtomicLong				m_xSubtreeFiles		= new AtomicLong();
+	AtomicInteger			m_xPending			= new AtomicInteger();
+}
+
+/**
+ * The directory usage scanner.
+ */
+public class directoryUsage
+{
+	static final int								DEFAULT_TOP_COUNT = 20;
+	static final long								MTIME_GRANULARITY_MS = 2000;
+	static final long								DEFAULT_SCAN_TIMEOUT_MS = 600000;
+	static final long								CLOSE_WAIT_MS = 10000;
+
+	/**
+	 * Orders entries smallest first, so the head of the heap is the one to drop.
+	 */
+	static final Comparator<usageEntry>				SMALLEST_FIRST = new Comparator<usageEntry>() {
+		public int compare(usageEntry xLeft, usageEntry xRight)
+		{
+			return (xLeft.m_lBytes < xRight.m_lBytes) ? -1 : ((xLeft.m_lBytes == xRight.m_lBytes) ? 0 : 1);
+		}
+	};
+
+	/**
+	 * The cache of every directory we have seen, keyed by path.
+	 */
+	private ConcurrentHashMap<String, directoryNode>	m_xCache;
+
+	/**
+	 * Scan state.  The executor is only touched with the lock held.
+	 */
+	private ExecutorService							m_xExecutor;
+	private int										m_iThreadCount;
+	private int										m_iTopCount;
+	private int										m_iGeneration;
+	private long									m_lScanTimeoutMs;
+	private directoryNode							m_xRoot;
+
+	/**
+	 * Statistics of the last scan
+	 */
+	private AtomicInteger							m_xDirectoriesListed;
+	private AtomicInteger							m_xDirectoriesReused;
+	private long									m_lScanTimeMs;
+
+	/**
+	 * The results of the last scan
+	 */
+	private List<usageEntry>						m_listTopDirectories;
+	private List<usageEntry>						m_listTopFiles;
+
+	/**
+	 * Default constructor.  Uses one thread per CPU and keeps the top 20 directories and files.
+	 */
+	public directoryUsage()
+	{
+		this(Runtime.getRuntime().availableProcessors(), DEFAULT_TOP_COUNT);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param iThreadCount The number of threads used to walk the tree.
+	 * @param iTopCount The number of directories and files kept in the top lists.
+	 */
+	public directoryUsage(int iThreadCount, int iTopCount)
+	{
+		this.m_xCache				= new ConcurrentHashMap<String, directoryNode>();
+		this.m_iThreadCount			= Math.max(1, iThreadCount);
+		this.m_iTopCount			= Math.max(1, iTopCount);
+		this.m_iGeneration			= 0;
+		this.m_lScanTimeoutMs		= DEFAULT_SCAN_TIMEOUT_MS;
+
+		this.m_xDirectoriesListed	= new AtomicInteger();
+		this.m_xDirectoriesReused	= new AtomicInteger();
+
+		this.m_listTopDirectories	= new ArrayList<usageEntry>();
+		this.m_listTopFiles			= new ArrayList<usageEntry>();
+	}
+
+	/**
+	 * Scan the tree under the directory.  Blocks until the scan is complete,
+	 * don't call it from the UI thread.
+	 *
+	 * @param sRoot The directory we want to scan.
+	 * @return False if the root isn't a directory or the scan was interrupted or timed out.
+	 */
+	public synchronized boolean scan(String sRoot)
+	{
+		File			xRoot = new File(sRoot);
+		long			lStart = System.currentTimeMillis();
+		CountDownLatch	xDone = new CountDownLatch(1);
+
+		if (!xRoot.isDirectory())
+			return false;
+
+		this.m_iGeneration++;
+		this.m_xDirectoriesListed.set(0);
+		this.m_xDirectoriesReused.set(0);
+
+		ExecutorService xExecutor = this.getExecutor();
+
+		this.m_xRoot = this.getNode(xRoot.getAbsolutePath(), null);
+		this.submit(this.m_xRoot, xExecutor, xDone);
+
+		try
+		{
+			if (!xDone.await(this.m_lScanTimeoutMs, TimeUnit.MILLISECONDS))
+			{
+				//* drop the rest of the walk, the threads are created again by the next scan
+				this.close();
+				return false;
+			}
+		}
+		catch (InterruptedException exp)
+		{
+			this.close();
+			Thread.currentThread().interrupt();
+			return false;
+		}
+
+		this.collectResults();
+		this.m_lScanTimeMs = System.currentTimeMillis() - lStart;
+
+		return true;
+	}
+
+	/**
+	 * Set how long scan() waits for the walk to finish before giving up.
+	 *
+	 * @param lTimeoutMs The timeout in milliseconds.
+	 */
+	public synchronized void setScanTimeout(long lTimeoutMs)
+	{
+		this.m_lScanTimeoutMs = lTimeoutMs;
+	}
+
+	/**
+	 * Forget the cached directory listings so the next scan lists everything again.
+	 */
+	public synchronized void invalidate()
+	{
+		this.m_xCache.clear();
+	}
+
+	/**
+	 * Stop the scanner threads and wait for them to finish the directory 
+	 * they are on.  They are created again by the next scan.
+	 */
+	public synchronized void close()
+	{
+		if (this.m_xExecutor == null)
+			return;
+
+		ExecutorService xExecutor = this.m_xExecutor;
+		this.m_xExecutor = null;
+		xExecutor.shutdownNow();
+
+		try
+		{
+			xExecutor.awaitTermination(CLOSE_WAIT_MS, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException exp)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Get the cached node for a directory, creating it if we haven't seen it,
+	 * and reset its per scan state.
+	 */
+	private directoryNode getNode(String sPath, directoryNode xParent)
+	{
+		directoryNode xNode = this.m_xCache.get(sPath);
+		if (xNode == null)
+		{
+			xNode = new directoryNode();
+			xNode.m_sPath		= sPath;
+			xNode.m_lModified	= -1;
+			this.m_xCache.put(sPath, xNode);
+		}
+
+		xNode.m_xParent		= xParent;
+		xNode.m_iGeneration	= this.m_iGeneration;
+		xNode.m_xSubtreeBytes.set(0);
+		xNode.m_xSubtreeFiles.set(0);
+
+		return xNode;
+	}
+
+	/**
+	 * The executor and latch of the scan are passed along with the node, so a
+	 * walk abandoned by a timed out scan can't start new threads or release
+	 * the latch of the next one.  Throws RejectedExecutionException once the
+	 * scan's executor is shut down.
+	 */
+	private void submit(final directoryNode xNode, final ExecutorService xExecutor, final CountDownLatch xDone)
+	{
+		xExecutor.execute(new Runnable() {
+			public void run()
+			{
+				directoryUsage.this.visit(xNode, xExecutor, xDone);
+			}
+		});
+	}
+
+	/**
+	 * Process one directory: reuse or refresh its listing, then hand its sub
+	 * directories to the pool.  Never waits for the children, the totals are
+	 * pushed up by whichever thread finishes the last child.
+	 */
+	private void visit(directoryNode xNode, ExecutorService xExecutor, CountDownLatch xDone)
+	{
+		//* our own pending count, released in the finally so a failure can't stall the scan
+		xNode.m_xPending.set(1);
+
+		try
+		{
+			File xDirectory = new File(xNode.m_sPath);
+			long lModified = xDirectory.lastModified();
+
+			//* mtimes can have one second granularity, a listing taken in the same
+			//* second as the last change might have missed part of it, so don't trust it
+			if (lModified == 0 || lModified != xNode.m_lModified || xNode.m_lListedAt - lModified < MTIME_GRANULARITY_MS)
+			{
+				xNode.m_lListedAt = System.currentTimeMillis();
+				this.list(xNode, xDirectory);
+				xNode.m_lModified = lModified;
+				this.m_xDirectoriesListed.incrementAndGet();
+			}
+			else
+			{
+				this.m_xDirectoriesReused.incrementAndGet();
+			}
+
+			String[] aChildren = xNode.m_aChildren;
+
+			xNode.m_xSubtreeBytes.addAndGet(xNode.m_lOwnBytes);
+			xNode.m_xSubtreeFiles.addAndGet(xNode.m_iOwnFiles);
+
+			//* count each child before it is submitted, it could finish before we get to the next one
+			for (int i = 0; i < aChildren.length; i++)
+			{
+				//* the scan gave up on us, leave the nodes to the next one
+				if (xExecutor.isShutdown())
+					break;
+
+				directoryNode xChild = this.getNode(aChildren[i], xNode);
+				xNode.m_xPending.incrementAndGet();
+
+				try
+				{
+					this.submit(xChild, xExecutor, xDone);
+				}
+				catch (RejectedExecutionException exp)
+				{
+					//* the scanner was closed under us
+					xNode.m_xPending.decrementAndGet();
+				}
+			}
+		}
+		catch (RuntimeException exp)
+		{
+			//* a directory we can't read counts as empty, forget its listing so the next scan tries again
+			xNode.m_lModified = -1;
+			if (xNode.m_aChildren == null)
+			{
+				xNode.m_aChildren		= new String[0];
+				xNode.m_aTopFiles		= new String[0];
+				xNode.m_aTopFileSizes	= new long[0];
+			}
+		}
+		finally
+		{
+			this.complete(xNode, xDone);
+		}
+	}
+
+	/**
+	 * Release one pending count of the node.  When it reaches zero the
+	 * subtree is done and its totals are added to the parent.
+	 */
+	private void complete(directoryNode xNode, CountDownLatch xDone)
+	{
+		while (xNode != null && xNode.m_xPending.decrementAndGet() == 0)
+		{
+			directoryNode xParent = xNode.m_xParent;
+			if (xParent == null)
+			{
+				xDone.countDown();
+				return;
+			}
+
+			xParent.m_xSubtreeBytes.addAndGet(xNode.m_xSubtreeBytes.get());
+			xParent.m_xSubtreeFiles.addAndGet(xNode.m_xSubtreeFiles.get());
+			xNode = xParent;
+		}
+	}
+
+	/**
+	 * List a directory, stat its files and remember its sub directories and largest files.
+	 */
+	private void list(directoryNode xNode, File xDirectory)
+	{
+		File[]				aEntries = xDirectory.listFiles();
+		List<String>		listChildren = new ArrayList<String>();
+		PriorityQueue<usageEntry>	xTopFiles = new PriorityQueue<usageEntry>(this.m_iTopCount + 1, SMALLEST_FIRST);
+		long				lBytes = 0;
+		int					iFiles = 0;
+
+		//* null means we aren't allowed to read it
+		if (aEntries != null)
+		{
+			for (int i = 0; i < aEntries.length; i++)
+			{
+				File xEntry = aEntries[i];
+
+				if (xEntry.isDirectory())
+				{
+					if (!directoryUsage.isSymbolicLink(xDirectory, xEntry))
+						listChildren.add(xEntry.getPath());
+					continue;
+				}
+
+				long lLength = xEntry.length();
+				lBytes += lLength;
+				iFiles++;
+
+				directoryUsage.offer(xTopFiles, this.m_iTopCount, xEntry.getPath(), lLength);
+			}
+		}
+
+		//* keep the largest files, largest first
+		String[] aTopFiles = new String[xTopFiles.size()];
+		long[] aTopSizes = new long[xTopFiles.size()];
+		for (int i = aTopFiles.length - 1; i >= 0; i--)
+		{
+			usageEntry xEntry = xTopFiles.poll();
+			aTopFiles[i] = xEntry.m_sPath;
+			aTopSizes[i] = xEntry.m_lBytes;
+		}
+
+		xNode.m_aChildren		= listChildren.toArray(new String[listChildren.size()]);
+		xNode.m_lOwnBytes		= lBytes;
+		xNode.m_iOwnFiles		= iFiles;
+		xNode.m_aTopFiles		= aTopFiles;
+		xNode.m_aTopFileSizes	= aTopSizes;
+	}
+
+	/**
+	 * Build the top N lists from the nodes visited in this scan and drop the
+	 * nodes of directories that no longer exist.
+	 */
+	private void collectResults()
+	{
+		PriorityQueue<usageEntry>	xTopDirectories = new PriorityQueue<usageEntry>(this.m_iTopCount + 1, SMALLEST_FIRST);
+		PriorityQueue<usageEntry>	xTopFiles = new PriorityQueue<usageEntry>(this.m_iTopCount + 1, SMALLEST_FIRST);
+
+		for (directoryNode xNode : this.m_xCache.values())
+		{
+			if (xNode.m_iGeneration != this.m_iGeneration)
+			{
+				this.m_xCache.remove(xNode.m_sPath);
+				continue;
+			}
+
+			directoryUsage.offer(xTopDirectories, this.m_iTopCount, xNode.m_sPath, xNode.m_xSubtreeBytes.get());
+
+			for (int i = 0; i < xNode.m_aTopFiles.length; i++)
+			{
+				//* the node's files are largest first, once one doesn't make the cut the rest won't either
+				if (!directoryUsage.offer(xTopFiles, this.m_iTopCount, xNode.m_aTopFiles[i], xNode.m_aTopFileSizes[i]))
+					break;
+			}
+		}
+
+		this.m_listTopDirectories	= directoryUsage.drainLargestFirst(xTopDirectories);
+		this.m_listTopFiles			= directoryUsage.drainLargestFirst(xTopFiles);
+	}
+
+	/**
+	 * Offer an entry to a bounded min heap.
+	 *
+	 * @return False if the entry was too small to be kept.
+	 */
+	static boolean offer(PriorityQueue<usageEntry> xHeap, int iLimit, String sPath, long lBytes)
+	{
+		if (xHeap.size() >= iLimit)
+		{
+			if (lBytes <= xHeap.peek().m_lBytes)
+				return false;
+			xHeap.poll();
+		}
+
+		xHeap.add(new usageEntry(sPath, lBytes));
+		return true;
+	}
+
+	static List<usageEntry> drainLargestFirst(PriorityQueue<usageEntry> xHeap)
+	{
+		List<usageEntry> listEntries = new ArrayList<usageEntry>(xHeap.size());
+		while (!xHeap.isEmpty())
+			listEntries.add(xHeap.poll());
+
+		Collections.reverse(listEntries);
+		return listEntries;
+	}
+
+	/**
+	 * java.io.File can't tell us if a directory is a symbolic link, but a
+	 * link's canonical path doesn't end up inside its parent.  We don't want to
+	 * follow links, they can loop and they count another filesystem's space.
+	 */
+	static boolean isSymbolicLink(File xParent, File xEntry)
+	{
+		try
+		{
+			File xCanonical = new File(xParent.getCanonicalFile(), xEntry.getName());
+			return !xCanonical.getCanonicalFile().equals(xCanonical.getAbsoluteFile());
+		}
+		catch (IOException exp)
+		{
+			return true;
+		}
+	}
+
+	/**
+	 * Return the executor, creating it after a close().  Called by scan() with 
+	 * the lock held, the workers get theirs passed down.
+	 */
+	private ExecutorService getExecutor()
+	{
+		if (this.m_xExecutor == null)
+		{
+			this.m_xExecutor = Executors.newFixedThreadPool(this.m_iThreadCount, new ThreadFactory() {
+				public Thread newThread(Runnable xRunnable)
+				{
+					Thread xThread = new Thread(xRunnable, "directoryUsage");
+					xThread.setDaemon(true);
+					return xThread;
+				}
+			});
+		}
+
+		return this.m_xExecutor;
+	}
+
+	/**
+	 * Get the total size of the files under the root of the last scan.
+	 */
+	public synchronized long getTotalBytes()
+	{
+		return (this.m_xRoot == null) ? 0 : this.m_xRoot.m_xSubtreeBytes.get();
+	}
+
+	/**
+	 * Get the number of files under the root of the last scan.
+	 */
+	public synchronized long getFileCount()
+	{
+		return (this.m_xRoot == null) ? 0 : this.m_xRoot.m_xSubtreeFiles.get();
+	}
+
+	/**
+	 * Get the total size of the files under a directory from the last scan.
+	 *
+	 * @param sPath A directory under the scanned root.
+	 * @return The size in bytes, 0 if the directory wasn't part of the last scan.
+	 */
+	public synchronized long getDirectorySize(String sPath)
+	{
+		directoryNode xNode = this.m_xCache.get(sPath);
+		return (xNode == null || xNode.m_iGeneration != this.m_iGeneration) ? 0 : xNode.m_xSubtreeBytes.get();
+	}
+
+	/**
+	 * Get the largest directories of the last scan, largest first.  Parents
+	 * include their children, so the root is always the first entry.
+	 */
+	public synchronized List<usageEntry> getLargestDirectories()
+	{
+		return this.m_listTopDirectories;
+	}
+
+	/**
+	 * Get the largest files of the last scan, largest first.
+	 */
+	public synchronized List<usageEntry> getLargestFiles()
+	{
+		return this.m_listTopFiles;
+	}
+
+	/**
+	 * Get the number of directories that had to be listed in the last scan.
+	 */
+	public int getDirectoriesListed()
+	{
+		return this.m_xDirectoriesListed.get();
+	}
+
+	/**
+	 * Get the number of directories whose cached listing was reused in the last scan.
+	 */
+	public int getDirectoriesReused()
+	{
+		return this.m_xDirectoriesReused.get();
+	}
+
+	/**
+	 * Get how long the last scan took.
+	 */
+	public synchronized long getScanTime()
+	{
+		return this.m_lScanTimeMs;
+	}
+}
@@ -43,6 +43,11 @@ public abstract class discoveryBase {
 	protected long					m_lUpdateInterval;
 	protected Thread				m_xUpdateThread;
 	
+	/**
+	 * The queryFields query() fetches, everything unless set.
+	 */
+	protected volatile int			m_iFields;
+	
 	/**
 	 * Size Formats
 	 */
@@ -72,6 +77,7 @@ public abstract class discoveryBase {
 		
 		this.m_bRun 			= false;
 		this.m_lUpdateInterval	= 0;
+		this.m_iFields			= queryFields.ALL;
 		
 	}
 	
@@ -136,6 +142,40 @@ public abstract class discoveryBase {
 		this.m_lUpdateInterval = lDelay;
 	}
 	
+	/**
+	 * Set the fields every query fetches.  The parts of the query nobody 
+	 * asked for are skipped.
+	 * 
+	 * @param iFields A mask of queryFields constants, queryFields.ALL for everything.
+	 */
+	public void setFields(int iFields)
+	{
+		this.m_iFields = iFields;
+	}
+	
+	/**
+	 * Return the fields every query fetches.
+	 */
+	public int getFields()
+	{
+		return this.m_iFields;
+	}
+	
+	/**
+	 * Query the device for some of the fields only.  The mask only applies 
+	 * to this query, the fields set with setFields() aren't touched, so 
+	 * queries from other threads keep theirs.  The collectors that can skip 
+	 * parts of a query override this and have query() pass m_iFields, the 
+	 * others fetch everything.
+	 * 
+	 * @param iFields A mask of queryFields constants.
+	 * @return Returns true if the device was queried successfully.
+	 */
+	public boolean query(int iFields)
+	{
+		return this.query();
+	}
+	
 	/**
 	 * Convert the storage into a more human friendly format
 	 * 
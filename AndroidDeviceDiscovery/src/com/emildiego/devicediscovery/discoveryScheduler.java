@@ -0,0 +1,378 @@
+/**
+ * discoveryScheduler
+ *
+ * Queries collectors on a schedule for any number of subscribers.  Each
+ * subscriber declares the queryFields it needs from a collector, and the
+ * collector is queried once per pass with the union of its subscribers'
+ * masks, so a field is fetched if anybody wants it and skipped if nobody
+ * does.  A collector without subscribers isn't queried at all.
+ *
+ * The collectors are queried one after the other on the scheduler thread,
+ * in the order they were first subscribed to, and the subscribers are
+ * called after each query outside the scheduler's lock.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * A subscriber's interest in a collector.
+ */
+class scheduledSubscription
+{
+	discoveryBase			m_xCollector;
+	discoverySubscriber		m_xSubscriber;
+	int						m_iFields;
+}
+
+/**
+ * The scheduler class.
+ */
+public class discoveryScheduler extends discoveryBase
+{
+	static final long					MIN_INTERVAL		= 100;
+	static final long					DEFAULT_INTERVAL	= 5000;
+
+	private List<scheduledSubscription>	m_listSubscriptions;
+	private long						m_lInterval;
+
+	//* serializes the passes, a pass queries the collectors outside the main lock
+	private final Object				m_xPassLock;
+
+	//* the collectors and masks of the pass in progress, reused between passes
+	private List<discoveryBase>			m_listCollectors;
+	private List<Integer>				m_listMasks;
+
+	private long						m_lPasses;
+	private long						m_lFailures;
+	private long						m_lLastPassMs;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param xContext The application context
+	 * @param sLogTag The Tag to be used by the Android message logger
+	 */
+	public discoveryScheduler(Context xContext, String sLogTag)
+	{
+		super(xContext, sLogTag);
+
+		this.m_listSubscriptions	= new ArrayList<scheduledSubscription>();
+		this.m_lInterval			= DEFAULT_INTERVAL;
+		this.m_xPassLock			= new Object();
+		this.m_listCollectors		= new ArrayList<discoveryBase>();
+		this.m_listMasks			= new ArrayList<Integer>();
+	}
+
+	/**
+	 * Subscribe to a collector, or change the fields of an existing subscription.
+	 *
+	 * @param xSubscriber Called after every query of the collector.
+	 * @param xCollector The collector to query.
+	 * @param iFields A mask of the queryFields the subscriber needs.
+	 */
+	public synchronized void subscribe(discoverySubscriber xSubscriber, discoveryBase xCollector, int iFields)
+	{
+		scheduledSubscription xSubscription = this.find(xSubscriber, xCollector);
+
+		if (xSubscription == null)
+		{
+			xSubscription				= new scheduledSubscription();
+			xSubscription.m_xSubscriber	= xSubscriber;
+			xSubscription.m_xCollector	= xCollector;
+			this.m_listSubscriptions.add(xSubscription);
+		}
+
+		xSubscription.m_iFields = iFields;
+	}
+
+	/**
+	 * Remove a subscriber's interest in a collector.  The fields only it 
+	 * wanted stop being fetched from the next pass.
+	 */
+	public synchronized void unsubscribe(discoverySubscriber xSubscriber, discoveryBase xCollector)
+	{
+		scheduledSubscription xSubscription = this.find(xSubscriber, xCollector);
+
+		if (xSubscription != null)
+			this.m_listSubscriptions.remove(xSubscription);
+	}
+
+	/**
+	 * Remove all the subscriptions of a subscriber.
+	 */
+	public synchronized void unsubscribe(discoverySubscriber xSubscriber)
+	{
+		for (int i = this.m_listSubscriptions.size() - 1; i >= 0; i--)
+		{
+			if (this.m_listSubscriptions.get(i).m_xSubscriber == xSubscriber)
+				this.m_listSubscriptions.remove(i);
+		}
+	}
+
+	/**
+	 * Return the fields a collector is queried with, the union of its subscribers' masks.
+	 *
+	 * @param xCollector The collector.
+	 * @return The mask, queryFields.NONE if it has no subscribers.
+	 */
+	public synchronized int getUnion(discoveryBase xCollector)
+	{
+		int iFields = queryFields.NONE;
+
+		for (int i = 0; i < this.m_listSubscriptions.size(); i++)
+		{
+			scheduledSubscription xSubscription = this.m_listSubscriptions.get(i);
+			if (xSubscription.m_xCollector == xCollector)
+				iFields |= xSubscription.m_iFields;
+		}
+
+		return iFields;
+	}
+
+	/**
+	 * Run one pass: query every subscribed collector with the union of its
+	 * subscribers' fields and call the subscribers.  Called by the scheduler
+	 * thread, can be called directly to run a pass now.
+	 *
+	 * @return True if every collector was queried successfully.
+	 */
+	@Override
+	public boolean query()
+	{
+		synchronized (this.m_xPassLock)
+		{
+			long	lStart = System.currentTimeMillis();
+			boolean	bAll = true;
+			
+			//* The collectors of this pass share one read of each cached file
+			procfsCache.getShared().nextTick();
+
+			//* work out the pass under the lock, the subscriptions can change while we query
+			synchronized (this)
+			{
+				this.m_listCollectors.clear();
+				this.m_listMasks.clear();
+
+				for (int i = 0; i < this.m_listSubscriptions.size(); i++)
+				{
+					scheduledSubscription	xSubscription = this.m_listSubscriptions.get(i);
+					int						iIndex = this.m_listCollectors.indexOf(xSubscription.m_xCollector);
+
+					if (iIndex < 0)
+					{
+						this.m_listCollectors.add(xSubscription.m_xCollector);
+						this.m_listMasks.add(xSubscription.m_iFields);
+					}
+					else
+						this.m_listMasks.set(iIndex, this.m_listMasks.get(iIndex) | xSubscription.m_iFields);
+				}
+			}
+
+			for (int i = 0; i < this.m_listCollectors.size(); i++)
+			{
+				discoveryBase	xCollector = this.m_listCollectors.get(i);
+				boolean			bSuccess;
+
+				try
+				{
+					bSuccess = xCollector.query(this.m_listMasks.get(i));
+				}
+				catch (RuntimeException exp)
+				{
+					this.logError("Query of " + xCollector.getClass().getSimpleName() + " failed: " + exp.getMessage());
+					bSuccess = false;
+				}
+
+				if (!bSuccess)
+					bAll = false;
+
+				this.notifySubscribers(xCollector, bSuccess);
+			}
+
+			synchronized (this)
+			{
+				this.m_lPasses++;
+				if (!bAll)
+					this.m_lFailures++;
+				this.m_lLastPassMs = System.currentTimeMillis() - lStart;
+			}
+
+			return bAll;
+		}
+	}
+
+	/**
+	 * Start running passes on the update thread.
+	 *
+	 * @param lInterval The time between passes in ms, at least 100.
+	 * @return True if the scheduler is running.
+	 */
+	public synchronized boolean start(long lInterval)
+	{
+		this.m_lInterval = Math.max(MIN_INTERVAL, lInterval);
+
+		if (this.m_xUpdateThread != null)
+			return true;
+
+		this.m_bRun = true;
+		this.m_xUpdateThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				discoveryScheduler.this.scheduleLoop();
+			}
+		}, "discoveryScheduler");
+		this.m_xUpdateThread.setDaemon(true);
+		this.m_xUpdateThread.start();
+
+		return true;
+	}
+	public boolean start()
+	{
+		return this.start(DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Stop the scheduler thread.  The subscriptions are kept.
+	 */
+	public void stop()
+	{
+		Thread xThread;
+
+		synchronized (this)
+		{
+			xThread = this.m_xUpdateThread;
+			this.m_xUpdateThread = null;
+			this.m_bRun = false;
+		}
+
+		if (xThread == null)
+			return;
+
+		xThread.interrupt();
+		try
+		{
+			xThread.join(1000);
+		}
+		catch (InterruptedException exp)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Return the number of passes run.
+	 */
+	public synchronized long getPasses()
+	{
+		return this.m_lPasses;
+	}
+
+	/**
+	 * Return the number of passes where a collector failed.
+	 */
+	public synchronized long getFailures()
+	{
+		return this.m_lFailures;
+	}
+
+	/**
+	 * Return how long the last pass took in ms, subscribers included.
+	 */
+	public synchronized long getLastPassTime()
+	{
+		return this.m_lLastPassMs;
+	}
+
+	/**
+	 * Summarize the subscriptions and the passes.
+	 *
+	 * @return A string with the summary information.
+	 */
+	@Override
+	public synchronized String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Scheduled Collectors: \n";
+
+		for (int i = 0; i < this.m_listSubscriptions.size(); i++)
+		{
+			scheduledSubscription xSubscription = this.m_listSubscriptions.get(i);
+			sSummary += xSubscription.m_xCollector.getClass().getSimpleName() + " fields 0x" + Integer.toHexString(xSubscription.m_iFields) + "\n";
+		}
+
+		sSummary += procfsCache.getShared().summaryString();
+		sSummary += "Passes: " + this.m_lPasses + " (" + this.m_lFailures + " failed), last " + this.m_lLastPassMs + " ms\n";
+
+		return sSummary;
+	}
+
+	private void scheduleLoop()
+	{
+		Thread xSelf = Thread.currentThread();
+		long lInterval;
+
+		while (!xSelf.isInterrupted())
+		{
+			synchronized (this)
+			{
+				if (!this.m_bRun || this.m_xUpdateThread != xSelf)
+					return;
+
+				lInterval = this.m_lInterval;
+			}
+
+			//* the pass takes its own locks, the subscribers are called outside ours
+			this.query();
+
+			try
+			{
+				Thread.sleep(lInterval);
+			}
+			catch (InterruptedException exp)
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Call the subscribers of a collector outside the lock.
+	 */
+	private void notifySubscribers(discoveryBase xCollector, boolean bSuccess)
+	{
+		List<discoverySubscriber> listSubscribers = new ArrayList<discoverySubscriber>();
+
+		synchronized (this)
+		{
+			for (int i = 0; i < this.m_listSubscriptions.size(); i++)
+			{
+				scheduledSubscription xSubscription = this.m_listSubscriptions.get(i);
+				if (xSubscription.m_xCollector == xCollector)
+					listSubscribers.add(xSubscription.m_xSubscriber);
+			}
+		}
+
+		for (int i = 0; i < listSubscribers.size(); i++)
+			listSubscribers.get(i).onDiscovery(xCollector, bSuccess);
+	}
+
+	private scheduledSubscription find(discoverySubscriber xSubscriber, discoveryBase xCollector)
+	{
+		for (int i = 0; i < this.m_listSubscriptions.size(); i++)
+		{
+			scheduledSubscription xSubscription = this.m_listSubscriptions.get(i);
+			if (xSubscription.m_xSubscriber == xSubscriber && xSubscription.m_xCollector == xCollector)
+				return xSubscription;
+		}
+
+		return null;
+	}
+}
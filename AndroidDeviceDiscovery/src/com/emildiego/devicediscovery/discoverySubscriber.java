@@ -0,0 +1,22 @@
+/**
+ * This interface is implemented by anyone who wants a collector queried
+ * on a schedule by the discoveryScheduler.
+ *
+ * @author Emil Diego
+ *
+ */
+
+package com.emildiego.devicediscovery;
+
+public interface discoverySubscriber
+{
+	/**
+	 * Called from the scheduler thread after the collector was queried.  The
+	 * collector was queried with the union of all its subscribers' fields, 
+	 * so it can have more than this subscriber asked for.
+	 *
+	 * @param xCollector The collector that was queried.
+	 * @param bSuccess What its query() returned.
+	 */
+	public void onDiscovery(discoveryBase xCollector, boolean bSuccess);
+}
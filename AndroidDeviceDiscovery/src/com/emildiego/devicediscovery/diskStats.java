@@ -0,0 +1,543 @@
+/**
+ * diskStats
+ *
+ * This class reads /proc/diskstats to find out how busy the block devices
+ * are.  The file has one line per device and partition with counters that
+ * only go up, so every query computes the rates from the difference with
+ * the previous query:
+ *
+ *  - read/write bytes per second and IOPS
+ *  - the average wait per IO and the average service time
+ *  - the average queue depth
+ *  - utilization, the percentage of time the device had IO in flight
+ *
+ * Partitions are linked to their parent device (mmcblk0p12 -> mmcblk0).  The
+ * kernel already counts partition IO in the parent, so the parent is what we
+ * report and the partitions can be looked at through it.
+ *
+ * The IO pressure stall information (/proc/pressure/io) is read along with
+ * the disk stats when the kernel has it.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+
+/**
+ * The main class used to collect the block device IO statistics.
+ */
+public class diskStats extends discoveryBase
+{
+	static final String					DISKSTATS_PATH		= "/proc/diskstats";
+	static final String					IO_PRESSURE_PATH	= "/proc/pressure/io";
+	static final String					SYS_BLOCK_PATH		= "/sys/class/block/";
+
+	/**
+	 * The /proc/diskstats counters we use, in the order they appear after the device name.
+	 */
+	static final int					READS				= 0;
+	static final int					READS_MERGED		= 1;
+	static final int					SECTORS_READ		= 2;
+	static final int					MS_READING			= 3;
+	static final int					WRITES				= 4;
+	static final int					WRITES_MERGED		= 5;
+	static final int					SECTORS_WRITTEN		= 6;
+	static final int					MS_WRITING			= 7;
+	static final int					IOS_IN_PROGRESS		= 8;
+	static final int					MS_DOING_IO			= 9;
+	static final int					WEIGHTED_MS			= 10;
+	static final int					FIELD_COUNT			= 11;
+
+	/**
+	 * diskstats always counts in 512 byte sectors, whatever the device uses.
+	 */
+	static final int					SECTOR_SIZE			= 512;
+
+	/**
+	 * The devices in the order they appear in /proc/diskstats.
+	 */
+	private List<String>				m_listNames;
+	private Map<String, Integer>		m_xIndex;
+	private int[]						m_aParent;				//* index of the parent device, -1 for a whole device
+
+	/**
+	 * The raw counters of the current and previous query, FIELD_COUNT per device.
+	 */
+	private long[]						m_aCounters;
+	private long[]						m_aPrevCounters;
+	private long						m_lLastSampleNs;
+	private long						m_lIntervalNs;
+	private boolean						m_bHavePrevious;
+
+	/**
+	 * The computed rates, one entry per device.
+	 */
+	private double[]					m_aReadBytesPerSec;
+	private double[]					m_aWriteBytesPerSec;
+	private double[]					m_aReadIops;
+	private double[]					m_aWriteIops;
+	private double[]					m_aAverageWaitMs;
+	private double[]					m_aServiceTimeMs;
+	private double[]					m_aQueueDepth;
+	private double[]					m_aUtilization;
+
+	/**
+	 * IO pressure, when the kernel supports it.
+	 */
+	private pressureInfo				m_xIoPressure;
+	private boolean						m_bHasIoPressure;
+
+	private procfsReader				m_xReader;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param xContext The application context
+	 * @param sLogTag The Tag to be used by the Android message logger
+	 */
+	public diskStats(Context xContext, String sLogTag)
+	{
+		super(xContext, sLogTag);
+
+		this.m_listNames		= new ArrayList<String>();
+		this.m_xIndex			= new HashMap<String, Integer>();
+		this.m_aParent			= new int[0];
+		this.m_aCounters		= new long[0];
+		this.m_aPrevCounters	= new long[0];
+		this.allocateRates(0);
+
+		this.m_xIoPressure		= new pressureInfo();
+		this.m_bHasIoPressure	= false;
+
+		this.m_xReader			= new procfsReader(8192);
+	}
+
+	/**
+	 * Read /proc/diskstats (and /proc/pressure/io) and update the rates.
+	 *
+	 * @return True if the query was successfull, false if it wasn't.
+	 */
+	@Override
+	public boolean query()
+	{
+		long lNow = System.nanoTime();
+
+		if (!this.m_xReader.read(DISKSTATS_PATH))
+		{
+			this.logError("Unable to read " + DISKSTATS_PATH);
+			return false;
+		}
+
+		//* swap the counter arrays so the current values become the previous ones
+		long[] aTmp = this.m_aPrevCounters;
+		this.m_aPrevCounters = this.m_aCounters;
+		this.m_aCounters = aTmp;
+
+		if (!this.readCounters())
+		{
+			//* a device was added or removed (USB OTG, dm devices), rebuild the device table
+			this.buildDeviceTable();
+			this.m_bHavePrevious = false;
+			this.readCounters();
+		}
+
+		if (this.m_bHavePrevious && lNow > this.m_lLastSampleNs)
+		{
+			this.m_lIntervalNs = lNow - this.m_lLastSampleNs;
+			this.computeRates();
+		}
+
+		this.m_lLastSampleNs = lNow;
+		this.m_bHavePrevious = true;
+
+		//* the IO pressure is optional, only kernels 4.20+ have it
+		if (this.m_xReader.readCached(IO_PRESSURE_PATH))
+			this.m_bHasIoPressure = this.m_xIoPressure.parse(this.m_xReader);
+		else
+			this.m_bHasIoPressure = false;
+
+		return true;
+	}
+
+	/**
+	 * Fill the counters from the file in the reader.
+	 *
+	 * @return False if the devices in the file don't match the device table.
+	 */
+	private boolean readCounters()
+	{
+		procfsReader	xReader = this.m_xReader;
+		int				iDevice = 0;
+		int				iCount = this.m_listNames.size();
+
+		xReader.rewind();
+		while (!xReader.atEnd())
+		{
+			//* major minor name
+			xReader.skipToken();
+			if (!xReader.skipToken())
+				break;
+
+			if (iDevice >= iCount || !xReader.matchToken(this.m_listNames.get(iDevice)))
+				return false;
+
+			int iBase = iDevice * FIELD_COUNT;
+			for (int i = 0; i < FIELD_COUNT; i++)
+				this.m_aCounters[iBase + i] = xReader.nextLong();
+
+			iDevice++;
+			if (!xReader.nextLine())
+				break;
+		}
+
+		return iDevice == iCount;
+	}
+
+	/**
+	 * Build the device table from the file in the reader and work out which device each partition belongs to.
+	 */
+	private void buildDeviceTable()
+	{
+		procfsReader	xReader = this.m_xReader;
+
+		this.m_listNames.clear();
+		this.m_xIndex.clear();
+
+		xReader.rewind();
+		while (!xReader.atEnd())
+		{
+			xReader.skipToken();
+			xReader.skipToken();
+
+			String sName = xReader.nextToken();
+			if (sName != null)
+			{
+				this.m_xIndex.put(sName, this.m_listNames.size());
+				this.m_listNames.add(sName);
+			}
+
+			if (!xReader.nextLine())
+				break;
+		}
+
+		int iCount = this.m_listNames.size();
+		this.m_aParent			= new int[iCount];
+		this.m_aCounters		= new long[iCount * FIELD_COUNT];
+		this.m_aPrevCounters	= new long[iCount * FIELD_COUNT];
+		this.allocateRates(iCount);
+
+		for (int i = 0; i < iCount; i++)
+		{
+			String sParent = this.findParent(this.m_listNames.get(i));
+			Integer xParent = (sParent == null) ? null : this.m_xIndex.get(sParent);
+
+			this.m_aParent[i] = (xParent == null) ? -1 : xParent.intValue();
+		}
+
+		this.logDebug("Found " + iCount + " block devices.");
+	}
+
+	/**
+	 * Work out the parent device of a partition.
+	 *
+	 * @param sName The device name from /proc/diskstats.
+	 * @return The parent device name or null if this is a whole device.
+	 */
+	private String findParent(String sName)
+	{
+		File xDevice = new File(SYS_BLOCK_PATH + sName);
+
+		//* sysfs marks partitions with a "partition" file and nests them under their parent
+		if (xDevice.exists())
+		{
+			if (!new File(xDevice, "partition").exists())
+				return null;
+
+			try {
+				return xDevice.getCanonicalFile().getParentFile().getName();
+			}
+			catch (IOException exp)
+			{
+				//* fall through to the name based guess
+			}
+		}
+
+		return diskStats.guessParent(sName);
+	}
+
+	/**
+	 * Guess the parent of a partition from its name when sysfs can't tell us.
+	 * mmcblk0p12 -> mmcblk0, sda3 -> sda.  Other names are treated as whole devices.
+	 */
+	static String guessParent(String sName)
+	{
+		int iEnd = sName.length();
+		while (iEnd > 0 && Character.isDigit(sName.charAt(iEnd - 1)))
+			iEnd--;
+
+		if (iEnd == sName.length() || iEnd == 0)
+			return null;
+
+		if ((sName.startsWith("mmcblk") || sName.startsWith("nvme")) && sName.charAt(iEnd - 1) == 'p')
+			return sName.substring(0, iEnd - 1);
+
+		if (sName.startsWith("sd") || sName.startsWith("hd") || sName.startsWith("vd"))
+			return sName.substring(0, iEnd);
+
+		return null;
+	}
+
+	private void allocateRates(int iCount)
+	{
+		this.m_aReadBytesPerSec		= new double[iCount];
+		this.m_aWriteBytesPerSec	= new double[iCount];
+		this.m_aReadIops			= new double[iCount];
+		this.m_aWriteIops			= new double[iCount];
+		this.m_aAverageWaitMs		= new double[iCount];
+		this.m_aServiceTimeMs		= new double[iCount];
+		this.m_aQueueDepth			= new double[iCount];
+		this.m_aUtilization			= new double[iCount];
+	}
+
+	/**
+	 * Compute the rates of every device from the counter deltas.
+	 */
+	private void computeRates()
+	{
+		double dSeconds = this.m_lIntervalNs / 1e9;
+		double dIntervalMs = this.m_lIntervalNs / 1e6;
+
+		for (int i = 0; i < this.m_listNames.size(); i++)
+		{
+			int iBase = i * FIELD_COUNT;
+
+			long lReads			= this.delta(iBase + READS);
+			long lWrites		= this.delta(iBase + WRITES);
+			long lIos			= lReads + lWrites;
+			long lBusyMs		= this.delta(iBase + MS_DOING_IO);
+
+			this.m_aReadBytesPerSec[i]	= this.delta(iBase + SECTORS_READ) * SECTOR_SIZE / dSeconds;
+			this.m_aWriteBytesPerSec[i]	= this.delta(iBase + SECTORS_WRITTEN) * SECTOR_SIZE / dSeconds;
+			this.m_aReadIops[i]			= lReads / dSeconds;
+			this.m_aWriteIops[i]		= lWrites / dSeconds;
+
+			//* time per IO, including the time spent queued (await) and just being serviced (svctm)
+			this.m_aAverageWaitMs[i]	= (lIos > 0) ? (this.delta(iBase + MS_READING) + this.delta(iBase + MS_WRITING)) / (double)lIos : 0;
+			this.m_aServiceTimeMs[i]	= (lIos > 0) ? lBusyMs / (double)lIos : 0;
+
+			this.m_aQueueDepth[i]		= this.delta(iBase + WEIGHTED_MS) / dIntervalMs;
+			this.m_aUtilization[i]		= Math.min(100.0, lBusyMs * 100.0 / dIntervalMs);
+		}
+	}
+
+	/**
+	 * The difference of a counter since the last query.  The counters are
+	 * 32 bit on some kernels and wrap, a negative delta is treated as 0.
+	 */
+	private long delta(int iSlot)
+	{
+		long lDelta = this.m_aCounters[iSlot] - this.m_aPrevCounters[iSlot];
+		return (lDelta > 0) ? lDelta : 0;
+	}
+
+	/**
+	 * Get the index of a device or -1 if we don't know it.
+	 */
+	private int indexOf(String sDevice)
+	{
+		Integer xIndex = this.m_xIndex.get(sDevice);
+		return (xIndex == null) ? -1 : xIndex.intValue();
+	}
+
+	/**
+	 * Get the names of the whole devices (not partitions).
+	 *
+	 * @param bIncludeIdle Include devices that have never done any IO (unused loop and ram devices).
+	 * @return The device names.
+	 */
+	public List<String> getDeviceNames(boolean bIncludeIdle)
+	{
+		List<String> listDevices = new ArrayList<String>();
+
+		for (int i = 0; i < this.m_listNames.size(); i++)
+		{
+			if (this.m_aParent[i] != -1)
+				continue;
+
+			int iBase = i * FIELD_COUNT;
+			if (!bIncludeIdle && this.m_aCounters[iBase + READS] == 0 && this.m_aCounters[iBase + WRITES] == 0)
+				continue;
+
+			listDevices.add(this.m_listNames.get(i));
+		}
+
+		return listDevices;
+	}
+
+	/**
+	 * Get the partitions of a device.
+	 *
+	 * @param sDevice The device name (ie. mmcblk0).
+	 * @return The names of its partitions, empty if it has none.
+	 */
+	public List<String> getPartitionNames(String sDevice)
+	{
+		List<String> listPartitions = new ArrayList<String>();
+		int iParent = this.indexOf(sDevice);
+
+		if (iParent < 0)
+			return listPartitions;
+
+		for (int i = 0; i < this.m_listNames.size(); i++)
+		{
+			if (this.m_aParent[i] == iParent)
+				listPartitions.add(this.m_listNames.get(i));
+		}
+
+		return listPartitions;
+	}
+
+	/**
+	 * Get the device a partition belongs to.
+	 *
+	 * @param sPartition The partition name.
+	 * @return The parent device name, or null if it isn't a partition.
+	 */
+	public String getParentDevice(String sPartition)
+	{
+		int iIndex = this.indexOf(sPartition);
+		if (iIndex < 0 || this.m_aParent[iIndex] < 0)
+			return null;
+
+		return this.m_listNames.get(this.m_aParent[iIndex]);
+	}
+
+	/**
+	 * Bytes read per second from the device or partition.
+	 */
+	public double getReadBytesPerSecond(String sDevice)
+	{
+		int i = this.indexOf(sDevice);
+		return (i < 0) ? 0 : this.m_aReadBytesPerSec[i];
+	}
+
+	/**
+	 * Bytes written per second to the device or partition.
+	 */
+	public double getWriteBytesPerSecond(String sDevice)
+	{
+		int i = this.indexOf(sDevice);
+		return (i < 0) ? 0 : this.m_aWriteBytesPerSec[i];
+	}
+
+	/**
+	 * Read operations completed per second.
+	 */
+	public double getReadIops(String sDevice)
+	{
+		int i = this.indexOf(sDevice);
+		return (i < 0) ? 0 : this.m_aReadIops[i];
+	}
+
+	/**
+	 * Write operations completed per second.
+	 */
+	public double getWriteIops(String sDevice)
+	{
+		int i = this.indexOf(sDevice);
+		return (i < 0) ? 0 : this.m_aWriteIops[i];
+	}
+
+	/**
+	 * The average time (ms) an IO took from being queued to completing.
+	 */
+	public double getAverageWait(String sDevice)
+	{
+		int i = this.indexOf(sDevice);
+		return (i < 0) ? 0 : this.m_aAverageWaitMs[i];
+	}
+
+	/**
+	 * The average time (ms) the device spent servicing each IO.
+	 */
+	public double getServiceTime(String sDevice)
+	{
+		int i = this.indexOf(sDevice);
+		return (i < 0) ? 0 : this.m_aServiceTimeMs[i];
+	}
+
+	/**
+	 * The average number of IOs queued or in flight.
+	 */
+	public double getQueueDepth(String sDevice)
+	{
+		int i = this.indexOf(sDevice);
+		return (i < 0) ? 0 : this.m_aQueueDepth[i];
+	}
+
+	/**
+	 * The percentage of time the device had IO in flight.
+	 */
+	public double getUtilization(String sDevice)
+	{
+		int i = this.indexOf(sDevice);
+		return (i < 0) ? 0 : this.m_aUtilization[i];
+	}
+
+	/**
+	 * Check if the kernel reports IO pressure.
+	 */
+	public boolean hasIoPressure()
+	{
+		return this.m_bHasIoPressure;
+	}
+
+	/**
+	 * Get the IO pressure from the last query.
+	 *
+	 * @return The pressure values, or null if the kernel doesn't report IO pressure.
+	 */
+	public pressureInfo getIoPressure()
+	{
+		return this.m_bHasIoPressure ? this.m_xIoPressure : null;
+	}
+
+	/**
+	 * Summarize the IO activity of every active device.
+	 *
+	 * @return A string with the summary information.
+	 */
+	@Override
+	public String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Disk IO: \n";
+
+		List<String> listDevices = this.getDeviceNames(false);
+		for (int i = 0; i < listDevices.size(); i++)
+		{
+			String sDevice = listDevices.get(i);
+
+			sSummary += sDevice + ": read " + this.convertStorage((long)this.getReadBytesPerSecond(sDevice), SIZE_NONE) + "/s" +
+					", write " + this.convertStorage((long)this.getWriteBytesPerSecond(sDevice), SIZE_NONE) + "/s" +
+					", " + Math.round(this.getReadIops(sDevice) + this.getWriteIops(sDevice)) + " IOPS" +
+					", await " + Math.round(this.getAverageWait(sDevice)) + " ms" +
+					", queue " + this.getQueueDepth(sDevice) +
+					", util " + Math.round(this.getUtilization(sDevice)) + "%\n";
+		}
+
+		if (this.m_bHasIoPressure)
+			sSummary += "IO Pressure: " + this.m_xIoPressure.summaryString() + "\n";
+
+		return sSummary;
+	}
+}
@@ -0,0 +1,702 @@
+/**
+ * energyAttribution
+ *
+ * Estimates how much battery energy each process and each UID is costing.
+ * Every window combines three inputs:
+ *
+ *  - the cumulative CPU time of each process (/proc/[pid]/stat utime + stime)
+ *  - the cumulative time each core spent at each frequency (time_in_state)
+ *  - optionally the energy the battery measured over the window (powerSampler)
+ *
+ * The frequency residency and the per-frequency power model give the
+ * average power of a busy CPU second during the window.  Each process is
+ * charged that for every CPU second it used.  If the battery measured less
+ * than the model predicts the estimates are scaled down to match, if it
+ * measured more the rest is left unattributed (screen, radios, ...).
+ *
+ * Counters are passed in as cumulative values and the deltas are worked out
+ * here, so a window only costs the processes and frequencies reported in it.
+ * A process is told apart from a later one reusing its pid by its start
+ * time.  One that is missing from a window (a failed read, a sampler that
+ * skipped it) is kept for a few windows with its last CPU time, so when it
+ * comes back only the time since then is charged.  Processes missing for
+ * longer have exited and move into a bounded top-N table.
+ *
+ * The class has no Android dependencies, windows can be replayed from a
+ * recorded fixture with replay().
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * The power a core draws at each frequency.
+ */
+class corePowerModel
+{
+	long[]			m_aFreqs;		//* kHz, ascending
+	double[]		m_aPower;		//* mW
+
+	corePowerModel(long[] aFreqs, double[] aPower)
+	{
+		//* sort the pairs by frequency
+		Integer[] aOrder = new Integer[aFreqs.length];
+		for (int i = 0; i < aOrder.length; i++)
+			aOrder[i] = i;
+
+		final long[] aKeys = aFreqs;
+		Arrays.sort(aOrder, new Comparator<Integer>()
+		{
+			public int compare(Integer xLeft, Integer xRight)
+			{
+				long lLeft = aKeys[xLeft];
+				long lRight = aKeys[xRight];
+				return (lLeft < lRight) ? -1 : ((lLeft == lRight) ? 0 : 1);
+			}
+		});
+
+		this.m_aFreqs	= new long[aFreqs.length];
+		this.m_aPower	= new double[aFreqs.length];
+		for (int i = 0; i < aOrder.length; i++)
+		{
+			this.m_aFreqs[i]	= aFreqs[aOrder[i]];
+			this.m_aPower[i]	= aPower[aOrder[i]];
+		}
+	}
+
+	/**
+	 * The power at a frequency, interpolated between the model points and
+	 * clamped at the ends.
+	 */
+	double powerAt(long lFreq)
+	{
+		int iCount = this.m_aFreqs.length;
+		if (iCount == 0)
+			return 0;
+
+		int iPos = Arrays.binarySearch(this.m_aFreqs, lFreq);
+		if (iPos >= 0)
+			return this.m_aPower[iPos];
+
+		iPos = -iPos - 1;
+		if (iPos == 0)
+			return this.m_aPower[0];
+		if (iPos == iCount)
+			return this.m_aPower[iCount - 1];
+
+		double dFraction = (double)(lFreq - this.m_aFreqs[iPos - 1]) / (this.m_aFreqs[iPos] - this.m_aFreqs[iPos - 1]);
+		return this.m_aPower[iPos - 1] + dFraction * (this.m_aPower[iPos] - this.m_aPower[iPos - 1]);
+	}
+}
+
+/**
+ * The last cumulative residency of each frequency of a core.
+ */
+class coreResidency
+{
+	long[]			m_aFreqs	= new long[16];
+	long[]			m_aLast		= new long[16];
+	int				m_iCount;
+
+	/**
+	 * Store the new cumulative value and return how much it grew.  The first
+	 * value of a frequency, or one that went backwards, counts as no change.
+	 */
+	long update(long lFreq, long lCumulative)
+	{
+		for (int i = 0; i < this.m_iCount; i++)
+		{
+			if (this.m_aFreqs[i] == lFreq)
+			{
+				long lDelta = lCumulative - this.m_aLast[i];
+				this.m_aLast[i] = lCumulative;
+				return (lDelta > 0) ? lDelta : 0;
+			}
+		}
+
+		if (this.m_iCount == this.m_aFreqs.length)
+		{
+			long[] aFreqs	= new long[this.m_iCount * 2];
+			long[] aLast	= new long[this.m_iCount * 2];
+			System.arraycopy(this.m_aFreqs, 0, aFreqs, 0, this.m_iCount);
+			System.arraycopy(this.m_aLast, 0, aLast, 0, this.m_iCount);
+			this.m_aFreqs	= aFreqs;
+			this.m_aLast	= aLast;
+		}
+
+		this.m_aFreqs[this.m_iCount]	= lFreq;
+		this.m_aLast[this.m_iCount]		= lCumulative;
+		this.m_iCount++;
+		return 0;
+	}
+}
+
+/**
+ * A live process and the CPU time it had at the last window.
+ */
+class processCounter
+{
+	long			m_lStartTime;	//* /proc/[pid]/stat starttime, 0 if unknown
+	long			m_lLastTicks;
+	long			m_lWindowTicks;
+	long			m_lSeenWindow;
+	energyEntry		m_xEntry;
+}
+
+/**
+ * The attribution engine.
+ */
+public class energyAttribution
+{
+	static final int						DEFAULT_TOP_N				= 32;
+	static final int						DEFAULT_TICKS_PER_SECOND	= 100;
+
+	/**
+	 * The number of windows in a row a process can be missing before it counts as exited.
+	 */
+	static final int						GRACE_WINDOWS				= 3;
+
+	/**
+	 * Model used for cores that don't have their own.
+	 */
+	public static final int					ALL_CORES					= -1;
+
+	/**
+	 * Orders entries smallest energy first, for the bounded top-N heaps.
+	 */
+	static final Comparator<energyEntry>	SMALLEST_FIRST = new Comparator<energyEntry>()
+	{
+		public int compare(energyEntry xLeft, energyEntry xRight)
+		{
+			return Double.compare(xLeft.m_dEnergyMwh, xRight.m_dEnergyMwh);
+		}
+	};
+
+	private Map<Integer, corePowerModel>	m_xModels;
+	private Map<Integer, coreResidency>		m_xResidency;
+	private Map<Integer, processCounter>	m_xProcesses;
+	private Map<Integer, energyEntry>		m_xUids;
+	private PriorityQueue<energyEntry>		m_xRetired;
+	private List<processCounter>			m_listWindow;
+
+	private int								m_iTopN;
+	private int								m_iTicksPerSecond;
+
+	//* the window being built
+	private boolean							m_bInWindow;
+	private long							m_lWindowTime;
+	private double							m_dWindowModelMwTicks;
+	private long							m_lWindowResidencyTicks;
+	private double							m_dWindowMeasuredMwh;
+
+	//* totals
+	private long							m_lWindowCount;
+	private double							m_dLastCpuPowerMw;
+	private double							m_dTotalAttributedMwh;
+	private double							m_dTotalUnattributedMwh;
+
+	/**
+	 * Default constructor.  Keeps the top 32 exited processes, CPU times in 1/100 s ticks.
+	 */
+	public energyAttribution()
+	{
+		this(DEFAULT_TOP_N);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param iTopN The number of exited processes kept.
+	 */
+	public energyAttribution(int iTopN)
+	{
+		this.m_iTopN			= Math.max(1, iTopN);
+		this.m_iTicksPerSecond	= DEFAULT_TICKS_PER_SECOND;
+
+		this.m_xModels			= new HashMap<Integer, corePowerModel>();
+		this.m_xResidency		= new HashMap<Integer, coreResidency>();
+		this.m_xProcesses		= new HashMap<Integer, processCounter>();
+		this.m_xUids			= new HashMap<Integer, energyEntry>();
+		this.m_xRetired			= new PriorityQueue<energyEntry>(this.m_iTopN + 1, SMALLEST_FIRST);
+		this.m_listWindow		= new ArrayList<processCounter>();
+	}
+
+	/**
+	 * Set the units of the CPU time and residency counters.
+	 *
+	 * @param iTicks Ticks per second, 100 (USER_HZ) on almost every device.
+	 */
+	public synchronized void setTicksPerSecond(int iTicks)
+	{
+		this.m_iTicksPerSecond = Math.max(1, iTicks);
+	}
+
+	/**
+	 * Set the power model of a core.
+	 *
+	 * @param iCore The core, or ALL_CORES for the model used by cores without their own.
+	 * @param aFreqKhz The frequencies.
+	 * @param aPowerMw The power of a busy core at each frequency.
+	 */
+	public synchronized void setPowerModel(int iCore, long[] aFreqKhz, double[] aPowerMw)
+	{
+		if (aFreqKhz.length != aPowerMw.length)
+			throw new IllegalArgumentException("The frequency and power arrays must be the same length");
+
+		this.m_xModels.put(iCore, new corePowerModel(aFreqKhz, aPowerMw));
+	}
+
+	/**
+	 * Check if a core has a power model, its own or the ALL_CORES one.
+	 *
+	 * @param iCore The core.
+	 */
+	public synchronized boolean hasPowerModel(int iCore)
+	{
+		return this.m_xModels.containsKey(iCore) || this.m_xModels.containsKey(ALL_CORES);
+	}
+
+	/**
+	 * Start a window.  Any counters reported until endWindow() belong to it.
+	 *
+	 * @param lTime When the window ends (ms), only used for reporting.
+	 */
+	public synchronized void beginWindow(long lTime)
+	{
+		this.m_bInWindow				= true;
+		this.m_lWindowTime				= lTime;
+		this.m_dWindowModelMwTicks		= 0;
+		this.m_lWindowResidencyTicks	= 0;
+		this.m_dWindowMeasuredMwh		= -1;
+		this.m_listWindow.clear();
+	}
+
+	/**
+	 * Report the cumulative time a core has spent at a frequency.
+	 *
+	 * @param iCore The core.
+	 * @param lFreqKhz The frequency.
+	 * @param lCumulativeTicks The time_in_state value.
+	 */
+	public synchronized void addResidency(int iCore, long lFreqKhz, long lCumulativeTicks)
+	{
+		coreResidency xResidency = this.m_xResidency.get(iCore);
+		if (xResidency == null)
+		{
+			xResidency = new coreResidency();
+			this.m_xResidency.put(iCore, xResidency);
+		}
+
+		long lDelta = xResidency.update(lFreqKhz, lCumulativeTicks);
+		if (lDelta == 0)
+			return;
+
+		corePowerModel xModel = this.m_xModels.get(iCore);
+		if (xModel == null)
+			xModel = this.m_xModels.get(ALL_CORES);
+		if (xModel == null)
+			return;
+
+		this.m_dWindowModelMwTicks		+= xModel.powerAt(lFreqKhz) * lDelta;
+		this.m_lWindowResidencyTicks	+= lDelta;
+	}
+
+	/**
+	 * Report the cumulative CPU time of a process.
+	 *
+	 * @param iPid The process id.
+	 * @param iUid The UID it runs as.
+	 * @param sName The process name.
+	 * @param lStartTime The starttime from /proc/[pid]/stat, together with the pid it
+	 * identifies the process.  0 if it isn't known, the name is compared instead.
+	 * @param lCumulativeTicks utime + stime.
+	 */
+	public synchronized void addProcess(int iPid, int iUid, String sName, long lStartTime, long lCumulativeTicks)
+	{
+		processCounter xCounter = this.m_xProcesses.get(iPid);
+
+		//* a reused pid is a new process
+		if (xCounter != null && !energyAttribution.isSameProcess(xCounter, sName, lStartTime, lCumulativeTicks))
+		{
+			this.retire(xCounter);
+			xCounter = null;
+		}
+
+		long lDelta;
+		if (xCounter == null)
+		{
+			xCounter = new processCounter();
+			xCounter.m_lStartTime	= lStartTime;
+			xCounter.m_xEntry		= new energyEntry(iPid, iUid, sName);
+			this.m_xProcesses.put(iPid, xCounter);
+
+			//* a process that appeared after the first window started during this one,
+			//* so all its CPU time belongs here
+			lDelta = (this.m_lWindowCount > 0) ? lCumulativeTicks : 0;
+		}
+		else
+		{
+			lDelta = lCumulativeTicks - xCounter.m_lLastTicks;
+		}
+
+		xCounter.m_lLastTicks	= lCumulativeTicks;
+		xCounter.m_lWindowTicks	= lDelta;
+		xCounter.m_lSeenWindow	= this.m_lWindowCount;
+
+		if (lDelta > 0)
+			this.m_listWindow.add(xCounter);
+	}
+
+	/**
+	 * Check if a report is for the process we already have under the pid.
+	 * A process can rename itself (an app forked from zygote does), so the
+	 * name is only compared when the start time isn't known.
+	 */
+	static boolean isSameProcess(processCounter xCounter, String sName, long lStartTime, long lCumulativeTicks)
+	{
+		if (lCumulativeTicks < xCounter.m_lLastTicks)
+			return false;
+
+		if (lStartTime != 0 && xCounter.m_lStartTime != 0)
+			return lStartTime == xCounter.m_lStartTime;
+
+		return xCounter.m_xEntry.m_sName.equals(sName);
+	}
+
+	/**
+	 * Report the energy the battery measured over the window.
+	 *
+	 * @param dEnergyMwh The energy drained, from powerSampler.
+	 */
+	public synchronized void setMeasuredEnergy(double dEnergyMwh)
+	{
+		this.m_dWindowMeasuredMwh = dEnergyMwh;
+	}
+
+	/**
+	 * Finish the window and attribute its energy.  Processes that haven't
+	 * been reported for GRACE_WINDOWS windows are treated as exited.
+	 */
+	public synchronized void endWindow()
+	{
+		if (!this.m_bInWindow)
+			return;
+
+		this.m_bInWindow = false;
+
+		//* the average power of a busy CPU second
+		double dCpuPower = 0;
+		if (this.m_lWindowResidencyTicks > 0)
+			dCpuPower = this.m_dWindowModelMwTicks / this.m_lWindowResidencyTicks;
+		this.m_dLastCpuPowerMw = dCpuPower;
+
+		double dTicksToHours = 1.0 / this.m_iTicksPerSecond / 3600.0;
+
+		double dModelled = 0;
+		for (int i = 0; i < this.m_listWindow.size(); i++)
+			dModelled += this.m_listWindow.get(i).m_lWindowTicks * dTicksToHours * dCpuPower;
+
+		//* the battery is the truth when it says the model is too high
+		double dScale = 1;
+		if (this.m_dWindowMeasuredMwh >= 0 && dModelled > this.m_dWindowMeasuredMwh)
+			dScale = (dModelled > 0) ? this.m_dWindowMeasuredMwh / dModelled : 0;
+
+		double dAttributed = 0;
+		for (int i = 0; i < this.m_listWindow.size(); i++)
+		{
+			processCounter xCounter = this.m_listWindow.get(i);
+			double dEnergy = xCounter.m_lWindowTicks * dTicksToHours * dCpuPower * dScale;
+
+			xCounter.m_xEntry.m_dEnergyMwh	+= dEnergy;
+			xCounter.m_xEntry.m_lCpuTicks	+= xCounter.m_lWindowTicks;
+			dAttributed += dEnergy;
+
+			energyEntry xUid = this.m_xUids.get(xCounter.m_xEntry.m_iUid);
+			if (xUid == null)
+			{
+				xUid = new energyEntry(-1, xCounter.m_xEntry.m_iUid, xCounter.m_xEntry.m_sName);
+				this.m_xUids.put(xUid.m_iUid, xUid);
+			}
+			xUid.m_dEnergyMwh	+= dEnergy;
+			xUid.m_lCpuTicks	+= xCounter.m_lWindowTicks;
+		}
+
+		this.m_dTotalAttributedMwh += dAttributed;
+		if (this.m_dWindowMeasuredMwh > dAttributed)
+			this.m_dTotalUnattributedMwh += this.m_dWindowMeasuredMwh - dAttributed;
+
+		//* anything not reported for a few windows has exited, until then it keeps its last CPU time
+		Iterator<processCounter> xIterator = this.m_xProcesses.values().iterator();
+		while (xIterator.hasNext())
+		{
+			processCounter xCounter = xIterator.next();
+			if (this.m_lWindowCount - xCounter.m_lSeenWindow >= GRACE_WINDOWS)
+			{
+				xIterator.remove();
+				this.offerRetired(xCounter.m_xEntry);
+			}
+		}
+
+		this.m_listWindow.clear();
+		this.m_lWindowCount++;
+	}
+
+	private void retire(processCounter xCounter)
+	{
+		this.m_xProcesses.remove(xCounter.m_xEntry.m_iPid);
+		this.offerRetired(xCounter.m_xEntry);
+	}
+
+	/**
+	 * Keep the exited process if it is one of the N most expensive.
+	 */
+	private void offerRetired(energyEntry xEntry)
+	{
+		if (xEntry.m_dEnergyMwh <= 0)
+			return;
+
+		if (this.m_xRetired.size() < this.m_iTopN)
+		{
+			this.m_xRetired.add(xEntry);
+		}
+		else if (xEntry.m_dEnergyMwh > this.m_xRetired.peek().m_dEnergyMwh)
+		{
+			this.m_xRetired.poll();
+			this.m_xRetired.add(xEntry);
+		}
+	}
+
+	/**
+	 * Pick the N largest entries, largest first.
+	 */
+	private static List<energyEntry> topN(Iterable<energyEntry> xEntries, int iCount)
+	{
+		PriorityQueue<energyEntry> xHeap = new PriorityQueue<energyEntry>(iCount + 1, SMALLEST_FIRST);
+
+		for (energyEntry xEntry : xEntries)
+		{
+			if (xEntry.m_dEnergyMwh <= 0)
+				continue;
+
+			if (xHeap.size() < iCount)
+			{
+				xHeap.add(xEntry);
+			}
+			else if (xEntry.m_dEnergyMwh > xHeap.peek().m_dEnergyMwh)
+			{
+				xHeap.poll();
+				xHeap.add(xEntry);
+			}
+		}
+
+		List<energyEntry> listResult = new ArrayList<energyEntry>(xHeap);
+		Collections.sort(listResult, Collections.reverseOrder(SMALLEST_FIRST));
+		return listResult;
+	}
+
+	/**
+	 * Get the processes, running or exited, that used the most energy.
+	 *
+	 * @param iCount The number wanted.
+	 * @return The processes, most expensive first.
+	 */
+	public synchronized List<energyEntry> getTopProcesses(int iCount)
+	{
+		List<energyEntry> listAll = new ArrayList<energyEntry>(this.m_xProcesses.size() + this.m_xRetired.size());
+		for (processCounter xCounter : this.m_xProcesses.values())
+			listAll.add(xCounter.m_xEntry);
+		listAll.addAll(this.m_xRetired);
+
+		return topN(listAll, Math.max(1, iCount));
+	}
+
+	/**
+	 * Get the UIDs that used the most energy.  m_iPid is -1 and m_sName is the
+	 * first process seen for the UID.
+	 *
+	 * @param iCount The number wanted.
+	 * @return The UIDs, most expensive first.
+	 */
+	public synchronized List<energyEntry> getTopUids(int iCount)
+	{
+		return topN(this.m_xUids.values(), Math.max(1, iCount));
+	}
+
+	/**
+	 * Get the energy attributed to a UID.
+	 * @return mWh, 0 if nothing was attributed.
+	 */
+	public synchronized double getUidEnergy(int iUid)
+	{
+		energyEntry xEntry = this.m_xUids.get(iUid);
+		return (xEntry == null) ? 0 : xEntry.m_dEnergyMwh;
+	}
+
+	public synchronized long getWindowCount()
+	{
+		return this.m_lWindowCount;
+	}
+
+	/**
+	 * @return The time passed to the last beginWindow() (ms).
+	 */
+	public synchronized long getLastWindowTime()
+	{
+		return this.m_lWindowTime;
+	}
+
+	/**
+	 * Get the modelled power of a busy CPU second in the last window.
+	 * @return mW
+	 */
+	public synchronized double getLastCpuPower()
+	{
+		return this.m_dLastCpuPowerMw;
+	}
+
+	/**
+	 * @return The energy attributed to processes in mWh.
+	 */
+	public synchronized double getTotalAttributed()
+	{
+		return this.m_dTotalAttributedMwh;
+	}
+
+	/**
+	 * @return The measured energy that wasn't attributed to any process in mWh.
+	 */
+	public synchronized double getTotalUnattributed()
+	{
+		return this.m_dTotalUnattributedMwh;
+	}
+
+	/**
+	 * Forget every process, UID and counter.  The power models are kept.
+	 */
+	public synchronized void reset()
+	{
+		this.m_xResidency.clear();
+		this.m_xProcesses.clear();
+		this.m_xUids.clear();
+		this.m_xRetired.clear();
+		this.m_listWindow.clear();
+		this.m_bInWindow				= false;
+		this.m_lWindowCount				= 0;
+		this.m_dLastCpuPowerMw			= 0;
+		this.m_dTotalAttributedMwh		= 0;
+		this.m_dTotalUnattributedMwh	= 0;
+	}
+
+	/**
+	 * Replay recorded windows.  One record per line, '#' starts a comment:
+	 *
+	 *   window &lt;time ms&gt;
+	 *   freq &lt;core&gt; &lt;kHz&gt; &lt;cumulative ticks&gt;
+	 *   proc &lt;pid&gt; &lt;uid&gt; &lt;name&gt; &lt;starttime&gt; &lt;cumulative ticks&gt;
+	 *   energy &lt;mWh&gt;
+	 *   end
+	 *
+	 * @param xReader The recording.
+	 * @return The number of windows replayed.
+	 * @throws IOException If the recording can't be read or a line is malformed.
+	 */
+	public int replay(BufferedReader xReader) throws IOException
+	{
+		String		sLine;
+		int			iLine		= 0;
+		int			iWindows	= 0;
+
+		while ((sLine = xReader.readLine()) != null)
+		{
+			iLine++;
+			sLine = sLine.trim();
+			if (sLine.length() == 0 || sLine.charAt(0) == '#')
+				continue;
+
+			String[] aFields = sLine.split("\\s+");
+			try
+			{
+				if (aFields[0].equals("window"))
+				{
+					this.beginWindow(Long.parseLong(aFields[1]));
+				}
+				else if (aFields[0].equals("freq"))
+				{
+					this.addResidency(Integer.parseInt(aFields[1]), Long.parseLong(aFields[2]), Long.parseLong(aFields[3]));
+				}
+				else if (aFields[0].equals("proc"))
+				{
+					this.addProcess(Integer.parseInt(aFields[1]), Integer.parseInt(aFields[2]), aFields[3],
+							Long.parseLong(aFields[4]), Long.parseLong(aFields[5]));
+				}
+				else if (aFields[0].equals("energy"))
+				{
+					this.setMeasuredEnergy(Double.parseDouble(aFields[1]));
+				}
+				else if (aFields[0].equals("end"))
+				{
+					this.endWindow();
+					iWindows++;
+				}
+				else
+				{
+					throw new IOException("Unknown record on line " + iLine + ": " + aFields[0]);
+				}
+			}
+			catch (NumberFormatException exp)
+			{
+				throw new IOException("Bad number on line " + iLine);
+			}
+			catch (ArrayIndexOutOfBoundsException exp)
+			{
+				throw new IOException("Missing field on line " + iLine);
+			}
+		}
+
+		return iWindows;
+	}
+
+	/**
+	 * Summarize the attribution into a string.
+	 *
+	 * @return The top processes and UIDs.
+	 */
+	public synchronized String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Energy Attributed: " + String.format("%.3f", this.m_dTotalAttributedMwh) + " mWh\n";
+		sSummary += "Energy Unattributed: " + String.format("%.3f", this.m_dTotalUnattributedMwh) + " mWh\n";
+
+		List<energyEntry> listTop = this.getTopProcesses(10);
+		sSummary += "Top Processes: \n";
+		for (int i = 0; i < listTop.size(); i++)
+		{
+			energyEntry xEntry = listTop.get(i);
+			sSummary += xEntry.m_iPid + " " + xEntry.m_sName + " (uid " + xEntry.m_iUid + "): " +
+					String.format("%.3f", xEntry.m_dEnergyMwh) + " mWh\n";
+		}
+
+		listTop = this.getTopUids(10);
+		sSummary += "Top UIDs: \n";
+		for (int i = 0; i < listTop.size(); i++)
+		{
+			energyEntry xEntry = listTop.get(i);
+			sSummary += xEntry.m_iUid + " (" + xEntry.m_sName + "): " + String.format("%.3f", xEntry.m_dEnergyMwh) + " mWh\n";
+		}
+
+		return sSummary;
+	}
+}
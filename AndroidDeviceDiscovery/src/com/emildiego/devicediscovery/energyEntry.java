@@ -0,0 +1,28 @@
+/**
+ * energyEntry
+ *
+ * The energy attributed to a process or a UID.  Returned by
+ * energyAttribution for its top-N tables.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * A single process or UID and its energy.
+ */
+public class energyEntry
+{
+	public int				m_iPid;				//* -1 for a UID total
+	public int				m_iUid;
+	public String			m_sName;
+	public long				m_lCpuTicks;
+	public double			m_dEnergyMwh;
+
+	public energyEntry(int iPid, int iUid, String sName)
+	{
+		this.m_iPid		= iPid;
+		this.m_iUid		= iUid;
+		this.m_sName	= sName;
+	}
+}
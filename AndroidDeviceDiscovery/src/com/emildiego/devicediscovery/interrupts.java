@@ -0,0 +1,547 @@
+/**
+ * interrupts
+ *
+ * This class collects the scheduler and interrupt load that cpu doesn't
+ * show: context switches, hardware interrupts and softirqs per second and
+ * the number of running and blocked tasks, all from /proc/stat, plus the
+ * per cpu counts of every IRQ from /proc/interrupts and of every softirq
+ * type from /proc/softirqs.
+ *
+ * The two tables are wide (a column per cpu) and long (a row per IRQ), so
+ * they are parsed in one pass into long[row][cpu] arrays that are reused
+ * between queries.  The row names and the IRQ descriptions are read the
+ * first time and when the layout changes (a driver added an IRQ, a cpu came
+ * online), after that the names are only checked in place.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * A per cpu counter table, /proc/interrupts or /proc/softirqs.  The first
+ * line names the cpu columns, every other line is "NAME: count count ..."
+ * with an optional description after the counts.  Some rows (ERR, MIS) have
+ * a single count, it goes into the first column.
+ */
+class irqTable
+{
+	List<String>			m_listNames;			//* the first token of each row, with its ':'
+	List<String>			m_listDescriptions;
+	int						m_iRows;
+	int						m_iCpus;
+
+	long[][]				m_aCounts;
+	long[][]				m_aPrevCounts;
+	double[]				m_adRates;				//* per row, all the cpus
+	boolean					m_bValid;
+	boolean					m_bHavePrevious;
+	boolean					m_bRatesValid;			//* the previous counts are from the same layout
+
+	irqTable()
+	{
+		this.m_listNames		= new ArrayList<String>();
+		this.m_listDescriptions	= new ArrayList<String>();
+		this.m_aCounts			= new long[0][0];
+		this.m_aPrevCounts		= new long[0][0];
+		this.m_adRates			= new double[0];
+	}
+
+	/**
+	 * Parse the table in the reader.  The current counts become the previous ones.
+	 *
+	 * @param bDescriptions Keep the text after the counts, for /proc/interrupts.
+	 * @return False if the table couldn't be parsed.
+	 */
+	boolean parse(procfsReader xReader, boolean bDescriptions)
+	{
+		long[][] aTmp = this.m_aPrevCounts;
+		this.m_aPrevCounts = this.m_aCounts;
+		this.m_aCounts = aTmp;
+
+		if (!this.m_bValid || !this.readCounts(xReader))
+		{
+			//* first query or the layout changed, rates restart from here
+			this.build(xReader, bDescriptions);
+			this.m_bHavePrevious = false;
+			if (!this.readCounts(xReader))
+				return false;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Work out the rate of every row from the previous counts.
+	 */
+	void computeRates(double dSeconds)
+	{
+		this.m_bRatesValid = this.m_bHavePrevious && dSeconds > 0;
+
+		for (int iRow = 0; iRow < this.m_iRows; iRow++)
+		{
+			long lDelta = 0;
+			for (int iCpu = 0; iCpu < this.m_iCpus; iCpu++)
+				lDelta += this.getDelta(iRow, iCpu);
+
+			this.m_adRates[iRow] = this.m_bRatesValid ? lDelta / dSeconds : 0;
+		}
+
+		this.m_bHavePrevious = true;
+	}
+
+	/**
+	 * The growth of one count since the previous query.  The counts are 
+	 * 32 bit on most kernels, a count smaller than before wrapped.
+	 */
+	long getDelta(int iRow, int iCpu)
+	{
+		long lDelta = this.m_aCounts[iRow][iCpu] - this.m_aPrevCounts[iRow][iCpu];
+		if (lDelta < 0)
+			lDelta += 1L << 32;
+
+		return lDelta;
+	}
+
+	long getTotal(int iRow)
+	{
+		long lTotal = 0;
+		for (int iCpu = 0; iCpu < this.m_iCpus; iCpu++)
+			lTotal += this.m_aCounts[iRow][iCpu];
+
+		return lTotal;
+	}
+
+	/**
+	 * Return the row of a name, without its ':'.
+	 */
+	int getRow(String sName)
+	{
+		return this.m_listNames.indexOf(sName + ":");
+	}
+
+	String getName(int iRow)
+	{
+		String sName = this.m_listNames.get(iRow);
+		return sName.substring(0, sName.length() - 1);
+	}
+
+	/**
+	 * Read the row names and size the arrays.
+	 */
+	private void build(procfsReader xReader, boolean bDescriptions)
+	{
+		this.m_listNames.clear();
+		this.m_listDescriptions.clear();
+
+		xReader.rewind();
+		this.m_iCpus = xReader.countTokens();
+
+		while (xReader.nextLine())
+		{
+			String sName = xReader.nextToken();
+			if (sName == null || !sName.endsWith(":"))
+				continue;
+
+			for (int iCpu = 0; iCpu < this.m_iCpus && irqTable.nextIsNumber(xReader); iCpu++)
+				xReader.skipToken();
+
+			this.m_listNames.add(sName);
+			this.m_listDescriptions.add(bDescriptions ? xReader.restOfLine() : "");
+		}
+
+		this.m_iRows		= this.m_listNames.size();
+		this.m_aCounts		= new long[this.m_iRows][this.m_iCpus];
+		this.m_aPrevCounts	= new long[this.m_iRows][this.m_iCpus];
+		this.m_adRates		= new double[this.m_iRows];
+		this.m_bValid		= true;
+	}
+
+	/**
+	 * Fill the counts from the reader in one pass.
+	 *
+	 * @return False if the rows or the cpus no longer match.
+	 */
+	private boolean readCounts(procfsReader xReader)
+	{
+		int iRow = 0;
+
+		xReader.rewind();
+		if (xReader.countTokens() != this.m_iCpus)
+			return false;
+
+		while (xReader.nextLine())
+		{
+			if (xReader.atEndOfLine())
+				continue;
+
+			//* check the name without creating a String
+			if (iRow >= this.m_iRows || !xReader.matchToken(this.m_listNames.get(iRow)))
+				return false;
+
+			long[] aRow = this.m_aCounts[iRow++];
+			for (int iCpu = 0; iCpu < this.m_iCpus; iCpu++)
+				aRow[iCpu] = irqTable.nextIsNumber(xReader) ? xReader.nextLong() : 0;
+		}
+
+		return iRow == this.m_iRows;
+	}
+
+	/**
+	 * Check that the next token on the line is a count, the description 
+	 * starts with a letter.
+	 */
+	static boolean nextIsNumber(procfsReader xReader)
+	{
+		xReader.skipSpaces();
+
+		int iPos = xReader.getPosition();
+		if (iPos >= xReader.getLength())
+			return false;
+
+		byte bChar = xReader.getBuffer()[iPos];
+		return bChar >= '0' && bChar <= '9';
+	}
+}
+
+/**
+ * The main class used to collect the interrupt and context switch rates.
+ */
+public class interrupts extends discoveryBase
+{
+	static final String					STAT_PATH			= "/proc/stat";
+	static final String					INTERRUPTS_PATH		= "/proc/interrupts";
+	static final String					SOFTIRQS_PATH		= "/proc/softirqs";
+
+	static final int					MAX_TOP				= 16;
+	static final int					SUMMARY_IRQ_COUNT	= 5;
+
+	//* the /proc/stat totals from the last two queries
+	private long						m_lContextSwitches;
+	private long						m_lPrevContextSwitches;
+	private long						m_lInterrupts;
+	private long						m_lPrevInterrupts;
+	private long						m_lSoftirqs;
+	private long						m_lPrevSoftirqs;
+	private int							m_iProcsRunning;
+	private int							m_iProcsBlocked;
+
+	private double						m_dContextSwitchRate;
+	private double						m_dInterruptRate;
+	private double						m_dSoftirqRate;
+
+	private long						m_lLastSampleNs;
+	private long						m_lLastStatNs;		//* when the /proc/stat we used was read
+	private double						m_dSeconds;
+	private boolean						m_bHavePrevious;
+
+	private irqTable					m_xIrqs;
+	private irqTable					m_xSoftirqs;
+	private boolean						m_bHaveIrqs;
+	private boolean						m_bHaveSoftirqs;
+
+	//* the rows of the noisiest IRQs, the highest rate first
+	private int[]						m_aTop;
+	private int							m_iTopCount;
+
+	private procfsReader				m_xReader;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param xContext The application context
+	 * @param sLogTag The Tag to be used by the Android message logger
+	 */
+	public interrupts(Context xContext, String sLogTag)
+	{
+		super(xContext, sLogTag);
+
+		this.m_xIrqs		= new irqTable();
+		this.m_xSoftirqs	= new irqTable();
+		this.m_aTop			= new int[MAX_TOP];
+		this.m_xReader		= new procfsReader(16384);
+	}
+
+	/**
+	 * Read /proc/stat, /proc/interrupts and /proc/softirqs and compute the rates.
+	 *
+	 * @return True if the query was successfull, false if /proc/stat couldn't be read.
+	 */
+	@Override
+	public synchronized boolean query()
+	{
+		long lNow = System.nanoTime();
+
+		//* /proc/stat is read by other collectors in the same tick
+		if (!this.m_xReader.readCached(STAT_PATH))
+		{
+			this.logError("Unable to read " + STAT_PATH);
+			return false;
+		}
+
+		//* the cache can hand us a copy read earlier in the tick, the rates go by when it was read
+		long	lStatNs			= this.m_xReader.getReadTime();
+		double	dStatSeconds	= this.m_bHavePrevious ? (lStatNs - this.m_lLastStatNs) / 1e9 : 0;
+
+		this.m_lPrevContextSwitches	= this.m_lContextSwitches;
+		this.m_lPrevInterrupts		= this.m_lInterrupts;
+		this.m_lPrevSoftirqs		= this.m_lSoftirqs;
+
+		//* the first number of intr and softirq is the total, the per source counts follow
+		this.m_lInterrupts		= this.readStatValue("intr");
+		this.m_lContextSwitches	= this.readStatValue("ctxt");
+		this.m_iProcsRunning	= (int)this.readStatValue("procs_running");
+		this.m_iProcsBlocked	= (int)this.readStatValue("procs_blocked");
+		this.m_lSoftirqs		= this.readStatValue("softirq");
+
+		this.m_dSeconds = this.m_bHavePrevious ? (lNow - this.m_lLastSampleNs) / 1e9 : 0;
+
+		//* the same copy as last time has no new counts, keep the rates it gave
+		if (dStatSeconds > 0)
+		{
+			this.m_dContextSwitchRate	= interrupts.rate(this.m_lContextSwitches, this.m_lPrevContextSwitches, dStatSeconds);
+			this.m_dInterruptRate		= interrupts.rate(this.m_lInterrupts, this.m_lPrevInterrupts, dStatSeconds);
+			this.m_dSoftirqRate			= interrupts.rate(this.m_lSoftirqs, this.m_lPrevSoftirqs, dStatSeconds);
+		}
+
+		//* The per IRQ tables, either can be missing or hidden
+		this.m_bHaveIrqs = this.m_xReader.read(INTERRUPTS_PATH) && this.m_xIrqs.parse(this.m_xReader, true);
+		if (this.m_bHaveIrqs)
+		{
+			this.m_xIrqs.computeRates(this.m_dSeconds);
+			this.rankIrqs();
+		}
+		else
+			this.m_iTopCount = 0;
+
+		this.m_bHaveSoftirqs = this.m_xReader.read(SOFTIRQS_PATH) && this.m_xSoftirqs.parse(this.m_xReader, false);
+		if (this.m_bHaveSoftirqs)
+			this.m_xSoftirqs.computeRates(this.m_dSeconds);
+
+		this.m_lLastSampleNs	= lNow;
+		this.m_lLastStatNs		= lStatNs;
+		this.m_bHavePrevious	= true;
+
+		return true;
+	}
+
+	/**
+	 * Get the context switches per second over the last query.
+	 */
+	public synchronized double getContextSwitchRate()
+	{
+		return this.m_dContextSwitchRate;
+	}
+
+	/**
+	 * Get the hardware interrupts per second over the last query.
+	 */
+	public synchronized double getInterruptRate()
+	{
+		return this.m_dInterruptRate;
+	}
+
+	/**
+	 * Get the softirqs per second over the last query.
+	 */
+	public synchronized double getSoftirqRate()
+	{
+		return this.m_dSoftirqRate;
+	}
+
+	/**
+	 * Get the number of tasks that were runnable at the last query.
+	 */
+	public synchronized int getProcsRunning()
+	{
+		return this.m_iProcsRunning;
+	}
+
+	/**
+	 * Get the number of tasks blocked on I/O at the last query.
+	 */
+	public synchronized int getProcsBlocked()
+	{
+		return this.m_iProcsBlocked;
+	}
+
+	/**
+	 * Get the context switches since boot.
+	 */
+	public synchronized long getContextSwitches()
+	{
+		return this.m_lContextSwitches;
+	}
+
+	/**
+	 * Get the number of cpu columns in /proc/interrupts, the cpus online.
+	 */
+	public synchronized int getCpuCount()
+	{
+		return this.m_xIrqs.m_iCpus;
+	}
+
+	/**
+	 * Return the IRQs with the most interrupts per second, the noisiest first.
+	 *
+	 * @param iCount The maximum number of IRQs returned, at most 16.
+	 * @return A List<irqEntry> as of the last query.
+	 */
+	public synchronized List<irqEntry> getTopIrqs(int iCount)
+	{
+		int				iSize	= Math.min(iCount, this.m_iTopCount);
+		List<irqEntry>	xResult	= new ArrayList<irqEntry>(iSize);
+
+		for (int i = 0; i < iSize; i++)
+			xResult.add(this.createEntry(this.m_aTop[i]));
+
+		return xResult;
+	}
+
+	/**
+	 * Return an IRQ.
+	 *
+	 * @param sName The IRQ number or name as in /proc/interrupts, without the ':'.
+	 * @return The entry or null if there is no such IRQ.
+	 */
+	public synchronized irqEntry getIrq(String sName)
+	{
+		int iRow = this.m_bHaveIrqs ? this.m_xIrqs.getRow(sName) : -1;
+		return (iRow < 0) ? null : this.createEntry(iRow);
+	}
+
+	/**
+	 * Return the rate of a softirq type.
+	 *
+	 * @param sName The type as in /proc/softirqs (TIMER, NET_RX, SCHED, ...).
+	 * @return The softirqs per second on all the cpus, 0 if there is no such type.
+	 */
+	public synchronized double getSoftirqRate(String sName)
+	{
+		int iRow = this.m_bHaveSoftirqs ? this.m_xSoftirqs.getRow(sName) : -1;
+		return (iRow < 0) ? 0 : this.m_xSoftirqs.m_adRates[iRow];
+	}
+
+	/**
+	 * Return the rate of a softirq type on one cpu.
+	 *
+	 * @param sName The type as in /proc/softirqs.
+	 * @param iCpu The cpu column.
+	 * @return The softirqs per second, 0 if there is no such type or cpu.
+	 */
+	public synchronized double getSoftirqRate(String sName, int iCpu)
+	{
+		int iRow = this.m_bHaveSoftirqs ? this.m_xSoftirqs.getRow(sName) : -1;
+		if (iRow < 0 || iCpu < 0 || iCpu >= this.m_xSoftirqs.m_iCpus || !this.m_xSoftirqs.m_bRatesValid)
+			return 0;
+
+		return this.m_xSoftirqs.getDelta(iRow, iCpu) / this.m_dSeconds;
+	}
+
+	/**
+	 * Summarize the scheduler and interrupt load.
+	 *
+	 * @return A string with the summary information.
+	 */
+	@Override
+	public synchronized String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Interrupts: \n";
+		sSummary += "Context switches/s: " + Math.round(this.m_dContextSwitchRate) + "\n";
+		sSummary += "Interrupts/s: " + Math.round(this.m_dInterruptRate) + "\n";
+		sSummary += "Softirqs/s: " + Math.round(this.m_dSoftirqRate) + "\n";
+		sSummary += "Running: " + this.m_iProcsRunning + " Blocked: " + this.m_iProcsBlocked + "\n";
+
+		for (int i = 0; i < Math.min(SUMMARY_IRQ_COUNT, this.m_iTopCount); i++)
+		{
+			int iRow = this.m_aTop[i];
+			sSummary += this.m_xIrqs.getName(iRow) + " " + Math.round(this.m_xIrqs.m_adRates[iRow]) + "/s " + this.m_xIrqs.m_listDescriptions.get(iRow) + "\n";
+		}
+
+		if (this.m_bHaveSoftirqs)
+		{
+			for (int iRow = 0; iRow < this.m_xSoftirqs.m_iRows; iRow++)
+				sSummary += this.m_xSoftirqs.getName(iRow) + " " + Math.round(this.m_xSoftirqs.m_adRates[iRow]) + "/s\n";
+		}
+
+		return sSummary;
+	}
+
+	/**
+	 * Find a line of /proc/stat and return its first value.
+	 *
+	 * @return The value or 0 if the kernel doesn't have the line.
+	 */
+	private long readStatValue(String sName)
+	{
+		this.m_xReader.rewind();
+		return this.m_xReader.findLine(sName) ? this.m_xReader.nextLong() : 0;
+	}
+
+	/**
+	 * Keep the rows of the noisiest IRQs with an insertion sort.  Rows 
+	 * without interrupts since the last query aren't ranked.
+	 */
+	private void rankIrqs()
+	{
+		double[] adRates = this.m_xIrqs.m_adRates;
+
+		this.m_iTopCount = 0;
+		for (int iRow = 0; iRow < this.m_xIrqs.m_iRows; iRow++)
+		{
+			if (adRates[iRow] <= 0)
+				continue;
+
+			if (this.m_iTopCount == MAX_TOP && adRates[iRow] <= adRates[this.m_aTop[MAX_TOP - 1]])
+				continue;
+
+			int iPos = Math.min(this.m_iTopCount, MAX_TOP - 1);
+			while (iPos > 0 && adRates[this.m_aTop[iPos - 1]] < adRates[iRow])
+			{
+				this.m_aTop[iPos] = this.m_aTop[iPos - 1];
+				iPos--;
+			}
+
+			this.m_aTop[iPos] = iRow;
+			if (this.m_iTopCount < MAX_TOP)
+				this.m_iTopCount++;
+		}
+	}
+
+	private irqEntry createEntry(int iRow)
+	{
+		irqTable	xTable	= this.m_xIrqs;
+		irqEntry	xEntry	= new irqEntry(xTable.getName(iRow), xTable.m_listDescriptions.get(iRow), xTable.m_iCpus);
+
+		xEntry.m_lCount			= xTable.getTotal(iRow);
+		xEntry.m_dRate			= xTable.m_adRates[iRow];
+		xEntry.m_iBusiestCpu	= -1;
+
+		if (!xTable.m_bRatesValid)
+			return xEntry;
+
+		for (int iCpu = 0; iCpu < xTable.m_iCpus; iCpu++)
+		{
+			xEntry.m_adCpuRates[iCpu] = xTable.getDelta(iRow, iCpu) / this.m_dSeconds;
+
+			if (xEntry.m_iBusiestCpu < 0 || xEntry.m_adCpuRates[iCpu] > xEntry.m_dBusiestCpuRate)
+			{
+				xEntry.m_iBusiestCpu		= iCpu;
+				xEntry.m_dBusiestCpuRate	= xEntry.m_adCpuRates[iCpu];
+			}
+		}
+
+		return xEntry;
+	}
+
+	private static double rate(long lValue, long lPrevious, double dSeconds)
+	{
+		return (lValue > lPrevious) ? (lValue - lPrevious) / dSeconds : 0;
+	}
+}
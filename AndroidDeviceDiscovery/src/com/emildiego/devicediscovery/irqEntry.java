@@ -0,0 +1,32 @@
+/**
+ * irqEntry
+ *
+ * The count and rate of a single interrupt line.  Returned by interrupts
+ * for its noisiest IRQs table.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * A single interrupt and its rates.
+ */
+public class irqEntry
+{
+	public String			m_sName;			//* the IRQ number, or NMI, LOC, ... for the arch interrupts
+	public String			m_sDescription;		//* chip, type and the drivers sharing it
+
+	public long				m_lCount;			//* on all the cpus since boot
+	public double			m_dRate;			//* per second over the last query
+
+	public int				m_iBusiestCpu;
+	public double			m_dBusiestCpuRate;
+	public double[]			m_adCpuRates;
+
+	public irqEntry(String sName, String sDescription, int iCpus)
+	{
+		this.m_sName		= sName;
+		this.m_sDescription	= sDescription;
+		this.m_adCpuRates	= new double[iCpus];
+	}
+}
@@ -0,0 +1,593 @@
+/**
+ * killRisk
+ *
+ * Ranks processes by how likely they are to be the next ones killed by
+ * the low memory killer.  Android kills by oom_score_adj: when
+ * MemAvailable drops below the minfree level of an adj band, the
+ * processes at or above that adj go first, the biggest first.  So for each
+ * process we read /proc/[pid]/oom_score_adj and oom_score, follow its RSS
+ * from /proc/[pid]/statm, and compare the minfree level of its band
+ * against where MemAvailable is heading.  A process whose RSS is growing
+ * is both pushing MemAvailable down and becoming the biggest target in its
+ * band, so its risk is raised by how much it is projected to grow over
+ * the horizon.
+ *
+ * The tracker is updated incrementally, once per tick.  Each pid costs at
+ * most three small reads into a shared buffer: statm and oom_score every
+ * tick, oom_score_adj only every few ticks or when the caller says the
+ * process changed importance (which is when the system rewrites it).
+ * Trends are exponentially smoothed so the state per pid stays constant.
+ * Pids that weren't reported in a tick are dropped at the end of it.
+ *
+ * The class has no Android dependencies, processes feeds it from the
+ * running process list.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What we keep between ticks for each process.
+ */
+class killRiskState
+{
+	killRiskEntry	m_xEntry;
+	int				m_iNameId;
+	int				m_iImportance;
+	int				m_iTicksSinceAdj;
+	long			m_lRssTime;
+	long			m_lLastTick;
+	boolean			m_bHasRss;
+}
+
+/**
+ * The tracker class.
+ */
+public class killRisk
+{
+	static final String				LMK_MINFREE_PATH	= "/sys/module/lowmemorykiller/parameters/minfree";
+	static final String				LMK_ADJ_PATH		= "/sys/module/lowmemorykiller/parameters/adj";
+
+	/**
+	 * The stock lmkd levels, used when the kernel doesn't publish its own.
+	 * Adj in oom_score_adj units, minfree in kB.
+	 */
+	static final int[]				DEFAULT_ADJ			= { 0, 100, 200, 250, 900, 950 };
+	static final long[]				DEFAULT_MINFREE		= { 73728, 92160, 110592, 129024, 221184, 322560 };
+
+	static final int				OOM_SCORE_ADJ_MAX	= 1000;
+	static final int				OOM_ADJ_MAX			= 15;
+	static final int				OOM_DISABLE			= -17;
+
+	static final int				DEFAULT_HORIZON		= 60;		//* seconds
+	static final int				DEFAULT_ADJ_REFRESH	= 8;		//* ticks
+	static final long				DEFAULT_TIME_CONSTANT = 30 * 1000L;
+
+	/**
+	 * How much RSS growth raises the risk.  A process projected to double its
+	 * RSS over the horizon has its risk multiplied by 1 + RSS_GROWTH_WEIGHT.
+	 */
+	static final double				RSS_GROWTH_WEIGHT	= 1.0;
+
+	/**
+	 * Highest risk first.  Inside the same risk (ie. both already in the kill
+	 * range) the kernel's order: higher adj, then higher oom_score, then the
+	 * bigger projected RSS.
+	 */
+	private final Comparator<killRiskEntry>	m_xHighestRiskFirst = new Comparator<killRiskEntry>()
+	{
+		public int compare(killRiskEntry xLeft, killRiskEntry xRight)
+		{
+			int iResult = Double.compare(xRight.m_dRisk, xLeft.m_dRisk);
+			if (iResult != 0)
+				return iResult;
+
+			if (xLeft.m_iOomScoreAdj != xRight.m_iOomScoreAdj)
+				return (xRight.m_iOomScoreAdj > xLeft.m_iOomScoreAdj) ? 1 : -1;
+
+			if (xLeft.m_iOomScore != xRight.m_iOomScore)
+				return (xRight.m_iOomScore > xLeft.m_iOomScore) ? 1 : -1;
+
+			long lLeft	= xLeft.getProjectedRss(killRisk.this.m_iHorizon);
+			long lRight	= xRight.getProjectedRss(killRisk.this.m_iHorizon);
+			return (lLeft == lRight) ? 0 : ((lRight > lLeft) ? 1 : -1);
+		}
+	};
+
+	private procfsReader				m_xReader;
+	private Map<Integer, killRiskState>	m_xStates;
+	private List<killRiskEntry>			m_listRanking;
+
+	//* the kill levels, sorted by adj
+	private int[]						m_aAdj;
+	private long[]						m_aMinfreeKb;
+
+	private int							m_iHorizon;
+	private int							m_iAdjRefresh;
+	private long						m_lTimeConstant;
+
+	//* the current tick
+	private long						m_lTick;
+	private long						m_lTickTime;
+	private boolean						m_bInTick;
+
+	//* MemAvailable and its smoothed trend (kB/s)
+	private long						m_lMemAvailable;
+	private long						m_lMemAvailableTime;
+	private double						m_dMemAvailableTrend;
+
+	//* statistics
+	private long						m_lReads;
+
+	/**
+	 * Default constructor.  Uses the stock lmkd levels until loadMinfree() or setMinfree() is called.
+	 */
+	public killRisk()
+	{
+		this.m_xReader			= new procfsReader(256);
+		this.m_xStates			= new HashMap<Integer, killRiskState>();
+		this.m_listRanking		= new ArrayList<killRiskEntry>();
+
+		this.m_aAdj				= DEFAULT_ADJ;
+		this.m_aMinfreeKb		= DEFAULT_MINFREE;
+
+		this.m_iHorizon			= DEFAULT_HORIZON;
+		this.m_iAdjRefresh		= DEFAULT_ADJ_REFRESH;
+		this.m_lTimeConstant	= DEFAULT_TIME_CONSTANT;
+
+		this.m_lMemAvailable	= -1;
+	}
+
+	/**
+	 * Set the kill levels.
+	 *
+	 * @param aAdj The oom_score_adj of each level, ascending.
+	 * @param aMinfreeKb The MemAvailable (kB) below which each level is killed.
+	 */
+	public synchronized void setMinfree(int[] aAdj, long[] aMinfreeKb)
+	{
+		if (aAdj.length != aMinfreeKb.length)
+			throw new IllegalArgumentException("The adj and minfree arrays must be the same length");
+
+		this.m_aAdj			= new int[aAdj.length];
+		this.m_aMinfreeKb	= new long[aMinfreeKb.length];
+		System.arraycopy(aAdj, 0, this.m_aAdj, 0, aAdj.length);
+		System.arraycopy(aMinfreeKb, 0, this.m_aMinfreeKb, 0, aMinfreeKb.length);
+	}
+
+	/**
+	 * Load the kill levels of the in-kernel low memory killer.  Devices that
+	 * use the userspace lmkd don't have them and keep the stock levels.
+	 *
+	 * @return True if the levels were loaded.
+	 */
+	public synchronized boolean loadMinfree()
+	{
+		long[] aAdj		= this.readList(LMK_ADJ_PATH);
+		long[] aMinfree	= this.readList(LMK_MINFREE_PATH);
+
+		if (aAdj == null || aMinfree == null)
+			return false;
+
+		int iCount = Math.min(aAdj.length, aMinfree.length);
+		if (iCount == 0)
+			return false;
+
+		//* older kernels still use the oom_adj scale (-17..15)
+		long lMax = 0;
+		for (int i = 0; i < iCount; i++)
+			lMax = Math.max(lMax, aAdj[i]);
+		boolean bOldScale = (lMax <= OOM_ADJ_MAX);
+
+		this.m_aAdj			= new int[iCount];
+		this.m_aMinfreeKb	= new long[iCount];
+		for (int i = 0; i < iCount; i++)
+		{
+			this.m_aAdj[i]			= bOldScale ? killRisk.scaleOomAdj((int)aAdj[i]) : (int)aAdj[i];
+			this.m_aMinfreeKb[i]	= aMinfree[i] * procfsReader.PAGE_KB;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Set how far ahead the MemAvailable and RSS trends are projected.
+	 *
+	 * @param iSeconds The horizon in seconds.
+	 */
+	public synchronized void setHorizon(int iSeconds)
+	{
+		this.m_iHorizon = Math.max(0, iSeconds);
+	}
+	public synchronized int getHorizon()
+	{
+		return this.m_iHorizon;
+	}
+
+	/**
+	 * Set how often oom_score_adj is re-read when the importance doesn't change.
+	 *
+	 * @param iTicks The number of ticks.
+	 */
+	public synchronized void setAdjRefresh(int iTicks)
+	{
+		this.m_iAdjRefresh = Math.max(1, iTicks);
+	}
+
+	/**
+	 * Start a tick.
+	 *
+	 * @param lTime The time (ms).
+	 * @param lMemAvailableKb The system MemAvailable in kB, or -1 if it isn't known.
+	 */
+	public synchronized void beginTick(long lTime, long lMemAvailableKb)
+	{
+		this.m_lTick++;
+		this.m_lTickTime	= lTime;
+		this.m_bInTick		= true;
+
+		if (lMemAvailableKb < 0)
+			return;
+
+		if (this.m_lMemAvailable >= 0 && lTime > this.m_lMemAvailableTime)
+		{
+			long	lElapsed	= lTime - this.m_lMemAvailableTime;
+			double	dRate		= (lMemAvailableKb - this.m_lMemAvailable) * 1000.0 / lElapsed;
+			this.m_dMemAvailableTrend = killRisk.smooth(this.m_dMemAvailableTrend, dRate, lElapsed, this.m_lTimeConstant);
+		}
+
+		this.m_lMemAvailable		= lMemAvailableKb;
+		this.m_lMemAvailableTime	= lTime;
+	}
+
+	/**
+	 * Update a process.  Must be called between beginTick() and endTick().
+	 *
+	 * @param iPid The process id.
+	 * @param iNameId The process name in the shared nameTable, used to tell a reused pid from the same process.  We take our own reference.
+	 * @param iImportance The importance of the process.  A change forces oom_score_adj to be re-read.
+	 * @param lFallbackRssKb The size to use if statm can't be read (ie. the PSS), or -1.
+	 */
+	public synchronized void update(int iPid, int iNameId, int iImportance, long lFallbackRssKb)
+	{
+		if (!this.m_bInTick)
+			throw new IllegalStateException("update() called outside of a tick");
+
+		killRiskState xState = this.m_xStates.get(iPid);
+
+		//* a reused pid is a new process
+		if (xState != null && xState.m_iNameId != iNameId)
+		{
+			nameTable.getShared().release(xState.m_iNameId);
+			xState = null;
+		}
+
+		boolean bReadAdj;
+		if (xState == null)
+		{
+			xState = new killRiskState();
+			xState.m_xEntry		= new killRiskEntry(iPid, nameTable.getShared().getName(iNameId));
+			xState.m_iNameId	= iNameId;
+			nameTable.getShared().retain(iNameId);
+			xState.m_iImportance	= iImportance;
+			this.m_xStates.put(iPid, xState);
+			bReadAdj = true;
+		}
+		else
+		{
+			bReadAdj = (iImportance != xState.m_iImportance || ++xState.m_iTicksSinceAdj >= this.m_iAdjRefresh);
+		}
+
+		xState.m_lLastTick		= this.m_lTick;
+		xState.m_iImportance	= iImportance;
+
+		killRiskEntry	xEntry = xState.m_xEntry;
+		String			sBase  = "/proc/" + iPid + "/";
+
+		if (bReadAdj)
+		{
+			xState.m_iTicksSinceAdj = 0;
+
+			if (this.readFile(sBase + "oom_score_adj"))
+				xEntry.m_iOomScoreAdj = (int)this.m_xReader.nextLong();
+			else if (this.readFile(sBase + "oom_adj"))
+				xEntry.m_iOomScoreAdj = killRisk.scaleOomAdj((int)this.m_xReader.nextLong());
+		}
+
+		if (this.readFile(sBase + "oom_score"))
+			xEntry.m_iOomScore = (int)this.m_xReader.nextLong();
+
+		//* statm: size resident shared ... in pages
+		long lRss = lFallbackRssKb;
+		if (this.readFile(sBase + "statm"))
+		{
+			this.m_xReader.skipToken();
+			lRss = this.m_xReader.nextLong() * procfsReader.PAGE_KB;
+		}
+
+		if (lRss >= 0)
+		{
+			if (xState.m_bHasRss && this.m_lTickTime > xState.m_lRssTime)
+			{
+				long	lElapsed	= this.m_lTickTime - xState.m_lRssTime;
+				double	dRate		= (lRss - xEntry.m_lRssKb) * 1000.0 / lElapsed;
+				xEntry.m_dRssTrend	= killRisk.smooth(xEntry.m_dRssTrend, dRate, lElapsed, this.m_lTimeConstant);
+			}
+
+			xEntry.m_lRssKb		= lRss;
+			xState.m_lRssTime	= this.m_lTickTime;
+			xState.m_bHasRss	= true;
+		}
+	}
+
+	/**
+	 * Update a process by name.
+	 *
+	 * @see #update(int, int, int, long)
+	 */
+	public void update(int iPid, String sName, int iImportance, long lFallbackRssKb)
+	{
+		nameTable	xNames	= nameTable.getShared();
+		int			iNameId	= xNames.intern(sName);
+
+		try
+		{
+			this.update(iPid, iNameId, iImportance, lFallbackRssKb);
+		}
+		finally
+		{
+			//* the state took its own reference
+			xNames.release(iNameId);
+		}
+	}
+
+	/**
+	 * End the tick.  Drops the processes that weren't updated and ranks the rest.
+	 */
+	public synchronized void endTick()
+	{
+		if (!this.m_bInTick)
+			return;
+		this.m_bInTick = false;
+
+		long lProjected = this.getProjectedMemAvailable();
+
+		this.m_listRanking.clear();
+
+		Iterator<killRiskState> xIter = this.m_xStates.values().iterator();
+		while (xIter.hasNext())
+		{
+			killRiskState xState = xIter.next();
+			if (xState.m_lLastTick != this.m_lTick)
+			{
+				nameTable.getShared().release(xState.m_iNameId);
+				xIter.remove();
+				continue;
+			}
+
+			killRiskEntry xEntry = xState.m_xEntry;
+			xEntry.m_lThresholdKb	= this.getKillThreshold(xEntry.m_iOomScoreAdj);
+			xEntry.m_dRisk			= killRisk.risk(xEntry.m_lThresholdKb, lProjected, xEntry.m_lRssKb, xEntry.getProjectedRss(this.m_iHorizon));
+
+			this.m_listRanking.add(xEntry);
+		}
+
+		Collections.sort(this.m_listRanking, this.m_xHighestRiskFirst);
+	}
+
+	/**
+	 * The MemAvailable at which a process with the given adj gets killed.
+	 *
+	 * @param iOomScoreAdj The oom_score_adj.
+	 * @return The minfree level of its band in kB, 0 if no band covers it.
+	 */
+	public synchronized long getKillThreshold(int iOomScoreAdj)
+	{
+		long lThreshold = 0;
+		for (int i = 0; i < this.m_aAdj.length; i++)
+		{
+			if (this.m_aAdj[i] <= iOomScoreAdj)
+				lThreshold = Math.max(lThreshold, this.m_aMinfreeKb[i]);
+		}
+		return lThreshold;
+	}
+
+	/**
+	 * Where MemAvailable is heading, the current value plus the trend over
+	 * the horizon.  Only a falling trend is projected.
+	 *
+	 * @return MemAvailable in kB, -1 if it isn't known.
+	 */
+	public synchronized long getProjectedMemAvailable()
+	{
+		if (this.m_lMemAvailable < 0)
+			return -1;
+
+		double dDrop = Math.min(0, this.m_dMemAvailableTrend) * this.m_iHorizon;
+		return Math.max(0, this.m_lMemAvailable + (long)dDrop);
+	}
+
+	/**
+	 * The ranked processes, the most likely to be killed first.
+	 *
+	 * @param iCount The maximum number of processes returned.
+	 * @return Copies of the entries, so they don't change under the caller.
+	 */
+	public synchronized List<killRiskEntry> getRanking(int iCount)
+	{
+		int						iSize	= Math.min(iCount, this.m_listRanking.size());
+		List<killRiskEntry>		xResult	= new ArrayList<killRiskEntry>(iSize);
+
+		for (int i = 0; i < iSize; i++)
+		{
+			killRiskEntry xEntry	= this.m_listRanking.get(i);
+			killRiskEntry xCopy		= new killRiskEntry(xEntry.m_iPid, xEntry.m_sName);
+			xCopy.m_iOomScoreAdj	= xEntry.m_iOomScoreAdj;
+			xCopy.m_iOomScore		= xEntry.m_iOomScore;
+			xCopy.m_lRssKb			= xEntry.m_lRssKb;
+			xCopy.m_dRssTrend		= xEntry.m_dRssTrend;
+			xCopy.m_lThresholdKb	= xEntry.m_lThresholdKb;
+			xCopy.m_dRisk			= xEntry.m_dRisk;
+			xResult.add(xCopy);
+		}
+
+		return xResult;
+	}
+	public List<killRiskEntry> getRanking()
+	{
+		return this.getRanking(Integer.MAX_VALUE);
+	}
+
+	public synchronized long getMemAvailable()
+	{
+		return this.m_lMemAvailable;
+	}
+
+	/**
+	 * The smoothed MemAvailable trend.
+	 *
+	 * @return kB/s, negative while memory is running out.
+	 */
+	public synchronized double getMemAvailableTrend()
+	{
+		return this.m_dMemAvailableTrend;
+	}
+
+	public synchronized int getProcessCount()
+	{
+		return this.m_xStates.size();
+	}
+
+	/**
+	 * The number of files read since the tracker was created.
+	 */
+	public synchronized long getReadCount()
+	{
+		return this.m_lReads;
+	}
+
+	/**
+	 * Forget all the processes and trends.
+	 */
+	public synchronized void reset()
+	{
+		for (killRiskState xState : this.m_xStates.values())
+			nameTable.getShared().release(xState.m_iNameId);
+		this.m_xStates.clear();
+		this.m_listRanking.clear();
+		this.m_lMemAvailable		= -1;
+		this.m_dMemAvailableTrend	= 0;
+		this.m_bInTick				= false;
+	}
+
+	/**
+	 * Summarize the ranking and return it as a string.
+	 *
+	 * @param iCount The number of processes listed.
+	 * @return A string with the summary information.
+	 */
+	public synchronized String summaryString(int iCount)
+	{
+		String sSummary = "";
+
+		sSummary += "Kill Risk: MemAvailable " + this.m_lMemAvailable + " kB";
+		sSummary += " (trend " + String.format("%.1f", this.m_dMemAvailableTrend) + " kB/s";
+		sSummary += ", in " + this.m_iHorizon + "s " + this.getProjectedMemAvailable() + " kB)\n";
+
+		int iSize = Math.min(iCount, this.m_listRanking.size());
+		for (int i = 0; i < iSize; i++)
+		{
+			killRiskEntry xEntry = this.m_listRanking.get(i);
+			sSummary += String.format("%.2f", xEntry.m_dRisk) + " " + xEntry.m_iPid + " " + xEntry.m_sName;
+			sSummary += " adj " + xEntry.m_iOomScoreAdj + " score " + xEntry.m_iOomScore;
+			sSummary += " rss " + xEntry.m_lRssKb + " kB (" + String.format("%.1f", xEntry.m_dRssTrend) + " kB/s)\n";
+		}
+
+		return sSummary;
+	}
+
+	/**
+	 * Read a small file into the shared reader.
+	 */
+	private boolean readFile(String sPath)
+	{
+		this.m_lReads++;
+		return this.m_xReader.read(sPath);
+	}
+
+	/**
+	 * Read a comma separated list of numbers.
+	 *
+	 * @return The numbers or null if the file can't be read.
+	 */
+	private long[] readList(String sPath)
+	{
+		if (!this.m_xReader.read(sPath))
+			return null;
+
+		String		sLine	= this.m_xReader.restOfLine();
+		String[]	aParts	= sLine.split(",");
+		long[]		aResult	= new long[aParts.length];
+
+		try
+		{
+			for (int i = 0; i < aParts.length; i++)
+				aResult[i] = Long.parseLong(aParts[i].trim());
+		}
+		catch (NumberFormatException exp)
+		{
+			return null;
+		}
+
+		return aResult;
+	}
+
+	/**
+	 * The risk of a process given where MemAvailable is heading.  The band
+	 * risk rises as MemAvailable approaches the band's minfree level and is
+	 * 1 once it's inside.  It is then raised by the projected RSS growth of
+	 * the process, capped at doubling.  Without a MemAvailable we can't say,
+	 * the ranking then falls back to the kernel order alone.
+	 */
+	static double risk(long lThresholdKb, long lProjectedKb, long lRssKb, long lProjectedRssKb)
+	{
+		if (lThresholdKb <= 0 || lProjectedKb < 0)
+			return 0;
+
+		double dBand = Math.min(1.0, (double)lThresholdKb / Math.max(1, lProjectedKb));
+
+		double dGrowth = 0;
+		if (lRssKb > 0 && lProjectedRssKb > lRssKb)
+			dGrowth = Math.min(1.0, (double)(lProjectedRssKb - lRssKb) / lRssKb);
+
+		return Math.min(1.0, dBand * (1 + RSS_GROWTH_WEIGHT * dGrowth));
+	}
+
+	/**
+	 * Blend a new measurement into a smoothed rate, weighted by how long the measurement took.
+	 */
+	static double smooth(double dSmoothed, double dRate, long lElapsed, long lTimeConstant)
+	{
+		double dAlpha = 1 - Math.exp(-(double)lElapsed / lTimeConstant);
+		return dSmoothed + dAlpha * (dRate - dSmoothed);
+	}
+
+	/**
+	 * Convert an oom_adj value (-17..15) to the oom_score_adj scale (-1000..1000).
+	 */
+	static int scaleOomAdj(int iOomAdj)
+	{
+		if (iOomAdj == OOM_ADJ_MAX)
+			return OOM_SCORE_ADJ_MAX;
+
+		return (iOomAdj * OOM_SCORE_ADJ_MAX) / -OOM_DISABLE;
+	}
+}
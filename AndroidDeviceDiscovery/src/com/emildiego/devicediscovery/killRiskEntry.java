@@ -0,0 +1,41 @@
+/**
+ * killRiskEntry
+ *
+ * The low memory kill risk of a single process.  Returned by killRisk
+ * in its ranked list.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * A single process and its kill risk.
+ */
+public class killRiskEntry
+{
+	public int				m_iPid;
+	public String			m_sName;
+	public int				m_iOomScoreAdj;
+	public int				m_iOomScore;
+	public long				m_lRssKb;
+	public double			m_dRssTrend;		//* kB/s, smoothed
+	public long				m_lThresholdKb;		//* the MemAvailable at which its adj level gets killed, 0 if never
+	public double			m_dRisk;			//* 0..1, 1 when it is inside the kill range, raised by RSS growth
+
+	public killRiskEntry(int iPid, String sName)
+	{
+		this.m_iPid		= iPid;
+		this.m_sName	= sName;
+	}
+
+	/**
+	 * The RSS the process is heading to, the current RSS plus the trend over a horizon.
+	 *
+	 * @param iHorizonSec The horizon in seconds.
+	 * @return The projected RSS in kB.
+	 */
+	public long getProjectedRss(int iHorizonSec)
+	{
+		return Math.max(0, this.m_lRssKb + (long)(this.m_dRssTrend * iHorizonSec));
+	}
+}
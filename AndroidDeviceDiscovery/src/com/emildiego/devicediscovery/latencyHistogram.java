@@ -0,0 +1,246 @@
+/**
+ * latencyHistogram
+ *
+ * A fixed size log-linear histogram used to record latency samples and
+ * compute percentiles from them.  Values below 32 are stored exactly, above
+ * that every power of two is split into 16 linear buckets, which keeps the
+ * error of any reported percentile below ~6%.  Recording a value is O(1) and
+ * never allocates.
+ *
+ * The class does not care about units, but by convention the device
+ * discovery classes record microseconds.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * The histogram class.
+ */
+public class latencyHistogram
+{
+	/**
+	 * Values below (1 << SUB_BUCKET_BITS) get their own bucket.
+	 */
+	static final int			SUB_BUCKET_BITS		= 5;
+	static final int			LINEAR_BUCKETS		= 1 << SUB_BUCKET_BITS;
+	static final int			HALF_BUCKETS		= LINEAR_BUCKETS >> 1;
+
+	/**
+	 * Total number of buckets needed to cover every positive long.
+	 */
+	static final int			BUCKET_COUNT		= LINEAR_BUCKETS + (63 - SUB_BUCKET_BITS) * HALF_BUCKETS;
+
+	/**
+	 * The bucket counts
+	 */
+	private long[]				m_aCounts;
+
+	/**
+	 * Summary values
+	 */
+	private long				m_lTotalCount;
+	private long				m_lMin;
+	private long				m_lMax;
+	private double				m_dSum;
+
+	/**
+	 * Default constructor
+	 */
+	public latencyHistogram()
+	{
+		this.m_aCounts = new long[BUCKET_COUNT];
+		this.reset();
+	}
+
+	/**
+	 * Clear all of the recorded values.
+	 */
+	public void reset()
+	{
+		for (int i = 0; i < this.m_aCounts.length; i++)
+			this.m_aCounts[i] = 0;
+
+		this.m_lTotalCount	= 0;
+		this.m_lMin			= Long.MAX_VALUE;
+		this.m_lMax			= 0;
+		this.m_dSum			= 0;
+	}
+
+	/**
+	 * Record a single value.  Negative values are clamped to zero.
+	 *
+	 * @param lValue The value we want to record.
+	 */
+	public void record(long lValue)
+	{
+		if (lValue < 0)
+			lValue = 0;
+
+		this.m_aCounts[latencyHistogram.bucketIndex(lValue)]++;
+		this.m_lTotalCount++;
+		this.m_dSum += lValue;
+
+		if (lValue < this.m_lMin)
+			this.m_lMin = lValue;
+		if (lValue > this.m_lMax)
+			this.m_lMax = lValue;
+	}
+
+	/**
+	 * Add all the values recorded by another histogram to this one.
+	 *
+	 * @param xOther The histogram we want to merge into this one.
+	 */
+	public void merge(latencyHistogram xOther)
+	{
+		if (xOther == null || xOther.m_lTotalCount == 0)
+			return;
+
+		for (int i = 0; i < BUCKET_COUNT; i++)
+			this.m_aCounts[i] += xOther.m_aCounts[i];
+
+		this.m_lTotalCount += xOther.m_lTotalCount;
+		this.m_dSum += xOther.m_dSum;
+
+		if (xOther.m_lMin < this.m_lMin)
+			this.m_lMin = xOther.m_lMin;
+		if (xOther.m_lMax > this.m_lMax)
+			this.m_lMax = xOther.m_lMax;
+	}
+
+	/**
+	 * Get the value at the given percentile.  The value returned is the upper
+	 * bound of the bucket the percentile falls in, capped at the largest value
+	 * recorded.
+	 *
+	 * @param dPercentile The percentile we want (0 - 100).
+	 * @return The value at the percentile or 0 if nothing has been recorded.
+	 */
+	public long getPercentile(double dPercentile)
+	{
+		long		lTarget;
+		long		lSeen = 0;
+
+		if (this.m_lTotalCount == 0)
+			return 0;
+
+		if (dPercentile <= 0)
+			return this.m_lMin;
+		if (dPercentile >= 100)
+			return this.m_lMax;
+
+		//* the rank of the sample we are looking for (1 based)
+		lTarget = (long)Math.ceil((dPercentile / 100.0) * this.m_lTotalCount);
+		if (lTarget < 1)
+			lTarget = 1;
+
+		for (int i = 0; i < BUCKET_COUNT; i++)
+		{
+			lSeen += this.m_aCounts[i];
+			if (lSeen >= lTarget)
+			{
+				long lValue = latencyHistogram.bucketUpperBound(i);
+				if (lValue > this.m_lMax)
+					lValue = this.m_lMax;
+				if (lValue < this.m_lMin)
+					lValue = this.m_lMin;
+				return lValue;
+			}
+		}
+
+		return this.m_lMax;
+	}
+
+	/**
+	 * Return the number of values recorded.
+	 */
+	public long getCount()
+	{
+		return this.m_lTotalCount;
+	}
+
+	/**
+	 * Return the smallest value recorded or 0 if nothing was recorded.
+	 */
+	public long getMin()
+	{
+		return (this.m_lTotalCount == 0) ? 0 : this.m_lMin;
+	}
+
+	/**
+	 * Return the largest value recorded.
+	 */
+	public long getMax()
+	{
+		return this.m_lMax;
+	}
+
+	/**
+	 * Return the mean of all the recorded values.
+	 */
+	public double getMean()
+	{
+		return (this.m_lTotalCount == 0) ? 0 : this.m_dSum / this.m_lTotalCount;
+	}
+
+	/**
+	 * Summarize the histogram as a single line.
+	 *
+	 * @param sUnits The units the values were recorded in (appended to each number).
+	 * @return A string with the count, mean and the common percentiles.
+	 */
+	public String summaryString(String sUnits)
+	{
+		if (sUnits == null)
+			sUnits = "";
+
+		return "n=" + this.getCount() +
+				" mean=" + Math.round(this.getMean()) + sUnits +
+				" p50=" + this.getPercentile(50) + sUnits +
+				" p90=" + this.getPercentile(90) + sUnits +
+				" p99=" + this.getPercentile(99) + sUnits +
+				" max=" + this.getMax() + sUnits;
+	}
+
+	/**
+	 * Map a value to its bucket.
+	 *
+	 * @param lValue A non negative value
+	 * @return The index of the bucket that holds the value.
+	 */
+	static int bucketIndex(long lValue)
+	{
+		if (lValue < LINEAR_BUCKETS)
+			return (int)lValue;
+
+		//* the position of the highest set bit decides the octave, the next
+		//* (SUB_BUCKET_BITS - 1) bits decide the bucket inside the octave.
+		int iMsb		= 63 - Long.numberOfLeadingZeros(lValue);
+		int iShift		= iMsb - (SUB_BUCKET_BITS - 1);
+		int iSub		= (int)(lValue >>> iShift);
+
+		return LINEAR_BUCKETS + (iMsb - SUB_BUCKET_BITS) * HALF_BUCKETS + (iSub - HALF_BUCKETS);
+	}
+
+	/**
+	 * Return the largest value that maps to the given bucket.
+	 *
+	 * @param iIndex The bucket index.
+	 * @return The upper bound of the bucket (inclusive).
+	 */
+	static long bucketUpperBound(int iIndex)
+	{
+		if (iIndex < LINEAR_BUCKETS)
+			return iIndex;
+
+		int iOctave		= (iIndex - LINEAR_BUCKETS) / HALF_BUCKETS;
+		int iSub		= (iIndex - LINEAR_BUCKETS) % HALF_BUCKETS + HALF_BUCKETS;
+		int iShift		= iOctave + 1;
+
+		long lBound		= (((long)iSub + 1) << iShift) - 1;
+
+		//* the very last bucket overflows
+		return (lBound < 0) ? Long.MAX_VALUE : lBound;
+	}
+}
@@ -10,10 +10,6 @@
  */
 package com.emildiego.devicediscovery;
 
-import java.io.BufferedReader;
-
-import java.io.IOException;
-import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.regex.Matcher;
@@ -32,6 +28,7 @@ class memoryHistoryEntry
 	public long						m_lActiveMemory;
 	public long						m_lInactiveMemory;
 	public long						m_lKernelStack;
+	public long						m_lMemAvailable;
 	
 	public Date						m_dtTimestamp;
 	
@@ -45,6 +42,7 @@ class memoryHistoryEntry
 		m_lActiveMemory		= 0;
 		m_lInactiveMemory	= 0;
 		m_lKernelStack		= 0;
+		m_lMemAvailable		= 0;
 		m_dtTimestamp = new Date();	
 	}
 }
@@ -64,20 +62,30 @@ public class memory extends discoveryBase implements discoveryHistory
 	private long						m_lActiveMemory;
 	private long						m_lInactiveMemory;
 	private long						m_lKernelStack;
+	private long						m_lMemAvailable;
+	private long						m_lCached;
 	
 	/** 
 	 * store the results of reading the /proc/meminfo file
 	 */
 	private String						m_sRawMemInfo;
 	
+	/**
+	 * Reused for every read of /proc/meminfo
+	 */
+	private procfsReader				m_xReader;
+	
 	/** 
 	 * the regular expressions used to search the raw memory info
 	 */
+	static final String					MEMINFO_PATH = "/proc/meminfo";
 	static final String 				TOTAL_MEM_REGEX = "MemTotal:[\\s]+([0-9]+)(\\s)kB";
 	static final String 				FREE_MEM_REGEX = "MemFree:[\\s]+([0-9]+)(\\s)kB";
 	static final String 				ACTIVE_MEM_REGEX = "Active:[\\s]+([0-9]+)(\\s)kB";
 	static final String 				INACTIVE_MEM_REGEX = "Inactive:[\\s]+([0-9]+)(\\s)kB";
 	static final String					KERNEL_STACK = "KernelStack:[\\s]+([0-9]+)(\\s)kB";
+	static final String					MEM_AVAILABLE_REGEX = "MemAvailable:[\\s]+([0-9]+)(\\s)kB";
+	static final String					CACHED_REGEX = "(?m)^Cached:[\\s]+([0-9]+)(\\s)kB";
 
 	/** 
 	 * Keep track of our history
@@ -99,8 +107,10 @@ public class memory extends discoveryBase implements discoveryHistory
 		this.m_lFreeMemory = 0;
 		this.m_lActiveMemory = 0;
 		this.m_lInactiveMemory = 0;
+		this.m_lMemAvailable = -1;
 		
 		this.m_sRawMemInfo = null;
+		this.m_xReader = new procfsReader();
 		
 		//* initialize the history list
 		this.m_xHistoryList = new ArrayList<Object>();
@@ -114,54 +124,23 @@ public class memory extends discoveryBase implements discoveryHistory
 	 */
 	private void getRawInfo()
 	{
-		BufferedReader 		ifp = null;
+		procfsReader xReader = this.m_xReader;
 		
 		/** 
 		 * empty the buffer
 		 */
 		this.m_sRawMemInfo = "";
 		
-		try 
-		{
-			/** 
-			 * execute the shell command 
-			 */
-			Process process = null;
-			process = Runtime.getRuntime().exec("cat /proc/meminfo");
-			
-			/** 
-			 * read the output from the command
-			 */
-			String sLine = null;
-			ifp = new BufferedReader(new InputStreamReader(process.getInputStream()));
-
-			/** 
-			 * Read all the available output and store it in the class member
-			 */
-			while ( (sLine = ifp.readLine()) != null)
-			{
-            	this.m_sRawMemInfo += sLine + "\n";
-			}
-		} catch (IOException exp) {
-			this.logError("There was an error while trying to execute the shell command.");
-			this.logStackTrace(exp.getStackTrace());
-		
-		}
-		finally
+		/** 
+		 * read the file directly, running cat forked a process every time
+		 */
+		if (!xReader.read(MEMINFO_PATH))
 		{
-			/** 
-			 * we need to close the stream once everything is done.
-			 */
-			try {
-				if (ifp != null)
-					ifp.close();
-			}
-			catch (IOException exp)
-			{
-				this.logError("There was an error while trying close out input stream.");
-				this.logStackTrace(exp.getStackTrace());
-			}
+			this.logError("There was an error while trying to read " + MEMINFO_PATH);
+			return;
 		}
+		
+		this.m_sRawMemInfo = new String(xReader.getBuffer(), 0, xReader.getLength());
 	}
 	
 	/**
@@ -176,6 +155,8 @@ public class memory extends discoveryBase implements discoveryHistory
 		String 	sActiveMemory			= null;
 		String 	sInactiveMemory			= null;
 		String	sKernelStack			= null;
+		String	sMemAvailable			= null;
+		String	sCached					= null;
 		
 		Pattern		xRegexSearchPattern 	= null;
 		Matcher		xSearch  				= null;
@@ -307,6 +288,42 @@ public class memory extends discoveryBase implements discoveryHistory
 				this.logStackTrace(exp.getStackTrace());
 			}
 		}	
+		
+		//* Get the page cache, only used to estimate MemAvailable on older kernels
+		xRegexSearchPattern = Pattern.compile( memory.CACHED_REGEX );
+		xSearch = xRegexSearchPattern.matcher(this.m_sRawMemInfo);
+		if (xSearch.find())
+		{
+			sCached = xSearch.group(1);
+			
+			try {
+				this.m_lCached = Long.parseLong( sCached );
+			}
+			catch (NumberFormatException exp)
+			{
+				this.m_lCached = 0;
+			}
+		}
+		
+		//* Get the memory available for new allocations without swapping.  Kernels before
+		//* 3.14 don't have it, there we estimate it as the free memory plus the page cache.
+		this.m_lMemAvailable = this.m_lFreeMemory + this.m_lCached;
+		xRegexSearchPattern = Pattern.compile( memory.MEM_AVAILABLE_REGEX );
+		xSearch = xRegexSearchPattern.matcher(this.m_sRawMemInfo);
+		if (xSearch.find())
+		{
+			sMemAvailable = xSearch.group(1);
+			this.logDebug("Found Available Memory: " + sMemAvailable);
+			
+			try {
+				this.m_lMemAvailable = Long.parseLong( sMemAvailable );
+			}
+			catch (NumberFormatException exp)
+			{
+				this.logError("An error occured while trying to parse the memory information.");
+				this.logStackTrace(exp.getStackTrace());
+			}
+		}
 	}
 	
 	/**
@@ -332,6 +349,7 @@ public class memory extends discoveryBase implements discoveryHistory
 		xTmpEntry.m_lInactiveMemory		= this.getInactiveMemory();
 		xTmpEntry.m_lFreeMemory			= this.getAvailableMemory();
 		xTmpEntry.m_lKernelStack		= this.getKernelStackMemory();
+		xTmpEntry.m_lMemAvailable		= this.getMemAvailable();
 		
 		//* Add the history entry
 		this.addHistoryEntry(xTmpEntry);
@@ -339,6 +357,41 @@ public class memory extends discoveryBase implements discoveryHistory
 		return true;
 	}
 	
+	/**
+	 * Refresh only MemAvailable, for callers that need it every tick.  Reads 
+	 * /proc/meminfo into the reused buffer and picks out the line without 
+	 * regular expressions, and doesn't add a history entry.
+	 * 
+	 * @return False if /proc/meminfo couldn't be read.
+	 */
+	public boolean refreshMemAvailable()
+	{
+		procfsReader xReader = this.m_xReader;
+		
+		if (!xReader.read(MEMINFO_PATH))
+			return false;
+		
+		xReader.rewind();
+		if (xReader.findLine("MemAvailable:"))
+		{
+			this.m_lMemAvailable = xReader.nextLong();
+			return true;
+		}
+		
+		//* Kernels before 3.14, estimate it the same way parseResults() does
+		long lFree = 0;
+		long lCached = 0;
+		xReader.rewind();
+		if (xReader.findLine("MemFree:"))
+			lFree = xReader.nextLong();
+		xReader.rewind();
+		if (xReader.findLine("Cached:"))
+			lCached = xReader.nextLong();
+		
+		this.m_lMemAvailable = lFree + lCached;
+		return true;
+	}
+	
 	/**
 	 * Retreive the total available memory on the system.  This number should not 
 	 * be considered absolute: due to the nature of the kernel, a 
@@ -386,6 +439,19 @@ public class memory extends discoveryBase implements discoveryHistory
 	{
 		return this.m_lKernelStack;
 	}
+	
+	/**
+	 * Retreive the memory available for starting new applications without 
+	 * swapping (MemAvailable).  Unlike getAvailableMemory() this includes the 
+	 * page cache and reclaimable memory the kernel can drop.  On kernels that 
+	 * don't report it, it is estimated from the free memory and the page cache.
+	 * 
+	 * @return The available memory in kB at the time of the last query, -1 before the first query.
+	 */
+	public long getMemAvailable()
+	{
+		return this.m_lMemAvailable;
+	}
 
 	/**
 	 * Summarize the memory information of the device and return it as a string
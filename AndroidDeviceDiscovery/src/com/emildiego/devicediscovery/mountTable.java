@@ -0,0 +1,532 @@
+/**
+ * mountTable
+ *
+ * Finds every real filesystem mounted on the device by reading
+ * /proc/self/mountinfo and gets the capacity of each one with statfs.
+ * This covers the volumes storage doesn't know the path of: adoptable
+ * storage, USB OTG drives, /cache, /system, etc.
+ *
+ * The mount table is only parsed again when its contents change, which is
+ * detected with a cheap hash of the file.  The statfs calls run in parallel
+ * (a dead network or fuse mount can block for a long time) and the results
+ * are cached for a short time so back to back queries don't repeat them.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import android.os.StatFs;
+
+/**
+ * A single mounted filesystem.
+ */
+class mountEntry
+{
+	String			m_sMountPoint;
+	String			m_sFsType;
+	String			m_sSource;
+	String			m_sDevice;			//* major:minor
+	boolean			m_bReadOnly;
+
+	//* statfs results, guarded by the entry
+	StatFs			m_xStatFs;
+	long			m_lTotalBytes;
+	long			m_lAvailableBytes;
+	long			m_lFreeBytes;
+	long			m_lLastStatTime;	//* 0 = never
+	boolean			m_bStatFailed;
+
+	//* a statfs task was submitted and hasn't returned yet
+	boolean			m_bInFlight;
+	boolean			m_bRunning;			//* the task started, it wasn't just cancelled in the queue
+	int				m_iTimeouts;		//* consecutive timeouts, for the backoff
+	long			m_lRetryAfter;
+}
+
+/**
+ * The mount table class.
+ */
+public class mountTable
+{
+	static final String						MOUNTINFO_PATH		= "/proc/self/mountinfo";
+
+	static final long						DEFAULT_TTL_MS		= 5000;
+	static final long						DEFAULT_TIMEOUT_MS	= 2000;
+	static final int						MAX_THREADS			= 4;
+	static final long						MAX_BACKOFF_MS		= 300000;
+
+	/**
+	 * Filesystem types that don't have any storage behind them.
+	 */
+	static final String[]					VIRTUAL_FS_TYPES = {
+		"proc", "sysfs", "tmpfs", "devtmpfs", "devpts", "cgroup", "cgroup2", "debugfs", "tracefs",
+		"securityfs", "selinuxfs", "pstore", "configfs", "functionfs", "bpf", "binfmt_misc", "autofs",
+		"mqueue", "fusectl", "rootfs", "ramfs", "nsfs", "hugetlbfs", "efivarfs", "rpc_pipefs", "incremental-fs"
+	};
+
+	/**
+	 * The real filesystems from the last parse.
+	 */
+	private List<mountEntry>				m_listMounts;
+
+	/**
+	 * Used to detect when /proc/self/mountinfo changed.
+	 */
+	private long							m_lMountInfoHash;
+	private int								m_iMountInfoLength;
+	private int								m_iParseCount;
+
+	/**
+	 * Settings
+	 */
+	private long							m_lTtlMs;
+	private long							m_lTimeoutMs;
+
+	private Set<String>						m_xVirtualTypes;
+	private procfsReader					m_xReader;
+	private ExecutorService					m_xExecutor;
+
+	/**
+	 * Default constructor
+	 */
+	public mountTable()
+	{
+		this.m_listMounts		= new ArrayList<mountEntry>();
+		this.m_lMountInfoHash	= 0;
+		this.m_iMountInfoLength	= -1;
+
+		this.m_lTtlMs			= DEFAULT_TTL_MS;
+		this.m_lTimeoutMs		= DEFAULT_TIMEOUT_MS;
+
+		this.m_xVirtualTypes	= new HashSet<String>();
+		for (int i = 0; i < VIRTUAL_FS_TYPES.length; i++)
+			this.m_xVirtualTypes.add(VIRTUAL_FS_TYPES[i]);
+
+		this.m_xReader			= new procfsReader(16384);
+	}
+
+	/**
+	 * Set how long a statfs result is reused before it is refreshed.
+	 *
+	 * @param lTtlMs The time to live in milliseconds.
+	 */
+	public synchronized void setCacheTtl(long lTtlMs)
+	{
+		this.m_lTtlMs = lTtlMs;
+	}
+
+	/**
+	 * Set how long refresh() waits for the statfs calls before giving up on the slow ones.
+	 *
+	 * @param lTimeoutMs The timeout in milliseconds.
+	 */
+	public synchronized void setStatTimeout(long lTimeoutMs)
+	{
+		this.m_lTimeoutMs = lTimeoutMs;
+	}
+
+	/**
+	 * Re-read the mount table (parsing it only if it changed) and statfs every
+	 * mount whose cached result is older than the TTL.
+	 *
+	 * @return False if the mount table couldn't be read.
+	 */
+	public synchronized boolean refresh()
+	{
+		if (!this.m_xReader.read(MOUNTINFO_PATH))
+			return false;
+
+		//* only parse when the contents changed
+		long lHash = mountTable.hash(this.m_xReader.getBuffer(), this.m_xReader.getLength());
+		if (lHash != this.m_lMountInfoHash || this.m_xReader.getLength() != this.m_iMountInfoLength)
+		{
+			this.parse();
+			this.m_lMountInfoHash	= lHash;
+			this.m_iMountInfoLength	= this.m_xReader.getLength();
+		}
+
+		this.statMounts();
+		return true;
+	}
+
+	/**
+	 * Parse the mount table in the reader.  Entries for mount points we
+	 * already know keep their cached statfs results.
+	 */
+	private void parse()
+	{
+		procfsReader		xReader = this.m_xReader;
+		List<mountEntry>	listMounts = new ArrayList<mountEntry>();
+		Set<String>			xDevices = new HashSet<String>();
+
+		xReader.rewind();
+		while (!xReader.atEnd())
+		{
+			//* 36 35 98:0 /mnt1 /mnt/parent rw,noatime master:1 - ext3 /dev/root rw,errors=continue
+			xReader.skipToken();								//* mount id
+			xReader.skipToken();								//* parent id
+			String sDevice = xReader.nextToken();				//* major:minor
+			xReader.skipToken();								//* root
+			String sMountPoint = xReader.nextToken();
+			String sOptions = xReader.nextToken();
+
+			//* skip the optional fields up to the separator
+			while (!xReader.atEndOfLine() && !xReader.matchToken("-"))
+				xReader.skipToken();
+
+			String sFsType = xReader.nextToken();
+			String sSource = xReader.nextToken();
+
+			if (sMountPoint != null && sFsType != null && !this.m_xVirtualTypes.contains(sFsType) &&
+					sDevice != null && !xDevices.contains(sDevice))
+			{
+				//* bind mounts show the same filesystem again, the first mount point is enough
+				xDevices.add(sDevice);
+
+				sMountPoint = mountTable.unescape(sMountPoint);
+				mountEntry xEntry = this.findEntry(sMountPoint);
+				if (xEntry == null || !sDevice.equals(xEntry.m_sDevice))
+				{
+					xEntry = new mountEntry();
+					xEntry.m_sMountPoint = sMountPoint;
+				}
+
+				xEntry.m_sDevice	= sDevice;
+				xEntry.m_sFsType	= sFsType;
+				xEntry.m_sSource	= sSource;
+				xEntry.m_bReadOnly	= sOptions != null && (sOptions.equals("ro") || sOptions.startsWith("ro,"));
+				listMounts.add(xEntry);
+			}
+
+			if (!xReader.nextLine())
+				break;
+		}
+
+		this.m_listMounts = listMounts;
+		this.m_iParseCount++;
+	}
+
+	/**
+	 * statfs every mount with a stale result, in parallel.  A statfs hung in
+	 * the kernel can't be interrupted, so a mount whose last task hasn't
+	 * returned is skipped until it does and is then retried with a backoff.
+	 * Otherwise every refresh would park another pool thread on it.
+	 */
+	private void statMounts()
+	{
+		List<Callable<Object>>		listTasks = new ArrayList<Callable<Object>>();
+		List<mountEntry>			listSubmitted = new ArrayList<mountEntry>();
+		long						lNow = System.currentTimeMillis();
+
+		for (int i = 0; i < this.m_listMounts.size(); i++)
+		{
+			final mountEntry xEntry = this.m_listMounts.get(i);
+
+			synchronized (xEntry)
+			{
+				if (xEntry.m_bInFlight || lNow < xEntry.m_lRetryAfter)
+					continue;
+				if (xEntry.m_lLastStatTime != 0 && lNow - xEntry.m_lLastStatTime < this.m_lTtlMs)
+					continue;
+
+				xEntry.m_bInFlight	= true;
+				xEntry.m_bRunning	= false;
+			}
+			listSubmitted.add(xEntry);
+
+			listTasks.add(new Callable<Object>() {
+				public Object call()
+				{
+					mountTable.statEntry(xEntry);
+					return null;
+				}
+			});
+		}
+
+		if (listTasks.isEmpty())
+			return;
+
+		try
+		{
+			//* mounts that don't answer in time keep their old values
+			this.getExecutor().invokeAll(listTasks, this.m_lTimeoutMs, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException exp)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		lNow = System.currentTimeMillis();
+		for (int i = 0; i < listSubmitted.size(); i++)
+		{
+			mountEntry xEntry = listSubmitted.get(i);
+
+			synchronized (xEntry)
+			{
+				if (!xEntry.m_bInFlight)
+					continue;
+
+				if (!xEntry.m_bRunning)
+				{
+					//* cancelled before a thread picked it up, nothing is stuck
+					xEntry.m_bInFlight = false;
+					continue;
+				}
+
+				//* still inside statfs, stays in flight until it returns
+				xEntry.m_iTimeouts++;
+				long lBackoff = this.m_lTtlMs << Math.min(xEntry.m_iTimeouts, 6);
+				xEntry.m_lRetryAfter = lNow + Math.min(lBackoff, MAX_BACKOFF_MS);
+			}
+		}
+	}
+
+	/**
+	 * statfs one mount.  The StatFs object is kept with the entry and reused.
+	 */
+	static void statEntry(mountEntry xEntry)
+	{
+		StatFs		xStatFs;
+		String		sPath;
+
+		synchronized (xEntry)
+		{
+			xStatFs	= xEntry.m_xStatFs;
+			sPath	= xEntry.m_sMountPoint;
+			xEntry.m_bRunning = true;
+		}
+
+		try
+		{
+			if (xStatFs == null)
+				xStatFs = new StatFs(sPath);
+			else
+				xStatFs.restat(sPath);
+
+			long lBlockSize = (long)xStatFs.getBlockSize();
+			long lTotal = (long)xStatFs.getBlockCount() * lBlockSize;
+			long lAvailable = (long)xStatFs.getAvailableBlocks() * lBlockSize;
+			long lFree = (long)xStatFs.getFreeBlocks() * lBlockSize;
+
+			synchronized (xEntry)
+			{
+				xEntry.m_xStatFs			= xStatFs;
+				xEntry.m_lTotalBytes		= lTotal;
+				xEntry.m_lAvailableBytes	= lAvailable;
+				xEntry.m_lFreeBytes			= lFree;
+				xEntry.m_lLastStatTime		= System.currentTimeMillis();
+				xEntry.m_bStatFailed		= false;
+				xEntry.m_iTimeouts			= 0;
+			}
+		}
+		catch (Exception exp)
+		{
+			//* permission denied or the mount went away
+			synchronized (xEntry)
+			{
+				xEntry.m_lLastStatTime	= System.currentTimeMillis();
+				xEntry.m_bStatFailed	= true;
+			}
+		}
+		finally
+		{
+			synchronized (xEntry)
+			{
+				xEntry.m_bInFlight	= false;
+				xEntry.m_bRunning	= false;
+			}
+		}
+	}
+
+	/**
+	 * Create the thread pool the first time it is needed.
+	 */
+	private ExecutorService getExecutor()
+	{
+		if (this.m_xExecutor == null)
+		{
+			this.m_xExecutor = Executors.newFixedThreadPool(MAX_THREADS, new ThreadFactory() {
+				public Thread newThread(Runnable xRunnable)
+				{
+					Thread xThread = new Thread(xRunnable, "mountTable-statfs");
+					xThread.setDaemon(true);
+					return xThread;
+				}
+			});
+		}
+
+		return this.m_xExecutor;
+	}
+
+	/**
+	 * Stop the statfs threads.  The table can still be refreshed afterwards, the threads are created again.
+	 */
+	public synchronized void close()
+	{
+		if (this.m_xExecutor != null)
+		{
+			this.m_xExecutor.shutdownNow();
+			this.m_xExecutor = null;
+		}
+	}
+
+	private mountEntry findEntry(String sMountPoint)
+	{
+		for (int i = 0; i < this.m_listMounts.size(); i++)
+		{
+			if (this.m_listMounts.get(i).m_sMountPoint.equals(sMountPoint))
+				return this.m_listMounts.get(i);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Get the mount points of every real filesystem.
+	 */
+	public synchronized List<String> getMountPoints()
+	{
+		List<String> listMountPoints = new ArrayList<String>();
+
+		for (int i = 0; i < this.m_listMounts.size(); i++)
+			listMountPoints.add(this.m_listMounts.get(i).m_sMountPoint);
+
+		return listMountPoints;
+	}
+
+	/**
+	 * Get the filesystem type (ext4, f2fs, vfat, ...) of a mount point.
+	 */
+	public synchronized String getFsType(String sMountPoint)
+	{
+		mountEntry xEntry = this.findEntry(sMountPoint);
+		return (xEntry == null) ? null : xEntry.m_sFsType;
+	}
+
+	/**
+	 * Get the device or source mounted at a mount point (ie. /dev/block/dm-2).
+	 */
+	public synchronized String getSource(String sMountPoint)
+	{
+		mountEntry xEntry = this.findEntry(sMountPoint);
+		return (xEntry == null) ? null : xEntry.m_sSource;
+	}
+
+	/**
+	 * Check if the mount point is mounted read only.
+	 */
+	public synchronized boolean isReadOnly(String sMountPoint)
+	{
+		mountEntry xEntry = this.findEntry(sMountPoint);
+		return xEntry != null && xEntry.m_bReadOnly;
+	}
+
+	/**
+	 * Get the total size of the filesystem, 0 if it is unknown.
+	 */
+	public synchronized long getTotalBytes(String sMountPoint)
+	{
+		mountEntry xEntry = this.findEntry(sMountPoint);
+		if (xEntry == null)
+			return 0;
+
+		synchronized (xEntry)
+		{
+			return xEntry.m_lTotalBytes;
+		}
+	}
+
+	/**
+	 * Get the space available to applications, 0 if it is unknown.
+	 */
+	public synchronized long getAvailableBytes(String sMountPoint)
+	{
+		mountEntry xEntry = this.findEntry(sMountPoint);
+		if (xEntry == null)
+			return 0;
+
+		synchronized (xEntry)
+		{
+			return xEntry.m_lAvailableBytes;
+		}
+	}
+
+	/**
+	 * Get the free space including the blocks reserved for root, 0 if it is unknown.
+	 */
+	public synchronized long getFreeBytes(String sMountPoint)
+	{
+		mountEntry xEntry = this.findEntry(sMountPoint);
+		if (xEntry == null)
+			return 0;
+
+		synchronized (xEntry)
+		{
+			return xEntry.m_lFreeBytes;
+		}
+	}
+
+	/**
+	 * Get the number of times the mount table was actually parsed.
+	 */
+	public synchronized int getParseCount()
+	{
+		return this.m_iParseCount;
+	}
+
+	/**
+	 * 64 bit FNV-1a hash of the file contents.
+	 */
+	static long hash(byte[] aData, int iLength)
+	{
+		long lHash = 0xcbf29ce484222325L;
+
+		for (int i = 0; i < iLength; i++)
+		{
+			lHash ^= (aData[i] & 0xff);
+			lHash *= 0x100000001b3L;
+		}
+
+		return lHash;
+	}
+
+	/**
+	 * mountinfo escapes spaces, tabs, new lines and backslashes in paths as octal (\040).
+	 */
+	static String unescape(String sPath)
+	{
+		if (sPath.indexOf('\\') < 0)
+			return sPath;
+
+		StringBuilder xResult = new StringBuilder(sPath.length());
+		for (int i = 0; i < sPath.length(); i++)
+		{
+			char cChar = sPath.charAt(i);
+			if (cChar == '\\' && i + 3 < sPath.length() && Character.isDigit(sPath.charAt(i + 1)))
+			{
+				try {
+					xResult.append((char)Integer.parseInt(sPath.substring(i + 1, i + 4), 8));
+					i += 3;
+					continue;
+				}
+				catch (NumberFormatException exp)
+				{
+					//* not an escape, keep the backslash
+				}
+			}
+			xResult.append(cChar);
+		}
+
+		return xResult.toString();
+	}
+}
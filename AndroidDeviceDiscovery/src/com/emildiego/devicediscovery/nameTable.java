@@ -0,0 +1,253 @@
+/**
+ * nameTable
+ *
+ * A canonicalizing table of the names the collectors see over and over:
+ * process names, package names and service components.  Each distinct
+ * name is stored once and given a small int id, so entries, snapshots and
+ * history can keep an int instead of their own copy of the String, and
+ * comparing two names is comparing two ints.
+ *
+ * The names are counted: intern() and retain() take a reference, and a
+ * holder calls release() when it drops the id.  A name is removed when its
+ * last reference goes and its slot is handed out again, so the table stays
+ * the size of the live set even with the numbered isolated and sandboxed
+ * process names that come and go all day.  The collectors share one table,
+ * getShared(), so an id means the same name in all of them.
+ *
+ * An id is the slot in its low bits and the generation of the slot above
+ * them.  The generation moves on every time the slot is freed, so an id
+ * kept after its name went (an entry someone held on to past its owner)
+ * resolves to null instead of to whatever name reuses the slot, and
+ * retaining or releasing it does nothing.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The table class.
+ */
+public class nameTable
+{
+	/**
+	 * The id of a null name.
+	 */
+	public static final int				NONE				= -1;
+
+	static final int					DEFAULT_CAPACITY	= 256;
+
+	/**
+	 * An id is (generation << SLOT_BITS) | slot, the generation wraps before the sign bit.
+	 */
+	static final int					SLOT_BITS			= 20;
+	static final int					SLOT_MASK			= (1 << SLOT_BITS) - 1;
+	static final int					GENERATION_MASK		= 0x7ff;
+
+	private static final nameTable		m_xShared			= new nameTable();
+
+	private Map<String, Integer>		m_xIds;
+	private String[]					m_aNames;
+	private int[]						m_aRefs;
+	private int[]						m_aGenerations;
+	private int							m_iCount;			//* slots handed out, free ones included
+	private int[]						m_aFree;
+	private int							m_iFreeCount;
+
+	/**
+	 * Default constructor
+	 */
+	public nameTable()
+	{
+		this.m_xIds			= new HashMap<String, Integer>(DEFAULT_CAPACITY * 2);
+		this.m_aNames		= new String[DEFAULT_CAPACITY];
+		this.m_aRefs		= new int[DEFAULT_CAPACITY];
+		this.m_aGenerations	= new int[DEFAULT_CAPACITY];
+		this.m_aFree		= new int[DEFAULT_CAPACITY];
+		this.m_iCount		= 0;
+	}
+
+	/**
+	 * Return the table shared by all the collectors.
+	 */
+	public static nameTable getShared()
+	{
+		return m_xShared;
+	}
+
+	/**
+	 * Return the id of a name, adding it to the table if it's new, and take
+	 * a reference to it.  Call release() when you drop the id.
+	 *
+	 * @param sName The name.
+	 * @return The id, NONE for a null name.
+	 */
+	public synchronized int intern(String sName)
+	{
+		if (sName == null)
+			return NONE;
+
+		Integer xId = this.m_xIds.get(sName);
+		if (xId != null)
+		{
+			this.m_aRefs[xId & SLOT_MASK]++;
+			return xId;
+		}
+
+		int iSlot;
+		if (this.m_iFreeCount > 0)
+		{
+			iSlot = this.m_aFree[--this.m_iFreeCount];
+		}
+		else
+		{
+			if (this.m_iCount > SLOT_MASK)
+				throw new IllegalStateException("nameTable is full");
+
+			if (this.m_iCount == this.m_aNames.length)
+			{
+				int iCapacity = this.m_aNames.length * 2;
+
+				String[] aBigger = new String[iCapacity];
+				System.arraycopy(this.m_aNames, 0, aBigger, 0, this.m_iCount);
+				this.m_aNames		= aBigger;
+				this.m_aRefs		= processIo.grow(this.m_aRefs, iCapacity);
+				this.m_aGenerations	= processIo.grow(this.m_aGenerations, iCapacity);
+				this.m_aFree		= processIo.grow(this.m_aFree, iCapacity);
+			}
+			iSlot = this.m_iCount++;
+		}
+
+		int iId = (this.m_aGenerations[iSlot] << SLOT_BITS) | iSlot;
+
+		this.m_aNames[iSlot]	= sName;
+		this.m_aRefs[iSlot]		= 1;
+		this.m_xIds.put(sName, iId);
+
+		return iId;
+	}
+
+	/**
+	 * Return the slot of an id, the index it would have in an array of the
+	 * live names.  Two live ids never share a slot.
+	 *
+	 * @param iId The id, not NONE.
+	 */
+	static int slot(int iId)
+	{
+		return iId & SLOT_MASK;
+	}
+
+	/**
+	 * Return the slot of an id if its name is still in the table.
+	 *
+	 * @return The slot or -1 for NONE, an unknown id or one whose name has gone.
+	 */
+	private int liveSlot(int iId)
+	{
+		if (iId < 0)
+			return -1;
+
+		int iSlot = iId & SLOT_MASK;
+		if (iSlot >= this.m_iCount || this.m_aNames[iSlot] == null || this.m_aGenerations[iSlot] != (iId >>> SLOT_BITS))
+			return -1;
+
+		return iSlot;
+	}
+
+	/**
+	 * Take another reference to an id you were given.
+	 *
+	 * @param iId The id, NONE and ids whose name has gone are ignored.
+	 */
+	public synchronized void retain(int iId)
+	{
+		int iSlot = this.liveSlot(iId);
+		if (iSlot < 0)
+			return;
+
+		this.m_aRefs[iSlot]++;
+	}
+
+	/**
+	 * Drop a reference to an id.  The name is removed with its last reference.
+	 *
+	 * @param iId The id, NONE and ids whose name has gone are ignored.
+	 */
+	public synchronized void release(int iId)
+	{
+		int iSlot = this.liveSlot(iId);
+		if (iSlot < 0)
+			return;
+
+		if (--this.m_aRefs[iSlot] > 0)
+			return;
+
+		this.m_xIds.remove(this.m_aNames[iSlot]);
+		this.m_aNames[iSlot] = null;
+		this.m_aGenerations[iSlot] = (this.m_aGenerations[iSlot] + 1) & GENERATION_MASK;
+		this.m_aFree[this.m_iFreeCount++] = iSlot;
+	}
+
+	/**
+	 * Return the id of a name without adding it.
+	 *
+	 * @param sName The name.
+	 * @return The id or NONE if the name isn't in the table.
+	 */
+	public synchronized int getId(String sName)
+	{
+		if (sName == null)
+			return NONE;
+
+		Integer xId = this.m_xIds.get(sName);
+		return (xId == null) ? NONE : xId;
+	}
+
+	/**
+	 * Return the name of an id.
+	 *
+	 * @param iId The id.
+	 * @return The name or null for NONE, an unknown id or one whose name has gone.
+	 */
+	public synchronized String getName(int iId)
+	{
+		int iSlot = this.liveSlot(iId);
+		return (iSlot < 0) ? null : this.m_aNames[iSlot];
+	}
+
+	/**
+	 * Return the table's copy of a name if it has one, so equal names share
+	 * one String.  Doesn't add the name.
+	 *
+	 * @param sName The name.
+	 * @return The canonical String, sName if it isn't in the table.
+	 */
+	public synchronized String canonical(String sName)
+	{
+		int iId = this.getId(sName);
+		return (iId == NONE) ? sName : this.m_aNames[iId & SLOT_MASK];
+	}
+
+	/**
+	 * Return the number of names in the table.
+	 */
+	public synchronized int size()
+	{
+		return this.m_iCount - this.m_iFreeCount;
+	}
+
+	/**
+	 * Return the number of references to an id.
+	 *
+	 * @param iId The id.
+	 * @return The count, 0 for a name that isn't in the table.
+	 */
+	public synchronized int getReferences(int iId)
+	{
+		int iSlot = this.liveSlot(iId);
+		return (iSlot < 0) ? 0 : this.m_aRefs[iSlot];
+	}
+}
@@ -0,0 +1,453 @@
+/**
+ * netstatCounters
+ *
+ * This class reads the kernel's network protocol counters from
+ * /proc/net/snmp and /proc/net/netstat.  Both files are made of line pairs,
+ * a header line with the counter names followed by a line with the values:
+ *
+ *   Tcp: RtoAlgorithm RtoMin ... RetransSegs InErrs OutRsts ...
+ *   Tcp: 1 200 ... 1234 0 567 ...
+ *
+ * The names are only parsed the first time (or if the kernel changes the
+ * layout).  They are mapped to an index into a flat counter array, after
+ * that every query just fills the array with the values and computes the
+ * per second rate of every counter since the last query.  Cheap enough to
+ * run every second.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+
+/**
+ * The main class used to collect the network protocol counters.
+ */
+public class netstatCounters extends discoveryBase
+{
+	/**
+	 * The files we read.
+	 */
+	static final String					SNMP_PATH		= "/proc/net/snmp";
+	static final String					NETSTAT_PATH	= "/proc/net/netstat";
+
+	/**
+	 * Maps "Prefix.Name" (ie. "Tcp.RetransSegs") to its index in the counter arrays.
+	 */
+	private Map<String, Integer>		m_xIndex;
+
+	/**
+	 * The names of the counters in index order.
+	 */
+	private List<String>				m_listNames;
+
+	/**
+	 * The number of values we expect on each value line of each file.  Used to
+	 * detect when the layout changed and the index needs to be rebuilt.
+	 */
+	private int[]						m_aSnmpLayout;
+	private int[]						m_aNetstatLayout;
+	private boolean						m_bIndexValid;
+
+	/**
+	 * The counter values from the last two queries and the computed rates.
+	 */
+	private long[]						m_aCounters;
+	private long[]						m_aPrevCounters;
+	private double[]					m_aRates;
+	private long						m_lLastSampleNs;
+	private boolean						m_bHavePrevious;
+
+	/**
+	 * The indexes of the counters we expose directly.  -1 if the kernel doesn't have them.
+	 */
+	private int							m_iTcpRetransSegs;
+	private int							m_iTcpInErrs;
+	private int							m_iTcpOutRsts;
+	private int							m_iUdpInErrors;
+	private int							m_iUdpRcvbufErrors;
+	private int							m_iTcpTimeouts;
+	private int							m_iListenOverflows;
+	private int							m_iListenDrops;
+
+	/**
+	 * The reader used for both files.
+	 */
+	private procfsReader				m_xReader;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param xContext The application context
+	 * @param sLogTag The Tag to be used by the Android message logger
+	 */
+	public netstatCounters(Context xContext, String sLogTag)
+	{
+		super(xContext, sLogTag);
+
+		this.m_xIndex			= new HashMap<String, Integer>();
+		this.m_listNames		= new ArrayList<String>();
+		this.m_bIndexValid		= false;
+
+		this.m_aCounters		= new long[0];
+		this.m_aPrevCounters	= new long[0];
+		this.m_aRates			= new double[0];
+		this.m_bHavePrevious	= false;
+
+		this.m_xReader			= new procfsReader(8192);
+	}
+
+	/**
+	 * Read both counter files and update the rates.
+	 *
+	 * @return True if the query was successfull, false if it wasn't.
+	 */
+	@Override
+	public boolean query()
+	{
+		long lNow = System.nanoTime();
+
+		//* swap the counter arrays so the current values become the previous ones
+		long[] aTmp = this.m_aPrevCounters;
+		this.m_aPrevCounters = this.m_aCounters;
+		this.m_aCounters = aTmp;
+
+		if (!this.m_bIndexValid || !this.readValues())
+		{
+			//* first query or the layout changed, (re)build the index.  Rates restart from here.
+			if (!this.buildIndex())
+			{
+				this.logError("Unable to read the network counters from " + SNMP_PATH);
+				return false;
+			}
+
+			this.m_bHavePrevious = false;
+			if (!this.readValues())
+				return false;
+		}
+
+		//* compute the per second rates
+		if (this.m_bHavePrevious && lNow > this.m_lLastSampleNs)
+		{
+			double dSeconds = (lNow - this.m_lLastSampleNs) / 1e9;
+			for (int i = 0; i < this.m_aCounters.length; i++)
+			{
+				long lDelta = this.m_aCounters[i] - this.m_aPrevCounters[i];
+
+				//* counters only go up, a negative delta is a reset or a gauge going down
+				this.m_aRates[i] = (lDelta > 0) ? lDelta / dSeconds : 0;
+			}
+		}
+
+		this.m_lLastSampleNs = lNow;
+		this.m_bHavePrevious = true;
+
+		return true;
+	}
+
+	/**
+	 * Parse the header lines of both files and build the counter index.
+	 *
+	 * @return False if /proc/net/snmp couldn't be read.
+	 */
+	private boolean buildIndex()
+	{
+		this.m_xIndex.clear();
+		this.m_listNames.clear();
+
+		if (!this.m_xReader.read(SNMP_PATH))
+			return false;
+		this.m_aSnmpLayout = this.indexFile();
+
+		//* netstat is optional, very old kernels don't have it
+		if (this.m_xReader.read(NETSTAT_PATH))
+			this.m_aNetstatLayout = this.indexFile();
+		else
+			this.m_aNetstatLayout = new int[0];
+
+		int iCount = this.m_listNames.size();
+		this.m_aCounters		= new long[iCount];
+		this.m_aPrevCounters	= new long[iCount];
+		this.m_aRates			= new double[iCount];
+
+		this.m_iTcpRetransSegs	= this.getIndex("Tcp", "RetransSegs");
+		this.m_iTcpInErrs		= this.getIndex("Tcp", "InErrs");
+		this.m_iTcpOutRsts		= this.getIndex("Tcp", "OutRsts");
+		this.m_iUdpInErrors		= this.getIndex("Udp", "InErrors");
+		this.m_iUdpRcvbufErrors	= this.getIndex("Udp", "RcvbufErrors");
+		this.m_iTcpTimeouts		= this.getIndex("TcpExt", "TCPTimeouts");
+		this.m_iListenOverflows	= this.getIndex("TcpExt", "ListenOverflows");
+		this.m_iListenDrops		= this.getIndex("TcpExt", "ListenDrops");
+
+		this.m_bIndexValid = true;
+		this.logDebug("Indexed " + iCount + " network counters.");
+
+		return true;
+	}
+
+	/**
+	 * Add the counter names of the file in the reader to the index.
+	 *
+	 * @return The number of values on each value line.
+	 */
+	private int[] indexFile()
+	{
+		List<Integer>	listLayout = new ArrayList<Integer>();
+
+		this.m_xReader.rewind();
+		while (!this.m_xReader.atEnd())
+		{
+			//* header line: "Prefix: Name1 Name2 ..."
+			String sPrefix = this.m_xReader.nextToken();
+			if (sPrefix == null)
+			{
+				this.m_xReader.nextLine();
+				continue;
+			}
+			if (sPrefix.endsWith(":"))
+				sPrefix = sPrefix.substring(0, sPrefix.length() - 1);
+
+			int iValues = 0;
+			String sName;
+			while ((sName = this.m_xReader.nextToken()) != null)
+			{
+				String sKey = sPrefix + "." + sName;
+
+				//* the same name can't appear twice, but be safe and keep the slot count right
+				if (!this.m_xIndex.containsKey(sKey))
+					this.m_xIndex.put(sKey, this.m_listNames.size());
+				this.m_listNames.add(sKey);
+				iValues++;
+			}
+			listLayout.add(iValues);
+
+			//* skip the value line
+			this.m_xReader.nextLine();
+			this.m_xReader.nextLine();
+		}
+
+		int[] aLayout = new int[listLayout.size()];
+		for (int i = 0; i < aLayout.length; i++)
+			aLayout[i] = listLayout.get(i);
+
+		return aLayout;
+	}
+
+	/**
+	 * Fill the counter array from both files.
+	 *
+	 * @return False if the file layout no longer matches the index.
+	 */
+	private boolean readValues()
+	{
+		int iSlot = 0;
+
+		if (!this.m_xReader.read(SNMP_PATH))
+			return false;
+		iSlot = this.readFileValues(this.m_aSnmpLayout, iSlot);
+		if (iSlot < 0)
+			return false;
+
+		if (this.m_aNetstatLayout.length > 0)
+		{
+			if (!this.m_xReader.read(NETSTAT_PATH))
+				return false;
+			iSlot = this.readFileValues(this.m_aNetstatLayout, iSlot);
+			if (iSlot < 0)
+				return false;
+		}
+
+		return iSlot == this.m_aCounters.length;
+	}
+
+	/**
+	 * Read the value lines of the file in the reader into the counter array.
+	 *
+	 * @param aLayout The number of values expected on each value line.
+	 * @param iSlot The first counter slot for this file.
+	 * @return The next free slot or -1 if the layout changed.
+	 */
+	private int readFileValues(int[] aLayout, int iSlot)
+	{
+		procfsReader xReader = this.m_xReader;
+
+		for (int iPair = 0; iPair < aLayout.length; iPair++)
+		{
+			//* skip the header line, then the prefix of the value line
+			if (!xReader.nextLine())
+				return -1;
+			xReader.skipToken();
+
+			for (int i = 0; i < aLayout[iPair]; i++)
+			{
+				if (xReader.atEndOfLine())
+					return -1;
+				this.m_aCounters[iSlot++] = xReader.nextLong();
+			}
+
+			//* extra values means a counter was added
+			if (!xReader.atEndOfLine())
+				return -1;
+			xReader.nextLine();
+		}
+
+		return iSlot;
+	}
+
+	/**
+	 * Get the index of a counter.
+	 *
+	 * @param sPrefix The counter group (Ip, Tcp, Udp, TcpExt, IpExt, ...).
+	 * @param sName The counter name as it appears in the header line.
+	 * @return The index or -1 if the kernel doesn't have the counter.
+	 */
+	public int getIndex(String sPrefix, String sName)
+	{
+		Integer xIndex = this.m_xIndex.get(sPrefix + "." + sName);
+		return (xIndex == null) ? -1 : xIndex.intValue();
+	}
+
+	/**
+	 * Get the number of counters we are tracking.
+	 */
+	public int getCounterCount()
+	{
+		return this.m_aCounters.length;
+	}
+
+	/**
+	 * Get the name ("Prefix.Name") of the counter at the index.
+	 */
+	public String getCounterName(int iIndex) throws IndexOutOfBoundsException
+	{
+		return this.m_listNames.get(iIndex);
+	}
+
+	/**
+	 * Get the raw value of a counter from the last query.
+	 *
+	 * @param iIndex The index returned by getIndex().
+	 * @return The value or 0 for an invalid index.
+	 */
+	public long getCounter(int iIndex)
+	{
+		if (iIndex < 0 || iIndex >= this.m_aCounters.length)
+			return 0;
+
+		return this.m_aCounters[iIndex];
+	}
+
+	/**
+	 * Get the per second rate of a counter between the last two queries.
+	 *
+	 * @param iIndex The index returned by getIndex().
+	 * @return The rate or 0 for an invalid index.
+	 */
+	public double getRate(int iIndex)
+	{
+		if (iIndex < 0 || iIndex >= this.m_aRates.length)
+			return 0;
+
+		return this.m_aRates[iIndex];
+	}
+
+	/**
+	 * Get the per second rate of a counter by name.
+	 */
+	public double getRate(String sPrefix, String sName)
+	{
+		return this.getRate(this.getIndex(sPrefix, sName));
+	}
+
+	/**
+	 * TCP segments retransmitted per second.
+	 */
+	public double getTcpRetransmitRate()
+	{
+		return this.getRate(this.m_iTcpRetransSegs);
+	}
+
+	/**
+	 * TCP segments received in error per second.
+	 */
+	public double getTcpInErrorRate()
+	{
+		return this.getRate(this.m_iTcpInErrs);
+	}
+
+	/**
+	 * TCP resets sent per second.
+	 */
+	public double getTcpResetRate()
+	{
+		return this.getRate(this.m_iTcpOutRsts);
+	}
+
+	/**
+	 * TCP retransmission timeouts per second.
+	 */
+	public double getTcpTimeoutRate()
+	{
+		return this.getRate(this.m_iTcpTimeouts);
+	}
+
+	/**
+	 * UDP datagrams received in error per second.
+	 */
+	public double getUdpInErrorRate()
+	{
+		return this.getRate(this.m_iUdpInErrors);
+	}
+
+	/**
+	 * UDP datagrams dropped because the socket receive buffer was full, per second.
+	 */
+	public double getUdpReceiveBufferErrorRate()
+	{
+		return this.getRate(this.m_iUdpRcvbufErrors);
+	}
+
+	/**
+	 * Listen queue overflows per second.
+	 */
+	public double getListenOverflowRate()
+	{
+		return this.getRate(this.m_iListenOverflows);
+	}
+
+	/**
+	 * SYNs dropped on listening sockets per second.
+	 */
+	public double getListenDropRate()
+	{
+		return this.getRate(this.m_iListenDrops);
+	}
+
+	/**
+	 * Summarize the network health counters.
+	 *
+	 * @return A string with the summary information.
+	 */
+	@Override
+	public String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Network Health Counters (per second): \n";
+		sSummary += "TCP Retransmits: " + this.getTcpRetransmitRate() + "\n";
+		sSummary += "TCP Timeouts: " + this.getTcpTimeoutRate() + "\n";
+		sSummary += "TCP In Errors: " + this.getTcpInErrorRate() + "\n";
+		sSummary += "TCP Resets Sent: " + this.getTcpResetRate() + "\n";
+		sSummary += "UDP In Errors: " + this.getUdpInErrorRate() + "\n";
+		sSummary += "UDP Receive Buffer Errors: " + this.getUdpReceiveBufferErrorRate() + "\n";
+		sSummary += "Listen Overflows: " + this.getListenOverflowRate() + "\n";
+		sSummary += "Listen Drops: " + this.getListenDropRate() + "\n";
+
+		return sSummary;
+	}
+}
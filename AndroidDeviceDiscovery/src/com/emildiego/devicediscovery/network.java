@@ -28,6 +28,12 @@ public class network extends discoveryBase {
 	
 	private wifiScanReceiver			m_xWifiScanReceiver;
 	
+	//* Active latency/throughput probes
+	private networkProbe				m_xProbe;
+	
+	//* Channel congestion from the wifi scan results
+	private wifiChannelAnalyzer			m_xChannelAnalyzer;
+	
 
 	
 	//* Network types
@@ -55,6 +61,7 @@ public class network extends discoveryBase {
 	private	String						m_sWiFiIpAddress;
 	private String						m_sWiFiMacAddress;
 	private String						m_sWifiSSID;
+	private String						m_sWifiBSSID;
 	
 	private int							m_iWifiChannelFreq;
 	private int							m_iWifiLevelIndBM;
@@ -83,6 +90,8 @@ public class network extends discoveryBase {
 		super(xContext, sLogTag);
 		
 		this.m_xCM 				= null;
+		this.m_xProbe			= new networkProbe();
+		this.m_xChannelAnalyzer	= new wifiChannelAnalyzer();
 		
 	}
 	
@@ -250,6 +259,51 @@ public class network extends discoveryBase {
 		return sName;
 	}
 	
+	/**
+	 * Get the probe engine so the endpoints and probe sizes can be configured.
+	 * @return The networkProbe used by runProbes().
+	 */
+	public networkProbe getProbe()
+	{
+		return this.m_xProbe;
+	}
+	
+	/**
+	 * Get the channel congestion analyzer.  It is updated every time a wifi scan completes.
+	 * @return The wifiChannelAnalyzer fed by the scan results.
+	 */
+	public wifiChannelAnalyzer getChannelAnalyzer()
+	{
+		return this.m_xChannelAnalyzer;
+	}
+	
+	/**
+	 * Get the key the probe results are aggregated under for the network we are currently on.
+	 * Uses the values from the last query().
+	 * @return "wifi:<SSID>", "mobile:<carrier>" or networkProbe.UNKNOWN_NETWORK.
+	 */
+	public String getProbeNetworkKey()
+	{
+		if (this.m_bWifi && this.m_sWifiSSID != null)
+			return "wifi:" + this.m_sWifiSSID;
+		
+		if ((this.m_bMobile_2G || this.m_bMobile_3G || this.m_bMobile_4G) && this.m_sCarrierName != null)
+			return "mobile:" + this.m_sCarrierName;
+		
+		return networkProbe.UNKNOWN_NETWORK;
+	}
+	
+	/**
+	 * Run the latency and throughput probes against all the configured endpoints and
+	 * record them against the current network.  This blocks on network IO so it must
+	 * not be called from the UI thread.
+	 * @return The number of endpoints that were probed successfully.
+	 */
+	public int runProbes()
+	{
+		return this.m_xProbe.runProbes(this.getProbeNetworkKey());
+	}
+	
 	/**
 	 * Make sure we clean up any code here before we shutdown the application.
 	 * For instance, the wifiScanner that was registered needs to be unregistered
@@ -280,58 +334,33 @@ public class network extends discoveryBase {
 	 */
 	@Override
 	public boolean query() {
+		return this.query(this.m_iFields);
+	}
+	
+	/**
+	 * Query the device for some of the network information.
+	 * 
+	 * @param iFields A mask of the NETWORK_ queryFields.
+	 * @return True if the device was queried successfully, otherwise false.
+	 */
+	@Override
+	public boolean query(int iFields) {
+		
+		boolean bTelephony	= queryFields.has(iFields, queryFields.NETWORK_TELEPHONY);
 		
 		//* Query for the different network connection types
 		m_xCM = (ConnectivityManager)this.m_xContext.getSystemService(Context.CONNECTIVITY_SERVICE);
 
-		//* Get the telephony manager
-		m_xTelMananger = (TelephonyManager)this.m_xContext.getSystemService(Context.TELEPHONY_SERVICE);
-		
-		//* Get the phone type
-		this.m_iPhoneType = m_xTelMananger.getPhoneType();
+		//* Get the phone type, telephony is only touched when it was asked for
+		if (bTelephony)
+			this.m_iPhoneType = this.getTelephony().getPhoneType();
 		
 		//* Get the Wifi connection
-		m_xWiFiInfo = m_xCM.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
-
-        // Make sure the network is available
-        if(m_xWiFiInfo != null && m_xWiFiInfo.isAvailable() && m_xWiFiInfo.isConnectedOrConnecting()) 
-        {
-        	//* Set the flag
-        	m_bWifi = true;
-        	
-        	//* Get additional information about the wifi
-        	m_xWifiMaanger = (WifiManager)this.m_xContext.getSystemService(Context.WIFI_SERVICE);
-        	WifiInfo xWifiInfo = m_xWifiMaanger.getConnectionInfo();
-        	
-        	int ipAddress = xWifiInfo.getIpAddress();
-        	
-        	//* Get the ip address
-        	m_sWiFiIpAddress = String.format("%d.%d.%d.%d", 
-        			(ipAddress & 0xff),
-        			(ipAddress >> 8 & 0xff),
-        			(ipAddress >> 16 & 0xff),
-        			(ipAddress >> 24 & 0xff)
-        			);
-        	
-        	//* get the MAC address
-        	this.m_sWiFiMacAddress = xWifiInfo.getMacAddress();
-        	
-        	//* retreive the SSID of the current access point connected to
-        	this.m_sWifiSSID = xWifiInfo.getSSID();
-        	
-        	//* get the wifi link speed
-        	m_iWifiLinkSpeed = xWifiInfo.getLinkSpeed();
-        	
-        	//* Register Broadcast Receiver
-    		if (m_xWifiScanReceiver == null)
-    			m_xWifiScanReceiver = new wifiScanReceiver(this);
-    		
-    		//* Register the receiver to receive the scan results
-    		this.m_xContext.registerReceiver(m_xWifiScanReceiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
-        	
-    		//* Star the wifi scan
-    		this.m_xWifiMaanger.startScan();
-        }
+		if (queryFields.has(iFields, queryFields.NETWORK_WIFI | queryFields.NETWORK_WIFI_SCAN))
+			this.queryWifi(iFields);
+		
+		if (!queryFields.has(iFields, queryFields.NETWORK_MOBILE))
+			return true;
               
         //* Get the 2G/3G Mobile information
        this.m_xMobile_2G_3G = this.m_xCM.getNetworkInfo(ConnectivityManager.TYPE_MOBILE);
@@ -343,22 +372,10 @@ public class network extends discoveryBase {
        {
            //* 2G
     	   this.m_bMobile_2G = true;
-    	   
-    	   //* Get the network operator name
-    	   this.m_sCarrierName = m_xTelMananger.getNetworkOperatorName();
-    	   
-    	   //* Get the MMC and <NC
-    	   this.parseMccMnc();
        }
        else {
            //* 3G
     	   this.m_bMobile_3G = true;
-    	   
-    	   //* Get the network operator name
-    	   this.m_sCarrierName = m_xTelMananger.getNetworkOperatorName();
-    	   
-    	   //* Get the MMC and <NC
-    	   this.parseMccMnc();
        }
        
        /** Check the connection **/
@@ -368,20 +385,95 @@ public class network extends discoveryBase {
        if(m_xMobile_4G != null && m_xMobile_4G.isAvailable() && m_xMobile_4G.isConnectedOrConnecting())
        {
            this.m_bMobile_4G = true;
-           
-           //* Get the network operator name
-    	   this.m_sCarrierName = m_xTelMananger.getNetworkOperatorName();
-    	 
+       }
+       
+       //* The carrier is only asked for when there is a mobile network, as getConnectionName() expects
+       if (bTelephony && (this.m_bMobile_2G || this.m_bMobile_3G || this.m_bMobile_4G))
+       {
+    	   //* Get the network operator name
+    	   this.m_sCarrierName = this.getTelephony().getNetworkOperatorName();
+    	   
     	   //* Get the MMC and <NC
     	   this.parseMccMnc();
        }
         
-       
        return true;
         
 	}
 	
 
+	/**
+	 * Query the wifi connection and start a scan, each if it was asked for.
+	 * 
+	 * @param iFields The mask of the query.
+	 */
+	private void queryWifi(int iFields)
+	{
+		m_xWiFiInfo = m_xCM.getNetworkInfo(ConnectivityManager.TYPE_WIFI);
+
+        // Make sure the network is available
+        if(m_xWiFiInfo != null && m_xWiFiInfo.isAvailable() && m_xWiFiInfo.isConnectedOrConnecting()) 
+        {
+        	//* Set the flag
+        	m_bWifi = true;
+        	
+        	m_xWifiMaanger = (WifiManager)this.m_xContext.getSystemService(Context.WIFI_SERVICE);
+        	
+        	//* Get additional information about the wifi
+        	if (queryFields.has(iFields, queryFields.NETWORK_WIFI))
+        	{
+	        	WifiInfo xWifiInfo = m_xWifiMaanger.getConnectionInfo();
+	        	
+	        	int ipAddress = xWifiInfo.getIpAddress();
+	        	
+	        	//* Get the ip address
+	        	m_sWiFiIpAddress = String.format("%d.%d.%d.%d", 
+	        			(ipAddress & 0xff),
+	        			(ipAddress >> 8 & 0xff),
+	        			(ipAddress >> 16 & 0xff),
+	        			(ipAddress >> 24 & 0xff)
+	        			);
+	        	
+	        	//* get the MAC address
+	        	this.m_sWiFiMacAddress = xWifiInfo.getMacAddress();
+	        	
+	        	//* retreive the SSID of the current access point connected to
+	        	this.m_sWifiSSID = xWifiInfo.getSSID();
+	        	
+	        	//* our own access point isn't counted as interference by the channel analyzer
+	        	this.m_sWifiBSSID = xWifiInfo.getBSSID();
+	        	this.m_xChannelAnalyzer.setConnectedBssid(this.m_sWifiBSSID);
+	        	
+	        	//* get the wifi link speed
+	        	m_iWifiLinkSpeed = xWifiInfo.getLinkSpeed();
+        	}
+        	
+        	if (!queryFields.has(iFields, queryFields.NETWORK_WIFI_SCAN))
+        		return;
+        	
+        	//* Register Broadcast Receiver
+    		if (m_xWifiScanReceiver == null)
+    			m_xWifiScanReceiver = new wifiScanReceiver(this);
+    		
+    		//* Register the receiver to receive the scan results
+    		this.m_xContext.registerReceiver(m_xWifiScanReceiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+        	
+    		//* Star the wifi scan
+    		this.m_xWifiMaanger.startScan();
+        }
+	}
+	
+	/**
+	 * Return the telephony manager, getting it the first time it is needed.
+	 */
+	private TelephonyManager getTelephony()
+	{
+		if (m_xTelMananger == null)
+			m_xTelMananger = (TelephonyManager)this.m_xContext.getSystemService(Context.TELEPHONY_SERVICE);
+		
+		return m_xTelMananger;
+	}
+	
 	/**
 	 * Retreive the WiFi scan results.  Should not be called directly.
 	 * @return The WiFi manager scan results.
@@ -396,13 +488,13 @@ public class network extends discoveryBase {
 	 */
 	private void parseMccMnc()
 	{
-		String 	sNetworkOperator = m_xTelMananger.getNetworkOperator();
+		String 	sNetworkOperator = this.getTelephony().getNetworkOperator();
 		
 		try 
 		{
 			//* parse out the MCC and MNC
-			this.m_iMcc = Integer.parseInt(m_xTelMananger.getNetworkOperator().substring(0, 3));
-			this.m_iMnc = Integer.parseInt(m_xTelMananger.getNetworkOperator().substring(3));
+			this.m_iMcc = Integer.parseInt(sNetworkOperator.substring(0, 3));
+			this.m_iMnc = Integer.parseInt(sNetworkOperator.substring(3));
 		}
 		catch (Exception exp)
 		{
@@ -419,7 +511,7 @@ public class network extends discoveryBase {
 	 */
 	public String getNetworkOperatorName()
 	{
-		return this.m_xTelMananger.getNetworkOperatorName();
+		return this.getTelephony().getNetworkOperatorName();
 	}
 	
 	/*
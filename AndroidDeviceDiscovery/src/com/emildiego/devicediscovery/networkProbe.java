@@ -0,0 +1,543 @@
+/**
+ * networkProbe
+ *
+ * Active probes that measure how the network actually performs rather than
+ * what the link negotiated.  For every configured endpoint we measure:
+ *
+ *  - TCP connect round trip time
+ *  - Time to first byte of an HTTP response
+ *  - Bulk download throughput (GET, capped at a configurable size)
+ *  - Bulk upload throughput (POST of a configurable size)
+ *
+ * The latencies are recorded into latency histograms (microseconds) and the
+ * results are aggregated per network, so the wifi SSID or the mobile carrier
+ * we were on when the probe ran.  The class only uses plain java sockets so it
+ * can be pointed at the networkProbeServer loopback stand-in for testing.
+ *
+ * The probes block, never call runProbes() from the UI thread.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A single endpoint we want to probe.
+ */
+class probeEndpoint
+{
+	String			m_sHost;
+	int				m_iPort;
+	String			m_sPath;
+}
+
+/**
+ * The results of probing a single endpoint once.  Times are in microseconds,
+ * throughput is in bytes per second.  A value of -1 means that part of the
+ * probe failed.
+ */
+class probeResult
+{
+	long			m_lConnectUs		= -1;
+	long			m_lFirstByteUs		= -1;
+	long			m_lDownloadBytes	= 0;
+	double			m_dDownloadBps		= -1;
+	long			m_lUploadBytes		= 0;
+	double			m_dUploadBps		= -1;
+	String			m_sError			= null;
+}
+
+/**
+ * The aggregated results for one network.
+ */
+class probeAggregate
+{
+	latencyHistogram	m_xConnect		= new latencyHistogram();
+	latencyHistogram	m_xFirstByte	= new latencyHistogram();
+
+	long				m_lProbeCount;
+	long				m_lFailureCount;
+
+	//* Throughput totals so we can compute averages
+	long				m_lDownloadSamples;
+	double				m_dDownloadBpsSum;
+	double				m_dDownloadBpsMax;
+	long				m_lUploadSamples;
+	double				m_dUploadBpsSum;
+	double				m_dUploadBpsMax;
+}
+
+/**
+ * The main probe class.
+ */
+public class networkProbe
+{
+	/**
+	 * Defaults used for the probes
+	 */
+	static final int					DEFAULT_TIMEOUT_MS		= 5000;
+	static final int					DEFAULT_DOWNLOAD_LIMIT	= 1048576;		//* 1 MB
+	static final int					DEFAULT_UPLOAD_SIZE		= 262144;		//* 256 KB
+	static final int					IO_BUFFER_SIZE			= 16384;
+
+	/**
+	 * The network key used when the caller doesn't know which network we are on.
+	 */
+	public static final String			UNKNOWN_NETWORK			= "unknown";
+
+	/**
+	 * The endpoints that will be probed
+	 */
+	private List<probeEndpoint>			m_listEndpoints;
+
+	/**
+	 * The results aggregated by network key
+	 */
+	private Map<String, probeAggregate>	m_xAggregates;
+
+	/**
+	 * Probe settings
+	 */
+	private int							m_iTimeoutMs;
+	private int							m_iDownloadLimit;
+	private int							m_iUploadSize;
+
+	/**
+	 * The buffer used for all the socket IO.  We only run one probe at a time.
+	 */
+	private byte[]						m_aIoBuffer;
+
+	/**
+	 * Default constructor
+	 */
+	public networkProbe()
+	{
+		this.m_listEndpoints	= new ArrayList<probeEndpoint>();
+		this.m_xAggregates		= new HashMap<String, probeAggregate>();
+
+		this.m_iTimeoutMs		= DEFAULT_TIMEOUT_MS;
+		this.m_iDownloadLimit	= DEFAULT_DOWNLOAD_LIMIT;
+		this.m_iUploadSize		= DEFAULT_UPLOAD_SIZE;
+
+		this.m_aIoBuffer		= new byte[IO_BUFFER_SIZE];
+	}
+
+	/**
+	 * Add an HTTP endpoint to the list of endpoints we probe.
+	 *
+	 * @param sHost The host name or IP address.
+	 * @param iPort The TCP port.
+	 * @param sPath The path requested for the download/upload tests.  If null "/" is used.
+	 */
+	public synchronized void addEndpoint(String sHost, int iPort, String sPath)
+	{
+		if (sHost == null)
+			throw new NullPointerException();
+
+		probeEndpoint xEndpoint = new probeEndpoint();
+		xEndpoint.m_sHost	= sHost;
+		xEndpoint.m_iPort	= iPort;
+		xEndpoint.m_sPath	= (sPath == null) ? "/" : sPath;
+
+		this.m_listEndpoints.add(xEndpoint);
+	}
+
+	/**
+	 * Remove all the configured endpoints.
+	 */
+	public synchronized void clearEndpoints()
+	{
+		this.m_listEndpoints.clear();
+	}
+
+	/**
+	 * Get the number of configured endpoints.
+	 */
+	public synchronized int getEndpointCount()
+	{
+		return this.m_listEndpoints.size();
+	}
+
+	/**
+	 * Set the connect and read timeout used by the probes.
+	 *
+	 * @param iTimeoutMs The timeout in milliseconds.
+	 */
+	public void setTimeout(int iTimeoutMs)
+	{
+		this.m_iTimeoutMs = iTimeoutMs;
+	}
+
+	/**
+	 * Set the maximum number of bytes read by the download test.  0 disables it.
+	 *
+	 * @param iBytes The maximum number of bytes.
+	 */
+	public void setDownloadLimit(int iBytes)
+	{
+		this.m_iDownloadLimit = iBytes;
+	}
+
+	/**
+	 * Set the number of bytes sent by the upload test.  0 disables it.
+	 *
+	 * @param iBytes The number of bytes to upload.
+	 */
+	public void setUploadSize(int iBytes)
+	{
+		this.m_iUploadSize = iBytes;
+	}
+
+	/**
+	 * Probe all the endpoints once and record the results under the given network.
+	 *
+	 * @param sNetworkKey The network we are currently on (SSID, carrier name, etc).
+	 * @return The number of endpoints that were probed successfully.
+	 */
+	public synchronized int runProbes(String sNetworkKey)
+	{
+		int					iSuccessCount = 0;
+		probeAggregate		xAggregate;
+
+		if (sNetworkKey == null)
+			sNetworkKey = UNKNOWN_NETWORK;
+
+		xAggregate = this.m_xAggregates.get(sNetworkKey);
+		if (xAggregate == null)
+		{
+			xAggregate = new probeAggregate();
+			this.m_xAggregates.put(sNetworkKey, xAggregate);
+		}
+
+		for (int i = 0; i < this.m_listEndpoints.size(); i++)
+		{
+			probeResult xResult = this.probe(this.m_listEndpoints.get(i));
+
+			this.recordResult(xAggregate, xResult);
+			if (xResult.m_sError == null)
+				iSuccessCount++;
+		}
+
+		return iSuccessCount;
+	}
+
+	/**
+	 * Probe a single endpoint.
+	 *
+	 * @param xEndpoint The endpoint we want to probe.
+	 * @return The probe results.  Never null.
+	 */
+	probeResult probe(probeEndpoint xEndpoint)
+	{
+		probeResult				xResult = new probeResult();
+		InetSocketAddress		xAddress;
+
+		try
+		{
+			//* resolve the name up front so DNS isn't counted as connect time
+			xAddress = new InetSocketAddress(InetAddress.getByName(xEndpoint.m_sHost), xEndpoint.m_iPort);
+
+			//* Connect + time to first byte + download all happen on the same connection
+			this.probeDownload(xEndpoint, xAddress, xResult);
+
+			//* The upload gets its own connection
+			if (this.m_iUploadSize > 0)
+				this.probeUpload(xEndpoint, xAddress, xResult);
+		}
+		catch (IOException exp)
+		{
+			xResult.m_sError = exp.getClass().getSimpleName() + ": " + exp.getMessage();
+		}
+
+		return xResult;
+	}
+
+	/**
+	 * Connect to the endpoint, issue a GET and read the response.
+	 */
+	private void probeDownload(probeEndpoint xEndpoint, InetSocketAddress xAddress, probeResult xResult) throws IOException
+	{
+		Socket		xSocket = new Socket();
+		long		lStart;
+		long		lFirstByte;
+		long		lEnd;
+
+		try
+		{
+			xSocket.setSoTimeout(this.m_iTimeoutMs);
+			xSocket.setTcpNoDelay(true);
+
+			//* TCP connect RTT
+			lStart = System.nanoTime();
+			xSocket.connect(xAddress, this.m_iTimeoutMs);
+			xResult.m_lConnectUs = (System.nanoTime() - lStart) / 1000;
+
+			//* send the request
+			OutputStream xOut = xSocket.getOutputStream();
+			InputStream xIn = xSocket.getInputStream();
+
+			String sRequest = "GET " + xEndpoint.m_sPath + " HTTP/1.1\r\n" +
+					"Host: " + xEndpoint.m_sHost + "\r\n" +
+					"Connection: close\r\n\r\n";
+
+			lStart = System.nanoTime();
+			xOut.write(sRequest.getBytes("US-ASCII"));
+			xOut.flush();
+
+			//* time to first byte
+			int iRead = xIn.read(this.m_aIoBuffer);
+			if (iRead < 0)
+				throw new IOException("Connection closed before the response.");
+
+			lFirstByte = System.nanoTime();
+			xResult.m_lFirstByteUs = (lFirstByte - lStart) / 1000;
+
+			//* now read the rest of the body up to our limit
+			int iFirstRead = iRead;
+			long lTotal = iRead;
+			while (lTotal < this.m_iDownloadLimit && (iRead = xIn.read(this.m_aIoBuffer)) >= 0)
+				lTotal += iRead;
+
+			lEnd = System.nanoTime();
+			xResult.m_lDownloadBytes = lTotal;
+
+			//* The first read only tells us the latency so don't count it as throughput.
+			if (lTotal > iFirstRead && lEnd > lFirstByte)
+				xResult.m_dDownloadBps = (lTotal - iFirstRead) * 1e9 / (lEnd - lFirstByte);
+		}
+		finally
+		{
+			try {
+				xSocket.close();
+			}
+			catch (IOException exp)
+			{
+				//* nothing we can do about it
+			}
+		}
+	}
+
+	/**
+	 * Connect to the endpoint and POST a block of data to it.  Writing only 
+	 * fills the local socket buffer, so the clock stops when the first byte 
+	 * of the server's response comes back: the server only answers once it 
+	 * has read the last byte.  The round trip of that answer, the connect 
+	 * time of the download, is taken off.  The server sends its status line 
+	 * before any processing delay, so only the transfer is counted.
+	 */
+	private void probeUpload(probeEndpoint xEndpoint, InetSocketAddress xAddress, probeResult xResult) throws IOException
+	{
+		Socket		xSocket = new Socket();
+		long		lStart;
+		long		lEnd;
+
+		try
+		{
+			xSocket.setSoTimeout(this.m_iTimeoutMs);
+			xSocket.connect(xAddress, this.m_iTimeoutMs);
+
+			OutputStream xOut = xSocket.getOutputStream();
+			InputStream xIn = xSocket.getInputStream();
+
+			String sHeader = "POST " + xEndpoint.m_sPath + " HTTP/1.1\r\n" +
+					"Host: " + xEndpoint.m_sHost + "\r\n" +
+					"Content-Type: application/octet-stream\r\n" +
+					"Content-Length: " + this.m_iUploadSize + "\r\n" +
+					"Connection: close\r\n\r\n";
+
+			lStart = System.nanoTime();
+			xOut.write(sHeader.getBytes("US-ASCII"));
+
+			int iRemaining = this.m_iUploadSize;
+			while (iRemaining > 0)
+			{
+				int iChunk = Math.min(iRemaining, this.m_aIoBuffer.length);
+				xOut.write(this.m_aIoBuffer, 0, iChunk);
+				iRemaining -= iChunk;
+			}
+			xOut.flush();
+
+			//* the server acknowledges it got everything with its response
+			if (xIn.read() < 0)
+				throw new IOException("Connection closed before the upload was acknowledged.");
+			lEnd = System.nanoTime();
+
+			long lDuration = lEnd - lStart;
+			if (xResult.m_lConnectUs > 0 && lDuration > xResult.m_lConnectUs * 1000)
+				lDuration -= xResult.m_lConnectUs * 1000;
+
+			xResult.m_lUploadBytes = this.m_iUploadSize;
+			if (lDuration > 0)
+				xResult.m_dUploadBps = this.m_iUploadSize * 1e9 / lDuration;
+		}
+		finally
+		{
+			try {
+				xSocket.close();
+			}
+			catch (IOException exp)
+			{
+				//* nothing we can do about it
+			}
+		}
+	}
+
+	/**
+	 * Add the result of one probe to the aggregate of the network.
+	 */
+	private void recordResult(probeAggregate xAggregate, probeResult xResult)
+	{
+		xAggregate.m_lProbeCount++;
+		if (xResult.m_sError != null)
+			xAggregate.m_lFailureCount++;
+
+		if (xResult.m_lConnectUs >= 0)
+			xAggregate.m_xConnect.record(xResult.m_lConnectUs);
+		if (xResult.m_lFirstByteUs >= 0)
+			xAggregate.m_xFirstByte.record(xResult.m_lFirstByteUs);
+
+		if (xResult.m_dDownloadBps >= 0)
+		{
+			xAggregate.m_lDownloadSamples++;
+			xAggregate.m_dDownloadBpsSum += xResult.m_dDownloadBps;
+			xAggregate.m_dDownloadBpsMax = Math.max(xAggregate.m_dDownloadBpsMax, xResult.m_dDownloadBps);
+		}
+
+		if (xResult.m_dUploadBps >= 0)
+		{
+			xAggregate.m_lUploadSamples++;
+			xAggregate.m_dUploadBpsSum += xResult.m_dUploadBps;
+			xAggregate.m_dUploadBpsMax = Math.max(xAggregate.m_dUploadBpsMax, xResult.m_dUploadBps);
+		}
+	}
+
+	/**
+	 * Return the keys of all the networks we have results for.
+	 */
+	public synchronized Set<String> getNetworkKeys()
+	{
+		return new HashSet<String>(this.m_xAggregates.keySet());
+	}
+
+	/**
+	 * Get the TCP connect latency histogram (microseconds) for a network.
+	 *
+	 * @param sNetworkKey The network key used when the probes were run.
+	 * @return A copy of the histogram or null if the network was never probed.
+	 */
+	public synchronized latencyHistogram getConnectLatency(String sNetworkKey)
+	{
+		probeAggregate xAggregate = this.m_xAggregates.get(sNetworkKey);
+		return (xAggregate == null) ? null : networkProbe.copy(xAggregate.m_xConnect);
+	}
+
+	/**
+	 * Get the time to first byte histogram (microseconds) for a network.
+	 *
+	 * @param sNetworkKey The network key used when the probes were run.
+	 * @return A copy of the histogram or null if the network was never probed.
+	 */
+	public synchronized latencyHistogram getFirstByteLatency(String sNetworkKey)
+	{
+		probeAggregate xAggregate = this.m_xAggregates.get(sNetworkKey);
+		return (xAggregate == null) ? null : networkProbe.copy(xAggregate.m_xFirstByte);
+	}
+
+	/**
+	 * Copy a histogram, the probes keep recording into ours.
+	 */
+	private static latencyHistogram copy(latencyHistogram xHistogram)
+	{
+		latencyHistogram xCopy = new latencyHistogram();
+		xCopy.merge(xHistogram);
+		return xCopy;
+	}
+
+	/**
+	 * Get the average download throughput for a network.
+	 *
+	 * @param sNetworkKey The network key used when the probes were run.
+	 * @return The average throughput in bytes per second, 0 if there are no samples.
+	 */
+	public synchronized double getAverageDownloadThroughput(String sNetworkKey)
+	{
+		probeAggregate xAggregate = this.m_xAggregates.get(sNetworkKey);
+		if (xAggregate == null || xAggregate.m_lDownloadSamples == 0)
+			return 0;
+
+		return xAggregate.m_dDownloadBpsSum / xAggregate.m_lDownloadSamples;
+	}
+
+	/**
+	 * Get the average upload throughput for a network.
+	 *
+	 * @param sNetworkKey The network key used when the probes were run.
+	 * @return The average throughput in bytes per second, 0 if there are no samples.
+	 */
+	public synchronized double getAverageUploadThroughput(String sNetworkKey)
+	{
+		probeAggregate xAggregate = this.m_xAggregates.get(sNetworkKey);
+		if (xAggregate == null || xAggregate.m_lUploadSamples == 0)
+			return 0;
+
+		return xAggregate.m_dUploadBpsSum / xAggregate.m_lUploadSamples;
+	}
+
+	/**
+	 * Get the fraction of probes that failed on a network.
+	 *
+	 * @param sNetworkKey The network key used when the probes were run.
+	 * @return A value between 0 and 1.
+	 */
+	public synchronized double getFailureRate(String sNetworkKey)
+	{
+		probeAggregate xAggregate = this.m_xAggregates.get(sNetworkKey);
+		if (xAggregate == null || xAggregate.m_lProbeCount == 0)
+			return 0;
+
+		return xAggregate.m_lFailureCount / (double)xAggregate.m_lProbeCount;
+	}
+
+	/**
+	 * Forget all the results we have collected.
+	 */
+	public synchronized void reset()
+	{
+		this.m_xAggregates.clear();
+	}
+
+	/**
+	 * Summarize the probe results for every network.
+	 *
+	 * @return A string with the summary.
+	 */
+	public synchronized String summaryString()
+	{
+		String sSummary = "Network Probe Results: \n";
+
+		for (Map.Entry<String, probeAggregate> xEntry : this.m_xAggregates.entrySet())
+		{
+			probeAggregate xAggregate = xEntry.getValue();
+
+			sSummary += "Network: " + xEntry.getKey() + " (" + xAggregate.m_lProbeCount + " probes, " + xAggregate.m_lFailureCount + " failed)\n";
+			sSummary += "Connect: " + xAggregate.m_xConnect.summaryString("us") + "\n";
+			sSummary += "First Byte: " + xAggregate.m_xFirstByte.summaryString("us") + "\n";
+			sSummary += "Download: " + Math.round(this.getAverageDownloadThroughput(xEntry.getKey())) + " B/s\n";
+			sSummary += "Upload: " + Math.round(this.getAverageUploadThroughput(xEntry.getKey())) + " B/s\n";
+		}
+
+		return sSummary;
+	}
+}
@@ -0,0 +1,329 @@
+/**
+ * networkProbeServer
+ *
+ * A tiny HTTP server bound to the loopback interface that stands in for a
+ * real probe endpoint.  It answers GET requests with a block of data and
+ * drains POST bodies, and can be told to inject a delay before every
+ * response and to limit its bandwidth.  A POST is acknowledged with the
+ * status line as soon as its body is read, the delay and the rest of the
+ * response follow.  This lets the networkProbe be
+ * exercised on a plain JVM with known network conditions.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+/**
+ * The loopback stand-in server.
+ */
+public class networkProbeServer implements Runnable
+{
+	static final int			IO_CHUNK_SIZE			= 4096;
+	static final int			MAX_HEADER_SIZE			= 8192;
+
+	/**
+	 * The listening socket and the thread accepting connections.
+	 */
+	private ServerSocket		m_xServerSocket;
+	private Thread				m_xAcceptThread;
+	private volatile boolean	m_bRun;
+
+	/**
+	 * The simulated network conditions.
+	 */
+	private volatile int		m_iResponseDelayMs;
+	private volatile long		m_lBytesPerSecond;		//* 0 = unlimited
+	private volatile int		m_iResponseSize;
+
+	/**
+	 * The number of requests handled, mostly useful for checking the probes hit us.
+	 */
+	private volatile int		m_iRequestCount;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param iResponseSize The size of the body returned for a GET request.
+	 */
+	public networkProbeServer(int iResponseSize)
+	{
+		this.m_iResponseSize		= iResponseSize;
+		this.m_iResponseDelayMs		= 0;
+		this.m_lBytesPerSecond		= 0;
+		this.m_bRun					= false;
+	}
+
+	/**
+	 * Start listening on an ephemeral loopback port.
+	 *
+	 * @return The port the server is listening on.
+	 */
+	public synchronized int start() throws IOException
+	{
+		if (this.m_bRun)
+			return this.getPort();
+
+		this.m_xServerSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+		this.m_bRun = true;
+
+		this.m_xAcceptThread = new Thread(this, "networkProbeServer");
+		this.m_xAcceptThread.setDaemon(true);
+		this.m_xAcceptThread.start();
+
+		return this.getPort();
+	}
+
+	/**
+	 * Stop the server.  Connections already being served are allowed to finish.
+	 */
+	public synchronized void stop()
+	{
+		this.m_bRun = false;
+
+		try {
+			if (this.m_xServerSocket != null)
+				this.m_xServerSocket.close();
+		}
+		catch (IOException exp)
+		{
+			//* we are shutting down anyway
+		}
+	}
+
+	/**
+	 * Return the port we are listening on or -1 if we are not running.
+	 */
+	public int getPort()
+	{
+		return (this.m_xServerSocket == null) ? -1 : this.m_xServerSocket.getLocalPort();
+	}
+
+	/**
+	 * Set the delay injected before every response.
+	 *
+	 * @param iDelayMs The delay in milliseconds.
+	 */
+	public void setResponseDelay(int iDelayMs)
+	{
+		this.m_iResponseDelayMs = iDelayMs;
+	}
+
+	/**
+	 * Limit the bandwidth of every connection.
+	 *
+	 * @param lBytesPerSecond The bandwidth limit.  0 removes the limit.
+	 */
+	public void setBandwidthLimit(long lBytesPerSecond)
+	{
+		this.m_lBytesPerSecond = lBytesPerSecond;
+	}
+
+	/**
+	 * Set the size of the body returned for a GET request.
+	 *
+	 * @param iBytes The size in bytes.
+	 */
+	public void setResponseSize(int iBytes)
+	{
+		this.m_iResponseSize = iBytes;
+	}
+
+	/**
+	 * Get the number of requests we have handled.
+	 */
+	public int getRequestCount()
+	{
+		return this.m_iRequestCount;
+	}
+
+	/**
+	 * Accept connections and hand each one to its own thread.
+	 */
+	public void run()
+	{
+		while (this.m_bRun)
+		{
+			try
+			{
+				final Socket xClient = this.m_xServerSocket.accept();
+
+				Thread xWorker = new Thread(new Runnable() {
+					public void run()
+					{
+						networkProbeServer.this.serve(xClient);
+					}
+				}, "networkProbeServer-client");
+				xWorker.setDaemon(true);
+				xWorker.start();
+			}
+			catch (IOException exp)
+			{
+				//* the socket was closed by stop(), or accept failed.  Either way check m_bRun.
+			}
+		}
+	}
+
+	/**
+	 * Serve one request on the connection and close it.
+	 */
+	private void serve(Socket xClient)
+	{
+		byte[]		aBuffer = new byte[IO_CHUNK_SIZE];
+
+		try
+		{
+			InputStream xIn = xClient.getInputStream();
+			OutputStream xOut = xClient.getOutputStream();
+
+			String sHeader = this.readHeader(xIn);
+			if (sHeader == null)
+				return;
+
+			this.m_iRequestCount++;
+
+			if (sHeader.startsWith("POST"))
+			{
+				//* drain the body at the limited rate before we answer
+				long lRemaining = this.parseContentLength(sHeader);
+				long lStart = System.nanoTime();
+				long lDone = 0;
+
+				while (lRemaining > 0)
+				{
+					int iRead = xIn.read(aBuffer, 0, (int)Math.min(aBuffer.length, lRemaining));
+					if (iRead < 0)
+						break;
+
+					lRemaining -= iRead;
+					lDone += iRead;
+					this.throttle(lStart, lDone);
+				}
+
+				//* the status line acknowledges the upload as soon as the last byte is in, the delay comes after
+				xOut.write("HTTP/1.1 200 OK\r\n".getBytes("US-ASCII"));
+				xOut.flush();
+				this.sleep(this.m_iResponseDelayMs);
+				xOut.write("Content-Length: 0\r\nConnection: close\r\n\r\n".getBytes("US-ASCII"));
+				xOut.flush();
+			}
+			else
+			{
+				int iSize = this.m_iResponseSize;
+
+				this.sleep(this.m_iResponseDelayMs);
+				xOut.write(("HTTP/1.1 200 OK\r\nContent-Type: application/octet-stream\r\nContent-Length: " + iSize + "\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+
+				long lStart = System.nanoTime();
+				long lDone = 0;
+				while (lDone < iSize)
+				{
+					int iChunk = (int)Math.min(aBuffer.length, iSize - lDone);
+					xOut.write(aBuffer, 0, iChunk);
+					lDone += iChunk;
+					this.throttle(lStart, lDone);
+				}
+				xOut.flush();
+			}
+		}
+		catch (IOException exp)
+		{
+			//* the client went away, nothing to do
+		}
+		finally
+		{
+			try {
+				xClient.close();
+			}
+			catch (IOException exp)
+			{
+				//* nothing we can do about it
+			}
+		}
+	}
+
+	/**
+	 * Read the request line and headers up to the blank line.
+	 *
+	 * @return The header block or null if the client closed the connection first.
+	 */
+	private String readHeader(InputStream xIn) throws IOException
+	{
+		StringBuilder	xHeader = new StringBuilder();
+		int				iByte;
+
+		while ((iByte = xIn.read()) >= 0)
+		{
+			xHeader.append((char)iByte);
+
+			int iLength = xHeader.length();
+			if (iLength >= 4 && xHeader.charAt(iLength - 1) == '\n' && xHeader.charAt(iLength - 2) == '\r' &&
+					xHeader.charAt(iLength - 3) == '\n' && xHeader.charAt(iLength - 4) == '\r')
+				return xHeader.toString();
+
+			if (iLength > MAX_HEADER_SIZE)
+				throw new IOException("Request header too large.");
+		}
+
+		return null;
+	}
+
+	/**
+	 * Pull the Content-Length value out of the header block.
+	 */
+	private long parseContentLength(String sHeader)
+	{
+		String sLower = sHeader.toLowerCase();
+		int iIndex = sLower.indexOf("content-length:");
+		if (iIndex < 0)
+			return 0;
+
+		int iEnd = sLower.indexOf("\r\n", iIndex);
+		try {
+			return Long.parseLong(sHeader.substring(iIndex + "content-length:".length(), iEnd).trim());
+		}
+		catch (NumberFormatException exp)
+		{
+			return 0;
+		}
+	}
+
+	/**
+	 * Sleep long enough to keep the transfer at or below the bandwidth limit.
+	 *
+	 * @param lStart When the transfer started (System.nanoTime()).
+	 * @param lBytesDone The number of bytes moved so far.
+	 */
+	private void throttle(long lStart, long lBytesDone)
+	{
+		long lLimit = this.m_lBytesPerSecond;
+		if (lLimit <= 0)
+			return;
+
+		//* when the transfer should reach this point at the limited rate
+		long lDueNs = lStart + (long)(lBytesDone * 1e9 / lLimit);
+		long lWaitMs = (lDueNs - System.nanoTime()) / 1000000;
+		if (lWaitMs > 0)
+			this.sleep((int)lWaitMs);
+	}
+
+	private void sleep(int iMillis)
+	{
+		if (iMillis <= 0)
+			return;
+
+		try {
+			Thread.sleep(iMillis);
+		}
+		catch (InterruptedException exp)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+}
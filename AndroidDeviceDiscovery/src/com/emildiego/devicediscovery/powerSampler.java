@@ -0,0 +1,570 @@
+/**
+ * powerSampler
+ *
+ * Samples the battery fuel gauge from /sys/class/power_supply at up to 50Hz
+ * and integrates the instantaneous power into energy.  The battery level in
+ * the battery broadcasts only changes every 1%, this is fine grained enough
+ * to see what a workload costs.
+ *
+ * The current_now, voltage_now, charge_counter and temp attributes are kept
+ * open between samples.  The time each sample takes is measured and the
+ * sample rate is lowered when sampling would use more than the overhead cap.
+ * Power is integrated into fixed length windows which are kept in a ring.
+ *
+ * The sign of current_now is not the same on every device, it is worked
+ * out from the status the first time the battery reports it is charging
+ * or discharging with current flowing.  Power and energy here are
+ * positive when the battery is being drained.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.File;
+
+import android.content.Context;
+
+/**
+ * The sampler class.
+ */
+public class powerSampler extends discoveryBase
+{
+	static final String			POWER_SUPPLY_DIR		= "/sys/class/power_supply";
+
+	static final int			MAX_RATE				= 50;
+	static final int			DEFAULT_RATE			= 10;
+	static final double			DEFAULT_MAX_OVERHEAD	= 0.02;			//* 2% of one core
+	static final long			DEFAULT_WINDOW			= 1000;			//* ms
+	static final int			WINDOW_HISTORY			= 600;
+
+	/**
+	 * Samples further apart than this aren't integrated, the power in between is unknown.
+	 */
+	static final long			MAX_GAP_NS				= 2000000000L;
+
+	static final double			NS_PER_HOUR				= 3600e9;
+
+	//* the battery attributes
+	private String				m_sSupplyName;
+	private sysfsFile			m_xCurrent;
+	private sysfsFile			m_xVoltage;
+	private sysfsFile			m_xChargeCounter;
+	private sysfsFile			m_xTemperature;
+	private sysfsFile			m_xStatus;
+	private int					m_iCurrentSign;
+
+	//* the latest sample
+	private long				m_lCurrentUa;
+	private long				m_lVoltageUv;
+	private long				m_lChargeCounterUah;
+	private int					m_iTemperature;
+	private double				m_dPowerMw;
+	private long				m_lLastSampleNs;
+	private boolean				m_bHasSample;
+	private long				m_lSampleCount;
+
+	//* the energy used since the sampler was created
+	private double				m_dTotalEnergyMwh;
+
+	//* the window being filled
+	private long				m_lWindowLengthNs;
+	private long				m_lWindowStartNs;
+	private long				m_lWindowStartTime;
+	private double				m_dWindowEnergyMwh;
+	private long				m_lWindowCoveredNs;
+	private int					m_iWindowSamples;
+
+	//* the ring of finished windows
+	private long[]				m_aWindowTimes;
+	private double[]			m_aWindowEnergy;
+	private double[]			m_aWindowPower;
+	private int[]				m_aWindowSamples;
+	private int					m_iWindowPos;
+	private int					m_iWindowCount;
+
+	//* rate and overhead control
+	private int					m_iRequestedRate;
+	private double				m_dMaxOverhead;
+	private double				m_dSampleCostNs;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param xContext The application context
+	 * @param sLogTag The Tag to be used by the Android message logger
+	 */
+	public powerSampler(Context xContext, String sLogTag)
+	{
+		super(xContext, sLogTag);
+
+		this.m_iRequestedRate	= DEFAULT_RATE;
+		this.m_dMaxOverhead		= DEFAULT_MAX_OVERHEAD;
+		this.m_lWindowLengthNs	= DEFAULT_WINDOW * 1000000L;
+
+		this.m_aWindowTimes		= new long[WINDOW_HISTORY];
+		this.m_aWindowEnergy	= new double[WINDOW_HISTORY];
+		this.m_aWindowPower		= new double[WINDOW_HISTORY];
+		this.m_aWindowSamples	= new int[WINDOW_HISTORY];
+	}
+
+	/**
+	 * Find the battery in /sys/class/power_supply and open its attributes.
+	 */
+	private synchronized boolean openSupply()
+	{
+		if (this.m_xCurrent != null)
+			return true;
+
+		File[] aSupplies = new File(POWER_SUPPLY_DIR).listFiles();
+		if (aSupplies == null)
+			return false;
+
+		for (int i = 0; i < aSupplies.length; i++)
+		{
+			String sDir = aSupplies[i].getPath();
+
+			sysfsFile xType = new sysfsFile(sDir + "/type");
+			boolean bBattery = xType.open() && xType.startsWith("Battery");
+			xType.close();
+			if (!bBattery)
+				continue;
+
+			sysfsFile xCurrent = new sysfsFile(sDir + "/current_now");
+			sysfsFile xVoltage = new sysfsFile(sDir + "/voltage_now");
+			if (!xCurrent.open() || !xVoltage.open())
+			{
+				xCurrent.close();
+				xVoltage.close();
+				continue;
+			}
+
+			this.m_sSupplyName		= aSupplies[i].getName();
+			this.m_xCurrent			= xCurrent;
+			this.m_xVoltage			= xVoltage;
+			this.m_xChargeCounter	= new sysfsFile(sDir + "/charge_counter");
+			this.m_xTemperature		= new sysfsFile(sDir + "/temp");
+			this.m_xStatus			= new sysfsFile(sDir + "/status");
+			this.m_xChargeCounter.open();
+			this.m_xTemperature.open();
+			this.m_xStatus.open();
+			return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Take a single sample.
+	 *
+	 * @return True if the battery was found and sampled.
+	 */
+	@Override
+	public boolean query()
+	{
+		if (!this.openSupply())
+		{
+			this.logDebug("No battery found in " + POWER_SUPPLY_DIR);
+			return false;
+		}
+
+		return this.sample(System.nanoTime());
+	}
+
+	/**
+	 * Read the attributes and integrate the power since the last sample.
+	 */
+	private synchronized boolean sample(long lNow)
+	{
+		if (this.m_xCurrent == null)
+			return false;
+
+		long lCurrent = this.m_xCurrent.readLong(Long.MIN_VALUE);
+		long lVoltage = this.m_xVoltage.readLong(Long.MIN_VALUE);
+		if (lCurrent == Long.MIN_VALUE || lVoltage == Long.MIN_VALUE)
+			return false;
+
+		//* work out which way current_now counts the first time current flows while charging or discharging
+		if (this.m_iCurrentSign == 0 && lCurrent != 0)
+		{
+			if (this.m_xStatus.startsWith("Discharging"))
+				this.m_iCurrentSign = (lCurrent > 0) ? 1 : -1;
+			else if (this.m_xStatus.startsWith("Charging"))
+				this.m_iCurrentSign = (lCurrent > 0) ? -1 : 1;
+		}
+
+		//* still unknown only while the status is full or not charging, when hardly any current flows
+		int iSign = (this.m_iCurrentSign == 0) ? 1 : this.m_iCurrentSign;
+
+		this.m_lCurrentUa			= iSign * lCurrent;
+		this.m_lVoltageUv			= lVoltage;
+		this.m_lChargeCounterUah	= this.m_xChargeCounter.readLong(0);
+		this.m_iTemperature			= (int)this.m_xTemperature.readLong(0);
+
+		//* uA * uV = pW
+		double dPower = this.m_lCurrentUa * (double)this.m_lVoltageUv / 1e9;
+
+		if (!this.m_bHasSample)
+		{
+			this.m_lWindowStartNs	= lNow;
+			this.m_lWindowStartTime	= System.currentTimeMillis();
+		}
+		else
+		{
+			long lElapsed = lNow - this.m_lLastSampleNs;
+			if (lElapsed > 0 && lElapsed <= MAX_GAP_NS)
+			{
+				//* trapezoid between the two samples
+				double dEnergy = (dPower + this.m_dPowerMw) / 2 * lElapsed / NS_PER_HOUR;
+				this.m_dTotalEnergyMwh	+= dEnergy;
+				this.m_dWindowEnergyMwh	+= dEnergy;
+				this.m_lWindowCoveredNs	+= lElapsed;
+			}
+		}
+
+		this.m_dPowerMw			= dPower;
+		this.m_lLastSampleNs	= lNow;
+		this.m_bHasSample		= true;
+		this.m_lSampleCount++;
+		this.m_iWindowSamples++;
+
+		if (lNow - this.m_lWindowStartNs >= this.m_lWindowLengthNs)
+			this.closeWindow(lNow);
+
+		return true;
+	}
+
+	/**
+	 * Move the window being filled into the ring and start a new one.
+	 */
+	private void closeWindow(long lNow)
+	{
+		this.m_aWindowTimes[this.m_iWindowPos]		= this.m_lWindowStartTime;
+		this.m_aWindowEnergy[this.m_iWindowPos]		= this.m_dWindowEnergyMwh;
+		this.m_aWindowPower[this.m_iWindowPos]		= (this.m_lWindowCoveredNs > 0) ? this.m_dWindowEnergyMwh * NS_PER_HOUR / this.m_lWindowCoveredNs : this.m_dPowerMw;
+		this.m_aWindowSamples[this.m_iWindowPos]	= this.m_iWindowSamples;
+		this.m_iWindowPos = (this.m_iWindowPos + 1) % WINDOW_HISTORY;
+		if (this.m_iWindowCount < WINDOW_HISTORY)
+			this.m_iWindowCount++;
+
+		this.m_lWindowStartNs	= lNow;
+		this.m_lWindowStartTime	= System.currentTimeMillis();
+		this.m_dWindowEnergyMwh	= 0;
+		this.m_lWindowCoveredNs	= 0;
+		this.m_iWindowSamples	= 0;
+	}
+
+	/**
+	 * Start sampling on the update thread.
+	 *
+	 * @param iRate The samples per second wanted, capped at 50.  The actual rate
+	 * can be lower if sampling costs more than the overhead cap.
+	 * @return True if the sampler is running.
+	 */
+	public synchronized boolean start(int iRate)
+	{
+		this.m_iRequestedRate = Math.max(1, Math.min(MAX_RATE, iRate));
+
+		if (this.m_xUpdateThread != null)
+			return true;
+
+		if (!this.openSupply())
+		{
+			this.logError("No battery found in " + POWER_SUPPLY_DIR);
+			return false;
+		}
+
+		this.m_bRun = true;
+		this.m_xUpdateThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				powerSampler.this.sampleLoop();
+			}
+		}, "powerSampler");
+		this.m_xUpdateThread.setDaemon(true);
+		this.m_xUpdateThread.start();
+
+		return true;
+	}
+
+	/**
+	 * Stop sampling and wait for the thread to finish.
+	 */
+	public void stop()
+	{
+		Thread xThread;
+
+		synchronized (this)
+		{
+			xThread = this.m_xUpdateThread;
+			this.m_xUpdateThread = null;
+			this.m_bRun = false;
+		}
+
+		if (xThread == null)
+			return;
+
+		xThread.interrupt();
+		try
+		{
+			xThread.join(1000);
+		}
+		catch (InterruptedException exp)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Close the sysfs files.  Stops the sampler first.
+	 */
+	public void close()
+	{
+		this.stop();
+
+		synchronized (this)
+		{
+			if (this.m_xCurrent == null)
+				return;
+
+			this.m_xCurrent.close();
+			this.m_xVoltage.close();
+			this.m_xChargeCounter.close();
+			this.m_xTemperature.close();
+			this.m_xStatus.close();
+			this.m_xCurrent = null;
+		}
+	}
+
+	private void sampleLoop()
+	{
+		Thread xSelf = Thread.currentThread();
+
+		while (!xSelf.isInterrupted())
+		{
+			long lStart = System.nanoTime();
+
+			synchronized (this)
+			{
+				if (!this.m_bRun || this.m_xUpdateThread != xSelf)
+					return;
+			}
+
+			this.sample(lStart);
+
+			long lCost = System.nanoTime() - lStart;
+			long lInterval;
+
+			synchronized (this)
+			{
+				//* smooth the cost so one slow read doesn't halve the rate
+				this.m_dSampleCostNs = (this.m_dSampleCostNs == 0) ? lCost : this.m_dSampleCostNs + 0.1 * (lCost - this.m_dSampleCostNs);
+				lInterval = this.getIntervalNs();
+			}
+
+			long lSleep = lInterval - (System.nanoTime() - lStart);
+			if (lSleep <= 0)
+				continue;
+
+			try
+			{
+				Thread.sleep(lSleep / 1000000L, (int)(lSleep % 1000000L));
+			}
+			catch (InterruptedException exp)
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The time between samples, the requested rate lowered to keep the overhead under the cap.
+	 */
+	private long getIntervalNs()
+	{
+		long lInterval = 1000000000L / this.m_iRequestedRate;
+		long lMinimum = (long)(this.m_dSampleCostNs / this.m_dMaxOverhead);
+
+		return Math.max(lInterval, lMinimum);
+	}
+
+	/**
+	 * Set the most time sampling can take, as a fraction of one core.
+	 *
+	 * @param dFraction 0.02 is 2%.
+	 */
+	public synchronized void setMaxOverhead(double dFraction)
+	{
+		this.m_dMaxOverhead = Math.max(0.0001, dFraction);
+	}
+
+	/**
+	 * Set the length of the energy windows.  Takes effect from the next window.
+	 */
+	public synchronized void setWindowLength(long lMilliseconds)
+	{
+		this.m_lWindowLengthNs = Math.max(1, lMilliseconds) * 1000000L;
+	}
+
+	public synchronized boolean isRunning()
+	{
+		return this.m_xUpdateThread != null;
+	}
+
+	/**
+	 * Get the sample rate actually used after the overhead cap.
+	 * @return Samples per second.
+	 */
+	public synchronized double getEffectiveRate()
+	{
+		return 1e9 / this.getIntervalNs();
+	}
+
+	/**
+	 * Get the average time a sample takes.
+	 * @return Nanoseconds.
+	 */
+	public synchronized double getSampleCost()
+	{
+		return this.m_dSampleCostNs;
+	}
+
+	/**
+	 * Get the share of one core used by sampling at the effective rate.
+	 */
+	public synchronized double getOverhead()
+	{
+		return this.m_dSampleCostNs / this.getIntervalNs();
+	}
+
+	public synchronized long getSampleCount()
+	{
+		return this.m_lSampleCount;
+	}
+
+	/**
+	 * Get the name of the power supply being sampled, null if none was found.
+	 */
+	public synchronized String getSupplyName()
+	{
+		return this.m_sSupplyName;
+	}
+
+	/**
+	 * Get the latest current.
+	 * @return uA, positive when the battery is discharging.
+	 */
+	public synchronized long getCurrent()
+	{
+		return this.m_lCurrentUa;
+	}
+
+	/**
+	 * @return The latest voltage in uV.
+	 */
+	public synchronized long getVoltage()
+	{
+		return this.m_lVoltageUv;
+	}
+
+	/**
+	 * @return The latest charge counter in uAh, 0 if the gauge doesn't have one.
+	 */
+	public synchronized long getChargeCounter()
+	{
+		return this.m_lChargeCounterUah;
+	}
+
+	/**
+	 * @return The latest temperature in tenths of a degree C.
+	 */
+	public synchronized int getTemperature()
+	{
+		return this.m_iTemperature;
+	}
+
+	/**
+	 * Get the latest power.
+	 * @return mW, positive when the battery is discharging.
+	 */
+	public synchronized double getPower()
+	{
+		return this.m_dPowerMw;
+	}
+
+	/**
+	 * Get the energy drained since the sampler was created, less what was charged.
+	 * @return mWh
+	 */
+	public synchronized double getTotalEnergy()
+	{
+		return this.m_dTotalEnergyMwh;
+	}
+
+	/**
+	 * Get the number of finished windows, entry 0 is the oldest.
+	 */
+	public synchronized int getWindowCount()
+	{
+		return this.m_iWindowCount;
+	}
+
+	private int windowIndex(int iEntry)
+	{
+		if (iEntry < 0 || iEntry >= this.m_iWindowCount)
+			throw new IndexOutOfBoundsException("Window " + iEntry + " of " + this.m_iWindowCount);
+
+		return (this.m_iWindowPos - this.m_iWindowCount + iEntry + WINDOW_HISTORY) % WINDOW_HISTORY;
+	}
+
+	/**
+	 * @return When the window started (System.currentTimeMillis()).
+	 */
+	public synchronized long getWindowTime(int iEntry)
+	{
+		return this.m_aWindowTimes[this.windowIndex(iEntry)];
+	}
+
+	/**
+	 * @return The energy drained during the window in mWh.
+	 */
+	public synchronized double getWindowEnergy(int iEntry)
+	{
+		return this.m_aWindowEnergy[this.windowIndex(iEntry)];
+	}
+
+	/**
+	 * @return The average power during the window in mW.
+	 */
+	public synchronized double getWindowPower(int iEntry)
+	{
+		return this.m_aWindowPower[this.windowIndex(iEntry)];
+	}
+
+	public synchronized int getWindowSamples(int iEntry)
+	{
+		return this.m_aWindowSamples[this.windowIndex(iEntry)];
+	}
+
+	/**
+	 * Summarize the power information into a string.
+	 *
+	 * @return A string with the latest sample, the energy used and the sampling overhead.
+	 */
+	@Override
+	public synchronized String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Power Supply: " + this.m_sSupplyName + "\n";
+		sSummary += "Current: " + (this.m_lCurrentUa / 1000) + " mA\n";
+		sSummary += "Voltage: " + (this.m_lVoltageUv / 1000) + " mV\n";
+		sSummary += "Power: " + String.format("%.1f", this.m_dPowerMw) + " mW\n";
+		sSummary += "Temperature: " + (this.m_iTemperature / 10f) + " C\n";
+		sSummary += "Energy Used: " + String.format("%.3f", this.m_dTotalEnergyMwh) + " mWh\n";
+		sSummary += "Sample Rate: " + String.format("%.1f", this.getEffectiveRate()) + " Hz (" +
+				String.format("%.2f", this.getOverhead() * 100) + "% overhead)\n";
+
+		return sSummary;
+	}
+}
@@ -0,0 +1,94 @@
+/**
+ * pressureInfo
+ *
+ * Holds the contents of one of the kernel's pressure stall information
+ * files (/proc/pressure/cpu, memory or io):
+ *
+ *   some avg10=0.00 avg60=0.00 avg300=0.00 total=0
+ *   full avg10=0.00 avg60=0.00 avg300=0.00 total=0
+ *
+ * The averages are the percentage of time at least one task ("some") or
+ * all non idle tasks ("full") were stalled on the resource.  The totals are
+ * the accumulated stall time in microseconds.  The cpu file only has the
+ * "full" line on newer kernels.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * The pressure values for one resource.
+ */
+public class pressureInfo
+{
+	public float			m_fSomeAvg10;
+	public float			m_fSomeAvg60;
+	public float			m_fSomeAvg300;
+	public long				m_lSomeTotalUs;
+
+	public boolean			m_bHasFull;
+	public float			m_fFullAvg10;
+	public float			m_fFullAvg60;
+	public float			m_fFullAvg300;
+	public long				m_lFullTotalUs;
+
+	/**
+	 * Parse the pressure file that was read into the reader.
+	 *
+	 * @param xReader A reader holding the contents of a /proc/pressure file.
+	 * @return False if the contents didn't look like a pressure file.
+	 */
+	boolean parse(procfsReader xReader)
+	{
+		boolean bHasSome = false;
+
+		this.m_bHasFull = false;
+		xReader.rewind();
+
+		while (!xReader.atEnd())
+		{
+			if (xReader.matchToken("some"))
+			{
+				xReader.skipPast('=');
+				this.m_fSomeAvg10	= (float)xReader.nextDouble();
+				xReader.skipPast('=');
+				this.m_fSomeAvg60	= (float)xReader.nextDouble();
+				xReader.skipPast('=');
+				this.m_fSomeAvg300	= (float)xReader.nextDouble();
+				xReader.skipPast('=');
+				this.m_lSomeTotalUs	= xReader.nextLong();
+				bHasSome = true;
+			}
+			else if (xReader.matchToken("full"))
+			{
+				xReader.skipPast('=');
+				this.m_fFullAvg10	= (float)xReader.nextDouble();
+				xReader.skipPast('=');
+				this.m_fFullAvg60	= (float)xReader.nextDouble();
+				xReader.skipPast('=');
+				this.m_fFullAvg300	= (float)xReader.nextDouble();
+				xReader.skipPast('=');
+				this.m_lFullTotalUs	= xReader.nextLong();
+				this.m_bHasFull = true;
+			}
+
+			if (!xReader.nextLine())
+				break;
+		}
+
+		return bHasSome;
+	}
+
+	/**
+	 * Summarize the pressure values as a single line.
+	 */
+	public String summaryString()
+	{
+		String sSummary = "some " + this.m_fSomeAvg10 + "/" + this.m_fSomeAvg60 + "/" + this.m_fSomeAvg300 + "%";
+
+		if (this.m_bHasFull)
+			sSummary += " full " + this.m_fFullAvg10 + "/" + this.m_fFullAvg60 + "/" + this.m_fFullAvg300 + "%";
+
+		return sSummary;
+	}
+}
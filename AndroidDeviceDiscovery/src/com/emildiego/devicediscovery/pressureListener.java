@@ -0,0 +1,23 @@
+/**
+ * This interface is implemented by anyone who wants to be told when tasks
+ * stall on a resource for longer than a pressureMonitor trigger allows.
+ *
+ * @author Emil Diego
+ *
+ */
+
+package com.emildiego.devicediscovery;
+
+public interface pressureListener
+{
+	/**
+	 * Called from the monitor thread when a trigger fires.  Called at most
+	 * once per trigger window.
+	 *
+	 * @param iResource pressureMonitor.RESOURCE_CPU, RESOURCE_MEMORY or RESOURCE_IO.
+	 * @param bFull True for a "full" trigger, false for "some".
+	 * @param lStallUs The stall time measured over the window.
+	 * @param lWindowUs The trigger window.
+	 */
+	public void onPressureStall(int iResource, boolean bFull, long lStallUs, long lWindowUs);
+}
@@ -0,0 +1,521 @@
+/**
+ * pressureMonitor
+ *
+ * Reads the pressure stall information of the cpu, memory and io
+ * (/proc/pressure/*) and the load average (/proc/loadavg).  Utilization
+ * says how busy the cpu is, pressure says how long tasks were stalled
+ * waiting for it.
+ *
+ * Triggers report stalls as events.  A trigger is the same as a kernel PSI
+ * trigger: fire when the stall time within a window goes over a threshold,
+ * at most once per window.  The kernel triggers need poll() with POLLPRI,
+ * which Java can't do, so the monitor thread samples the stall totals ten
+ * times per window and checks the growth over the window instead.
+ *
+ * The files are read through procfsCache like the other collectors, so a
+ * sample can be a copy read earlier in the same tick.  Samples are timed
+ * by when the kernel was read, a copy just repeats the sample before it.
+ *
+ * On kernels without PSI, cpu triggers fall back to sampling the number of
+ * runnable tasks from /proc/loadavg.  Every sample where there were more
+ * runnable tasks than cpus counts as stalled, which gives an approximate
+ * "some" total.  Memory and io triggers need PSI.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * A single trigger and the stall totals sampled over its window.
+ */
+class pressureTrigger
+{
+	int						m_iResource;
+	boolean					m_bFull;
+	long					m_lThresholdUs;
+	long					m_lWindowUs;
+	pressureListener		m_xListener;
+
+	//* ring of (time, total) samples
+	long[]					m_aTimes;
+	long[]					m_aTotals;
+	int						m_iPos;
+	int						m_iCount;
+
+	long					m_lLastFired;
+	long					m_lFireCount;
+
+	pressureTrigger(int iSamples)
+	{
+		this.m_aTimes		= new long[iSamples];
+		this.m_aTotals		= new long[iSamples];
+	}
+
+	/**
+	 * Add a sample and return the stall time over the window, or -1 if the
+	 * samples don't cover a whole window yet.  Only one sample per tenth of
+	 * the window is kept, so the ring covers two windows however often the
+	 * monitor samples.
+	 */
+	long add(long lTimeUs, long lTotalUs)
+	{
+		long lStall = -1;
+
+		//* the newest kept sample that is at least a window old
+		for (int i = 0; i < this.m_iCount; i++)
+		{
+			int iIndex = (this.m_iPos - 1 - i + this.m_aTimes.length) % this.m_aTimes.length;
+			if (lTimeUs - this.m_aTimes[iIndex] >= this.m_lWindowUs)
+			{
+				lStall = lTotalUs - this.m_aTotals[iIndex];
+				break;
+			}
+		}
+
+		int iLast = (this.m_iPos - 1 + this.m_aTimes.length) % this.m_aTimes.length;
+		if (this.m_iCount == 0 || lTimeUs - this.m_aTimes[iLast] >= this.m_lWindowUs / pressureMonitor.SAMPLES_PER_WINDOW)
+		{
+			this.m_aTimes[this.m_iPos]	= lTimeUs;
+			this.m_aTotals[this.m_iPos]	= lTotalUs;
+			this.m_iPos = (this.m_iPos + 1) % this.m_aTimes.length;
+			if (this.m_iCount < this.m_aTimes.length)
+				this.m_iCount++;
+		}
+
+		return lStall;
+	}
+}
+
+/**
+ * The main class used to query the device about stalls and load.
+ */
+public class pressureMonitor extends discoveryBase
+{
+	public static final int			RESOURCE_CPU		= 0;
+	public static final int			RESOURCE_MEMORY		= 1;
+	public static final int			RESOURCE_IO			= 2;
+	static final int				RESOURCE_COUNT		= 3;
+
+	static final String[]			PRESSURE_PATHS		= { "/proc/pressure/cpu", "/proc/pressure/memory", "/proc/pressure/io" };
+	static final String[]			RESOURCE_NAMES		= { "CPU", "Memory", "IO" };
+	static final String				LOADAVG_PATH		= "/proc/loadavg";
+
+	/**
+	 * Trigger limits, the same as the kernel's.
+	 */
+	static final long				MIN_WINDOW_US		= 500000;
+	static final long				MAX_WINDOW_US		= 10000000;
+
+	static final int				SAMPLES_PER_WINDOW	= 10;
+	static final long				MIN_PERIOD_MS		= 50;
+
+	private procfsReader			m_xReader;
+
+	//* the pressure of each resource
+	private pressureInfo[]			m_aPressure;
+	private boolean[]				m_aHasPressure;
+	private long[]					m_aReadUs;
+
+	//* the load average
+	private float					m_fLoad1;
+	private float					m_fLoad5;
+	private float					m_fLoad15;
+	private int						m_iRunnable;
+	private int						m_iTasks;
+	private int						m_iCpuCount;
+	private long					m_lLoadReadUs;
+
+	//* the approximate cpu stall total used when there is no PSI
+	private long					m_lSampledCpuStallUs;
+	private long					m_lLastSampleUs;
+
+	private List<pressureTrigger>	m_listTriggers;
+	private long					m_lPeriodMs;
+	private boolean[]				m_aRead;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param xContext The application context
+	 * @param sLogTag The Tag to be used by the Android message logger
+	 */
+	public pressureMonitor(Context xContext, String sLogTag)
+	{
+		super(xContext, sLogTag);
+
+		this.m_xReader		= new procfsReader();
+		this.m_aPressure	= new pressureInfo[RESOURCE_COUNT];
+		this.m_aHasPressure	= new boolean[RESOURCE_COUNT];
+		this.m_aReadUs		= new long[RESOURCE_COUNT];
+		for (int i = 0; i < RESOURCE_COUNT; i++)
+			this.m_aPressure[i] = new pressureInfo();
+
+		this.m_iCpuCount	= Runtime.getRuntime().availableProcessors();
+		this.m_listTriggers	= new ArrayList<pressureTrigger>();
+		this.m_aRead		= new boolean[RESOURCE_COUNT];
+	}
+
+	/**
+	 * Read the pressure files and the load average.
+	 *
+	 * @return True if the load average could be read.
+	 */
+	@Override
+	public synchronized boolean query()
+	{
+		for (int i = 0; i < RESOURCE_COUNT; i++)
+			this.readPressure(i);
+
+		if (!this.readLoadAverage())
+		{
+			this.logError("Unable to read " + LOADAVG_PATH);
+			return false;
+		}
+		return true;
+	}
+
+	private boolean readPressure(int iResource)
+	{
+		this.m_aHasPressure[iResource] = this.m_xReader.readCached(PRESSURE_PATHS[iResource]) &&
+				this.m_aPressure[iResource].parse(this.m_xReader);
+		this.m_aReadUs[iResource] = this.m_xReader.getReadTime() / 1000;
+
+		return this.m_aHasPressure[iResource];
+	}
+
+	/**
+	 * Parse "0.46 0.30 0.15 4/73 1724".
+	 */
+	private boolean readLoadAverage()
+	{
+		if (!this.m_xReader.readCached(LOADAVG_PATH))
+			return false;
+
+		this.m_lLoadReadUs = this.m_xReader.getReadTime() / 1000;
+
+		this.m_fLoad1	= (float)this.m_xReader.nextDouble();
+		this.m_fLoad5	= (float)this.m_xReader.nextDouble();
+		this.m_fLoad15	= (float)this.m_xReader.nextDouble();
+
+		//* nextLong() skips the whole "4/73" token, so come back for the total
+		this.m_xReader.skipSpaces();
+		int iPos = this.m_xReader.getPosition();
+		this.m_iRunnable = (int)this.m_xReader.nextLong();
+		this.m_xReader.setPosition(iPos);
+		if (this.m_xReader.skipPast('/'))
+			this.m_iTasks = (int)this.m_xReader.nextLong();
+
+		return true;
+	}
+
+	/**
+	 * Add a trigger.  Starts the monitor thread if it isn't running.
+	 *
+	 * @param iResource RESOURCE_CPU, RESOURCE_MEMORY or RESOURCE_IO.
+	 * @param bFull Trigger on "full" stalls (all tasks stalled) instead of "some".
+	 * @param lThresholdUs Fire when the stall time within the window reaches this.
+	 * @param lWindowUs The window, 500ms to 10s.
+	 * @param xListener Called when the trigger fires.
+	 * @return False if the trigger isn't supported on this kernel.
+	 */
+	public boolean addTrigger(int iResource, boolean bFull, long lThresholdUs, long lWindowUs, pressureListener xListener)
+	{
+		if (iResource < 0 || iResource >= RESOURCE_COUNT || lWindowUs < MIN_WINDOW_US || lWindowUs > MAX_WINDOW_US ||
+				lThresholdUs <= 0 || lThresholdUs > lWindowUs)
+			throw new IllegalArgumentException("Invalid pressure trigger");
+
+		synchronized (this)
+		{
+			boolean bPsi = this.readPressure(iResource);
+
+			//* without PSI only the approximate cpu "some" stall is available
+			if (!bPsi && (iResource != RESOURCE_CPU || bFull))
+				return false;
+			if (bPsi && bFull && !this.m_aPressure[iResource].m_bHasFull)
+				return false;
+
+			pressureTrigger xTrigger = new pressureTrigger(SAMPLES_PER_WINDOW * 2 + 2);
+			xTrigger.m_iResource	= iResource;
+			xTrigger.m_bFull		= bFull;
+			xTrigger.m_lThresholdUs	= lThresholdUs;
+			xTrigger.m_lWindowUs	= lWindowUs;
+			xTrigger.m_xListener	= xListener;
+			this.m_listTriggers.add(xTrigger);
+
+			this.updatePeriod();
+		}
+
+		return this.start();
+	}
+
+	/**
+	 * Remove every trigger of the listener.  The monitor thread stops when no triggers are left.
+	 */
+	public void removeTriggers(pressureListener xListener)
+	{
+		boolean bEmpty;
+
+		synchronized (this)
+		{
+			for (int i = this.m_listTriggers.size() - 1; i >= 0; i--)
+			{
+				if (this.m_listTriggers.get(i).m_xListener == xListener)
+					this.m_listTriggers.remove(i);
+			}
+
+			bEmpty = this.m_listTriggers.isEmpty();
+			this.updatePeriod();
+		}
+
+		if (bEmpty)
+			this.stop();
+	}
+
+	/**
+	 * Sample often enough to see every window in ten steps.
+	 */
+	private void updatePeriod()
+	{
+		long lPeriod = MAX_WINDOW_US / SAMPLES_PER_WINDOW / 1000;
+		for (int i = 0; i < this.m_listTriggers.size(); i++)
+			lPeriod = Math.min(lPeriod, this.m_listTriggers.get(i).m_lWindowUs / SAMPLES_PER_WINDOW / 1000);
+
+		this.m_lPeriodMs = Math.max(MIN_PERIOD_MS, lPeriod);
+	}
+
+	private synchronized boolean start()
+	{
+		if (this.m_xUpdateThread != null)
+			return true;
+
+		this.m_bRun = true;
+		this.m_xUpdateThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				pressureMonitor.this.monitorLoop();
+			}
+		}, "pressureMonitor");
+		this.m_xUpdateThread.setDaemon(true);
+		this.m_xUpdateThread.start();
+
+		return true;
+	}
+
+	/**
+	 * Stop the monitor thread.  The triggers are kept and the thread restarts with the next addTrigger().
+	 */
+	public void stop()
+	{
+		Thread xThread;
+
+		synchronized (this)
+		{
+			xThread = this.m_xUpdateThread;
+			this.m_xUpdateThread = null;
+			this.m_bRun = false;
+		}
+
+		if (xThread == null)
+			return;
+
+		xThread.interrupt();
+		try
+		{
+			xThread.join(1000);
+		}
+		catch (InterruptedException exp)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void monitorLoop()
+	{
+		Thread xSelf = Thread.currentThread();
+		List<pressureTrigger> listFired = new ArrayList<pressureTrigger>();
+		List<Long> listStalls = new ArrayList<Long>();
+		long lPeriod;
+
+		while (!xSelf.isInterrupted())
+		{
+			listFired.clear();
+			listStalls.clear();
+
+			synchronized (this)
+			{
+				if (!this.m_bRun || this.m_xUpdateThread != xSelf)
+					return;
+
+				this.sampleTriggers(listFired, listStalls);
+				lPeriod = this.m_lPeriodMs;
+			}
+
+			//* call the listeners outside the lock
+			for (int i = 0; i < listFired.size(); i++)
+			{
+				pressureTrigger xTrigger = listFired.get(i);
+				xTrigger.m_xListener.onPressureStall(xTrigger.m_iResource, xTrigger.m_bFull, listStalls.get(i), xTrigger.m_lWindowUs);
+			}
+
+			try
+			{
+				Thread.sleep(lPeriod);
+			}
+			catch (InterruptedException exp)
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Read the totals the triggers need and collect the ones that fire.
+	 */
+	private void sampleTriggers(List<pressureTrigger> listFired, List<Long> listStalls)
+	{
+		//* read each resource once, however many triggers it has
+		boolean[] aRead = this.m_aRead;
+		for (int i = 0; i < RESOURCE_COUNT; i++)
+			aRead[i] = false;
+		for (int i = 0; i < this.m_listTriggers.size(); i++)
+		{
+			int iResource = this.m_listTriggers.get(i).m_iResource;
+			if (!aRead[iResource])
+			{
+				this.readPressure(iResource);
+				aRead[iResource] = true;
+			}
+		}
+
+		//* the cpu fallback, a cached copy of the last sample adds nothing
+		if (aRead[RESOURCE_CPU] && !this.m_aHasPressure[RESOURCE_CPU] && this.readLoadAverage() &&
+				this.m_lLoadReadUs != this.m_lLastSampleUs)
+		{
+			//* the runnable count includes the reader
+			if (this.m_lLastSampleUs != 0 && this.m_iRunnable - 1 > this.m_iCpuCount)
+				this.m_lSampledCpuStallUs += this.m_lLoadReadUs - this.m_lLastSampleUs;
+			this.m_lLastSampleUs = this.m_lLoadReadUs;
+		}
+
+		for (int i = 0; i < this.m_listTriggers.size(); i++)
+		{
+			pressureTrigger xTrigger = this.m_listTriggers.get(i);
+			pressureInfo xPressure = this.m_aPressure[xTrigger.m_iResource];
+
+			long lTimeUs;
+			long lTotal;
+			if (this.m_aHasPressure[xTrigger.m_iResource])
+			{
+				lTimeUs	= this.m_aReadUs[xTrigger.m_iResource];
+				lTotal	= xTrigger.m_bFull ? xPressure.m_lFullTotalUs : xPressure.m_lSomeTotalUs;
+			}
+			else if (xTrigger.m_iResource == RESOURCE_CPU && this.m_lLastSampleUs != 0)
+			{
+				lTimeUs	= this.m_lLastSampleUs;
+				lTotal	= this.m_lSampledCpuStallUs;
+			}
+			else
+				continue;
+
+			long lStall = xTrigger.add(lTimeUs, lTotal);
+			if (lStall >= xTrigger.m_lThresholdUs && (xTrigger.m_lFireCount == 0 || lTimeUs - xTrigger.m_lLastFired >= xTrigger.m_lWindowUs))
+			{
+				xTrigger.m_lLastFired = lTimeUs;
+				xTrigger.m_lFireCount++;
+				listFired.add(xTrigger);
+				listStalls.add(lStall);
+			}
+		}
+	}
+
+	/**
+	 * Check if the kernel reports pressure for the resource.
+	 */
+	public synchronized boolean hasPressure(int iResource)
+	{
+		return this.m_aHasPressure[iResource];
+	}
+
+	/**
+	 * Get the pressure of a resource from the last query.
+	 * @return The pressure values, or null if the kernel doesn't report them.
+	 */
+	public synchronized pressureInfo getPressure(int iResource)
+	{
+		return this.m_aHasPressure[iResource] ? this.m_aPressure[iResource] : null;
+	}
+
+	public synchronized float getLoadAverage1()
+	{
+		return this.m_fLoad1;
+	}
+
+	public synchronized float getLoadAverage5()
+	{
+		return this.m_fLoad5;
+	}
+
+	public synchronized float getLoadAverage15()
+	{
+		return this.m_fLoad15;
+	}
+
+	/**
+	 * @return The number of runnable tasks at the last query.
+	 */
+	public synchronized int getRunnableTasks()
+	{
+		return this.m_iRunnable;
+	}
+
+	/**
+	 * @return The number of tasks on the system at the last query.
+	 */
+	public synchronized int getTaskCount()
+	{
+		return this.m_iTasks;
+	}
+
+	/**
+	 * @return The number of times the triggers fired.
+	 */
+	public synchronized long getTriggerCount()
+	{
+		long lCount = 0;
+		for (int i = 0; i < this.m_listTriggers.size(); i++)
+			lCount += this.m_listTriggers.get(i).m_lFireCount;
+
+		return lCount;
+	}
+
+	/**
+	 * Summarize the pressure and load into a string.
+	 *
+	 * @return A string with the load averages and the pressure of each resource.
+	 */
+	@Override
+	public synchronized String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Load Average: " + this.m_fLoad1 + " " + this.m_fLoad5 + " " + this.m_fLoad15 + "\n";
+		sSummary += "Runnable Tasks: " + this.m_iRunnable + "/" + this.m_iTasks + "\n";
+
+		for (int i = 0; i < RESOURCE_COUNT; i++)
+		{
+			if (this.m_aHasPressure[i])
+				sSummary += RESOURCE_NAMES[i] + " Pressure: " + this.m_aPressure[i].summaryString() + "\n";
+		}
+
+		if (this.m_listTriggers.size() > 0)
+			sSummary += "Pressure Triggers Fired: " + this.getTriggerCount() + "\n";
+
+		return sSummary;
+	}
+}
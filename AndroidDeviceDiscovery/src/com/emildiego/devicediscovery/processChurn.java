@@ -0,0 +1,683 @@
+/**
+ * processChurn
+ *
+ * Tracks processes starting and exiting between polls.  A snapshot of the
+ * running processes can't see a process that came and went in between,
+ * and a crash looping service is exactly that, so we use what the kernel
+ * counts for us:
+ *
+ *  - the "processes" line of /proc/stat counts every fork since boot, so
+ *    its delta is the number of tasks created during the tick, seen or not.
+ *  - the last field of /proc/loadavg is the last pid handed out.  Pids are
+ *    handed out in increasing order, so only the pids between the previous
+ *    and the current last pid (wrapping at pid_max) can be new or reused.
+ *  - the start time in /proc/[pid]/stat tells a reused pid from the process
+ *    we saw before.
+ *
+ * Each tick lists /proc, but only reads the stat of the pids in the
+ * handed-out range, so a quiet system costs one directory listing and two
+ * small reads however many processes are running.  Exits go to a bounded
+ * log.  A process that keeps exiting and coming back within a window is
+ * flagged as crash looping, but only when it comes back with the same
+ * name and uid from the same parent: that is a supervisor (init, zygote)
+ * restarting it.  Short lived helpers like sh or toybox that many parents
+ * run all the time don't count.
+ *
+ * The names are ids in the shared nameTable.  A process holds a reference
+ * to its name until it exits and a crash loop name until it is trimmed,
+ * so the numbered names of isolated processes leave the table with them.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+
+/**
+ * A process we saw running.
+ */
+class churnProcess
+{
+	int				m_iPid;
+	int				m_iNameId;			//* in the shared nameTable
+	int				m_iUid;
+	int				m_iPpid;
+	long			m_lStartTicks;
+	long			m_lLastSeen;
+	long			m_lLastTick;
+}
+
+/**
+ * The restarts of a process name run as a uid by a parent.
+ */
+class churnName
+{
+	int				m_iNameId;
+	int				m_iUid;
+	int				m_iPpid;
+	long[]			m_aRestarts;		//* ring of restart times
+	int				m_iPos;
+	int				m_iCount;
+	int				m_iLive;
+	long			m_lLastExit;
+	long			m_lLastEvent;
+	long			m_lTotalRestarts;
+	boolean			m_bLooping;
+
+	churnName(int iNameId, int iUid, int iPpid, int iSize)
+	{
+		this.m_iNameId		= iNameId;
+		this.m_iUid			= iUid;
+		this.m_iPpid		= iPpid;
+		this.m_aRestarts	= new long[iSize];
+	}
+
+	/**
+	 * The key of a name, uid and parent in the restart table.
+	 */
+	static String key(int iNameId, int iUid, int iPpid)
+	{
+		return iNameId + ":" + iUid + ":" + iPpid;
+	}
+
+	/**
+	 * Record a restart.
+	 *
+	 * @return True if the ring is full and all its restarts are within the window.
+	 */
+	boolean addRestart(long lTime, long lWindow)
+	{
+		this.m_aRestarts[this.m_iPos] = lTime;
+		this.m_iPos = (this.m_iPos + 1) % this.m_aRestarts.length;
+		if (this.m_iCount < this.m_aRestarts.length)
+			this.m_iCount++;
+		this.m_lTotalRestarts++;
+
+		//* the oldest restart in the ring
+		return this.m_iCount == this.m_aRestarts.length && lTime - this.m_aRestarts[this.m_iPos] <= lWindow;
+	}
+
+	/**
+	 * The number of restarts within the window.
+	 */
+	int getRestarts(long lTime, long lWindow)
+	{
+		int iCount = 0;
+		for (int i = 0; i < this.m_iCount; i++)
+		{
+			if (lTime - this.m_aRestarts[i] <= lWindow)
+				iCount++;
+		}
+		return iCount;
+	}
+}
+
+/**
+ * The churn tracker class.
+ */
+public class processChurn extends discoveryBase
+{
+	static final String					STAT_PATH			= "/proc/stat";
+	static final String					LOADAVG_PATH		= "/proc/loadavg";
+	static final String					PID_MAX_PATH		= "/proc/sys/kernel/pid_max";
+	static final int					DEFAULT_PID_MAX		= 32768;
+	static final int					TICKS_PER_SECOND	= 100;		//* USER_HZ
+
+	static final int					DEFAULT_EXIT_LOG	= 64;
+	static final int					DEFAULT_LOOP_RESTARTS = 3;
+	static final long					DEFAULT_LOOP_WINDOW	= 5 * 60 * 1000L;	//* Android backs off restarts up to minutes
+	static final int					MAX_NAMES			= 256;
+
+	private procfsReader				m_xReader;
+	private Map<Integer, churnProcess>	m_xProcesses;
+	private Map<String, churnName>		m_xNames;
+	private nameTable					m_xNameTable;
+	private List<churnListener>			m_listListeners;
+	private List<churnProcess>			m_listNew;
+
+	//* the kernel counters
+	private long						m_lBootTime;		//* ms since the epoch
+	private int							m_iPidMax;
+	private long						m_lForks;
+	private int							m_iLastPid;
+	private int							m_iStatPpid;		//* set by readStat()
+
+	//* the ring of recent exits
+	private processExitEntry[]			m_aExits;
+	private int							m_iExitPos;
+	private int							m_iExitCount;
+
+	private int							m_iLoopRestarts;
+	private long						m_lLoopWindow;
+
+	//* the last tick
+	private long						m_lTick;
+	private long						m_lTickForks;
+	private int							m_iTickSpawns;
+	private int							m_iTickExits;
+	private int							m_iTickStatReads;
+	private boolean						m_bFullScan;
+
+	//* totals since the first tick
+	private long						m_lTotalForks;
+	private long						m_lTotalSpawns;
+	private long						m_lTotalExits;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param xContext The application context
+	 * @param sLogTag The Tag to be used by the Android message logger
+	 */
+	public processChurn(Context xContext, String sLogTag)
+	{
+		super(xContext, sLogTag);
+
+		this.m_xReader			= new procfsReader();
+		this.m_xProcesses		= new HashMap<Integer, churnProcess>();
+		this.m_xNames			= new HashMap<String, churnName>();
+		this.m_xNameTable		= nameTable.getShared();
+		this.m_listListeners	= new ArrayList<churnListener>();
+		this.m_listNew			= new ArrayList<churnProcess>();
+
+		this.m_aExits			= new processExitEntry[DEFAULT_EXIT_LOG];
+		this.m_iLoopRestarts	= DEFAULT_LOOP_RESTARTS;
+		this.m_lLoopWindow		= DEFAULT_LOOP_WINDOW;
+		this.m_iPidMax			= DEFAULT_PID_MAX;
+
+		if (this.m_xReader.read(PID_MAX_PATH))
+			this.m_iPidMax = Math.max(1, (int)this.m_xReader.nextLong());
+	}
+
+	/**
+	 * Set when a name counts as crash looping.
+	 *
+	 * @param iRestarts The number of restarts.
+	 * @param lWindowMs Within this time.
+	 */
+	public synchronized void setCrashLoop(int iRestarts, long lWindowMs)
+	{
+		this.m_iLoopRestarts	= Math.max(1, iRestarts);
+		this.m_lLoopWindow		= lWindowMs;
+
+		for (churnName xName : this.m_xNames.values())
+			this.m_xNameTable.release(xName.m_iNameId);
+		this.m_xNames.clear();
+	}
+
+	public synchronized void addListener(churnListener xListener)
+	{
+		if (!this.m_listListeners.contains(xListener))
+			this.m_listListeners.add(xListener);
+	}
+
+	public synchronized void removeListener(churnListener xListener)
+	{
+		this.m_listListeners.remove(xListener);
+	}
+
+	/**
+	 * Poll the process table.  The first poll only takes the baseline.
+	 *
+	 * @return True if the kernel counters could be read.
+	 */
+	@Override
+	public boolean query()
+	{
+		List<churnName>		listLooping = new ArrayList<churnName>();
+		List<churnListener>	listListeners;
+		boolean				bResult;
+		int					iRestarts;
+		long				lWindow;
+
+		synchronized (this)
+		{
+			bResult = this.poll(listLooping);
+			listListeners = new ArrayList<churnListener>(this.m_listListeners);
+			iRestarts = this.m_iLoopRestarts;
+			lWindow = this.m_lLoopWindow;
+		}
+
+		//* call the listeners outside the lock
+		for (int i = 0; i < listLooping.size(); i++)
+		{
+			churnName xName = listLooping.get(i);
+			for (int j = 0; j < listListeners.size(); j++)
+				listListeners.get(j).onCrashLoop(this.m_xNameTable.getName(xName.m_iNameId), iRestarts, lWindow);
+		}
+
+		return bResult;
+	}
+
+	private boolean poll(List<churnName> listLooping)
+	{
+		long	lNow		= System.currentTimeMillis();
+		boolean	bBaseline	= (this.m_lTick == 0);
+
+		//* forks since boot and the boot time
+		if (!this.m_xReader.readCached(STAT_PATH) || !this.m_xReader.findLine("processes"))
+		{
+			this.logError("Unable to read the fork counter from " + STAT_PATH);
+			return false;
+		}
+		long lForks = this.m_xReader.nextLong();
+
+		if (this.m_lBootTime == 0)
+		{
+			this.m_xReader.rewind();
+			if (this.m_xReader.findLine("btime"))
+				this.m_lBootTime = this.m_xReader.nextLong() * 1000;
+		}
+
+		//* the last pid handed out
+		int iLastPid = -1;
+		if (this.m_xReader.readCached(LOADAVG_PATH))
+		{
+			for (int i = 0; i < 4; i++)
+				this.m_xReader.skipToken();
+			iLastPid = (int)this.m_xReader.nextLong();
+		}
+
+		this.m_lTick++;
+		this.m_lTickForks		= bBaseline ? 0 : lForks - this.m_lForks;
+		this.m_iTickSpawns		= 0;
+		this.m_iTickExits		= 0;
+		this.m_iTickStatReads	= 0;
+
+		//* Work out which pids could have been handed out since the last tick.  Without
+		//* the last pid, or if the allocator went all the way around, check them all.
+		int		iFrom		= this.m_iLastPid;
+		boolean	bWrapped	= iLastPid < iFrom;
+		this.m_bFullScan	= bBaseline || iLastPid < 0 || this.m_iLastPid < 0 || this.m_lTickForks >= this.m_iPidMax ||
+				(iLastPid == iFrom && this.m_lTickForks > 0);
+
+		this.m_lForks	= lForks;
+		this.m_iLastPid	= iLastPid;
+
+		this.m_listNew.clear();
+
+		String[] aPids = new File("/proc").list();
+		if (aPids == null)
+		{
+			this.logError("Unable to list /proc");
+			return false;
+		}
+
+		for (int i = 0; i < aPids.length; i++)
+		{
+			String sPid = aPids[i];
+			if (sPid.length() == 0 || sPid.charAt(0) < '0' || sPid.charAt(0) > '9')
+				continue;
+
+			int				iPid;
+			try
+			{
+				iPid = Integer.parseInt(sPid);
+			}
+			catch (NumberFormatException exp)
+			{
+				continue;
+			}
+
+			churnProcess	xProcess	= this.m_xProcesses.get(iPid);
+			boolean			bInRange	= this.m_bFullScan ||
+					(bWrapped ? (iPid > iFrom || iPid <= iLastPid) : (iPid > iFrom && iPid <= iLastPid));
+
+			//* a pid outside the handed-out range is still the process we saw
+			if (xProcess != null && !bInRange)
+			{
+				xProcess.m_lLastTick	= this.m_lTick;
+				xProcess.m_lLastSeen	= lNow;
+				continue;
+			}
+
+			long lStartTicks = this.readStat(iPid);
+			if (lStartTicks < 0)
+				continue;		//* it exited while we were listing
+			int iPpid = this.m_iStatPpid;
+
+			if (xProcess != null)
+			{
+				if (xProcess.m_lStartTicks == lStartTicks)
+				{
+					xProcess.m_lLastTick	= this.m_lTick;
+					xProcess.m_lLastSeen	= lNow;
+					continue;
+				}
+
+				//* the pid was reused, the process we saw is gone
+				this.recordExit(xProcess, lNow, true);
+			}
+
+			xProcess = new churnProcess();
+			xProcess.m_iPid			= iPid;
+			xProcess.m_iNameId		= this.m_xNameTable.intern(this.readName(iPid));
+			xProcess.m_iUid			= this.readUid(iPid);
+			xProcess.m_iPpid		= iPpid;
+			xProcess.m_lStartTicks	= lStartTicks;
+			xProcess.m_lLastTick	= this.m_lTick;
+			xProcess.m_lLastSeen	= lNow;
+			this.m_xProcesses.put(iPid, xProcess);
+
+			this.m_listNew.add(xProcess);
+		}
+
+		//* anything we didn't see has exited
+		Iterator<churnProcess> xIter = this.m_xProcesses.values().iterator();
+		while (xIter.hasNext())
+		{
+			churnProcess xProcess = xIter.next();
+			if (xProcess.m_lLastTick != this.m_lTick)
+			{
+				this.recordExit(xProcess, lNow, false);
+				xIter.remove();
+			}
+		}
+
+		//* count the new ones after the exits, so a restart within the tick is seen as one
+		for (int i = 0; i < this.m_listNew.size(); i++)
+			this.recordSpawn(this.m_listNew.get(i), lNow, bBaseline, listLooping);
+		this.m_listNew.clear();
+
+		this.trimNames(lNow);
+
+		this.m_lTotalForks	+= this.m_lTickForks;
+		this.m_lTotalSpawns	+= this.m_iTickSpawns;
+		this.m_lTotalExits	+= this.m_iTickExits;
+
+		return true;
+	}
+
+	/**
+	 * Read the start time of a process, in clock ticks since boot, and its
+	 * parent into m_iStatPpid.
+	 *
+	 * @return The start time or -1 if the process is gone.
+	 */
+	private long readStat(int iPid)
+	{
+		this.m_iTickStatReads++;
+
+		if (!this.m_xReader.readCached("/proc/" + iPid + "/stat") || !this.m_xReader.skipPastLast(')'))
+			return -1;
+
+		//* state, ppid, then pgrp .. cstime, priority, nice, num_threads, itrealvalue
+		this.m_xReader.skipToken();
+		this.m_iStatPpid = (int)this.m_xReader.nextLong();
+		for (int i = 0; i < 17; i++)
+			this.m_xReader.skipToken();
+
+		return this.m_xReader.nextLong();
+	}
+
+	/**
+	 * The real uid of a process, from the Uid line of its status.
+	 *
+	 * @return The uid or -1 if it can't be read.
+	 */
+	private int readUid(int iPid)
+	{
+		if (!this.m_xReader.read("/proc/" + iPid + "/status") || !this.m_xReader.findLine("Uid:"))
+			return -1;
+
+		return (int)this.m_xReader.nextLong();
+	}
+
+	/**
+	 * The process name.  Android names its processes in the command line
+	 * (ie. "com.example:service"), comm only keeps 15 characters of it.
+	 */
+	private String readName(int iPid)
+	{
+		if (this.m_xReader.read("/proc/" + iPid + "/cmdline") && this.m_xReader.getLength() > 0)
+		{
+			byte[]	aBuffer	= this.m_xReader.getBuffer();
+			int		iLength	= 0;
+			while (iLength < this.m_xReader.getLength() && aBuffer[iLength] != 0)
+				iLength++;
+
+			if (iLength > 0)
+				return new String(aBuffer, 0, iLength, procfsReader.CHARSET);
+		}
+
+		//* kernel threads and zombies have no command line
+		if (this.m_xReader.read("/proc/" + iPid + "/comm"))
+			return this.m_xReader.restOfLine();
+
+		return "?";
+	}
+
+	/**
+	 * Count a new process and check whether it is crash looping.
+	 */
+	private void recordSpawn(churnProcess xProcess, long lNow, boolean bBaseline, List<churnName> listLooping)
+	{
+		churnName xName = this.getName(xProcess);
+		xName.m_iLive++;
+		xName.m_lLastEvent = lNow;
+
+		if (bBaseline)
+			return;
+
+		this.m_iTickSpawns++;
+
+		//* the same name, uid and parent that exited within the window and came back is a restart
+		if (xName.m_lLastExit == 0 || lNow - xName.m_lLastExit > this.m_lLoopWindow)
+			return;
+
+		if (xName.addRestart(lNow, this.m_lLoopWindow) && !xName.m_bLooping)
+		{
+			xName.m_bLooping = true;
+			this.logMessage("Process " + this.m_xNameTable.getName(xName.m_iNameId) + " is crash looping");
+			listLooping.add(xName);
+		}
+	}
+
+	/**
+	 * Put an exited process in the log.
+	 */
+	private void recordExit(churnProcess xProcess, long lNow, boolean bPidReused)
+	{
+		processExitEntry xExit	= new processExitEntry(xProcess.m_iPid, this.m_xNameTable.getName(xProcess.m_iNameId));
+		xExit.m_lStartTime		= this.m_lBootTime + xProcess.m_lStartTicks * 1000 / TICKS_PER_SECOND;
+		xExit.m_lLastSeen		= xProcess.m_lLastSeen;
+		xExit.m_lExitSeen		= lNow;
+		xExit.m_bPidReused		= bPidReused;
+
+		this.m_aExits[this.m_iExitPos] = xExit;
+		this.m_iExitPos = (this.m_iExitPos + 1) % this.m_aExits.length;
+		if (this.m_iExitCount < this.m_aExits.length)
+			this.m_iExitCount++;
+
+		churnName xName = this.getName(xProcess);
+		xName.m_iLive		= Math.max(0, xName.m_iLive - 1);
+		xName.m_lLastExit	= lNow;
+		xName.m_lLastEvent	= lNow;
+
+		//* the name stays in the table while its churnName holds it
+		this.m_xNameTable.release(xProcess.m_iNameId);
+
+		this.m_iTickExits++;
+	}
+
+	private churnName getName(churnProcess xProcess)
+	{
+		String sKey = churnName.key(xProcess.m_iNameId, xProcess.m_iUid, xProcess.m_iPpid);
+
+		churnName xName = this.m_xNames.get(sKey);
+		if (xName == null)
+		{
+			xName = new churnName(xProcess.m_iNameId, xProcess.m_iUid, xProcess.m_iPpid, this.m_iLoopRestarts);
+			this.m_xNameTable.retain(xProcess.m_iNameId);
+			this.m_xNames.put(sKey, xName);
+		}
+		return xName;
+	}
+
+	/**
+	 * Clear the loop flag of names that stayed up for a window, and forget
+	 * names with nothing running and nothing recent so the table stays bounded.
+	 */
+	private void trimNames(long lNow)
+	{
+		Iterator<churnName> xIter = this.m_xNames.values().iterator();
+		while (xIter.hasNext())
+		{
+			churnName xName = xIter.next();
+
+			if (xName.m_bLooping && xName.getRestarts(lNow, this.m_lLoopWindow) == 0)
+				xName.m_bLooping = false;
+
+			if (xName.m_iLive == 0 && (lNow - xName.m_lLastEvent > this.m_lLoopWindow || this.m_xNames.size() > MAX_NAMES))
+			{
+				this.m_xNameTable.release(xName.m_iNameId);
+				xIter.remove();
+			}
+		}
+	}
+
+	/**
+	 * The forks during the last tick.  Includes threads and the processes
+	 * that came and went between polls.
+	 */
+	public synchronized long getForks()
+	{
+		return this.m_lTickForks;
+	}
+
+	/**
+	 * The new processes seen in the last tick.
+	 */
+	public synchronized int getSpawns()
+	{
+		return this.m_iTickSpawns;
+	}
+
+	/**
+	 * The processes that exited in the last tick.
+	 */
+	public synchronized int getExits()
+	{
+		return this.m_iTickExits;
+	}
+
+	/**
+	 * The forks in the last tick we didn't see as a new process: threads and
+	 * the processes that lived less than a poll.
+	 */
+	public synchronized long getUnseenForks()
+	{
+		return Math.max(0, this.m_lTickForks - this.m_iTickSpawns);
+	}
+
+	/**
+	 * The number of stat files read in the last tick.
+	 */
+	public synchronized int getStatReads()
+	{
+		return this.m_iTickStatReads;
+	}
+
+	public synchronized long getTotalForks()
+	{
+		return this.m_lTotalForks;
+	}
+
+	public synchronized long getTotalSpawns()
+	{
+		return this.m_lTotalSpawns;
+	}
+
+	public synchronized long getTotalExits()
+	{
+		return this.m_lTotalExits;
+	}
+
+	public synchronized int getProcessCount()
+	{
+		return this.m_xProcesses.size();
+	}
+
+	/**
+	 * The recent exits, the newest first.
+	 *
+	 * @return A List<processExitEntry> of at most 64 entries.
+	 */
+	public synchronized List<processExitEntry> getRecentExits()
+	{
+		List<processExitEntry> xResult = new ArrayList<processExitEntry>(this.m_iExitCount);
+
+		for (int i = 1; i <= this.m_iExitCount; i++)
+			xResult.add(this.m_aExits[(this.m_iExitPos - i + this.m_aExits.length) % this.m_aExits.length]);
+
+		return xResult;
+	}
+
+	/**
+	 * The names that are crash looping right now.
+	 */
+	public synchronized List<String> getCrashLoops()
+	{
+		List<String> xResult = new ArrayList<String>();
+
+		for (churnName xName : this.m_xNames.values())
+		{
+			String sName = this.m_xNameTable.getName(xName.m_iNameId);
+			if (xName.m_bLooping && !xResult.contains(sName))
+				xResult.add(sName);
+		}
+
+		return xResult;
+	}
+
+	/**
+	 * The number of times a name was restarted within the crash loop window,
+	 * over every uid and parent it runs under.
+	 *
+	 * @param sName The process name.
+	 */
+	public synchronized int getRestarts(String sName)
+	{
+		int		iNameId		= this.m_xNameTable.getId(sName);
+		long	lNow		= System.currentTimeMillis();
+		int		iRestarts	= 0;
+
+		if (iNameId == nameTable.NONE)
+			return 0;
+
+		for (churnName xName : this.m_xNames.values())
+		{
+			if (xName.m_iNameId == iNameId)
+				iRestarts += xName.getRestarts(lNow, this.m_lLoopWindow);
+		}
+		return iRestarts;
+	}
+
+	/**
+	 * Summarize the churn of the last tick and the crash loops.
+	 *
+	 * @return A string with the summary information.
+	 */
+	@Override
+	public synchronized String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Process Churn: " + this.m_lTickForks + " forks, " + this.m_iTickSpawns + " new, ";
+		sSummary += this.m_iTickExits + " exited, " + this.getUnseenForks() + " unseen";
+		sSummary += " (" + this.m_iTickStatReads + " stat reads for " + this.m_xProcesses.size() + " processes)\n";
+
+		List<String> listLoops = this.getCrashLoops();
+		for (int i = 0; i < listLoops.size(); i++)
+			sSummary += "Crash Loop: " + listLoops.get(i) + "\n";
+
+		return sSummary;
+	}
+}
@@ -0,0 +1,38 @@
+/**
+ * processExitEntry
+ *
+ * A process that exited.  Returned by processChurn in its recent exits
+ * log.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * A single exited process.
+ */
+public class processExitEntry
+{
+	public int				m_iPid;
+	public String			m_sName;			//* resolved at exit, the process no longer holds its id
+	public long				m_lStartTime;		//* ms since the epoch, from the kernel's start time
+	public long				m_lLastSeen;		//* the last poll that saw it alive
+	public long				m_lExitSeen;		//* the poll that noticed it was gone
+	public boolean			m_bPidReused;		//* the pid already belongs to a new process
+
+	public processExitEntry(int iPid, String sName)
+	{
+		this.m_iPid		= iPid;
+		this.m_sName	= sName;
+	}
+
+	/**
+	 * How long the process lived, at least.
+	 *
+	 * @return The time from the start to the last poll that saw it, in ms.
+	 */
+	public long getMinimumLifetime()
+	{
+		return Math.max(0, this.m_lLastSeen - this.m_lStartTime);
+	}
+}
@@ -0,0 +1,483 @@
+/**
+ * processIo
+ *
+ * Per process I/O accounting from /proc/[pid]/io.  For every tracked
+ * process we keep the counters (rchar, wchar, syscr, syscw, read_bytes,
+ * write_bytes) of the previous tick and turn the difference into rates,
+ * so when the disk is busy we can tell who is doing it.
+ *
+ * The counters live in flat primitive arrays indexed by a slot per
+ * process, slots of exited processes are reused, and every file is read
+ * into the same buffer, so a tick doesn't allocate anything once the
+ * process set is stable.  The top writers are picked with a small
+ * insertion sort over the slots.
+ *
+ * /proc/[pid]/io needs the same access as ptrace, so on a device we can
+ * only read our own processes (and all of them with root).  A process we
+ * can't read is retried only every few ticks.  The files are read through
+ * the procfsCache, the rates go by when each copy was read.
+ *
+ * The class has no Android dependencies, processes feeds it from the
+ * running process list.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The accounting class.
+ */
+public class processIo
+{
+	/**
+	 * The counters, in the order they appear in the file.
+	 */
+	public static final int			FIELD_READ_CHARS	= 0;
+	public static final int			FIELD_WRITE_CHARS	= 1;
+	public static final int			FIELD_READ_CALLS	= 2;
+	public static final int			FIELD_WRITE_CALLS	= 3;
+	public static final int			FIELD_READ_BYTES	= 4;
+	public static final int			FIELD_WRITE_BYTES	= 5;
+	static final int				FIELD_COUNT			= 6;
+
+	static final String[]			FIELD_TOKENS		= { "rchar:", "wchar:", "syscr:", "syscw:", "read_bytes:", "write_bytes:" };
+
+	static final int				DEFAULT_TOP_N		= 10;
+	static final int				DEFAULT_CAPACITY	= 64;
+	static final int				DENIED_RETRY		= 16;		//* ticks
+
+	private procfsReader			m_xReader;
+	private Map<Integer, Integer>	m_xIndex;
+
+	//* the slots
+	private int[]					m_aPids;
+	private int[]					m_aNameIds;			//* in the shared nameTable
+	private long[]					m_aCounters;		//* slot * FIELD_COUNT + field
+	private long[]					m_aPrevious;
+	private double[]				m_aRates;
+	private long[]					m_aReadTime;		//* System.nanoTime() of the copy, 0 until the first read
+	private long[]					m_aLastTick;
+	private long[]					m_aRetryTick;		//* when a process we couldn't read is tried again
+	private int						m_iSlotCount;
+	private int[]					m_aFree;
+	private int						m_iFreeCount;
+
+	//* the top writers, slots ordered by write rate
+	private int[]					m_aTop;
+	private int						m_iTopCount;
+
+	//* the current tick
+	private long					m_lTick;
+	private int						m_iReadable;
+	private int						m_iDenied;
+
+	/**
+	 * Default constructor.  Keeps the top 10 writers.
+	 */
+	public processIo()
+	{
+		this(DEFAULT_TOP_N);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param iTopN The number of top writers kept.
+	 */
+	public processIo(int iTopN)
+	{
+		this.m_xReader		= new procfsReader(256);
+		this.m_xIndex		= new HashMap<Integer, Integer>();
+		this.m_aTop			= new int[Math.max(1, iTopN)];
+
+		this.allocate(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Start a tick.
+	 *
+	 * @param lTime The time (ms).  The rates go by when the files were read, not by this.
+	 */
+	public synchronized void beginTick(long lTime)
+	{
+		this.m_lTick++;
+		this.m_iReadable	= 0;
+		this.m_iDenied		= 0;
+	}
+
+	/**
+	 * Read the counters of a process.  Must be called once per tick for every tracked process.
+	 *
+	 * @param iPid The process id.
+	 * @param iNameId The process name in the shared nameTable, used to tell a reused pid from the same process.  The slot takes its own reference.
+	 * @return True if the counters were read, false if we don't have access to them.
+	 */
+	public synchronized boolean update(int iPid, int iNameId)
+	{
+		int iSlot = this.findSlot(iPid, iNameId);
+		this.m_aLastTick[iSlot] = this.m_lTick;
+
+		if (this.m_lTick < this.m_aRetryTick[iSlot])
+		{
+			this.m_iDenied++;
+			return false;
+		}
+
+		if (!this.m_xReader.readCached("/proc/" + iPid + "/io"))
+		{
+			//* no permission (or no task I/O accounting in the kernel), try again later
+			this.m_aRetryTick[iSlot] = this.m_lTick + DENIED_RETRY;
+			this.m_aReadTime[iSlot]	 = 0;
+			this.clearRates(iSlot);
+			this.m_iDenied++;
+			return false;
+		}
+
+		//* the cache can hand us a copy read before the tick, one we already had keeps its rates
+		long lReadNs = this.m_xReader.getReadTime();
+		if (lReadNs == this.m_aReadTime[iSlot])
+		{
+			this.m_iReadable++;
+			return true;
+		}
+
+		int iBase = iSlot * FIELD_COUNT;
+		System.arraycopy(this.m_aCounters, iBase, this.m_aPrevious, iBase, FIELD_COUNT);
+
+		for (int i = 0; i < FIELD_COUNT; i++)
+		{
+			this.m_aCounters[iBase + i] = this.m_xReader.findLine(FIELD_TOKENS[i]) ? this.m_xReader.nextLong() : 0;
+		}
+
+		long lElapsed = lReadNs - this.m_aReadTime[iSlot];
+		if (this.m_aReadTime[iSlot] != 0 && lElapsed > 0)
+		{
+			for (int i = 0; i < FIELD_COUNT; i++)
+			{
+				long lDelta = this.m_aCounters[iBase + i] - this.m_aPrevious[iBase + i];
+				this.m_aRates[iBase + i] = (lDelta > 0) ? lDelta * 1000000000.0 / lElapsed : 0;
+			}
+		}
+		else
+		{
+			this.clearRates(iSlot);
+		}
+
+		this.m_aReadTime[iSlot] = lReadNs;
+		this.m_iReadable++;
+		return true;
+	}
+
+	/**
+	 * Read the counters of a process by name.
+	 *
+	 * @see #update(int, int)
+	 */
+	public boolean update(int iPid, String sName)
+	{
+		nameTable	xNames	= nameTable.getShared();
+		int			iNameId	= xNames.intern(sName);
+		boolean		bRead	= this.update(iPid, iNameId);
+
+		//* the slot took its own reference
+		xNames.release(iNameId);
+		return bRead;
+	}
+
+	/**
+	 * End the tick.  Frees the slots of the processes that weren't updated
+	 * and picks the top writers.
+	 */
+	public synchronized void endTick()
+	{
+		this.m_iTopCount = 0;
+
+		for (int iSlot = 0; iSlot < this.m_iSlotCount; iSlot++)
+		{
+			if (this.m_aPids[iSlot] < 0)
+				continue;
+
+			if (this.m_aLastTick[iSlot] != this.m_lTick)
+			{
+				this.releaseSlot(iSlot);
+				continue;
+			}
+
+			if (this.m_aReadTime[iSlot] != 0)
+				this.offerTop(iSlot);
+		}
+	}
+
+	/**
+	 * The processes writing the most to storage over the last tick, the biggest first.
+	 *
+	 * @param iCount The maximum number of processes returned.
+	 * @return A List<processIoEntry>.
+	 */
+	public synchronized List<processIoEntry> getTopWriters(int iCount)
+	{
+		int						iSize	= Math.min(iCount, this.m_iTopCount);
+		List<processIoEntry>	xResult	= new ArrayList<processIoEntry>(iSize);
+
+		for (int i = 0; i < iSize; i++)
+			xResult.add(this.createEntry(this.m_aTop[i]));
+
+		return xResult;
+	}
+
+	/**
+	 * The I/O of a single process.
+	 *
+	 * @param iPid The process id.
+	 * @return The entry or null if the process isn't tracked or we can't read it.
+	 */
+	public synchronized processIoEntry getEntry(int iPid)
+	{
+		Integer xSlot = this.m_xIndex.get(iPid);
+		if (xSlot == null || this.m_aReadTime[xSlot] == 0)
+			return null;
+
+		return this.createEntry(xSlot);
+	}
+
+	/**
+	 * The rate of a counter of a process.
+	 *
+	 * @param iPid The process id.
+	 * @param iField One of the FIELD_ constants.
+	 * @return The rate per second over the last tick, 0 if it isn't known.
+	 */
+	public synchronized double getRate(int iPid, int iField)
+	{
+		Integer xSlot = this.m_xIndex.get(iPid);
+		if (xSlot == null)
+			return 0;
+
+		return this.m_aRates[xSlot * FIELD_COUNT + iField];
+	}
+
+	/**
+	 * The rate of a counter summed over all the processes we could read.
+	 *
+	 * @param iField One of the FIELD_ constants.
+	 * @return The total rate per second over the last tick.
+	 */
+	public synchronized double getTotalRate(int iField)
+	{
+		double dTotal = 0;
+		for (int iSlot = 0; iSlot < this.m_iSlotCount; iSlot++)
+		{
+			if (this.m_aPids[iSlot] >= 0)
+				dTotal += this.m_aRates[iSlot * FIELD_COUNT + iField];
+		}
+		return dTotal;
+	}
+
+	/**
+	 * The number of processes we could read in the last tick.
+	 */
+	public synchronized int getReadableCount()
+	{
+		return this.m_iReadable;
+	}
+
+	/**
+	 * The number of processes we couldn't read in the last tick.
+	 */
+	public synchronized int getDeniedCount()
+	{
+		return this.m_iDenied;
+	}
+
+	/**
+	 * Summarize the top writers and return it as a string.
+	 *
+	 * @param iCount The number of processes listed.
+	 * @return A string with the summary information.
+	 */
+	public synchronized String summaryString(int iCount)
+	{
+		String sSummary = "";
+
+		sSummary += "Process I/O: " + this.m_iReadable + " readable, " + this.m_iDenied + " denied";
+		sSummary += ", read " + String.format("%.0f", this.getTotalRate(FIELD_READ_BYTES)) + " B/s";
+		sSummary += ", write " + String.format("%.0f", this.getTotalRate(FIELD_WRITE_BYTES)) + " B/s\n";
+
+		int iSize = Math.min(iCount, this.m_iTopCount);
+		for (int i = 0; i < iSize; i++)
+		{
+			int iBase = this.m_aTop[i] * FIELD_COUNT;
+			sSummary += this.m_aPids[this.m_aTop[i]] + " " + nameTable.getShared().getName(this.m_aNameIds[this.m_aTop[i]]);
+			sSummary += " write " + String.format("%.0f", this.m_aRates[iBase + FIELD_WRITE_BYTES]) + " B/s";
+			sSummary += " (" + String.format("%.1f", this.m_aRates[iBase + FIELD_WRITE_CALLS]) + " calls/s)";
+			sSummary += " read " + String.format("%.0f", this.m_aRates[iBase + FIELD_READ_BYTES]) + " B/s\n";
+		}
+
+		return sSummary;
+	}
+
+	/**
+	 * Find the slot of a process, taking a new one for a new process.
+	 */
+	private int findSlot(int iPid, int iNameId)
+	{
+		Integer xSlot = this.m_xIndex.get(iPid);
+		if (xSlot != null)
+		{
+			//* a reused pid is a new process
+			if (this.m_aNameIds[xSlot] == iNameId)
+				return xSlot;
+
+			this.releaseSlot(xSlot);
+		}
+
+		int iSlot;
+		if (this.m_iFreeCount > 0)
+		{
+			iSlot = this.m_aFree[--this.m_iFreeCount];
+		}
+		else
+		{
+			if (this.m_iSlotCount == this.m_aPids.length)
+				this.allocate(this.m_aPids.length * 2);
+			iSlot = this.m_iSlotCount++;
+		}
+
+		this.m_aPids[iSlot]			= iPid;
+		this.m_aNameIds[iSlot]		= iNameId;
+		nameTable.getShared().retain(iNameId);
+		this.m_aReadTime[iSlot]		= 0;
+		this.m_aRetryTick[iSlot]	= 0;
+		this.clearRates(iSlot);
+
+		this.m_xIndex.put(iPid, iSlot);
+		return iSlot;
+	}
+
+	/**
+	 * Give a slot back.
+	 */
+	private void releaseSlot(int iSlot)
+	{
+		this.m_xIndex.remove(this.m_aPids[iSlot]);
+		nameTable.getShared().release(this.m_aNameIds[iSlot]);
+		this.m_aPids[iSlot]		= -1;
+		this.m_aNameIds[iSlot]	= nameTable.NONE;
+		this.clearRates(iSlot);
+
+		this.m_aFree[this.m_iFreeCount++] = iSlot;
+	}
+
+	private void clearRates(int iSlot)
+	{
+		int iBase = iSlot * FIELD_COUNT;
+		for (int i = 0; i < FIELD_COUNT; i++)
+			this.m_aRates[iBase + i] = 0;
+	}
+
+	/**
+	 * Insert a slot into the top writers if it writes more than the smallest of them.
+	 */
+	private void offerTop(int iSlot)
+	{
+		int iPos = this.m_iTopCount;
+		if (iPos == this.m_aTop.length)
+		{
+			if (!this.writesMore(iSlot, this.m_aTop[iPos - 1]))
+				return;
+			iPos--;
+		}
+		else
+		{
+			this.m_iTopCount++;
+		}
+
+		while (iPos > 0 && this.writesMore(iSlot, this.m_aTop[iPos - 1]))
+		{
+			this.m_aTop[iPos] = this.m_aTop[iPos - 1];
+			iPos--;
+		}
+		this.m_aTop[iPos] = iSlot;
+	}
+
+	/**
+	 * Compare two slots by the bytes written to storage, then by the bytes passed to write().
+	 */
+	private boolean writesMore(int iLeft, int iRight)
+	{
+		double dLeft	= this.m_aRates[iLeft * FIELD_COUNT + FIELD_WRITE_BYTES];
+		double dRight	= this.m_aRates[iRight * FIELD_COUNT + FIELD_WRITE_BYTES];
+		if (dLeft != dRight)
+			return dLeft > dRight;
+
+		return this.m_aRates[iLeft * FIELD_COUNT + FIELD_WRITE_CHARS] > this.m_aRates[iRight * FIELD_COUNT + FIELD_WRITE_CHARS];
+	}
+
+	private processIoEntry createEntry(int iSlot)
+	{
+		int				iBase	= iSlot * FIELD_COUNT;
+		processIoEntry	xEntry	= new processIoEntry(this.m_aPids[iSlot], nameTable.getShared().getName(this.m_aNameIds[iSlot]));
+
+		xEntry.m_lReadChars		= this.m_aCounters[iBase + FIELD_READ_CHARS];
+		xEntry.m_lWriteChars	= this.m_aCounters[iBase + FIELD_WRITE_CHARS];
+		xEntry.m_lReadCalls		= this.m_aCounters[iBase + FIELD_READ_CALLS];
+		xEntry.m_lWriteCalls	= this.m_aCounters[iBase + FIELD_WRITE_CALLS];
+		xEntry.m_lReadBytes		= this.m_aCounters[iBase + FIELD_READ_BYTES];
+		xEntry.m_lWriteBytes	= this.m_aCounters[iBase + FIELD_WRITE_BYTES];
+
+		xEntry.m_dReadCharRate	= this.m_aRates[iBase + FIELD_READ_CHARS];
+		xEntry.m_dWriteCharRate	= this.m_aRates[iBase + FIELD_WRITE_CHARS];
+		xEntry.m_dReadCallRate	= this.m_aRates[iBase + FIELD_READ_CALLS];
+		xEntry.m_dWriteCallRate	= this.m_aRates[iBase + FIELD_WRITE_CALLS];
+		xEntry.m_dReadRate		= this.m_aRates[iBase + FIELD_READ_BYTES];
+		xEntry.m_dWriteRate		= this.m_aRates[iBase + FIELD_WRITE_BYTES];
+
+		return xEntry;
+	}
+
+	/**
+	 * Grow the slot arrays, keeping what is in them.
+	 */
+	private void allocate(int iCapacity)
+	{
+		int iOld = (this.m_aPids == null) ? 0 : this.m_aPids.length;
+
+		this.m_aPids		= processIo.grow(this.m_aPids, iCapacity);
+		this.m_aNameIds		= processIo.grow(this.m_aNameIds, iCapacity);
+		this.m_aFree		= processIo.grow(this.m_aFree, iCapacity);
+		this.m_aCounters	= processIo.grow(this.m_aCounters, iCapacity * FIELD_COUNT);
+		this.m_aPrevious	= processIo.grow(this.m_aPrevious, iCapacity * FIELD_COUNT);
+		this.m_aReadTime	= processIo.grow(this.m_aReadTime, iCapacity);
+		this.m_aLastTick	= processIo.grow(this.m_aLastTick, iCapacity);
+		this.m_aRetryTick	= processIo.grow(this.m_aRetryTick, iCapacity);
+
+		double[] aRates = new double[iCapacity * FIELD_COUNT];
+		if (iOld > 0)
+			System.arraycopy(this.m_aRates, 0, aRates, 0, iOld * FIELD_COUNT);
+		this.m_aRates	= aRates;
+
+		for (int i = iOld; i < iCapacity; i++)
+			this.m_aPids[i] = -1;
+	}
+
+	static int[] grow(int[] aOld, int iLength)
+	{
+		int[] aNew = new int[iLength];
+		if (aOld != null)
+			System.arraycopy(aOld, 0, aNew, 0, aOld.length);
+		return aNew;
+	}
+
+	static long[] grow(long[] aOld, int iLength)
+	{
+		long[] aNew = new long[iLength];
+		if (aOld != null)
+			System.arraycopy(aOld, 0, aNew, 0, aOld.length);
+		return aNew;
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * processIoEntry
+ *
+ * The I/O counters and rates of a single process.  Returned by processIo
+ * for its top writers table.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * A single process and its I/O.
+ */
+public class processIoEntry
+{
+	public int				m_iPid;
+	public String			m_sName;
+
+	//* cumulative counters since the process started
+	public long				m_lReadChars;
+	public long				m_lWriteChars;
+	public long				m_lReadCalls;
+	public long				m_lWriteCalls;
+	public long				m_lReadBytes;		//* what actually hit the storage layer
+	public long				m_lWriteBytes;
+
+	//* per second over the last tick
+	public double			m_dReadCharRate;
+	public double			m_dWriteCharRate;
+	public double			m_dReadCallRate;
+	public double			m_dWriteCallRate;
+	public double			m_dReadRate;
+	public double			m_dWriteRate;
+
+	public processIoEntry(int iPid, String sName)
+	{
+		this.m_iPid		= iPid;
+		this.m_sName	= sName;
+	}
+}
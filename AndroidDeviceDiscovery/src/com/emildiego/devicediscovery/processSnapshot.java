@@ -0,0 +1,455 @@
+/**
+ * processSnapshot
+ *
+ * A columnar snapshot of the running processes.  Instead of one object per
+ * process, every field is a parallel primitive array indexed by row: pid,
+ * uid, importance, the process and application name ids from the shared
+ * nameTable, RSS, CPU time, CPU use and PSS.  Scanning or filtering a column
+ * walks one array, and nothing is allocated per process once the arrays
+ * are big enough.
+ *
+ * Sorted views are permutations of the row numbers, sorted with a stable
+ * merge sort over the column values, so there is no boxing and no
+ * Comparator.  A view is built the first time it's asked for and kept
+ * until the snapshot changes.
+ *
+ * The snapshot holds a reference to the name ids of its rows until it is
+ * cleared, so they can be resolved as long as the snapshot is.
+ *
+ * The class has no Android dependencies, processes fills one per query.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * The snapshot class.
+ */
+public class processSnapshot
+{
+	/**
+	 * The columns, for the sorted views and select().
+	 */
+	public static final int			COLUMN_PID			= 0;
+	public static final int			COLUMN_UID			= 1;
+	public static final int			COLUMN_IMPORTANCE	= 2;
+	public static final int			COLUMN_NAME			= 3;
+	public static final int			COLUMN_LABEL		= 4;
+	public static final int			COLUMN_RSS			= 5;
+	public static final int			COLUMN_CPU_TICKS	= 6;
+	public static final int			COLUMN_CPU			= 7;
+	public static final int			COLUMN_PSS			= 8;
+	static final int				COLUMN_COUNT		= 9;
+
+	/**
+	 * Returned for values that couldn't be read.
+	 */
+	public static final long		UNKNOWN				= -1;
+
+	static final int				DEFAULT_CAPACITY	= 64;
+	static final int				TICKS_PER_SECOND	= 100;		//* USER_HZ
+
+	//* the columns
+	private int[]					m_aPids;
+	private int[]					m_aUids;
+	private int[]					m_aImportance;
+	private int[]					m_aNameIds;
+	private int[]					m_aLabelIds;
+	private long[]					m_aRssKb;
+	private long[]					m_aCpuTicks;
+	private long[]					m_aCpuReadNs;		//* when the CPU time was read (System.nanoTime()), 0 if not known
+	private float[]					m_afCpu;
+	private long[]					m_aPssKb;
+	private int						m_iSize;
+
+	private long					m_lTime;
+
+	//* the sorted views, [column * 2 + descending], null until asked for
+	private int[][]					m_aViews;
+
+	//* sort buffers
+	private double[]				m_adKeys;
+	private int[]					m_aTemp;
+
+	/**
+	 * Default constructor
+	 */
+	public processSnapshot()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param iCapacity The number of processes the arrays are sized for.  They grow as needed.
+	 */
+	public processSnapshot(int iCapacity)
+	{
+		this.m_aViews = new int[COLUMN_COUNT * 2][];
+		this.allocate(Math.max(1, iCapacity));
+	}
+
+	/**
+	 * Empty the snapshot, keeping the arrays, and release its name ids.
+	 *
+	 * @param lTime When the snapshot is taken (ms).
+	 */
+	public void clear(long lTime)
+	{
+		nameTable xNames = nameTable.getShared();
+		for (int i = 0; i < this.m_iSize; i++)
+		{
+			xNames.release(this.m_aNameIds[i]);
+			xNames.release(this.m_aLabelIds[i]);
+		}
+
+		this.m_iSize	= 0;
+		this.m_lTime	= lTime;
+		this.invalidateViews();
+	}
+
+	/**
+	 * Add a process.  The snapshot takes its own reference to the name ids.
+	 *
+	 * @return The row of the process.
+	 */
+	public int add(int iPid, int iUid, int iImportance, int iNameId, int iLabelId, long lRssKb, long lCpuTicks)
+	{
+		return this.add(iPid, iUid, iImportance, iNameId, iLabelId, lRssKb, lCpuTicks, 0);
+	}
+
+	/**
+	 * Add a process with the time its CPU time was read, which can be older
+	 * than the snapshot when it came from the procfsCache.
+	 *
+	 * @param lCpuReadNs When lCpuTicks was read (System.nanoTime()), 0 to use the snapshot time.
+	 * @return The row of the process.
+	 */
+	public int add(int iPid, int iUid, int iImportance, int iNameId, int iLabelId, long lRssKb, long lCpuTicks, long lCpuReadNs)
+	{
+		if (this.m_iSize == this.m_aPids.length)
+			this.allocate(this.m_aPids.length * 2);
+
+		int iRow = this.m_iSize++;
+		this.m_aPids[iRow]			= iPid;
+		this.m_aUids[iRow]			= iUid;
+		this.m_aImportance[iRow]	= iImportance;
+		this.m_aNameIds[iRow]		= iNameId;
+		this.m_aLabelIds[iRow]		= iLabelId;
+		nameTable.getShared().retain(iNameId);
+		nameTable.getShared().retain(iLabelId);
+		this.m_aRssKb[iRow]			= lRssKb;
+		this.m_aCpuTicks[iRow]		= lCpuTicks;
+		this.m_aCpuReadNs[iRow]		= lCpuReadNs;
+		this.m_afCpu[iRow]			= 0;
+		this.m_aPssKb[iRow]			= UNKNOWN;
+
+		this.invalidateViews();
+		return iRow;
+	}
+
+	/**
+	 * Set the resident size of a row, for the sizes that come in after add().
+	 */
+	public void setRss(int iRow, long lRssKb)
+	{
+		this.m_aRssKb[iRow] = lRssKb;
+		this.invalidateViews();
+	}
+
+	/**
+	 * Set the proportional set size of a row.  It has its own column, PSS
+	 * shares the pages a process maps with the others and can't be compared
+	 * with an RSS.
+	 */
+	public void setPss(int iRow, long lPssKb)
+	{
+		this.m_aPssKb[iRow] = lPssKb;
+		this.invalidateViews();
+	}
+
+	/**
+	 * Work out the CPU use of every process from the CPU time it had in a
+	 * previous snapshot.  A process that isn't in it, or whose pid now runs
+	 * something else, gets 0.  The elapsed time is between the reads of the
+	 * CPU time when both are known, so a copy served again by the cache
+	 * keeps the use it had instead of showing 0 and then twice the use.
+	 *
+	 * @param xPrevious The previous snapshot.
+	 */
+	public void computeCpu(processSnapshot xPrevious)
+	{
+		double dSnapshotSec = (this.m_lTime - xPrevious.m_lTime) / 1000.0;
+
+		for (int iRow = 0; iRow < this.m_iSize; iRow++)
+		{
+			this.m_afCpu[iRow] = 0;
+
+			if (this.m_aCpuTicks[iRow] == UNKNOWN)
+				continue;
+
+			int iOld = xPrevious.findPid(this.m_aPids[iRow]);
+			if (iOld < 0 || xPrevious.m_aNameIds[iOld] != this.m_aNameIds[iRow] || xPrevious.m_aCpuTicks[iOld] == UNKNOWN)
+				continue;
+
+			double dElapsedSec = dSnapshotSec;
+			if (this.m_aCpuReadNs[iRow] != 0 && xPrevious.m_aCpuReadNs[iOld] != 0)
+			{
+				//* the same read as last time, nothing new to measure
+				if (this.m_aCpuReadNs[iRow] == xPrevious.m_aCpuReadNs[iOld])
+				{
+					this.m_afCpu[iRow] = xPrevious.m_afCpu[iOld];
+					continue;
+				}
+				dElapsedSec = (this.m_aCpuReadNs[iRow] - xPrevious.m_aCpuReadNs[iOld]) / 1e9;
+			}
+
+			if (dElapsedSec <= 0)
+				continue;
+
+			long lDelta = this.m_aCpuTicks[iRow] - xPrevious.m_aCpuTicks[iOld];
+			if (lDelta > 0)
+				this.m_afCpu[iRow] = (float)(lDelta * 100.0 / (dElapsedSec * TICKS_PER_SECOND));
+		}
+
+		this.invalidateViews();
+	}
+
+	/**
+	 * Find the row of a process with a binary search over the pid view.
+	 *
+	 * @param iPid The process id.
+	 * @return The row or -1 if the process isn't in the snapshot.
+	 */
+	public int findPid(int iPid)
+	{
+		int[]	aView	= this.getSortedView(COLUMN_PID, false);
+		int		iLow	= 0;
+		int		iHigh	= this.m_iSize - 1;
+
+		while (iLow <= iHigh)
+		{
+			int iMid = (iLow + iHigh) >>> 1;
+			int iValue = this.m_aPids[aView[iMid]];
+
+			if (iValue < iPid)
+				iLow = iMid + 1;
+			else if (iValue > iPid)
+				iHigh = iMid - 1;
+			else
+				return aView[iMid];
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Return the rows ordered by a column.  The view is shared and valid
+	 * until the snapshot changes, it must not be modified.
+	 *
+	 * @param iColumn One of the COLUMN_ constants.
+	 * @param bDescending The biggest values first.
+	 * @return The row numbers in order, only the first size() are valid.
+	 */
+	public int[] getSortedView(int iColumn, boolean bDescending)
+	{
+		int iView = iColumn * 2 + (bDescending ? 1 : 0);
+
+		if (this.m_aViews[iView] == null)
+		{
+			int[] aView = new int[this.m_iSize];
+			for (int i = 0; i < this.m_iSize; i++)
+			{
+				aView[i] = i;
+				this.m_adKeys[i] = bDescending ? -this.getValue(i, iColumn) : this.getValue(i, iColumn);
+			}
+
+			processSnapshot.sort(aView, this.m_iSize, this.m_adKeys, this.m_aTemp);
+			this.m_aViews[iView] = aView;
+		}
+
+		return this.m_aViews[iView];
+	}
+
+	/**
+	 * Collect the rows whose value in a column is within a range.
+	 *
+	 * @param iColumn One of the COLUMN_ constants.
+	 * @param dMin The lowest value included.
+	 * @param dMax The highest value included.
+	 * @param aRows Receives the row numbers, must hold size() rows.
+	 * @return The number of rows found.
+	 */
+	public int select(int iColumn, double dMin, double dMax, int[] aRows)
+	{
+		int iCount = 0;
+
+		for (int iRow = 0; iRow < this.m_iSize; iRow++)
+		{
+			double dValue = this.getValue(iRow, iColumn);
+			if (dValue >= dMin && dValue <= dMax)
+				aRows[iCount++] = iRow;
+		}
+
+		return iCount;
+	}
+
+	/**
+	 * The value of any column as a double, exact for all the int and long columns.
+	 */
+	public double getValue(int iRow, int iColumn)
+	{
+		switch (iColumn)
+		{
+			case COLUMN_PID:		return this.m_aPids[iRow];
+			case COLUMN_UID:		return this.m_aUids[iRow];
+			case COLUMN_IMPORTANCE:	return this.m_aImportance[iRow];
+			case COLUMN_NAME:		return this.m_aNameIds[iRow];
+			case COLUMN_LABEL:		return this.m_aLabelIds[iRow];
+			case COLUMN_RSS:		return this.m_aRssKb[iRow];
+			case COLUMN_CPU_TICKS:	return this.m_aCpuTicks[iRow];
+			case COLUMN_CPU:		return this.m_afCpu[iRow];
+			case COLUMN_PSS:		return this.m_aPssKb[iRow];
+			default:
+				throw new IllegalArgumentException("Unknown column " + iColumn);
+		}
+	}
+
+	public int size()
+	{
+		return this.m_iSize;
+	}
+
+	public long getTime()
+	{
+		return this.m_lTime;
+	}
+
+	public int getPid(int iRow)
+	{
+		return this.m_aPids[iRow];
+	}
+
+	public int getUid(int iRow)
+	{
+		return this.m_aUids[iRow];
+	}
+
+	public int getImportance(int iRow)
+	{
+		return this.m_aImportance[iRow];
+	}
+
+	public int getNameId(int iRow)
+	{
+		return this.m_aNameIds[iRow];
+	}
+
+	public int getLabelId(int iRow)
+	{
+		return this.m_aLabelIds[iRow];
+	}
+
+	/**
+	 * @return The resident size in kB, or UNKNOWN.
+	 */
+	public long getRss(int iRow)
+	{
+		return this.m_aRssKb[iRow];
+	}
+
+	/**
+	 * @return The proportional set size in kB, or UNKNOWN.
+	 */
+	public long getPss(int iRow)
+	{
+		return this.m_aPssKb[iRow];
+	}
+
+	/**
+	 * @return utime + stime in clock ticks, or UNKNOWN.
+	 */
+	public long getCpuTicks(int iRow)
+	{
+		return this.m_aCpuTicks[iRow];
+	}
+
+	/**
+	 * @return The CPU use since the previous snapshot, in % of one core.
+	 */
+	public float getCpu(int iRow)
+	{
+		return this.m_afCpu[iRow];
+	}
+
+	private void invalidateViews()
+	{
+		for (int i = 0; i < this.m_aViews.length; i++)
+			this.m_aViews[i] = null;
+	}
+
+	/**
+	 * Grow the arrays, keeping what is in them.
+	 */
+	private void allocate(int iCapacity)
+	{
+		this.m_aPids		= processIo.grow(this.m_aPids, iCapacity);
+		this.m_aUids		= processIo.grow(this.m_aUids, iCapacity);
+		this.m_aImportance	= processIo.grow(this.m_aImportance, iCapacity);
+		this.m_aNameIds		= processIo.grow(this.m_aNameIds, iCapacity);
+		this.m_aLabelIds	= processIo.grow(this.m_aLabelIds, iCapacity);
+		this.m_aRssKb		= processIo.grow(this.m_aRssKb, iCapacity);
+		this.m_aCpuTicks	= processIo.grow(this.m_aCpuTicks, iCapacity);
+		this.m_aCpuReadNs	= processIo.grow(this.m_aCpuReadNs, iCapacity);
+		this.m_aPssKb		= processIo.grow(this.m_aPssKb, iCapacity);
+
+		float[] afCpu = new float[iCapacity];
+		if (this.m_afCpu != null)
+			System.arraycopy(this.m_afCpu, 0, afCpu, 0, this.m_afCpu.length);
+		this.m_afCpu	= afCpu;
+
+		this.m_adKeys	= new double[iCapacity];
+		this.m_aTemp	= new int[iCapacity];
+	}
+
+	/**
+	 * Stable bottom-up merge sort of row numbers by their keys.
+	 *
+	 * @param aRows The rows to sort, in place.
+	 * @param iCount The number of rows.
+	 * @param adKeys The key of each row, indexed by row number.
+	 * @param aTemp A buffer at least iCount long.
+	 */
+	static void sort(int[] aRows, int iCount, double[] adKeys, int[] aTemp)
+	{
+		int[] aFrom	= aRows;
+		int[] aTo	= aTemp;
+
+		for (int iWidth = 1; iWidth < iCount; iWidth *= 2)
+		{
+			for (int iLeft = 0; iLeft < iCount; iLeft += iWidth * 2)
+			{
+				int iMid	= Math.min(iLeft + iWidth, iCount);
+				int iEnd	= Math.min(iLeft + iWidth * 2, iCount);
+				int i		= iLeft;
+				int j		= iMid;
+				int k		= iLeft;
+
+				while (i < iMid && j < iEnd)
+					aTo[k++] = (adKeys[aFrom[j]] < adKeys[aFrom[i]]) ? aFrom[j++] : aFrom[i++];
+				while (i < iMid)
+					aTo[k++] = aFrom[i++];
+				while (j < iEnd)
+					aTo[k++] = aFrom[j++];
+			}
+
+			int[] aSwap = aFrom;
+			aFrom	= aTo;
+			aTo		= aSwap;
+		}
+
+		if (aFrom != aRows)
+			System.arraycopy(aFrom, 0, aRows, 0, iCount);
+	}
+}
@@ -7,7 +7,9 @@
 package com.emildiego.devicediscovery;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import android.app.Activity;
 import android.app.ActivityManager;
@@ -19,20 +21,6 @@ import android.content.pm.PackageManager.NameNotFoundException;
 import android.graphics.drawable.Drawable;
 
 
-/**
- * A utility class used to store the Process information we want to display.
- */
-class RunningProcessEntry
-{
-	int				m_iId;
-	String			m_sPackageName;
-	String 			m_sApplicationName;
-	String			m_sStateDescription;
-	Drawable		m_dIcon;
-	int				m_iImportance;
-	int				m_iMemoryUsage;
-}
-
 /**
  * The class used to query the device about its processes.
  *
@@ -45,19 +33,114 @@ public class processes extends discoveryBase {
 	ActivityManager 					m_xActivityManager;
 			
 	/**
-	 * The list of processes that are currently running in the system
+	 * The processes as of the last query and the query before it, as columns.
+	 */
+	private processSnapshot				m_xSnapshot;
+	private processSnapshot				m_xPreviousSnapshot;
+	
+	/**
+	 * Bumped by every query, the list is built again from the snapshot when 
+	 * it was built for an older one.
+	 */
+	private int							m_iVersion;
+	private int							m_iListVersion;
+	
+	/**
+	 * The list of processes that are currently running in the system, built 
+	 * from the snapshot when it is asked for.
 	 */
 	private List<RunningProcessEntry>	m_listRunningProcesses;
 	
+	/**
+	 * The same processes by pid.  Entries are kept across lists while the 
+	 * pid runs the same process, so others can hold on to them.
+	 */
+	private Map<Integer, RunningProcessEntry>	m_xPidIndex;
+	private Map<Integer, RunningProcessEntry>	m_xPreviousIndex;
+	
+	/**
+	 * The names are kept once, in the table shared by all the collectors.
+	 */
+	private nameTable					m_xNames;
+	
 	/**
 	 * The package manager used to resolve the application names
 	 */
 	private PackageManager				m_xPackageManager;
 	
+	/**
+	 * The application name id of each process name, by the slot of its id, 
+	 * LABEL_UNRESOLVED until it has been asked of the package manager, and 
+	 * the icons by process name id.  A package doesn't change its name or 
+	 * icon while it runs.  A cached process name holds a reference in the 
+	 * nameTable, with the query it was last seen by, and is dropped once it 
+	 * hasn't been seen for CACHE_TRIM queries.
+	 */
+	private int[]						m_aCacheIds;
+	private int[]						m_aLabelIds;
+	private int[]						m_aCacheSeen;
+	private Map<Integer, Drawable>		m_xIcons;
+	private boolean						m_bIcons;
+	
+	/**
+	 * Reads /proc/[pid]/stat for the CPU time and resident size.
+	 */
+	private procfsReader				m_xReader;
+	private long						m_lStatRss;
+	private long						m_lStatCpuTicks;
+	private long						m_lStatStartTime;
+	private long						m_lStatReadNs;
+	
 	/**
 	 * The memory information for all the processes in the list.
 	 */
 	private MemoryInfo[]				m_xProcessMemoryInfo;
+	
+	/**
+	 * Ranks the processes by how likely they are to be killed when memory runs low.
+	 */
+	private killRisk					m_xKillRisk;
+	
+	/**
+	 * Where the system MemAvailable comes from.  Either set by the caller, who 
+	 * queries it, or our own instance created once, of which we only refresh 
+	 * MemAvailable every time.
+	 */
+	private memory						m_xMemory;
+	private boolean						m_bOwnMemory;
+	
+	/**
+	 * The I/O counters and rates of the processes.
+	 */
+	private processIo					m_xIo;
+	
+	/**
+	 * The opt-in per thread sampler, created when it is first asked for.
+	 */
+	private threadSampler				m_xThreadSampler;
+	
+	/**
+	 * Tracks the processes that start and exit between our queries, created when it is first asked for.
+	 */
+	private processChurn				m_xChurn;
+	
+	/**
+	 * Works out what each process costs in battery from its CPU time, the 
+	 * time the cores spent at each frequency and, when a sampler is given, 
+	 * the energy the battery measured.  The residency reader is created by 
+	 * the first query that asks for it.  m_dLastEnergyMwh is the total of 
+	 * m_xLastSampler at the last window, -1 when there wasn't one.
+	 */
+	private energyAttribution			m_xEnergy;
+	private cpuResidency				m_xResidency;
+	private volatile powerSampler		m_xPowerSampler;
+	private powerSampler				m_xLastSampler;
+	private double						m_dLastEnergyMwh;
+	
+	static final int					SUMMARY_KILL_RISK_COUNT = 10;
+	static final int					SUMMARY_IO_COUNT = 5;
+	static final int					LABEL_UNRESOLVED = -2;
+	static final int					CACHE_TRIM = 32;
 
 	/**
 	 * Default constructor
@@ -76,7 +159,26 @@ public class processes extends discoveryBase {
 		//* Get an instance of the package manager so we can resolve names
 		this.m_xPackageManager = this.m_xContext.getPackageManager();
 		
+		this.m_xSnapshot = new processSnapshot();
+		this.m_xPreviousSnapshot = new processSnapshot();
 		this.m_listRunningProcesses = new ArrayList<RunningProcessEntry>();
+		this.m_xPidIndex = new HashMap<Integer, RunningProcessEntry>();
+		this.m_xPreviousIndex = new HashMap<Integer, RunningProcessEntry>();
+		this.m_xNames = nameTable.getShared();
+		this.m_aCacheIds = new int[0];
+		this.m_aLabelIds = new int[0];
+		this.m_aCacheSeen = new int[0];
+		this.m_xIcons = new HashMap<Integer, Drawable>();
+		this.m_xReader = new procfsReader(512);
+		
+		//* Use the kernel's low memory killer levels if it has them
+		this.m_xKillRisk = new killRisk();
+		this.m_xKillRisk.loadMinfree();
+		
+		this.m_xIo = new processIo();
+		
+		this.m_xEnergy = new energyAttribution();
+		this.m_dLastEnergyMwh = -1;
 	}
 	
 	/**
@@ -86,12 +188,30 @@ public class processes extends discoveryBase {
 	 */
 	@Override
 	public boolean query() {
+		return this.query(this.m_iFields);
+	}
+	
+	/**
+	 * Query the device for some of the information about the running processes.
+	 * 
+	 * @param iFields A mask of the PROCESS_ queryFields.
+	 * @return True if the device was successfully queried, false if it wasn't.
+	 */
+	@Override
+	public boolean query(int iFields) {
 		List<RunningAppProcessInfo>	xRunningTasks;
 		int[]						iPidList = null;
 		int							iPidListSize = 0;
 		
 		try 
 		{	
+			boolean bLabels	= queryFields.has(iFields, queryFields.PROCESS_LABELS);
+			boolean bEnergy	= queryFields.has(iFields, queryFields.PROCESS_ENERGY);
+			boolean bStat	= queryFields.has(iFields, queryFields.PROCESS_STAT) || bEnergy;
+			
+			//* Icons are loaded when the list is built, remember if this query asked for them
+			this.m_bIcons = queryFields.has(iFields, queryFields.PROCESS_ICONS);
+			
 			//* Get our currently running tasks
 			xRunningTasks = this.m_xActivityManager.getRunningAppProcesses();
 			
@@ -101,43 +221,79 @@ public class processes extends discoveryBase {
 			if (iPidListSize > 0)
 				iPidList = new int[iPidListSize];
 			
-			//* Now we need to get all the info and create out list
+			//* Start over with the snapshot, keeping the last one for the CPU use
+			processSnapshot xPrevious = this.m_xSnapshot;
+			this.m_xSnapshot = this.m_xPreviousSnapshot;
+			this.m_xPreviousSnapshot = xPrevious;
+			this.m_xSnapshot.clear(System.currentTimeMillis());
+			
+			//* The frequency residency goes in the same window as the CPU times
+			if (bEnergy)
+				this.beginEnergyWindow();
+			
+			//* Now we need to get all the info and fill our snapshot
 			for (int i=0; i < xRunningTasks.size(); i++)
 			{
-				RunningProcessEntry 	xTmpEntry = new RunningProcessEntry();
-				
-				//* setup the varaibles;
-				xTmpEntry.m_iId 				= xRunningTasks.get(i).pid;
-				xTmpEntry.m_sPackageName		= xRunningTasks.get(i).processName;
-				xTmpEntry.m_iImportance			= xRunningTasks.get(i).importance;
+				RunningAppProcessInfo	xInfo = xRunningTasks.get(i);
+				int						iNameId = this.m_xNames.intern(xInfo.processName);
 				
 				//* copy the pid to the iPidList array so we can get the memory info
-				iPidList[i] = xTmpEntry.m_iId;
+				iPidList[i] = xInfo.pid;
 				
-				try
-				{
-					xTmpEntry.m_sApplicationName	= (String)this.m_xPackageManager.getApplicationLabel(this.m_xPackageManager.getApplicationInfo(xTmpEntry.m_sPackageName,PackageManager.GET_META_DATA));
-					xTmpEntry.m_dIcon				= this.m_xPackageManager.getApplicationIcon(xTmpEntry.m_sPackageName);
-				}
-				catch (NameNotFoundException exp)
+				if (bStat)
+					this.readStat(xInfo.pid);
+				else
 				{
-					this.logMessage("Unable to retreive additional information for package: " + xTmpEntry.m_sPackageName + " | " + exp.getMessage());
+					this.m_lStatRss = this.m_lStatCpuTicks = processSnapshot.UNKNOWN;
+					this.m_lStatReadNs = 0;
 				}
 				
-				//* now that we have all the info lets add it to the list
-				this.m_listRunningProcesses.add(xTmpEntry);
+				this.m_xSnapshot.add(xInfo.pid, xInfo.uid, xInfo.importance, iNameId, this.resolveLabel(iNameId, bLabels), this.m_lStatRss, this.m_lStatCpuTicks, this.m_lStatReadNs);
+				
+				if (bEnergy && this.m_lStatCpuTicks != processSnapshot.UNKNOWN)
+					this.m_xEnergy.addProcess(xInfo.pid, xInfo.uid, xInfo.processName, this.m_lStatStartTime, this.m_lStatCpuTicks);
+				
+				//* The snapshot holds its own reference
+				this.m_xNames.release(iNameId);
 			}
 			
-			//* No we want to get the memory information for all the processes
-			try
+			if (bEnergy)
+				this.endEnergyWindow();
+			
+			//* No we want to get the memory information for all the processes, it's one slow call
+			this.m_xProcessMemoryInfo = null;
+			if (queryFields.has(iFields, queryFields.PROCESS_MEMORY) && iPidList != null)
 			{
-				this.m_xProcessMemoryInfo = this.m_xActivityManager.getProcessMemoryInfo(iPidList);
-
+				try
+				{
+					this.m_xProcessMemoryInfo = this.m_xActivityManager.getProcessMemoryInfo(iPidList);
+				}
+				catch (Exception exp)
+				{
+					this.m_xProcessMemoryInfo = null;
+				}
 			}
-			catch (Exception exp)
+			
+			//* The PSS goes in its own column, it isn't the same measure as the RSS from /proc/[pid]/stat
+			if (this.m_xProcessMemoryInfo != null)
 			{
-				this.m_xProcessMemoryInfo = null;
+				for (int i = 0; i < this.m_xSnapshot.size() && i < this.m_xProcessMemoryInfo.length; i++)
+					this.m_xSnapshot.setPss(i, this.m_xProcessMemoryInfo[i].getTotalPss());
 			}
+			
+			this.m_xSnapshot.computeCpu(this.m_xPreviousSnapshot);
+			this.m_iVersion++;
+			
+			if (this.m_iVersion % processes.CACHE_TRIM == 0)
+				this.trimCache();
+			
+			//* Update the kill risk of every process
+			if (queryFields.has(iFields, queryFields.PROCESS_KILL_RISK))
+				this.updateKillRisk();
+			
+			//* And the I/O they are doing
+			if (queryFields.has(iFields, queryFields.PROCESS_IO))
+				this.updateIo();
 		}
 		catch (SecurityException exp)
 		{
@@ -146,7 +302,7 @@ public class processes extends discoveryBase {
 			return false;
 		}
 		
-		return false;
+		return true;
 	}
 	
 	/**
@@ -160,12 +316,17 @@ public class processes extends discoveryBase {
 		
 		sSummary += "Running Processes: \n";
 	
-		for (int i = 0; i < this.m_listRunningProcesses.size(); i++)
+		for (int i = 0; i < this.m_xSnapshot.size(); i++)
 		{
-			RunningProcessEntry		xTmpInfo = this.m_listRunningProcesses.get(i);
-			sSummary += xTmpInfo.m_iId + " " + xTmpInfo.m_sPackageName + " " + xTmpInfo.m_sApplicationName + "\n";		
+			sSummary += this.m_xSnapshot.getPid(i) + " " + this.m_xNames.getName(this.m_xSnapshot.getNameId(i)) + " " + this.m_xNames.getName(this.m_xSnapshot.getLabelId(i)) + "\n";		
 		}
 		
+		sSummary += this.m_xKillRisk.summaryString(processes.SUMMARY_KILL_RISK_COUNT);
+		sSummary += this.m_xIo.summaryString(processes.SUMMARY_IO_COUNT);
+		
+		if (this.m_xEnergy.getWindowCount() > 1)
+			sSummary += this.m_xEnergy.summaryString();
+		
 		
 		return sSummary;
 	}
@@ -176,7 +337,455 @@ public class processes extends discoveryBase {
 	 */
 	List<RunningProcessEntry> getList()
 	{
+		this.buildList();
 		return this.m_listRunningProcesses;
 	}
+	
+	/**
+	 * Return the process running with a pid.
+	 * 
+	 * @param iPid The process id.
+	 * @return The RunningProcessEntry or null if no process had that pid at the last query.
+	 */
+	RunningProcessEntry getEntry(int iPid)
+	{
+		this.buildList();
+		return this.m_xPidIndex.get(iPid);
+	}
+	
+	/**
+	 * Return the processes as of the last query, as columns.  The snapshot is 
+	 * reused by the query after next, copy what you need to keep.
+	 * 
+	 * @return The processSnapshot.
+	 */
+	public processSnapshot getSnapshot()
+	{
+		return this.m_xSnapshot;
+	}
+	
+	/**
+	 * Set the memory object the system MemAvailable is taken from.  The caller 
+	 * is expected to query it before querying us.  Without one we create and 
+	 * query our own.
+	 * 
+	 * @param xMemory The memory object or null to use our own.
+	 */
+	public void setMemory(memory xMemory)
+	{
+		this.m_xMemory		= xMemory;
+		this.m_bOwnMemory	= false;
+	}
+	
+	/**
+	 * Set the power sampler whose measured energy the energy attribution is 
+	 * scaled to.  The caller starts it, the energy it measured between our 
+	 * queries is used while it runs.  Without one the attribution is the 
+	 * power model's estimate.
+	 * 
+	 * @param xSampler The powerSampler or null.
+	 */
+	public void setPowerSampler(powerSampler xSampler)
+	{
+		this.m_xPowerSampler = xSampler;
+	}
+	
+	/**
+	 * Return the energy each process and UID is costing, fed by the queries 
+	 * that ask for PROCESS_ENERGY.  Only the processes whose /proc/[pid]/stat 
+	 * we can read are charged, usually our own unless the device is rooted.  
+	 * Set the device's power model on it for better estimates.
+	 * 
+	 * @return The energyAttribution.
+	 */
+	public energyAttribution getEnergyAttribution()
+	{
+		return this.m_xEnergy;
+	}
+	
+	/**
+	 * Return the processes ranked by how likely they are to be killed by the 
+	 * low memory killer, the most likely first.
+	 * 
+	 * @param iCount The maximum number of processes returned.
+	 * @return A List<killRiskEntry> as of the last query.
+	 */
+	public List<killRiskEntry> getKillRisk(int iCount)
+	{
+		return this.m_xKillRisk.getRanking(iCount);
+	}
+	
+	/**
+	 * Return the kill risk tracker, to tune the horizon or the kill levels.
+	 */
+	public killRisk getKillRiskTracker()
+	{
+		return this.m_xKillRisk;
+	}
+	
+	/**
+	 * Return the processes writing the most to storage since the last query, 
+	 * the biggest first.  Only the processes whose /proc/[pid]/io we can read 
+	 * are included, usually our own unless the device is rooted.
+	 * 
+	 * @param iCount The maximum number of processes returned.
+	 * @return A List<processIoEntry> as of the last query.
+	 */
+	public List<processIoEntry> getTopWriters(int iCount)
+	{
+		return this.m_xIo.getTopWriters(iCount);
+	}
+	
+	/**
+	 * Return the I/O accounting of the processes, for the per process rates.
+	 */
+	public processIo getIo()
+	{
+		return this.m_xIo;
+	}
+	
+	/**
+	 * Return the thread sampler, which breaks the CPU use of a watch list of 
+	 * processes down to their threads.  It isn't started, add processes with 
+	 * watch() and call start() on it.
+	 * 
+	 * @return The threadSampler.
+	 */
+	public synchronized threadSampler getThreadSampler()
+	{
+		if (this.m_xThreadSampler == null)
+			this.m_xThreadSampler = new threadSampler(this.m_xContext, this.m_sTag);
+		
+		return this.m_xThreadSampler;
+	}
+	
+	/**
+	 * Return the churn tracker, which counts the processes started and exited 
+	 * between polls and flags crash loops.  It sees all the processes in /proc, 
+	 * not just the ones the activity manager reports, and is polled on its own: 
+	 * call query() on it at the rate you poll us.
+	 * 
+	 * @return The processChurn.
+	 */
+	public synchronized processChurn getChurn()
+	{
+		if (this.m_xChurn == null)
+			this.m_xChurn = new processChurn(this.m_xContext, this.m_sTag);
+		
+		return this.m_xChurn;
+	}
+	
+	/**
+	 * Build the list of RunningProcessEntries from the snapshot, if it was 
+	 * built for an older one.  Entries are reused while their pid runs the 
+	 * same process.
+	 */
+	private void buildList()
+	{
+		if (this.m_iListVersion == this.m_iVersion)
+			return;
+		
+		//* Start over with the list, keeping the last index so we can reuse its entries
+		Map<Integer, RunningProcessEntry> xPrevious = this.m_xPidIndex;
+		this.m_xPidIndex = this.m_xPreviousIndex;
+		this.m_xPreviousIndex = xPrevious;
+		this.m_xPidIndex.clear();
+		this.m_listRunningProcesses.clear();
+		
+		for (int i = 0; i < this.m_xSnapshot.size(); i++)
+		{
+			int						iPid = this.m_xSnapshot.getPid(i);
+			int						iNameId = this.m_xSnapshot.getNameId(i);
+			int						iLabelId = this.m_xSnapshot.getLabelId(i);
+			RunningProcessEntry 	xTmpEntry = xPrevious.remove(iPid);
+			
+			//* A new process, or another one running with the same pid
+			if (xTmpEntry == null || xTmpEntry.m_iNameId != iNameId)
+			{
+				if (xTmpEntry != null)
+					this.releaseEntry(xTmpEntry);
+				
+				xTmpEntry = new RunningProcessEntry();
+				
+				xTmpEntry.m_iId 				= iPid;
+				xTmpEntry.m_iNameId				= iNameId;
+				xTmpEntry.m_iApplicationNameId	= nameTable.NONE;
+				this.m_xNames.retain(iNameId);
+			}
+			
+			//* The label can have been resolved since the entry was built
+			if (xTmpEntry.m_iApplicationNameId != iLabelId)
+			{
+				this.m_xNames.retain(iLabelId);
+				this.m_xNames.release(xTmpEntry.m_iApplicationNameId);
+				xTmpEntry.m_iApplicationNameId	= iLabelId;
+			}
+			
+			//* An entry built without its icon gets it when a query asks for icons
+			if (xTmpEntry.m_dIcon == null && this.m_bIcons)
+				xTmpEntry.m_dIcon = this.getIcon(iNameId);
+			
+			xTmpEntry.m_iImportance		= this.m_xSnapshot.getImportance(i);
+			xTmpEntry.m_iMemoryUsage	= (int)this.m_xSnapshot.getRss(i);
+			xTmpEntry.m_iPss			= (int)this.m_xSnapshot.getPss(i);
+			
+			this.m_listRunningProcesses.add(xTmpEntry);
+			this.m_xPidIndex.put(iPid, xTmpEntry);
+		}
+		
+		//* What is left has exited
+		for (RunningProcessEntry xTmpEntry : xPrevious.values())
+			this.releaseEntry(xTmpEntry);
+		xPrevious.clear();
+		
+		this.m_iListVersion = this.m_iVersion;
+	}
+	
+	/**
+	 * Return the application name id of a process, asking the package manager 
+	 * only the first time the process name is seen.
+	 * 
+	 * @param iNameId The process name id.
+	 * @param bResolve Ask the package manager if we haven't yet, otherwise only what we already know.
+	 * @return The application name id or nameTable.NONE.
+	 */
+	private int resolveLabel(int iNameId, boolean bResolve)
+	{
+		if (iNameId < 0)
+			return nameTable.NONE;
+		
+		int iSlot = this.cacheName(iNameId);
+		if (this.m_aLabelIds[iSlot] == processes.LABEL_UNRESOLVED)
+		{
+			if (!bResolve)
+				return nameTable.NONE;
+			
+			String sPackageName = this.m_xNames.getName(iNameId);
+			
+			this.m_aLabelIds[iSlot] = nameTable.NONE;
+			try
+			{
+				CharSequence sLabel = this.m_xPackageManager.getApplicationLabel(this.m_xPackageManager.getApplicationInfo(sPackageName,PackageManager.GET_META_DATA));
+				this.m_aLabelIds[iSlot] = this.m_xNames.intern((sLabel != null) ? sLabel.toString() : null);
+			}
+			catch (NameNotFoundException exp)
+			{
+				this.logMessage("Unable to retreive additional information for package: " + sPackageName + " | " + exp.getMessage());
+			}
+		}
+		
+		return this.m_aLabelIds[iSlot];
+	}
+	
+	/**
+	 * Make room for a process name in the label and icon cache, taking a 
+	 * reference to it the first time, and mark it seen by this query.
+	 * 
+	 * @param iNameId The process name id.
+	 * @return The slot of the id in the cache.
+	 */
+	private int cacheName(int iNameId)
+	{
+		int iSlot = nameTable.slot(iNameId);
+		
+		if (iSlot >= this.m_aLabelIds.length)
+		{
+			int iOld = this.m_aLabelIds.length;
+			this.m_aLabelIds = processIo.grow(this.m_aLabelIds, Math.max(iSlot + 1, iOld * 2));
+			this.m_aCacheIds = processIo.grow(this.m_aCacheIds, this.m_aLabelIds.length);
+			this.m_aCacheSeen = processIo.grow(this.m_aCacheSeen, this.m_aLabelIds.length);
+			for (int i = iOld; i < this.m_aLabelIds.length; i++)
+				this.m_aLabelIds[i] = processes.LABEL_UNRESOLVED;
+		}
+		
+		//* The reference we hold keeps the slot from going to another name
+		if (this.m_aCacheSeen[iSlot] == 0)
+		{
+			this.m_xNames.retain(iNameId);
+			this.m_aCacheIds[iSlot] = iNameId;
+		}
+		this.m_aCacheSeen[iSlot] = this.m_iVersion + 1;
+		
+		return iSlot;
+	}
+	
+	/**
+	 * Drop the labels and icons of the process names no query has seen for 
+	 * CACHE_TRIM queries, so the names can leave the nameTable.
+	 */
+	private void trimCache()
+	{
+		for (int i = 0; i < this.m_aCacheSeen.length; i++)
+		{
+			if (this.m_aCacheSeen[i] == 0 || this.m_iVersion - this.m_aCacheSeen[i] < processes.CACHE_TRIM)
+				continue;
+			
+			this.m_xNames.release(this.m_aLabelIds[i]);
+			this.m_xNames.release(this.m_aCacheIds[i]);
+			this.m_xIcons.remove(this.m_aCacheIds[i]);
+			this.m_aLabelIds[i] = processes.LABEL_UNRESOLVED;
+			this.m_aCacheSeen[i] = 0;
+		}
+	}
+	
+	/**
+	 * Release the names of an entry that left the list.
+	 */
+	private void releaseEntry(RunningProcessEntry xEntry)
+	{
+		this.m_xNames.release(xEntry.m_iNameId);
+		this.m_xNames.release(xEntry.m_iApplicationNameId);
+	}
+	
+	/**
+	 * Return the icon of a process, loading it the first time it is asked for.
+	 * 
+	 * @param iNameId The process name id.
+	 * @return The Drawable or null if the package has none.
+	 */
+	private Drawable getIcon(int iNameId)
+	{
+		if (this.m_xIcons.containsKey(iNameId))
+			return this.m_xIcons.get(iNameId);
+		
+		if (iNameId < 0)
+			return null;
+		this.cacheName(iNameId);
+		
+		Drawable xIcon = null;
+		try
+		{
+			xIcon = this.m_xPackageManager.getApplicationIcon(this.m_xNames.getName(iNameId));
+		}
+		catch (NameNotFoundException exp)
+		{
+			//* Already logged when resolving the label
+		}
+		
+		this.m_xIcons.put(iNameId, xIcon);
+		return xIcon;
+	}
+	
+	/**
+	 * Read the CPU time (utime + stime), the start time and the resident size 
+	 * of a process from /proc/[pid]/stat into m_lStatCpuTicks, m_lStatStartTime 
+	 * and m_lStatRss, UNKNOWN when we aren't allowed to read it, and when it 
+	 * was read into m_lStatReadNs.
+	 * 
+	 * @param iPid The process id.
+	 */
+	private void readStat(int iPid)
+	{
+		this.m_lStatCpuTicks	= processSnapshot.UNKNOWN;
+		this.m_lStatRss			= processSnapshot.UNKNOWN;
+		this.m_lStatStartTime	= 0;
+		this.m_lStatReadNs		= 0;
+		
+		//* The name can hold spaces and brackets, the fields start after the last ')'
+		if (!this.m_xReader.readCached("/proc/" + iPid + "/stat") || !this.m_xReader.skipPastLast(')'))
+			return;
+		
+		//* The cache can hand us a copy read earlier, the CPU use goes by when it was read
+		this.m_lStatReadNs		= this.m_xReader.getReadTime();
+		
+		//* state (3) to cmajflt (13)
+		for (int i = 3; i <= 13; i++)
+			this.m_xReader.skipToken();
+		
+		long lUtime = this.m_xReader.nextLong();
+		long lStime = this.m_xReader.nextLong();
+		
+		//* cutime (16) to itrealvalue (21)
+		for (int i = 16; i <= 21; i++)
+			this.m_xReader.skipToken();
+		
+		long lStartTime = this.m_xReader.nextLong();
+		
+		//* vsize (23)
+		this.m_xReader.skipToken();
+		
+		long lRssPages = this.m_xReader.nextLong();
+		
+		if (lUtime >= 0 && lStime >= 0)
+			this.m_lStatCpuTicks = lUtime + lStime;
+		if (lRssPages >= 0)
+			this.m_lStatRss = lRssPages * procfsReader.PAGE_KB;
+		if (lStartTime > 0)
+			this.m_lStatStartTime = lStartTime;
+	}
+	
+	/**
+	 * Start an energy window and report the frequency residency of the cores to it.
+	 */
+	private void beginEnergyWindow()
+	{
+		if (this.m_xResidency == null)
+			this.m_xResidency = new cpuResidency();
+		
+		this.m_xEnergy.beginWindow(System.currentTimeMillis());
+		this.m_xResidency.feed(this.m_xEnergy);
+	}
+	
+	/**
+	 * Report the energy the battery measured since the last window, when a 
+	 * sampler is running, and attribute the window.
+	 */
+	private void endEnergyWindow()
+	{
+		powerSampler xSampler = this.m_xPowerSampler;
+		
+		if (xSampler != null && xSampler.isRunning())
+		{
+			double dTotal = xSampler.getTotalEnergy();
+			
+			//* The total goes down while charging, then there is nothing to scale to
+			if (xSampler == this.m_xLastSampler && this.m_dLastEnergyMwh >= 0 && dTotal >= this.m_dLastEnergyMwh)
+				this.m_xEnergy.setMeasuredEnergy(dTotal - this.m_dLastEnergyMwh);
+			this.m_dLastEnergyMwh = dTotal;
+		}
+		else
+			this.m_dLastEnergyMwh = -1;
+		
+		this.m_xLastSampler = xSampler;
+		
+		this.m_xEnergy.endWindow();
+	}
+	
+	/**
+	 * Read the I/O counters of the running processes.
+	 */
+	private void updateIo()
+	{
+		this.m_xIo.beginTick(System.currentTimeMillis());
+		
+		for (int i = 0; i < this.m_xSnapshot.size(); i++)
+			this.m_xIo.update(this.m_xSnapshot.getPid(i), this.m_xSnapshot.getNameId(i));
+		
+		this.m_xIo.endTick();
+	}
+	
+	/**
+	 * Feed the running processes to the kill risk tracker.  Each process costs 
+	 * a couple of small reads under /proc, the tracker keeps only the smoothed 
+	 * state between ticks.
+	 */
+	private void updateKillRisk()
+	{
+		//* Make sure we have a MemAvailable
+		if (this.m_xMemory == null)
+		{
+			this.m_xMemory		= new memory(this.m_xContext, this.m_sTag);
+			this.m_bOwnMemory	= true;
+		}
+		if (this.m_bOwnMemory)
+			this.m_xMemory.refreshMemAvailable();
+		
+		this.m_xKillRisk.beginTick(System.currentTimeMillis(), this.m_xMemory.getMemAvailable());
+		
+		for (int i = 0; i < this.m_xSnapshot.size(); i++)
+			this.m_xKillRisk.update(this.m_xSnapshot.getPid(i), this.m_xSnapshot.getNameId(i), this.m_xSnapshot.getImportance(i), this.m_xSnapshot.getRss(i));
+		
+		this.m_xKillRisk.endTick();
+	}
 
 }
@@ -0,0 +1,298 @@
+/**
+ * procfsCache
+ *
+ * A tick-scoped cache of the files under /proc, shared by the collectors.
+ * Several collectors read the same files in one tick: /proc/stat, 
+ * /proc/loadavg, /proc/[pid]/stat.  Through the cache each path is read 
+ * from the kernel once per tick and every other reader gets a copy of the 
+ * bytes, which costs a memcpy instead of an open/read/close.
+ *
+ * A tick is whatever the caller says it is: the discoveryScheduler starts a
+ * new one with every pass.  Collectors polled on their own don't see ticks,
+ * so an entry is also read again once it's older than the maximum age.
+ * Either way a reader can get contents read before it asked, so each entry
+ * keeps the time it was read and hands it to the reader: collectors that
+ * turn counters into rates divide by the time between the reads, not
+ * between their calls.
+ * Entries not used for a few ticks are dropped and their buffers kept in a
+ * small pool for the next paths.  When the cache is full and every path was
+ * used in this tick the least recently used path makes room, so the cache
+ * never holds more than its maximum.
+ *
+ * Readers go through procfsReader.readCached().  Only files that several
+ * collectors read in the same tick are worth it, the rest use read().
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The contents of one path as of a tick.
+ */
+class procfsCacheEntry
+{
+	byte[]				m_aData;
+	int					m_iLength;
+	boolean				m_bRead;			//* false if the path couldn't be read
+	long				m_lTick;			//* the tick it was read in
+	long				m_lReadNs;			//* when it was read (System.nanoTime())
+	long				m_lUsedTick;		//* the last tick it was asked for
+}
+
+/**
+ * The cache class.
+ */
+public class procfsCache
+{
+	static final int						DEFAULT_MAX_ENTRIES	= 1024;
+	static final long						DEFAULT_MAX_AGE		= 500;		//* ms
+	static final int						EVICT_TICKS			= 4;
+	static final int						MAX_POOL			= 64;
+	static final int						MIN_BUFFER			= 256;
+
+	private static final procfsCache		m_xShared			= new procfsCache();
+
+	private Map<String, procfsCacheEntry>	m_xEntries;
+	private List<byte[]>					m_listPool;
+
+	//* reads the files, the bytes are then copied into the entry's buffer
+	private procfsReader					m_xReader;
+
+	private long							m_lTick;
+	private long							m_lMaxAge;
+	private int								m_iMaxEntries;
+
+	private long							m_lHits;
+	private long							m_lMisses;
+	private long							m_lEvictions;
+
+	/**
+	 * Default constructor
+	 */
+	public procfsCache()
+	{
+		//* in access order, the first entry is the least recently used
+		this.m_xEntries		= new LinkedHashMap<String, procfsCacheEntry>(16, 0.75f, true);
+		this.m_listPool		= new ArrayList<byte[]>();
+		this.m_xReader		= new procfsReader();
+		this.m_lTick		= 0;
+		this.m_lMaxAge		= DEFAULT_MAX_AGE;
+		this.m_iMaxEntries	= DEFAULT_MAX_ENTRIES;
+	}
+
+	/**
+	 * Return the cache shared by all the collectors.
+	 */
+	public static procfsCache getShared()
+	{
+		return m_xShared;
+	}
+
+	/**
+	 * Start a new tick.  Every path is read again the next time it's asked 
+	 * for, and the paths nobody asked for in the last ticks are dropped.
+	 */
+	public synchronized void nextTick()
+	{
+		this.m_lTick++;
+
+		if (this.m_lTick % EVICT_TICKS == 0)
+			this.evict(this.m_lTick - EVICT_TICKS);
+	}
+
+	/**
+	 * Load a reader with the contents of a path, reading it only if it 
+	 * wasn't read in this tick.
+	 *
+	 * @param sPath The file we want to read.
+	 * @param xReader The reader loaded with the contents, rewound.
+	 * @return True if the file was read, false if it doesn't exist or can't be read.
+	 */
+	synchronized boolean read(String sPath, procfsReader xReader)
+	{
+		procfsCacheEntry	xEntry	= this.m_xEntries.get(sPath);
+		long				lNow	= System.nanoTime();
+
+		if (xEntry != null && xEntry.m_lTick == this.m_lTick && lNow - xEntry.m_lReadNs <= this.m_lMaxAge * 1000000L)
+		{
+			this.m_lHits++;
+		}
+		else
+		{
+			this.m_lMisses++;
+
+			if (xEntry == null)
+			{
+				//* Full, drop what this tick hasn't used, or failing that the least recently used
+				if (this.m_xEntries.size() >= this.m_iMaxEntries)
+					this.evict(this.m_lTick);
+				while (this.m_xEntries.size() >= this.m_iMaxEntries)
+					this.evictEldest();
+
+				xEntry = new procfsCacheEntry();
+				this.m_xEntries.put(sPath, xEntry);
+			}
+
+			xEntry.m_bRead		= this.m_xReader.read(sPath);
+			xEntry.m_iLength	= this.m_xReader.getLength();
+			xEntry.m_lTick		= this.m_lTick;
+			xEntry.m_lReadNs	= this.m_xReader.getReadTime();
+
+			if (xEntry.m_aData == null || xEntry.m_aData.length < xEntry.m_iLength)
+			{
+				this.release(xEntry.m_aData);
+				xEntry.m_aData = this.allocate(xEntry.m_iLength);
+			}
+			System.arraycopy(this.m_xReader.getBuffer(), 0, xEntry.m_aData, 0, xEntry.m_iLength);
+		}
+
+		xEntry.m_lUsedTick = this.m_lTick;
+		xReader.load(xEntry.m_aData, xEntry.m_iLength, xEntry.m_lReadNs);
+
+		return xEntry.m_bRead;
+	}
+
+	/**
+	 * Set how old an entry can get before it's read again within a tick.
+	 *
+	 * @param lMaxAge The age in ms.
+	 */
+	public synchronized void setMaxAge(long lMaxAge)
+	{
+		this.m_lMaxAge = Math.max(0, lMaxAge);
+	}
+
+	/**
+	 * Set the most paths kept.  Paths not used in the current tick are 
+	 * dropped when it's reached, then the least recently used ones.
+	 */
+	public synchronized void setMaxEntries(int iMaxEntries)
+	{
+		this.m_iMaxEntries = Math.max(1, iMaxEntries);
+	}
+
+	/**
+	 * Return the number of reads served from the cache.
+	 */
+	public synchronized long getHits()
+	{
+		return this.m_lHits;
+	}
+
+	/**
+	 * Return the number of reads that went to the kernel.
+	 */
+	public synchronized long getMisses()
+	{
+		return this.m_lMisses;
+	}
+
+	/**
+	 * Return the number of paths dropped.
+	 */
+	public synchronized long getEvictions()
+	{
+		return this.m_lEvictions;
+	}
+
+	/**
+	 * Return the share of the reads served from the cache, 0 to 1.
+	 */
+	public synchronized float getHitRate()
+	{
+		long lTotal = this.m_lHits + this.m_lMisses;
+		return (lTotal == 0) ? 0 : (float)this.m_lHits / lTotal;
+	}
+
+	/**
+	 * Return the current tick.
+	 */
+	public synchronized long getTick()
+	{
+		return this.m_lTick;
+	}
+
+	/**
+	 * Return the number of paths in the cache.
+	 */
+	public synchronized int size()
+	{
+		return this.m_xEntries.size();
+	}
+
+	/**
+	 * Zero the hit, miss and eviction counters.
+	 */
+	public synchronized void resetCounters()
+	{
+		this.m_lHits		= 0;
+		this.m_lMisses		= 0;
+		this.m_lEvictions	= 0;
+	}
+
+	/**
+	 * Summarize the cache counters.
+	 */
+	public synchronized String summaryString()
+	{
+		return "procfs cache: " + this.m_xEntries.size() + " paths, " + this.m_lHits + " hits, " + this.m_lMisses + " misses, " + this.m_lEvictions + " evicted\n";
+	}
+
+	/**
+	 * Drop the entries last used before a tick, keeping their buffers.
+	 */
+	private void evict(long lBeforeTick)
+	{
+		Iterator<procfsCacheEntry> xIterator = this.m_xEntries.values().iterator();
+
+		while (xIterator.hasNext())
+		{
+			procfsCacheEntry xEntry = xIterator.next();
+
+			if (xEntry.m_lUsedTick < lBeforeTick)
+			{
+				this.release(xEntry.m_aData);
+				xIterator.remove();
+				this.m_lEvictions++;
+			}
+		}
+	}
+
+	/**
+	 * Drop the least recently used entry, keeping its buffer.
+	 */
+	private void evictEldest()
+	{
+		Iterator<procfsCacheEntry> xIterator = this.m_xEntries.values().iterator();
+
+		this.release(xIterator.next().m_aData);
+		xIterator.remove();
+		this.m_lEvictions++;
+	}
+
+	/**
+	 * Take a buffer of at least iLength bytes from the pool, or allocate one.
+	 */
+	private byte[] allocate(int iLength)
+	{
+		for (int i = this.m_listPool.size() - 1; i >= 0; i--)
+		{
+			if (this.m_listPool.get(i).length >= iLength)
+				return this.m_listPool.remove(i);
+		}
+
+		return new byte[Math.max(MIN_BUFFER, iLength)];
+	}
+
+	private void release(byte[] aBuffer)
+	{
+		if (aBuffer != null && this.m_listPool.size() < MAX_POOL)
+			this.m_listPool.add(aBuffer);
+	}
+}
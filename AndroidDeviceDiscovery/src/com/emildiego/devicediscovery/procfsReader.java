@@ -0,0 +1,543 @@
+/**
+ * procfsReader
+ *
+ * A small helper used by the collectors that read the files under /proc and
+ * /sys directly instead of running a shell command.  The whole file is read
+ * into a reusable byte buffer and then scanned in place with a cursor, so
+ * parsing numbers doesn't create any Strings.  One instance should be used
+ * by one collector, it isn't thread safe.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * The reader/cursor class.
+ */
+class procfsReader
+{
+	static final int				DEFAULT_BUFFER_SIZE = 4096;
+
+	/**
+	 * The files are ASCII apart from names (comm, cmdline), which the kernel
+	 * passes through as the bytes the process gave it, normally UTF-8.
+	 */
+	static final Charset			CHARSET = Charset.forName("UTF-8");
+
+	/**
+	 * The size of a memory page in kB, for the sizes the kernel gives in
+	 * pages (statm, stat rss, minfree).  4 kB unless the device says otherwise.
+	 */
+	static final long				DEFAULT_PAGE_KB = 4;
+	static final long				PAGE_KB = procfsReader.readPageKb();
+
+	/**
+	 * The contents of the last file read.
+	 */
+	private byte[]					m_aBuffer;
+	private int						m_iLength;
+
+	/**
+	 * When the contents were read from the kernel (System.nanoTime()).  For
+	 * a cached read it's when the cache read them, not when we asked.
+	 */
+	private long					m_lReadNs;
+
+	/**
+	 * The position of the cursor in the buffer.
+	 */
+	private int						m_iPos;
+
+	/**
+	 * Default constructor
+	 */
+	procfsReader()
+	{
+		this(DEFAULT_BUFFER_SIZE);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param iInitialSize The initial size of the buffer.  It grows as needed.
+	 */
+	procfsReader(int iInitialSize)
+	{
+		this.m_aBuffer	= new byte[Math.max(iInitialSize, 64)];
+		this.m_iLength	= 0;
+		this.m_iPos		= 0;
+	}
+
+	/**
+	 * Read the whole file into the buffer and rewind the cursor.  The files
+	 * under /proc report a size of 0, so we read until EOF and grow the
+	 * buffer when it fills up.
+	 *
+	 * @param sPath The file we want to read.
+	 * @return True if the file was read, false if it doesn't exist or can't be read.
+	 */
+	boolean read(String sPath)
+	{
+		FileInputStream		xIn = null;
+		int					iRead;
+
+		this.m_iLength	= 0;
+		this.m_iPos		= 0;
+		this.m_lReadNs	= System.nanoTime();
+
+		try
+		{
+			xIn = new FileInputStream(sPath);
+
+			while ((iRead = xIn.read(this.m_aBuffer, this.m_iLength, this.m_aBuffer.length - this.m_iLength)) > 0)
+			{
+				this.m_iLength += iRead;
+
+				//* The buffer is full, make room for more
+				if (this.m_iLength == this.m_aBuffer.length)
+				{
+					byte[] aBigger = new byte[this.m_aBuffer.length * 2];
+					System.arraycopy(this.m_aBuffer, 0, aBigger, 0, this.m_iLength);
+					this.m_aBuffer = aBigger;
+				}
+			}
+
+			return true;
+		}
+		catch (IOException exp)
+		{
+			//* Missing files and permission errors are normal here (old kernels, other uid's processes)
+			this.m_iLength = 0;
+			return false;
+		}
+		finally
+		{
+			try {
+				if (xIn != null)
+					xIn.close();
+			}
+			catch (IOException exp)
+			{
+				//* nothing we can do about it
+			}
+		}
+	}
+
+	/**
+	 * Read a file through the shared procfsCache, so it's read from the 
+	 * kernel once per tick however many collectors ask for it.  The contents 
+	 * can be older than the call, rates must be worked out from 
+	 * getReadTime() and not from the time of the call.
+	 *
+	 * @param sPath The file we want to read.
+	 * @return True if the file was read, false if it doesn't exist or can't be read.
+	 */
+	boolean readCached(String sPath)
+	{
+		return procfsCache.getShared().read(sPath, this);
+	}
+
+	/**
+	 * Load the reader with bytes that were read somewhere else.  Used for
+	 * fixture data and by callers that share the same file contents.
+	 *
+	 * @param aData The file contents.
+	 * @param iLength The number of valid bytes in aData.
+	 */
+	void load(byte[] aData, int iLength)
+	{
+		this.load(aData, iLength, System.nanoTime());
+	}
+
+	/**
+	 * Load the reader with bytes that were read somewhere else at a given time.
+	 *
+	 * @param aData The file contents.
+	 * @param iLength The number of valid bytes in aData.
+	 * @param lReadNs When they were read from the kernel (System.nanoTime()).
+	 */
+	void load(byte[] aData, int iLength, long lReadNs)
+	{
+		if (this.m_aBuffer.length < iLength)
+			this.m_aBuffer = new byte[iLength];
+
+		System.arraycopy(aData, 0, this.m_aBuffer, 0, iLength);
+		this.m_iLength	= iLength;
+		this.m_iPos		= 0;
+		this.m_lReadNs	= lReadNs;
+	}
+
+	byte[] getBuffer()
+	{
+		return this.m_aBuffer;
+	}
+
+	int getLength()
+	{
+		return this.m_iLength;
+	}
+
+	/**
+	 * Return when the contents were read from the kernel (System.nanoTime()).
+	 */
+	long getReadTime()
+	{
+		return this.m_lReadNs;
+	}
+
+	int getPosition()
+	{
+		return this.m_iPos;
+	}
+
+	void setPosition(int iPos)
+	{
+		this.m_iPos = Math.min(Math.max(iPos, 0), this.m_iLength);
+	}
+
+	/**
+	 * Move the cursor back to the start of the buffer.
+	 */
+	void rewind()
+	{
+		this.m_iPos = 0;
+	}
+
+	/**
+	 * Check if the cursor reached the end of the data.
+	 */
+	boolean atEnd()
+	{
+		return this.m_iPos >= this.m_iLength;
+	}
+
+	/**
+	 * Check if the cursor is at the end of the current line (ignoring spaces).
+	 */
+	boolean atEndOfLine()
+	{
+		this.skipSpaces();
+		return this.m_iPos >= this.m_iLength || this.m_aBuffer[this.m_iPos] == '\n';
+	}
+
+	/**
+	 * Move the cursor to the start of the next line.
+	 *
+	 * @return False if there are no more lines.
+	 */
+	boolean nextLine()
+	{
+		while (this.m_iPos < this.m_iLength && this.m_aBuffer[this.m_iPos] != '\n')
+			this.m_iPos++;
+
+		if (this.m_iPos < this.m_iLength)
+			this.m_iPos++;
+
+		return this.m_iPos < this.m_iLength;
+	}
+
+	/**
+	 * Skip spaces and tabs, but not new lines.
+	 */
+	void skipSpaces()
+	{
+		while (this.m_iPos < this.m_iLength && (this.m_aBuffer[this.m_iPos] == ' ' || this.m_aBuffer[this.m_iPos] == '\t'))
+			this.m_iPos++;
+	}
+
+	/**
+	 * Skip the next token on the current line.
+	 *
+	 * @return False if there was no token left on the line.
+	 */
+	boolean skipToken()
+	{
+		this.skipSpaces();
+		int iStart = this.m_iPos;
+
+		while (this.m_iPos < this.m_iLength && !procfsReader.isSeparator(this.m_aBuffer[this.m_iPos]))
+			this.m_iPos++;
+
+		return this.m_iPos > iStart;
+	}
+
+	/**
+	 * Return the first character of the next token on the current line and
+	 * skip the token.  Used for single character fields like the run state.
+	 *
+	 * @return The character or 0 if there is no token left on the line.
+	 */
+	char nextChar()
+	{
+		this.skipSpaces();
+		if (this.m_iPos >= this.m_iLength || procfsReader.isSeparator(this.m_aBuffer[this.m_iPos]))
+			return 0;
+
+		char cChar = (char)this.m_aBuffer[this.m_iPos];
+		this.skipToken();
+		return cChar;
+	}
+
+	/**
+	 * Return the next token on the current line as a String.
+	 *
+	 * @return The token or null if there is no token left on the line.
+	 */
+	String nextToken()
+	{
+		this.skipSpaces();
+		int iStart = this.m_iPos;
+
+		while (this.m_iPos < this.m_iLength && !procfsReader.isSeparator(this.m_aBuffer[this.m_iPos]))
+			this.m_iPos++;
+
+		if (this.m_iPos == iStart)
+			return null;
+
+		return new String(this.m_aBuffer, iStart, this.m_iPos - iStart, CHARSET);
+	}
+
+	/**
+	 * Return the rest of the current line (trimmed) without moving to the next line.
+	 */
+	String restOfLine()
+	{
+		this.skipSpaces();
+		int iStart = this.m_iPos;
+
+		while (this.m_iPos < this.m_iLength && this.m_aBuffer[this.m_iPos] != '\n')
+			this.m_iPos++;
+
+		int iEnd = this.m_iPos;
+		while (iEnd > iStart && (this.m_aBuffer[iEnd - 1] == ' ' || this.m_aBuffer[iEnd - 1] == '\t'))
+			iEnd--;
+
+		return new String(this.m_aBuffer, iStart, iEnd - iStart, CHARSET);
+	}
+
+	/**
+	 * Parse the next number on the current line.  Any non digit characters
+	 * directly after the number (units, colons) are skipped.
+	 *
+	 * @return The value or 0 if there was no number.
+	 */
+	long nextLong()
+	{
+		long		lValue = 0;
+		boolean		bNegative = false;
+
+		this.skipSpaces();
+
+		if (this.m_iPos < this.m_iLength && this.m_aBuffer[this.m_iPos] == '-')
+		{
+			bNegative = true;
+			this.m_iPos++;
+		}
+
+		while (this.m_iPos < this.m_iLength)
+		{
+			byte bChar = this.m_aBuffer[this.m_iPos];
+			if (bChar < '0' || bChar > '9')
+				break;
+
+			lValue = lValue * 10 + (bChar - '0');
+			this.m_iPos++;
+		}
+
+		//* skip the rest of the token
+		while (this.m_iPos < this.m_iLength && !procfsReader.isSeparator(this.m_aBuffer[this.m_iPos]))
+			this.m_iPos++;
+
+		return bNegative ? -lValue : lValue;
+	}
+
+	/**
+	 * Parse the next decimal number on the current line (ie. "12.34").
+	 * Anything after the number up to the next separator is skipped.
+	 *
+	 * @return The value or 0 if there was no number.
+	 */
+	double nextDouble()
+	{
+		long		lWhole;
+		double		dFraction = 0;
+		double		dScale = 0.1;
+		boolean		bNegative = false;
+
+		this.skipSpaces();
+
+		if (this.m_iPos < this.m_iLength && this.m_aBuffer[this.m_iPos] == '-')
+		{
+			bNegative = true;
+			this.m_iPos++;
+		}
+
+		//* the whole part, parsed the same way as nextLong() but without skipping the token
+		lWhole = 0;
+		while (this.m_iPos < this.m_iLength && this.m_aBuffer[this.m_iPos] >= '0' && this.m_aBuffer[this.m_iPos] <= '9')
+			lWhole = lWhole * 10 + (this.m_aBuffer[this.m_iPos++] - '0');
+
+		if (this.m_iPos < this.m_iLength && this.m_aBuffer[this.m_iPos] == '.')
+		{
+			this.m_iPos++;
+			while (this.m_iPos < this.m_iLength && this.m_aBuffer[this.m_iPos] >= '0' && this.m_aBuffer[this.m_iPos] <= '9')
+			{
+				dFraction += (this.m_aBuffer[this.m_iPos++] - '0') * dScale;
+				dScale /= 10;
+			}
+		}
+
+		//* skip the rest of the token
+		while (this.m_iPos < this.m_iLength && !procfsReader.isSeparator(this.m_aBuffer[this.m_iPos]))
+			this.m_iPos++;
+
+		return bNegative ? -(lWhole + dFraction) : lWhole + dFraction;
+	}
+
+	/**
+	 * Move the cursor just past the next occurrence of a character on the
+	 * current line.  Used for "key=value" and "key: value" pairs.
+	 *
+	 * @param cChar The character we are looking for.
+	 * @return False if the character isn't on the rest of the line (the cursor is left at the end of the line).
+	 */
+	boolean skipPast(char cChar)
+	{
+		while (this.m_iPos < this.m_iLength && this.m_aBuffer[this.m_iPos] != '\n')
+		{
+			if (this.m_aBuffer[this.m_iPos++] == cChar)
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Move the cursor just past the last occurrence of a character on the
+	 * current line.  Used for the "(comm)" field of the stat files, the name
+	 * can contain spaces and parentheses itself.
+	 *
+	 * @param cChar The character we are looking for.
+	 * @return False if the character isn't on the rest of the line (the cursor doesn't move).
+	 */
+	boolean skipPastLast(char cChar)
+	{
+		int iFound = -1;
+
+		for (int i = this.m_iPos; i < this.m_iLength && this.m_aBuffer[i] != '\n'; i++)
+		{
+			if (this.m_aBuffer[i] == cChar)
+				iFound = i;
+		}
+
+		if (iFound < 0)
+			return false;
+
+		this.m_iPos = iFound + 1;
+		return true;
+	}
+
+	/**
+	 * Check whether the next token on the line is equal to the given string
+	 * without creating a String.  The cursor is moved past the token if it matches.
+	 *
+	 * @param sToken The token we are looking for.
+	 * @return True if the token matched.
+	 */
+	boolean matchToken(String sToken)
+	{
+		this.skipSpaces();
+
+		int iLength = sToken.length();
+		if (this.m_iPos + iLength > this.m_iLength)
+			return false;
+
+		for (int i = 0; i < iLength; i++)
+		{
+			if (this.m_aBuffer[this.m_iPos + i] != (byte)sToken.charAt(i))
+				return false;
+		}
+
+		//* make sure we matched the whole token and not just the start of it
+		if (this.m_iPos + iLength < this.m_iLength && !procfsReader.isSeparator(this.m_aBuffer[this.m_iPos + iLength]))
+			return false;
+
+		this.m_iPos += iLength;
+		return true;
+	}
+
+	/**
+	 * Move the cursor to the start of the line that begins with the given
+	 * token, searching forward from the current position.
+	 *
+	 * @param sToken The first token of the line we want.
+	 * @return True if we found the line.  The cursor is left after the token.
+	 */
+	boolean findLine(String sToken)
+	{
+		while (!this.atEnd())
+		{
+			int iLineStart = this.m_iPos;
+			if (this.matchToken(sToken))
+				return true;
+
+			this.m_iPos = iLineStart;
+			if (!this.nextLine())
+				break;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Count the tokens left on the current line without moving the cursor.
+	 */
+	int countTokens()
+	{
+		int iSaved = this.m_iPos;
+		int iCount = 0;
+
+		while (!this.atEndOfLine() && this.skipToken())
+			iCount++;
+
+		this.m_iPos = iSaved;
+		return iCount;
+	}
+
+	/**
+	 * Ask the system for the page size.  Os.sysconf() only exists from API 21
+	 * on, so it's looked up by name and older devices (and a plain JVM) get
+	 * DEFAULT_PAGE_KB.
+	 */
+	static long readPageKb()
+	{
+		try
+		{
+			Class<?> xOs		= Class.forName("android.system.Os");
+			Class<?> xConstants	= Class.forName("android.system.OsConstants");
+			int iName			= xConstants.getField("_SC_PAGESIZE").getInt(null);
+			long lBytes			= ((Number)xOs.getMethod("sysconf", int.class).invoke(null, iName)).longValue();
+
+			if (lBytes >= 1024)
+				return lBytes / 1024;
+		}
+		catch (Exception exp)
+		{
+			//* not there before API 21
+		}
+
+		return DEFAULT_PAGE_KB;
+	}
+
+	/**
+	 * Tokens are separated by white space.
+	 */
+	static boolean isSeparator(byte bChar)
+	{
+		return bChar == ' ' || bChar == '\t' || bChar == '\n' || bChar == '\r';
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * queryFields
+ *
+ * The fields a caller wants from a query, as a bit mask.  Collectors skip
+ * the expensive parts nobody asked for: the package manager labels and
+ * icons, the process memory info, telephony, wifi scans.  What a collector
+ * always needs to do to answer at all (the process list, the connectivity
+ * state) has no bit.
+ *
+ * A collector queries everything unless it is given a mask, with
+ * setFields() or query(int).  The discoveryScheduler queries each collector
+ * with the union of its subscribers' masks.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * The field constants.
+ */
+public final class queryFields
+{
+	public static final int			NONE				= 0;
+	public static final int			ALL					= 0xffffffff;
+
+	/**
+	 * processes: application names from the package manager.
+	 */
+	public static final int			PROCESS_LABELS		= 1 << 0;
+
+	/**
+	 * processes: application icons from the package manager.
+	 */
+	public static final int			PROCESS_ICONS		= 1 << 1;
+
+	/**
+	 * processes: the PSS of every process, one getProcessMemoryInfo() call.
+	 */
+	public static final int			PROCESS_MEMORY		= 1 << 2;
+
+	/**
+	 * processes: CPU time, CPU use and RSS from /proc/[pid]/stat.
+	 */
+	public static final int			PROCESS_STAT		= 1 << 3;
+
+	/**
+	 * processes: the low memory kill ranking, also queries memory when it isn't given one.
+	 */
+	public static final int			PROCESS_KILL_RISK	= 1 << 4;
+
+	/**
+	 * processes: the /proc/[pid]/io counters.
+	 */
+	public static final int			PROCESS_IO			= 1 << 5;
+
+	/**
+	 * processes: the energy attribution, reads /proc/[pid]/stat and the cpufreq time_in_state.
+	 */
+	public static final int			PROCESS_ENERGY		= 1 << 6;
+
+	public static final int			PROCESS_ALL			= 0x000000ff;
+
+	/**
+	 * network: the wifi connection, address, SSID and link speed.
+	 */
+	public static final int			NETWORK_WIFI		= 1 << 8;
+
+	/**
+	 * network: start a wifi scan, for the channel analyzer.
+	 */
+	public static final int			NETWORK_WIFI_SCAN	= 1 << 9;
+
+	/**
+	 * network: which mobile networks are up.
+	 */
+	public static final int			NETWORK_MOBILE		= 1 << 10;
+
+	/**
+	 * network: the phone type, carrier name, MCC and MNC from telephony.
+	 */
+	public static final int			NETWORK_TELEPHONY	= 1 << 11;
+
+	public static final int			NETWORK_ALL			= 0x0000ff00;
+
+	private queryFields()
+	{
+	}
+
+	/**
+	 * Return true if a mask has any of the fields.
+	 */
+	public static boolean has(int iMask, int iFields)
+	{
+		return (iMask & iFields) != 0;
+	}
+}
@@ -2,12 +2,30 @@
  * This class will detect all the services that are currently 
  * running on the device.  
  * 
+ * The services are kept in a table keyed by their component and updated 
+ * in place on every query, so each entry carries its history: how long it 
+ * has been up over all its runs and how many times it was restarted.  The 
+ * table is indexed by pid and by restart count, and every query records 
+ * which services started, stopped and restarted since the last one.  A 
+ * service that crashed and is waiting to be restarted is reported without 
+ * a process, it is kept in the list as not running so a crash loop shows 
+ * up as stops and restarts.  A service that hasn't been reported for 
+ * FORGET_AFTER is dropped from the table with its history, and its names 
+ * are released.
+ * 
  * @author Emil Diego
  */
 package com.emildiego.devicediscovery;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 import android.app.Activity;
 import android.app.ActivityManager;
@@ -15,22 +33,9 @@ import android.app.ActivityManager.RunningServiceInfo;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.os.SystemClock;
 
 
-/**
- * A utility class used to store the service information.
- *
- */
-class RunningServiceEntry
-{
-	int				m_iId;
-	int				m_iUidOwner;		//* The UID that owns this service.
-	long			m_lActiveSince;
-	int				m_iNumClients;
-	String			m_sProcessRunsIn;	//* The package that the service runs in.
-	ComponentName	m_xComponentName;	//* The service component.
-}
-
 /**
  * This class will detect all the currently running services on the device and return a list.
  *
@@ -52,6 +57,44 @@ public class services extends discoveryBase {
 		 */
 		private PackageManager				m_xPackageManager;
 		
+		/**
+		 * Every service we have seen, running or not, by component.
+		 */
+		private Map<ComponentName, RunningServiceEntry>			m_xTable;
+		
+		/**
+		 * The running services by pid, and all the services by restart count.
+		 */
+		private Map<Integer, List<RunningServiceEntry>>			m_xPidIndex;
+		private TreeMap<Integer, List<RunningServiceEntry>>		m_xRestartIndex;
+		
+		/**
+		 * What changed in the last query.
+		 */
+		private List<RunningServiceEntry>	m_listStarted;
+		private List<RunningServiceEntry>	m_listStopped;
+		private List<RunningServiceEntry>	m_listRestarted;
+		
+		/**
+		 * Used to link the services to their processes.  Optional.
+		 */
+		private processes					m_xProcesses;
+		
+		/**
+		 * The names are kept once, in the table shared by all the collectors.
+		 */
+		private nameTable					m_xNames;
+		
+		/**
+		 * Stamps the entries seen by a query.
+		 */
+		private long						m_lQuery;
+		
+		/**
+		 * How long a stopped service is kept in the table (ms).
+		 */
+		static final long					FORGET_AFTER = 60 * 60 * 1000L;
+		
 	
 	/**
 	 * Default constructor
@@ -72,6 +115,24 @@ public class services extends discoveryBase {
 		//* Initialize our ArrayList
 		this.m_listRunningServices = new ArrayList<RunningServiceEntry>();
 		
+		this.m_xTable			= new LinkedHashMap<ComponentName, RunningServiceEntry>();
+		this.m_xPidIndex		= new HashMap<Integer, List<RunningServiceEntry>>();
+		this.m_xRestartIndex	= new TreeMap<Integer, List<RunningServiceEntry>>();
+		this.m_listStarted		= new ArrayList<RunningServiceEntry>();
+		this.m_listStopped		= new ArrayList<RunningServiceEntry>();
+		this.m_listRestarted	= new ArrayList<RunningServiceEntry>();
+		this.m_xNames			= nameTable.getShared();
+	}
+	
+	/**
+	 * Set the processes object the services are linked to.  The caller 
+	 * should query it before querying us.
+	 * 
+	 * @param xProcesses The processes object or null to not link them.
+	 */
+	public void setProcesses(processes xProcesses)
+	{
+		this.m_xProcesses = xProcesses;
 	}
 	
 	/**
@@ -89,21 +150,7 @@ public class services extends discoveryBase {
 			//* Get a list of all the currently running services.
 			xServiceList = this.m_xActivityManager.getRunningServices(Integer.MAX_VALUE);
 			
-			for (int i=0; i < xServiceList.size(); i++)
-			{
-				RunningServiceEntry		xTmpEntry = new RunningServiceEntry();
-				
-				//* Create the entry
-				xTmpEntry.m_iId					= xServiceList.get(i).pid;
-				xTmpEntry.m_iUidOwner			= xServiceList.get(i).uid;
-				xTmpEntry.m_iNumClients			= xServiceList.get(i).clientCount;
-				xTmpEntry.m_lActiveSince		= xServiceList.get(i).lastActivityTime;
-				xTmpEntry.m_sProcessRunsIn		= xServiceList.get(i).process;
-				xTmpEntry.m_xComponentName		= xServiceList.get(i).service;
-				
-				//* Add the entry to our list.
-				this.m_listRunningServices.add(xTmpEntry);
-			}
+			this.updateTable(xServiceList);
 		}
 		catch (SecurityException exp)
 		{
@@ -135,11 +182,274 @@ public class services extends discoveryBase {
 		for (int i = 0; i < this.m_listRunningServices.size(); i++)
 		{
 			RunningServiceEntry		xTmpInfo = this.m_listRunningServices.get(i);
-			sSummary += xTmpInfo.m_iId + " " + xTmpInfo.m_xComponentName.flattenToString() + " " + "\n";		
+			sSummary += xTmpInfo.m_iId + " " + xTmpInfo.m_xComponentName.flattenToString() + " ";
+			sSummary += "up " + (xTmpInfo.getUptime() / 1000) + "s restarts " + xTmpInfo.m_iRestarts + "\n";		
 		}
 		
+		sSummary += "Started: " + this.m_listStarted.size() + " Stopped: " + this.m_listStopped.size();
+		sSummary += " Restarted: " + this.m_listRestarted.size() + "\n";
+		
 		
 		return sSummary;
 	}
-
+	
+	/**
+	 * Update the table with the services running now.  Entries are updated 
+	 * in place, the ones that weren't reported are marked stopped.
+	 * 
+	 * @param xServiceList The running services.
+	 */
+	private void updateTable(List<RunningServiceInfo> xServiceList)
+	{
+		long	lNow = SystemClock.elapsedRealtime();
+		
+		this.m_lQuery++;
+		this.m_listRunningServices.clear();
+		this.m_listStarted.clear();
+		this.m_listStopped.clear();
+		this.m_listRestarted.clear();
+		this.m_xPidIndex.clear();
+		
+		for (int i=0; i < xServiceList.size(); i++)
+		{
+			RunningServiceInfo		xInfo = xServiceList.get(i);
+			
+			RunningServiceEntry		xTmpEntry = this.m_xTable.get(xInfo.service);
+			
+			if (xTmpEntry == null)
+			{
+				//* Create the entry
+				xTmpEntry = new RunningServiceEntry();
+				xTmpEntry.m_xComponentName		= xInfo.service;
+				xTmpEntry.m_iComponentId		= this.m_xNames.intern(xInfo.service.flattenToString());
+				xTmpEntry.m_iProcessNameId		= nameTable.NONE;
+				this.m_xTable.put(xInfo.service, xTmpEntry);
+				this.addToRestartIndex(xTmpEntry);
+			}
+			
+			if (xInfo.pid == 0)
+			{
+				//* It crashed and is waiting to be restarted, it has no process
+				if (xTmpEntry.m_bRunning)
+				{
+					this.endRun(xTmpEntry);
+					this.m_listStopped.add(xTmpEntry);
+				}
+			}
+			else if (xTmpEntry.m_iStarts == 0)
+			{
+				//* The first run we see
+				this.startRun(xTmpEntry, xInfo);
+				this.m_listStarted.add(xTmpEntry);
+			}
+			else if (!xTmpEntry.m_bRunning || xTmpEntry.m_iId != xInfo.pid || xTmpEntry.m_lActiveSince != xInfo.activeSince)
+			{
+				//* It was stopped, or it was restarted in a new process or a new run since the last query
+				if (xTmpEntry.m_bRunning)
+					this.endRun(xTmpEntry);
+				
+				this.removeFromRestartIndex(xTmpEntry);
+				xTmpEntry.m_iRestarts++;
+				this.addToRestartIndex(xTmpEntry);
+				
+				this.startRun(xTmpEntry, xInfo);
+				this.m_listRestarted.add(xTmpEntry);
+			}
+			
+			//* Update the entry
+			xTmpEntry.m_iId					= xInfo.pid;
+			xTmpEntry.m_iUidOwner			= xInfo.uid;
+			xTmpEntry.m_iNumClients			= xInfo.clientCount;
+			xTmpEntry.m_iCrashCount			= xInfo.crashCount;
+			xTmpEntry.m_lLastActivity		= xInfo.lastActivityTime;
+			
+			//* The process name hardly ever changes, only intern it when it does
+			if (xTmpEntry.m_iProcessNameId == nameTable.NONE || xTmpEntry.m_iProcessNameId != this.m_xNames.getId(xInfo.process))
+			{
+				int iOldId = xTmpEntry.m_iProcessNameId;
+				xTmpEntry.m_iProcessNameId		= this.m_xNames.intern(xInfo.process);
+				this.m_xNames.release(iOldId);
+			}
+			xTmpEntry.m_lLastSeen			= lNow;
+			xTmpEntry.m_lLastQuery			= this.m_lQuery;
+			xTmpEntry.m_xProcess			= (this.m_xProcesses != null && xInfo.pid != 0) ? this.m_xProcesses.getEntry(xInfo.pid) : null;
+			
+			//* Add the entry to our list, and to the pid index if it has a process.
+			this.m_listRunningServices.add(xTmpEntry);
+			if (xInfo.pid == 0)
+				continue;
+			
+			List<RunningServiceEntry> listInProcess = this.m_xPidIndex.get(xInfo.pid);
+			if (listInProcess == null)
+			{
+				listInProcess = new ArrayList<RunningServiceEntry>();
+				this.m_xPidIndex.put(xInfo.pid, listInProcess);
+			}
+			listInProcess.add(xTmpEntry);
+		}
+		
+		//* The running services that weren't reported have stopped
+		for (RunningServiceEntry xTmpEntry : this.m_xTable.values())
+		{
+			if (xTmpEntry.m_bRunning && xTmpEntry.m_lLastQuery != this.m_lQuery)
+			{
+				this.endRun(xTmpEntry);
+				xTmpEntry.m_xProcess = null;
+				this.m_listStopped.add(xTmpEntry);
+			}
+		}
+		
+		//* Forget the services that haven't been reported for a while
+		Iterator<RunningServiceEntry> xIterator = this.m_xTable.values().iterator();
+		while (xIterator.hasNext())
+		{
+			RunningServiceEntry xTmpEntry = xIterator.next();
+			
+			if (!xTmpEntry.m_bRunning && lNow - xTmpEntry.m_lLastSeen > services.FORGET_AFTER)
+			{
+				xIterator.remove();
+				this.removeFromRestartIndex(xTmpEntry);
+				this.releaseEntry(xTmpEntry);
+			}
+		}
+	}
+	
+	/**
+	 * Release the names of an entry that left the table.
+	 */
+	private void releaseEntry(RunningServiceEntry xEntry)
+	{
+		this.m_xNames.release(xEntry.m_iComponentId);
+		this.m_xNames.release(xEntry.m_iProcessNameId);
+	}
+	
+	/**
+	 * Start a new run of a service.
+	 */
+	private void startRun(RunningServiceEntry xEntry, RunningServiceInfo xInfo)
+	{
+		xEntry.m_bRunning		= true;
+		xEntry.m_lActiveSince	= xInfo.activeSince;
+		xEntry.m_iStarts++;
+	}
+	
+	/**
+	 * End the current run of a service and add it to its uptime.
+	 */
+	private void endRun(RunningServiceEntry xEntry)
+	{
+		xEntry.m_lPastUptime	+= Math.max(0, xEntry.m_lLastSeen - xEntry.m_lActiveSince);
+		xEntry.m_bRunning		= false;
+	}
+	
+	private void addToRestartIndex(RunningServiceEntry xEntry)
+	{
+		List<RunningServiceEntry> listEntries = this.m_xRestartIndex.get(xEntry.m_iRestarts);
+		if (listEntries == null)
+		{
+			listEntries = new ArrayList<RunningServiceEntry>();
+			this.m_xRestartIndex.put(xEntry.m_iRestarts, listEntries);
+		}
+		listEntries.add(xEntry);
+	}
+	
+	private void removeFromRestartIndex(RunningServiceEntry xEntry)
+	{
+		List<RunningServiceEntry> listEntries = this.m_xRestartIndex.get(xEntry.m_iRestarts);
+		if (listEntries == null)
+			return;
+		
+		listEntries.remove(xEntry);
+		if (listEntries.isEmpty())
+			this.m_xRestartIndex.remove(xEntry.m_iRestarts);
+	}
+	
+	/**
+	 * Return the services reported at the last query, the ones waiting to be 
+	 * restarted after a crash included (not running, pid 0).  The list is 
+	 * read only and follows the next query, copy it to keep it.
+	 */
+	public List<RunningServiceEntry> getList()
+	{
+		return Collections.unmodifiableList(this.m_listRunningServices);
+	}
+	
+	/**
+	 * Return a service, running or not.
+	 * 
+	 * @param xComponent The service component.
+	 * @return The entry or null if we never saw it running.
+	 */
+	public RunningServiceEntry getService(ComponentName xComponent)
+	{
+		return this.m_xTable.get(xComponent);
+	}
+	
+	/**
+	 * Return every service we have seen, running or not.  Read only.
+	 */
+	public Collection<RunningServiceEntry> getAllServices()
+	{
+		return Collections.unmodifiableCollection(this.m_xTable.values());
+	}
+	
+	/**
+	 * Return the services running in a process.
+	 * 
+	 * @param iPid The process id.
+	 * @return A copy of the services, empty if none.
+	 */
+	public List<RunningServiceEntry> getServicesInProcess(int iPid)
+	{
+		List<RunningServiceEntry> listInProcess = this.m_xPidIndex.get(iPid);
+		return (listInProcess == null) ? new ArrayList<RunningServiceEntry>() : new ArrayList<RunningServiceEntry>(listInProcess);
+	}
+	
+	/**
+	 * Return the services restarted more than a number of times.
+	 * 
+	 * @param iRestarts The number of restarts.
+	 * @return The services, the most restarted last.
+	 */
+	public List<RunningServiceEntry> getServicesRestartedMoreThan(int iRestarts)
+	{
+		List<RunningServiceEntry> listResult = new ArrayList<RunningServiceEntry>();
+		
+		for (List<RunningServiceEntry> listEntries : this.m_xRestartIndex.tailMap(iRestarts + 1).values())
+			listResult.addAll(listEntries);
+		
+		return listResult;
+	}
+	
+	/**
+	 * Return the services that started, stopped or restarted in the last 
+	 * query.  Read only.
+	 */
+	public List<RunningServiceEntry> getStarted()
+	{
+		return Collections.unmodifiableList(this.m_listStarted);
+	}
+	public List<RunningServiceEntry> getStopped()
+	{
+		return Collections.unmodifiableList(this.m_listStopped);
+	}
+	public List<RunningServiceEntry> getRestarted()
+	{
+		return Collections.unmodifiableList(this.m_listRestarted);
+	}
+	
+	/**
+	 * Return the number of services running at the last query.
+	 */
+	public int getRunningCount()
+	{
+		int iCount = 0;
+		for (int i = 0; i < this.m_listRunningServices.size(); i++)
+		{
+			if (this.m_listRunningServices.get(i).m_bRunning)
+				iCount++;
+		}
+		
+		return iCount;
+	}
 }
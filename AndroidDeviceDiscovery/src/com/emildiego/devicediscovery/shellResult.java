@@ -0,0 +1,61 @@
+/**
+ * shellResult
+ *
+ * The output of one command run by a shellSession.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * The result class.
+ */
+public class shellResult
+{
+	/**
+	 * The command ran and its output is complete.
+	 */
+	public static final int		STATUS_OK			= 0;
+
+	/**
+	 * The command didn't finish in time, the shell was killed.
+	 */
+	public static final int		STATUS_TIMEOUT		= 1;
+
+	/**
+	 * The shell died or couldn't be started.
+	 */
+	public static final int		STATUS_DIED			= 2;
+
+	/**
+	 * Too many commands were already waiting for the shell.
+	 */
+	public static final int		STATUS_REJECTED		= 3;
+
+	public String				m_sCommand;
+	public String				m_sOutput;			//* stdout and stderr, "" when the command didn't complete
+	public int					m_iExitCode;		//* -1 when the command didn't complete
+	public int					m_iStatus;
+	public long					m_lDurationMs;
+
+	/**
+	 * Constructor
+	 *
+	 * @param sCommand The command.
+	 */
+	public shellResult(String sCommand)
+	{
+		this.m_sCommand		= sCommand;
+		this.m_sOutput		= "";
+		this.m_iExitCode	= -1;
+		this.m_iStatus		= STATUS_DIED;
+	}
+
+	/**
+	 * Return true if the command completed and exited with 0.
+	 */
+	public boolean isSuccess()
+	{
+		return this.m_iStatus == STATUS_OK && this.m_iExitCode == 0;
+	}
+}
@@ -0,0 +1,530 @@
+/**
+ * shellSession
+ *
+ * A long-lived shell for the data that still needs a command (top, getprop,
+ * dumpsys).  Runtime.exec() forks a new process from the VM for every call
+ * and nothing waited for them, so they piled up as zombies.  The session
+ * starts one shell and writes the commands to its stdin.  Each command is
+ * followed by a printf of a unique sentinel and the exit code, and the
+ * output is everything up to the sentinel.  Several commands can be written
+ * in one go with runAll() and their outputs are split apart the same way.
+ *
+ * A command that doesn't reach its sentinel in time is taken to have hung
+ * the shell, the shell is killed and the next command starts a new one, as
+ * does a shell that died on its own.  Commands run one at a time; at most
+ * getMaxConcurrent() callers wait for the shell and the rest are rejected
+ * once their timeout runs out.  Every shell is reaped with waitFor() by its
+ * reader thread.
+ *
+ * Commands get /dev/null as stdin and stderr merged into the output.  The
+ * class has no Android dependencies and runs with /bin/sh anywhere.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Random;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The session class.
+ */
+public class shellSession
+{
+	static final String					ANDROID_SHELL			= "/system/bin/sh";
+	static final String					DEFAULT_SHELL			= "/bin/sh";
+	static final long					DEFAULT_TIMEOUT			= 10000;		//* ms
+	static final int					DEFAULT_MAX_CONCURRENT	= 4;
+	static final String					SENTINEL				= "__shellSession_";
+
+	private static shellSession			m_xShared;
+
+	private String						m_sShell;
+
+	//* the running shell, null when there is none
+	private Process						m_xProcess;
+	private Writer						m_xWriter;
+	private boolean						m_bAlive;
+	private boolean						m_bClosed;
+
+	//* the output not claimed by a command yet, filled by the reader thread
+	private StringBuilder				m_xOutput;
+
+	//* the sentinels are unique per shell and command
+	private String						m_sNonce;
+	private long						m_lSequence;
+	private Random						m_xRandom;
+
+	//* one command (or batch) in the shell at a time, a capped number waiting
+	private final Object				m_xCommandLock;
+	private Semaphore					m_xPermits;
+	private int							m_iMaxConcurrent;
+
+	private long						m_lTimeout;
+
+	private int							m_iStarts;
+	private int							m_iTimeouts;
+	private int							m_iRejected;
+	private long						m_lCommands;
+
+	/**
+	 * Default constructor, uses the system shell.
+	 */
+	public shellSession()
+	{
+		this(new File(ANDROID_SHELL).exists() ? ANDROID_SHELL : DEFAULT_SHELL, DEFAULT_MAX_CONCURRENT);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param sShell The shell to run.
+	 * @param iMaxConcurrent The most callers waiting for or running a command.
+	 */
+	public shellSession(String sShell, int iMaxConcurrent)
+	{
+		this.m_sShell			= sShell;
+		this.m_xOutput			= new StringBuilder();
+		this.m_xRandom			= new Random();
+		this.m_xCommandLock		= new Object();
+		this.m_iMaxConcurrent	= Math.max(1, iMaxConcurrent);
+		this.m_xPermits			= new Semaphore(this.m_iMaxConcurrent, true);
+		this.m_lTimeout			= DEFAULT_TIMEOUT;
+	}
+
+	/**
+	 * Return the session shared by all the collectors, started with the first command.
+	 */
+	public static synchronized shellSession getShared()
+	{
+		if (m_xShared == null)
+			m_xShared = new shellSession();
+
+		return m_xShared;
+	}
+
+	/**
+	 * Run a command with the default timeout.
+	 *
+	 * @param sCommand The command line.
+	 * @return The shellResult.
+	 */
+	public shellResult run(String sCommand)
+	{
+		return this.run(sCommand, this.m_lTimeout);
+	}
+
+	/**
+	 * Run a command.
+	 *
+	 * @param sCommand The command line.
+	 * @param lTimeout How long the command can take, and how long to wait for the shell (ms).
+	 * @return The shellResult.
+	 */
+	public shellResult run(String sCommand, long lTimeout)
+	{
+		return this.runAll(new String[] { sCommand }, lTimeout)[0];
+	}
+
+	/**
+	 * Run several commands, written to the shell in one go.  Each command 
+	 * gets the whole timeout from when the one before it finished.  When one 
+	 * times out the shell is killed and the rest aren't run.
+	 *
+	 * @param aCommands The command lines.
+	 * @param lTimeout How long each command can take, and how long to wait for the shell (ms).
+	 * @return A shellResult per command, in order.
+	 */
+	public shellResult[] runAll(String[] aCommands, long lTimeout)
+	{
+		shellResult[] aResults = new shellResult[aCommands.length];
+		for (int i = 0; i < aCommands.length; i++)
+			aResults[i] = new shellResult(aCommands[i]);
+
+		boolean bPermit;
+		try
+		{
+			bPermit = this.m_xPermits.tryAcquire(lTimeout, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException exp)
+		{
+			Thread.currentThread().interrupt();
+			bPermit = false;
+		}
+
+		if (!bPermit)
+		{
+			synchronized (this)
+			{
+				this.m_iRejected++;
+			}
+			for (int i = 0; i < aResults.length; i++)
+				aResults[i].m_iStatus = shellResult.STATUS_REJECTED;
+			return aResults;
+		}
+
+		try
+		{
+			synchronized (this.m_xCommandLock)
+			{
+				this.execute(aResults, lTimeout);
+			}
+		}
+		finally
+		{
+			this.m_xPermits.release();
+		}
+
+		return aResults;
+	}
+
+	/**
+	 * Return the value of a system property, with getprop.
+	 *
+	 * @param sName The property name.
+	 * @return The value, "" if it isn't set, or null if getprop couldn't be run.
+	 */
+	public String getProperty(String sName)
+	{
+		shellResult xResult = this.run("getprop " + shellSession.quote(sName));
+
+		if (!xResult.isSuccess())
+			return null;
+
+		return xResult.m_sOutput.trim();
+	}
+
+	/**
+	 * Set the default command timeout.
+	 *
+	 * @param lTimeout The timeout in ms.
+	 */
+	public void setTimeout(long lTimeout)
+	{
+		this.m_lTimeout = Math.max(1, lTimeout);
+	}
+
+	/**
+	 * Return the most callers waiting for or running a command.
+	 */
+	public int getMaxConcurrent()
+	{
+		return this.m_iMaxConcurrent;
+	}
+
+	/**
+	 * Return true if a shell is running.
+	 */
+	public synchronized boolean isAlive()
+	{
+		return this.m_bAlive;
+	}
+
+	/**
+	 * Return the number of shells started, the first one included.
+	 */
+	public synchronized int getStarts()
+	{
+		return this.m_iStarts;
+	}
+
+	/**
+	 * Return the number of commands that timed out.
+	 */
+	public synchronized int getTimeouts()
+	{
+		return this.m_iTimeouts;
+	}
+
+	/**
+	 * Return the number of commands rejected because too many were waiting.
+	 */
+	public synchronized int getRejected()
+	{
+		return this.m_iRejected;
+	}
+
+	/**
+	 * Return the number of commands written to the shell.
+	 */
+	public synchronized long getCommands()
+	{
+		return this.m_lCommands;
+	}
+
+	/**
+	 * Stop the shell.  Commands after this fail with STATUS_DIED.
+	 */
+	public void close()
+	{
+		synchronized (this)
+		{
+			this.m_bClosed = true;
+		}
+		this.kill();
+	}
+
+	/**
+	 * Quote an argument for the shell.
+	 *
+	 * @param sArgument The argument.
+	 * @return The argument in single quotes.
+	 */
+	public static String quote(String sArgument)
+	{
+		return "'" + sArgument.replace("'", "'\\''") + "'";
+	}
+
+	/**
+	 * Write the commands and collect their outputs.  Called with the command lock held.
+	 */
+	private void execute(shellResult[] aResults, long lTimeout)
+	{
+		String[]		aMarkers = new String[aResults.length];
+		StringBuilder	xScript = new StringBuilder();
+
+		//* A dead shell is noticed when writing, start a new one and write again once
+		for (int iAttempt = 0; ; iAttempt++)
+		{
+			Writer xWriter = this.ensureStarted();
+			if (xWriter == null)
+				return;
+
+			xScript.setLength(0);
+			synchronized (this)
+			{
+				for (int i = 0; i < aResults.length; i++)
+				{
+					String sSentinel = SENTINEL + this.m_sNonce + "_" + (++this.m_lSequence);
+					
+					//* the sentinel is printed on its own line whether or not the output ended with one
+					aMarkers[i] = "\n" + sSentinel + " ";
+					xScript.append("{ ").append(aResults[i].m_sCommand).append("\n} </dev/null 2>&1\n");
+					xScript.append("printf '\\n%s %d\\n' '").append(sSentinel).append("' $?\n");
+				}
+			}
+
+			try
+			{
+				xWriter.write(xScript.toString());
+				xWriter.flush();
+				
+				synchronized (this)
+				{
+					this.m_lCommands += aResults.length;
+				}
+				break;
+			}
+			catch (IOException exp)
+			{
+				this.kill();
+				if (iAttempt > 0)
+					return;
+			}
+		}
+
+		for (int i = 0; i < aResults.length; i++)
+		{
+			if (!this.await(aResults[i], aMarkers[i], lTimeout))
+				return;
+		}
+	}
+
+	/**
+	 * Wait for the output of one command.
+	 *
+	 * @return False if the shell is gone and the commands after it won't complete.
+	 */
+	private synchronized boolean await(shellResult xResult, String sMarker, long lTimeout)
+	{
+		long lStart		= System.currentTimeMillis();
+		long lDeadline	= lStart + lTimeout;
+
+		while (true)
+		{
+			int iMarker = this.m_xOutput.indexOf(sMarker);
+			if (iMarker >= 0)
+			{
+				int iEnd = this.m_xOutput.indexOf("\n", iMarker + sMarker.length());
+				if (iEnd >= 0)
+				{
+					xResult.m_sOutput		= this.m_xOutput.substring(0, iMarker);
+					xResult.m_iExitCode		= shellSession.parseExitCode(this.m_xOutput, iMarker + sMarker.length(), iEnd);
+					xResult.m_iStatus		= shellResult.STATUS_OK;
+					xResult.m_lDurationMs	= System.currentTimeMillis() - lStart;
+					this.m_xOutput.delete(0, iEnd + 1);
+					return true;
+				}
+			}
+
+			if (!this.m_bAlive)
+			{
+				xResult.m_iStatus = shellResult.STATUS_DIED;
+				return false;
+			}
+
+			long lWait = lDeadline - System.currentTimeMillis();
+			if (lWait <= 0)
+			{
+				xResult.m_iStatus		= shellResult.STATUS_TIMEOUT;
+				xResult.m_lDurationMs	= System.currentTimeMillis() - lStart;
+				this.m_iTimeouts++;
+				this.kill();
+				return false;
+			}
+
+			try
+			{
+				this.wait(lWait);
+			}
+			catch (InterruptedException exp)
+			{
+				Thread.currentThread().interrupt();
+				xResult.m_iStatus = shellResult.STATUS_DIED;
+				this.kill();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Start a shell if none is running.
+	 *
+	 * @return The writer to its stdin, or null if it couldn't be started.
+	 */
+	private synchronized Writer ensureStarted()
+	{
+		if (this.m_bClosed)
+			return null;
+
+		if (this.m_bAlive)
+			return this.m_xWriter;
+
+		final Process xProcess;
+		try
+		{
+			ProcessBuilder xBuilder = new ProcessBuilder(this.m_sShell);
+			xBuilder.redirectErrorStream(true);
+			xProcess = xBuilder.start();
+		}
+		catch (IOException exp)
+		{
+			return null;
+		}
+
+		this.m_xProcess	= xProcess;
+		this.m_xWriter	= new OutputStreamWriter(xProcess.getOutputStream());
+		this.m_bAlive	= true;
+		this.m_sNonce	= Long.toHexString(this.m_xRandom.nextLong() & Long.MAX_VALUE);
+		this.m_xOutput.setLength(0);
+		this.m_iStarts++;
+
+		Thread xReader = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				shellSession.this.readLoop(xProcess);
+			}
+		}, "shellSession");
+		xReader.setDaemon(true);
+		xReader.start();
+
+		return this.m_xWriter;
+	}
+
+	/**
+	 * Kill the running shell, the reader thread reaps it.
+	 */
+	private synchronized void kill()
+	{
+		if (this.m_xProcess == null)
+			return;
+
+		try
+		{
+			this.m_xWriter.close();
+		}
+		catch (IOException exp)
+		{
+			//* it's going away anyway
+		}
+
+		this.m_xProcess.destroy();
+		this.m_xProcess	= null;
+		this.m_xWriter	= null;
+		this.m_bAlive	= false;
+		this.notifyAll();
+	}
+
+	/**
+	 * Copy the output of a shell into the buffer until it exits, then reap it.
+	 */
+	private void readLoop(Process xProcess)
+	{
+		InputStream	xIn		= xProcess.getInputStream();
+		Reader		xReader	= new InputStreamReader(xIn);
+		char[]		aBuffer	= new char[4096];
+		int			iRead;
+
+		try
+		{
+			while ((iRead = xReader.read(aBuffer)) > 0)
+			{
+				synchronized (this)
+				{
+					if (this.m_xProcess != xProcess)
+						break;
+
+					this.m_xOutput.append(aBuffer, 0, iRead);
+					this.notifyAll();
+				}
+			}
+		}
+		catch (IOException exp)
+		{
+			//* the shell was killed
+		}
+
+		synchronized (this)
+		{
+			//* it died on its own, kill() wasn't called
+			if (this.m_xProcess == xProcess)
+				this.kill();
+		}
+
+		xProcess.destroy();
+		try
+		{
+			xIn.close();
+			xProcess.waitFor();
+		}
+		catch (IOException exp)
+		{
+			//* nothing we can do about it
+		}
+		catch (InterruptedException exp)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static int parseExitCode(StringBuilder xOutput, int iStart, int iEnd)
+	{
+		try
+		{
+			return Integer.parseInt(xOutput.substring(iStart, iEnd).trim());
+		}
+		catch (NumberFormatException exp)
+		{
+			return -1;
+		}
+	}
+}
@@ -9,6 +9,9 @@
  */
 package com.emildiego.devicediscovery;
 
+import java.io.IOException;
+import java.util.List;
+
 import android.content.Context;
 import android.os.Environment;
 import android.os.StatFs;
@@ -28,6 +31,18 @@ public class storage extends discoveryBase {
 	
 	StatFs				m_xInternalStorage;
 	StatFs				m_xExternalStorage;
+	
+	//* Every real filesystem mounted on the device
+	private mountTable	m_xMountTable;
+	
+	//* What is using the space, created the first time it is asked for
+	private directoryUsage	m_xDirectoryUsage;
+	
+	//* How fast each filesystem is filling up
+	private storageForecast	m_xForecast;
+	
+	//* How fast it is, created the first time it is asked for
+	private storageBenchmark	m_xBenchmark;
 
 	/**
 	 * Default constructor
@@ -48,6 +63,9 @@ public class storage extends discoveryBase {
 		
 		this.m_xInternalStorage	= null;
 		this.m_xExternalStorage = null;
+		
+		this.m_xMountTable		= new mountTable();
+		this.m_xForecast		= new storageForecast();
 	}
 
 	/**
@@ -65,8 +83,11 @@ public class storage extends discoveryBase {
 			//*
 			//* INTERNAL STORAGE
 			//*
-			//* Get the information on the internal storage
-			this.m_xInternalStorage = new StatFs(this.m_sInternalStorageDirectory);
+			//* Get the information on the internal storage.  The StatFs is reused after the first query.
+			if (this.m_xInternalStorage == null)
+				this.m_xInternalStorage = new StatFs(this.m_sInternalStorageDirectory);
+			else
+				this.m_xInternalStorage.restat(this.m_sInternalStorageDirectory);
 			
 			
 			//*
@@ -104,9 +125,18 @@ public class storage extends discoveryBase {
 			//* if the external storage is available then let's get some additional information
 			if (this.isExternalStorageAvailable())
 			{
-				this.m_xExternalStorage = new StatFs(this.m_sExternalStorageDirectory);
+				if (this.m_xExternalStorage == null)
+					this.m_xExternalStorage = new StatFs(this.m_sExternalStorageDirectory);
+				else
+					this.m_xExternalStorage.restat(this.m_sExternalStorageDirectory);
 			}
 			
+			//* and the capacity of everything else that is mounted
+			if (!this.m_xMountTable.refresh())
+				this.logDebug("Unable to read the mount table.");
+			
+			this.updateForecast();
+			
 			return true;
 				
 		}
@@ -214,6 +244,190 @@ public class storage extends discoveryBase {
 	}
 	
 
+	/**
+	 * Get the mount points of every real filesystem on the device (adoptable storage, 
+	 * USB OTG, /cache, /system, ...) as of the last query.
+	 * @return A list of mount points.
+	 */
+	public List<String> getMountPoints()
+	{
+		return this.m_xMountTable.getMountPoints();
+	}
+	
+	/**
+	 * Get the total size of the filesystem mounted at the mount point.
+	 * @param sMountPoint One of the mount points returned by getMountPoints().
+	 * @return A Long representing the total size, 0 if unknown.
+	 */
+	public long getTotalStorage(String sMountPoint)
+	{
+		return this.m_xMountTable.getTotalBytes(sMountPoint);
+	}
+	
+	/**
+	 * Get the space available on the filesystem mounted at the mount point.
+	 * @param sMountPoint One of the mount points returned by getMountPoints().
+	 * @return A Long representing the available space, 0 if unknown.
+	 */
+	public long getAvailableStorage(String sMountPoint)
+	{
+		return this.m_xMountTable.getAvailableBytes(sMountPoint);
+	}
+	
+	/**
+	 * Get the mount table so the cache TTL and statfs timeout can be configured.
+	 * @return The mountTable used by query().
+	 */
+	public mountTable getMountTable()
+	{
+		return this.m_xMountTable;
+	}
+	
+	/**
+	 * Add the space used on every filesystem to the fill rate forecast.
+	 */
+	private void updateForecast()
+	{
+		long lNow = System.currentTimeMillis();
+		
+		this.m_xForecast.addSample(this.m_sInternalStorageDirectory, lNow, 
+				this.getTotalInternalStorage() - this.getAvailableInternalStorage(), this.getTotalInternalStorage());
+		
+		if (this.isExternalStorageAvailable())
+			this.m_xForecast.addSample(this.m_sExternalStorageDirectory, lNow, 
+					this.getTotalExternalStorage() - this.getAvailableExternalStorage(), this.getTotalExternalStorage());
+		
+		List<String> listMounts = this.getMountPoints();
+		for (int i = 0; i < listMounts.size(); i++)
+		{
+			String sMountPoint = listMounts.get(i);
+			long lTotal = this.getTotalStorage(sMountPoint);
+			
+			//* skip mounts that couldn't be stat'ed and the ones nothing can be written to
+			if (lTotal <= 0 || this.m_xMountTable.isReadOnly(sMountPoint))
+				continue;
+			
+			this.m_xForecast.addSample(sMountPoint, lNow, lTotal - this.getAvailableStorage(sMountPoint), lTotal);
+		}
+	}
+	
+	/**
+	 * Get the rate a filesystem is filling up, estimated over the recent queries.
+	 * @param sPath The internal or external storage directory or one of the mount points.
+	 * @return The rate in bytes per second, negative if space is being freed.
+	 */
+	public double getFillRate(String sPath)
+	{
+		return this.m_xForecast.getFillRate(sPath);
+	}
+	
+	/**
+	 * Get the projected time until a filesystem is full.
+	 * @param sPath The internal or external storage directory or one of the mount points.
+	 * @return The number of seconds, or storageForecast.NEVER if it isn't filling up.
+	 */
+	public long getTimeToFull(String sPath)
+	{
+		return this.m_xForecast.getTimeToFull(sPath);
+	}
+	
+	/**
+	 * Set the listener called when a filesystem is projected to be full within the threshold.
+	 * @param xListener The listener or null to remove it.
+	 * @param lThresholdSeconds Alert when the projected time to full drops below this.
+	 */
+	public void setForecastListener(storageForecastListener xListener, long lThresholdSeconds)
+	{
+		this.m_xForecast.setListener(xListener, lThresholdSeconds);
+	}
+	
+	/**
+	 * Get the directory usage scanner used to find out what is filling a filesystem.
+	 * The scanner keeps its cache between scans so re-scanning the same tree is cheap.
+	 * @return The directoryUsage scanner.
+	 */
+	public synchronized directoryUsage getDirectoryUsage()
+	{
+		if (this.m_xDirectoryUsage == null)
+			this.m_xDirectoryUsage = new directoryUsage();
+		
+		return this.m_xDirectoryUsage;
+	}
+	
+	/**
+	 * Get the benchmark so the file size, duration and sync mode can be configured
+	 * before calling runBenchmark().
+	 * @return The storageBenchmark.
+	 */
+	public synchronized storageBenchmark getBenchmark()
+	{
+		if (this.m_xBenchmark == null)
+			this.m_xBenchmark = new storageBenchmark();
+		
+		return this.m_xBenchmark;
+	}
+	
+	/**
+	 * Benchmark the filesystem the application cache directory is on.
+	 * @return The results, or null if the benchmark couldn't be run.
+	 */
+	public List<benchmarkResult> runBenchmark()
+	{
+		return this.runBenchmark(this.m_xContext.getCacheDir().getPath());
+	}
+	
+	/**
+	 * Benchmark a filesystem.  This blocks for several seconds, don't call it on the UI thread.
+	 * The scratch file is kept below half of the free space on the filesystem and deleted afterwards.
+	 * @param sDirectory A writable directory on the filesystem to test.
+	 * @return The results, or null if the benchmark couldn't be run.
+	 */
+	public List<benchmarkResult> runBenchmark(String sDirectory)
+	{
+		storageBenchmark xBenchmark = this.getBenchmark();
+		long lFileSize = xBenchmark.getFileSize();
+		
+		try
+		{
+			StatFs xStat = new StatFs(sDirectory);
+			long lHalfFree = (long)xStat.getAvailableBlocks() * (long)xStat.getBlockSize() / 2;
+			
+			if (lHalfFree < storageBenchmark.DEFAULT_BLOCK_SIZE)
+			{
+				this.logDebug("Not enough free space to benchmark " + sDirectory);
+				return null;
+			}
+			
+			//* shrink the file for this run only if the filesystem is nearly full
+			List<benchmarkResult> listResults = xBenchmark.run(sDirectory, Math.min(lFileSize, lHalfFree));
+			for (int i = 0; i < listResults.size(); i++)
+				this.logDebug(listResults.get(i).summaryString());
+			
+			return listResults;
+		}
+		catch (IOException exp)
+		{
+			this.logError("An Exception occured while benchmarking " + sDirectory + ": " + exp.getMessage());
+			return null;
+		}
+		catch (IllegalArgumentException exp)
+		{
+			this.logError("Unable to stat " + sDirectory);
+			return null;
+		}
+	}
+	
+	/**
+	 * Stop the threads used to statfs the mounts and scan directories.
+	 */
+	public synchronized void close()
+	{
+		this.m_xMountTable.close();
+		
+		if (this.m_xDirectoryUsage != null)
+			this.m_xDirectoryUsage.close();
+	}
+
 	/**
 	 * Summarize all the storage information into a string and return it.
 	 * 
@@ -226,13 +440,44 @@ public class storage extends discoveryBase {
 		sSummary += "Internal Storage Information: \n";
 		sSummary += "Storage Location: " + this.m_sInternalStorageDirectory + "\n";
 		sSummary += "Available Storage: " + this.convertStorage(this.getAvailableInternalStorage(), SIZE_NONE) + "\n";
+		sSummary += this.forecastString(this.m_sInternalStorageDirectory);
 		sSummary += "\n";
 		sSummary += "External Storage Information: \n";
 		sSummary += "Storage Present: " + this.isExternalStorageAvailable() + "\n";
 		sSummary += "Storage Writeable: " + this.isExternalStorageWriteable() + "\n";
 		sSummary += "Storage Location: " + this.m_sExternalStorageDirectory + "\n";
 		sSummary += "Available Storage: " + this.convertStorage(this.getAvailableExternalStorage(), SIZE_NONE) + "\n";
+		if (this.isExternalStorageAvailable())
+			sSummary += this.forecastString(this.m_sExternalStorageDirectory);
+		
+		List<String> listMounts = this.getMountPoints();
+		if (listMounts.size() > 0)
+		{
+			sSummary += "\n";
+			sSummary += "Mounted Filesystems: \n";
+			for (int i = 0; i < listMounts.size(); i++)
+			{
+				String sMountPoint = listMounts.get(i);
+				sSummary += sMountPoint + " (" + this.m_xMountTable.getFsType(sMountPoint) + "): " +
+						this.convertStorage(this.getAvailableStorage(sMountPoint), SIZE_NONE) + " of " +
+						this.convertStorage(this.getTotalStorage(sMountPoint), SIZE_NONE) + " available\n";
+			}
+		}
 		
 		return sSummary;
 	}
+	
+	/**
+	 * The fill rate and time to full line of the summary.
+	 */
+	private String forecastString(String sPath)
+	{
+		long lSeconds = this.getTimeToFull(sPath);
+		
+		if (lSeconds == storageForecast.NEVER)
+			return "Time To Full: never\n";
+		
+		return "Fill Rate: " + this.convertStorage((long)(this.getFillRate(sPath) * 3600), SIZE_NONE) + "/hour\n" +
+				"Time To Full: " + (lSeconds / 3600) + " hours\n";
+	}
 }
@@ -0,0 +1,470 @@
+/**
+ * storageBenchmark
+ *
+ * Measures how fast a filesystem is.  Runs sequential and random 4K read and
+ * write tests against a scratch file, once through a FileChannel with direct
+ * ByteBuffers and once through a memory mapping of the file.  Every test runs
+ * for a configurable duration against a file no bigger than the size cap and
+ * records the latency of every operation.
+ *
+ * The class only uses java.io and java.nio so it can be run against any
+ * Linux filesystem.  The scratch file is always deleted when the run ends.
+ *
+ * The read tests run right after the file was written, so they are mostly
+ * served from the page cache and their results are flagged as cached reads.
+ * Keep the file size well above the free memory when the raw flash speed
+ * is wanted.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The benchmark class.
+ */
+public class storageBenchmark
+{
+	/**
+	 * The tests
+	 */
+	public static final int			TEST_SEQUENTIAL_WRITE	= 0;
+	public static final int			TEST_SEQUENTIAL_READ	= 1;
+	public static final int			TEST_RANDOM_WRITE		= 2;
+	public static final int			TEST_RANDOM_READ		= 3;
+
+	/**
+	 * How the file is accessed
+	 */
+	public static final int			MODE_CHANNEL			= 0;
+	public static final int			MODE_MMAP				= 1;
+
+	/**
+	 * When written data is forced to the device
+	 */
+	public static final int			SYNC_NONE				= 0;		//* leave it in the page cache
+	public static final int			SYNC_END				= 1;		//* once at the end of each write test (timed)
+	public static final int			SYNC_EACH				= 2;		//* after every write
+
+	static final int				RANDOM_BLOCK_SIZE		= 4096;
+	static final int				DEFAULT_BLOCK_SIZE		= 1024 * 1024;
+	static final long				DEFAULT_FILE_SIZE		= 64L * 1024 * 1024;
+	static final long				DEFAULT_DURATION		= 2000;
+
+	/**
+	 * The mapping of the file is done in one piece so it can't be bigger than this.
+	 */
+	static final long				MAX_MAP_SIZE			= Integer.MAX_VALUE;
+
+	private long					m_lFileSize;
+	private long					m_lDurationNs;
+	private int						m_iBlockSize;
+	private int						m_iSync;
+	private boolean					m_bMmap;
+	private volatile boolean		m_bCancel;
+
+	/**
+	 * Default constructor.  64MB file, 2 seconds per test, 1MB sequential blocks, fsync at the end.
+	 */
+	public storageBenchmark()
+	{
+		this.m_lFileSize	= DEFAULT_FILE_SIZE;
+		this.m_lDurationNs	= DEFAULT_DURATION * 1000000L;
+		this.m_iBlockSize	= DEFAULT_BLOCK_SIZE;
+		this.m_iSync		= SYNC_END;
+		this.m_bMmap		= true;
+		this.m_bCancel		= false;
+	}
+
+	/**
+	 * Set the size of the scratch file.  Rounded down to a multiple of the block sizes.
+	 */
+	public void setFileSize(long lBytes)
+	{
+		this.m_lFileSize = lBytes;
+	}
+
+	/**
+	 * Get the size of the scratch file.
+	 */
+	public long getFileSize()
+	{
+		return this.m_lFileSize;
+	}
+
+	/**
+	 * Set how long each test runs.
+	 */
+	public void setDuration(long lMilliseconds)
+	{
+		this.m_lDurationNs = lMilliseconds * 1000000L;
+	}
+
+	/**
+	 * Set the block size used by the sequential tests.
+	 */
+	public void setBlockSize(int iBytes)
+	{
+		this.m_iBlockSize = Math.max(RANDOM_BLOCK_SIZE, iBytes - (iBytes % RANDOM_BLOCK_SIZE));
+	}
+
+	/**
+	 * Set when written data is forced to the device, one of the SYNC_ values.
+	 */
+	public void setSync(int iSync)
+	{
+		this.m_iSync = iSync;
+	}
+
+	/**
+	 * Turn the memory mapped tests on or off.
+	 */
+	public void setMmapEnabled(boolean bEnabled)
+	{
+		this.m_bMmap = bEnabled;
+	}
+
+	/**
+	 * Stop a run in progress, it returns the results it has so far.
+	 */
+	public void cancel()
+	{
+		this.m_bCancel = true;
+	}
+
+	/**
+	 * Run every test in the directory with the configured file size.
+	 *
+	 * @param sDirectory A writable directory on the filesystem to test.
+	 * @return The results of each test in the order they were run.
+	 * @throws IOException If the scratch file can't be created or written.
+	 */
+	public List<benchmarkResult> run(String sDirectory) throws IOException
+	{
+		return this.run(sDirectory, this.m_lFileSize);
+	}
+
+	/**
+	 * Run every test in the directory.
+	 *
+	 * @param sDirectory A writable directory on the filesystem to test.
+	 * @param lMaxFileSize The size of the scratch file for this run only, rounded down to a multiple of the block size.
+	 * @return The results of each test in the order they were run.
+	 * @throws IOException If the scratch file can't be created or written.
+	 */
+	public List<benchmarkResult> run(String sDirectory, long lMaxFileSize) throws IOException
+	{
+		List<benchmarkResult>	listResults		= new ArrayList<benchmarkResult>();
+		File					xFile			= null;
+		RandomAccessFile		xRaf			= null;
+		FileChannel				xChannel		= null;
+
+		this.m_bCancel = false;
+
+		//* a whole number of sequential blocks
+		long lFileSize = lMaxFileSize - (lMaxFileSize % this.m_iBlockSize);
+		if (lFileSize < this.m_iBlockSize)
+			lFileSize = this.m_iBlockSize;
+
+		try
+		{
+			xFile		= File.createTempFile("benchmark", ".tmp", new File(sDirectory));
+			xRaf		= new RandomAccessFile(xFile, "rw");
+			xChannel	= xRaf.getChannel();
+
+			//* the data written is random so compressing filesystems and controllers don't skew the numbers
+			byte[] aData = new byte[this.m_iBlockSize];
+			new Random().nextBytes(aData);
+
+			ByteBuffer xBuffer = ByteBuffer.allocateDirect(this.m_iBlockSize);
+			xBuffer.put(aData);
+
+			//* FileChannel tests, the sequential write lays the file out for the others
+			listResults.add(this.sequentialWrite(xChannel, xBuffer, lFileSize));
+			if (!this.m_bCancel)
+				listResults.add(this.sequentialRead(xChannel, xBuffer, lFileSize));
+			if (!this.m_bCancel)
+				listResults.add(this.randomWrite(xChannel, xBuffer, lFileSize));
+			if (!this.m_bCancel)
+				listResults.add(this.randomRead(xChannel, xBuffer, lFileSize));
+
+			//* Memory mapped tests
+			if (this.m_bMmap && !this.m_bCancel && lFileSize <= MAX_MAP_SIZE)
+			{
+				MappedByteBuffer xMap = xChannel.map(FileChannel.MapMode.READ_WRITE, 0, lFileSize);
+
+				listResults.add(this.mappedTest(xMap, TEST_SEQUENTIAL_WRITE, aData, this.m_iBlockSize, lFileSize));
+				if (!this.m_bCancel)
+					listResults.add(this.mappedTest(xMap, TEST_SEQUENTIAL_READ, aData, this.m_iBlockSize, lFileSize));
+				if (!this.m_bCancel)
+					listResults.add(this.mappedTest(xMap, TEST_RANDOM_WRITE, aData, RANDOM_BLOCK_SIZE, lFileSize));
+				if (!this.m_bCancel)
+					listResults.add(this.mappedTest(xMap, TEST_RANDOM_READ, aData, RANDOM_BLOCK_SIZE, lFileSize));
+			}
+		}
+		finally
+		{
+			//* always clean up.  A mapping can't be released explicitly, it goes when it
+			//* is collected, but the file can be unlinked while it is still mapped.
+			try
+			{
+				if (xChannel != null)
+					xChannel.close();
+				if (xRaf != null)
+					xRaf.close();
+			}
+			catch (IOException exp)
+			{
+				//* nothing more we can do, the delete below still runs
+			}
+
+			if (xFile != null)
+				xFile.delete();
+		}
+
+		return listResults;
+	}
+
+	/**
+	 * Write the file from start to end with the channel.  The first pass
+	 * always completes so the read tests don't hit holes in the file.
+	 */
+	private benchmarkResult sequentialWrite(FileChannel xChannel, ByteBuffer xBuffer, long lFileSize) throws IOException
+	{
+		benchmarkResult		xResult		= new benchmarkResult(TEST_SEQUENTIAL_WRITE, MODE_CHANNEL, this.m_iBlockSize);
+		long				lStart		= System.nanoTime();
+		long				lPos		= 0;
+		boolean				bFirstPass	= true;
+
+		while (!this.m_bCancel && (bFirstPass || System.nanoTime() - lStart < this.m_lDurationNs))
+		{
+			long lOpStart = System.nanoTime();
+
+			xBuffer.clear();
+			while (xBuffer.hasRemaining())
+				xChannel.write(xBuffer, lPos + xBuffer.position());
+
+			if (this.m_iSync == SYNC_EACH)
+				xChannel.force(false);
+
+			xResult.m_xLatency.record((System.nanoTime() - lOpStart) / 1000);
+			xResult.m_lBytes += this.m_iBlockSize;
+			xResult.m_lOperations++;
+
+			lPos += this.m_iBlockSize;
+			if (lPos >= lFileSize)
+			{
+				lPos		= 0;
+				bFirstPass	= false;
+			}
+		}
+
+		if (this.m_iSync == SYNC_END)
+			xChannel.force(false);
+
+		xResult.m_lElapsedNs = System.nanoTime() - lStart;
+		return xResult;
+	}
+
+	/**
+	 * Read the file from start to end with the channel, wrapping around until the time is up.
+	 */
+	private benchmarkResult sequentialRead(FileChannel xChannel, ByteBuffer xBuffer, long lFileSize) throws IOException
+	{
+		benchmarkResult		xResult		= new benchmarkResult(TEST_SEQUENTIAL_READ, MODE_CHANNEL, this.m_iBlockSize);
+		long				lStart		= System.nanoTime();
+		long				lPos		= 0;
+
+		xResult.m_bCached = true;
+
+		while (!this.m_bCancel && System.nanoTime() - lStart < this.m_lDurationNs)
+		{
+			long lOpStart = System.nanoTime();
+
+			xBuffer.clear();
+			while (xBuffer.hasRemaining())
+			{
+				if (xChannel.read(xBuffer, lPos + xBuffer.position()) < 0)
+					break;
+			}
+
+			xResult.m_xLatency.record((System.nanoTime() - lOpStart) / 1000);
+			xResult.m_lBytes += xBuffer.position();
+			xResult.m_lOperations++;
+
+			lPos += this.m_iBlockSize;
+			if (lPos >= lFileSize)
+				lPos = 0;
+		}
+
+		xResult.m_lElapsedNs = System.nanoTime() - lStart;
+		return xResult;
+	}
+
+	/**
+	 * Write 4K blocks at random 4K aligned offsets with the channel.
+	 */
+	private benchmarkResult randomWrite(FileChannel xChannel, ByteBuffer xBuffer, long lFileSize) throws IOException
+	{
+		benchmarkResult		xResult		= new benchmarkResult(TEST_RANDOM_WRITE, MODE_CHANNEL, RANDOM_BLOCK_SIZE);
+		Random				xRandom		= new Random();
+		long				lBlocks		= lFileSize / RANDOM_BLOCK_SIZE;
+		long				lStart		= System.nanoTime();
+
+		while (!this.m_bCancel && System.nanoTime() - lStart < this.m_lDurationNs)
+		{
+			long lPos = randomBlock(xRandom, lBlocks) * RANDOM_BLOCK_SIZE;
+			long lOpStart = System.nanoTime();
+
+			xBuffer.clear();
+			xBuffer.limit(RANDOM_BLOCK_SIZE);
+			while (xBuffer.hasRemaining())
+				xChannel.write(xBuffer, lPos + xBuffer.position());
+
+			if (this.m_iSync == SYNC_EACH)
+				xChannel.force(false);
+
+			xResult.m_xLatency.record((System.nanoTime() - lOpStart) / 1000);
+			xResult.m_lBytes += RANDOM_BLOCK_SIZE;
+			xResult.m_lOperations++;
+		}
+
+		if (this.m_iSync == SYNC_END)
+			xChannel.force(false);
+
+		xResult.m_lElapsedNs = System.nanoTime() - lStart;
+		return xResult;
+	}
+
+	/**
+	 * Read 4K blocks from random 4K aligned offsets with the channel.
+	 */
+	private benchmarkResult randomRead(FileChannel xChannel, ByteBuffer xBuffer, long lFileSize) throws IOException
+	{
+		benchmarkResult		xResult		= new benchmarkResult(TEST_RANDOM_READ, MODE_CHANNEL, RANDOM_BLOCK_SIZE);
+		Random				xRandom		= new Random();
+		long				lBlocks		= lFileSize / RANDOM_BLOCK_SIZE;
+		long				lStart		= System.nanoTime();
+
+		xResult.m_bCached = true;
+
+		while (!this.m_bCancel && System.nanoTime() - lStart < this.m_lDurationNs)
+		{
+			long lPos = randomBlock(xRandom, lBlocks) * RANDOM_BLOCK_SIZE;
+			long lOpStart = System.nanoTime();
+
+			xBuffer.clear();
+			xBuffer.limit(RANDOM_BLOCK_SIZE);
+			while (xBuffer.hasRemaining())
+			{
+				if (xChannel.read(xBuffer, lPos + xBuffer.position()) < 0)
+					break;
+			}
+
+			xResult.m_xLatency.record((System.nanoTime() - lOpStart) / 1000);
+			xResult.m_lBytes += xBuffer.position();
+			xResult.m_lOperations++;
+		}
+
+		xResult.m_lElapsedNs = System.nanoTime() - lStart;
+		return xResult;
+	}
+
+	/**
+	 * Run one of the tests against the memory mapping.  Writes are copied
+	 * into the mapping and forced out with force() when syncing is on.
+	 */
+	private benchmarkResult mappedTest(MappedByteBuffer xMap, int iTest, byte[] aData, int iBlockSize, long lFileSize)
+	{
+		benchmarkResult		xResult		= new benchmarkResult(iTest, MODE_MMAP, iBlockSize);
+		boolean				bWrite		= (iTest == TEST_SEQUENTIAL_WRITE || iTest == TEST_RANDOM_WRITE);
+		boolean				bRandom		= (iTest == TEST_RANDOM_WRITE || iTest == TEST_RANDOM_READ);
+		byte[]				aRead		= new byte[iBlockSize];
+		Random				xRandom		= new Random();
+		long				lBlocks		= lFileSize / iBlockSize;
+		long				lPos		= 0;
+		long				lStart		= System.nanoTime();
+
+		xResult.m_bCached = !bWrite;
+
+		while (!this.m_bCancel && System.nanoTime() - lStart < this.m_lDurationNs)
+		{
+			if (bRandom)
+				lPos = randomBlock(xRandom, lBlocks) * iBlockSize;
+
+			long lOpStart = System.nanoTime();
+
+			xMap.position((int)lPos);
+			if (bWrite)
+			{
+				xMap.put(aData, 0, iBlockSize);
+				if (this.m_iSync == SYNC_EACH)
+					xMap.force();
+			}
+			else
+			{
+				xMap.get(aRead, 0, iBlockSize);
+			}
+
+			xResult.m_xLatency.record((System.nanoTime() - lOpStart) / 1000);
+			xResult.m_lBytes += iBlockSize;
+			xResult.m_lOperations++;
+
+			if (!bRandom)
+			{
+				lPos += iBlockSize;
+				if (lPos >= lFileSize)
+					lPos = 0;
+			}
+		}
+
+		if (bWrite && this.m_iSync == SYNC_END)
+			xMap.force();
+
+		xResult.m_lElapsedNs = System.nanoTime() - lStart;
+		return xResult;
+	}
+
+	/**
+	 * Pick a block uniformly from [0, lBlocks).
+	 */
+	static long randomBlock(Random xRandom, long lBlocks)
+	{
+		if (lBlocks <= Integer.MAX_VALUE)
+			return xRandom.nextInt((int)lBlocks);
+
+		return (xRandom.nextLong() & Long.MAX_VALUE) % lBlocks;
+	}
+
+	/**
+	 * Get the display name of a test.
+	 */
+	public static String testName(int iTest)
+	{
+		switch (iTest)
+		{
+			case TEST_SEQUENTIAL_WRITE:		return "Sequential Write";
+			case TEST_SEQUENTIAL_READ:		return "Sequential Read";
+			case TEST_RANDOM_WRITE:			return "Random Write";
+			case TEST_RANDOM_READ:			return "Random Read";
+		}
+		return "Unknown";
+	}
+
+	/**
+	 * Get the display name of an access mode.
+	 */
+	public static String modeName(int iMode)
+	{
+		return (iMode == MODE_MMAP) ? "mmap" : "FileChannel";
+	}
+}
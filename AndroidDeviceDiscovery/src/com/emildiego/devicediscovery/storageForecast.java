@@ -0,0 +1,347 @@
+/**
+ * storageForecast
+ *
+ * Keeps the history of how much space is used on each tracked filesystem
+ * and estimates how fast it is filling up.  The samples are kept in a
+ * fixed size ring of primitive arrays.  The fill rate is the slope of a
+ * least squares line over the samples in the ring, and the sums the slope
+ * is computed from are updated as samples enter and leave the window, so
+ * each new sample costs O(1) no matter how big the window is.
+ *
+ * The window covers a span of time, not just a number of samples.  A
+ * sample that comes sooner than span / window after the last one kept for
+ * its filesystem is skipped, so polling more often than that doesn't shrink
+ * the window to a few minutes of noise.
+ *
+ * When the projected time until a filesystem is full drops below the alert
+ * threshold the listener is called.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The history and regression state of one filesystem.
+ */
+class forecastSeries
+{
+	//* the ring of samples
+	long[]			m_aTimes;
+	long[]			m_aUsed;
+	int				m_iPos;
+	int				m_iCount;
+
+	long			m_lTotalBytes;
+
+	//* the least squares sums over the samples in the ring.  x is seconds since
+	//* m_lBaseTime and y is bytes used since m_lBaseUsed, to keep the numbers small.
+	long			m_lBaseTime;
+	long			m_lBaseUsed;
+	double			m_dSumX;
+	double			m_dSumY;
+	double			m_dSumXX;
+	double			m_dSumXY;
+	int				m_iSinceRebase;		//* samples added since the base last moved
+
+	//* true while an alert has been sent and the projection hasn't recovered yet
+	boolean			m_bAlerted;
+
+	forecastSeries(int iCapacity)
+	{
+		this.m_aTimes	= new long[iCapacity];
+		this.m_aUsed	= new long[iCapacity];
+	}
+}
+
+/**
+ * The forecasting class.
+ */
+public class storageForecast
+{
+	/**
+	 * Returned by getTimeToFull() when the filesystem isn't filling up.
+	 */
+	public static final long					NEVER				= Long.MAX_VALUE;
+
+	static final int							DEFAULT_WINDOW		= 288;				//* a day of 5 minute samples
+	static final long							DEFAULT_SPAN		= 24 * 3600 * 1000L;	//* a day
+	static final long							DEFAULT_THRESHOLD	= 3 * 24 * 3600;	//* 3 days
+	static final int							MIN_SAMPLES			= 3;
+
+	/**
+	 * Rebase the sums once x of the newest sample gets this big (seconds) so they don't lose precision.
+	 */
+	static final double							REBASE_SECONDS		= 30 * 24 * 3600;
+
+	private Map<String, forecastSeries>			m_xSeries;
+	private int									m_iWindow;
+	private long								m_lMinInterval;		//* ms between kept samples
+
+	private storageForecastListener				m_xListener;
+	private long								m_lAlertThresholdSec;
+
+	/**
+	 * Default constructor.  Keeps 288 samples over a day per filesystem and alerts at 3 days to full.
+	 */
+	public storageForecast()
+	{
+		this(DEFAULT_WINDOW, DEFAULT_SPAN);
+	}
+
+	/**
+	 * Constructor, the samples are kept at least 5 minutes apart.
+	 *
+	 * @param iWindow The number of samples the regression covers.
+	 */
+	public storageForecast(int iWindow)
+	{
+		this(iWindow, iWindow * (DEFAULT_SPAN / DEFAULT_WINDOW));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param iWindow The number of samples the regression covers.
+	 * @param lSpan The time the samples cover (ms), a sample sooner than lSpan / iWindow after the last one is skipped.
+	 */
+	public storageForecast(int iWindow, long lSpan)
+	{
+		this.m_xSeries				= new HashMap<String, forecastSeries>();
+		this.m_iWindow				= Math.max(MIN_SAMPLES, iWindow);
+		this.m_lMinInterval			= Math.max(0, lSpan) / this.m_iWindow;
+		this.m_lAlertThresholdSec	= DEFAULT_THRESHOLD;
+	}
+
+	/**
+	 * Set the listener called when a filesystem is projected to fill up soon.
+	 *
+	 * @param xListener The listener or null to remove it.
+	 * @param lThresholdSeconds Alert when the projected time to full is below this.
+	 */
+	public synchronized void setListener(storageForecastListener xListener, long lThresholdSeconds)
+	{
+		this.m_xListener			= xListener;
+		this.m_lAlertThresholdSec	= lThresholdSeconds;
+	}
+
+	/**
+	 * Add a sample for a filesystem.  O(1).  Skipped when it is less than the
+	 * minimum interval after the last sample of the filesystem.
+	 *
+	 * @param sFilesystem The filesystem the sample is for (normally its path).
+	 * @param lTime When the sample was taken (ms).
+	 * @param lUsedBytes The number of bytes used.
+	 * @param lTotalBytes The size of the filesystem.
+	 */
+	public void addSample(String sFilesystem, long lTime, long lUsedBytes, long lTotalBytes)
+	{
+		storageForecastListener		xListener = null;
+		long						lSecondsToFull;
+		double						dRate;
+
+		synchronized (this)
+		{
+			forecastSeries xSeries = this.m_xSeries.get(sFilesystem);
+			if (xSeries == null)
+			{
+				xSeries = new forecastSeries(this.m_iWindow);
+				xSeries.m_lBaseTime = lTime;
+				xSeries.m_lBaseUsed = lUsedBytes;
+				this.m_xSeries.put(sFilesystem, xSeries);
+			}
+
+			//* samples must move forward in time, and be far enough apart for the window to cover its span
+			if (xSeries.m_iCount > 0 && lTime - xSeries.m_aTimes[this.lastIndex(xSeries)] < Math.max(1, this.m_lMinInterval))
+				return;
+
+			//* drop the oldest sample when the window is full
+			if (xSeries.m_iCount == xSeries.m_aTimes.length)
+			{
+				this.removeFromSums(xSeries, xSeries.m_aTimes[xSeries.m_iPos], xSeries.m_aUsed[xSeries.m_iPos]);
+				xSeries.m_iCount--;
+			}
+
+			xSeries.m_aTimes[xSeries.m_iPos]	= lTime;
+			xSeries.m_aUsed[xSeries.m_iPos]		= lUsedBytes;
+			xSeries.m_iPos						= (xSeries.m_iPos + 1) % xSeries.m_aTimes.length;
+			xSeries.m_iCount++;
+			xSeries.m_lTotalBytes				= lTotalBytes;
+			xSeries.m_iSinceRebase++;
+			this.addToSums(xSeries, lTime, lUsedBytes);
+
+			//* a window spanning more than REBASE_SECONDS would otherwise rebase on every sample
+			if ((lTime - xSeries.m_lBaseTime) / 1000.0 > REBASE_SECONDS && xSeries.m_iSinceRebase >= xSeries.m_iCount)
+				this.rebase(xSeries);
+
+			//* check if we need to raise the alarm
+			if (this.m_xListener == null)
+				return;
+
+			dRate			= this.slope(xSeries);
+			lSecondsToFull	= this.timeToFull(xSeries, dRate);
+
+			if (lSecondsToFull < this.m_lAlertThresholdSec)
+			{
+				if (!xSeries.m_bAlerted)
+				{
+					xSeries.m_bAlerted = true;
+					xListener = this.m_xListener;
+				}
+			}
+			else
+			{
+				xSeries.m_bAlerted = false;
+			}
+		}
+
+		//* call the listener outside the lock
+		if (xListener != null)
+			xListener.onTimeToFullAlert(sFilesystem, lSecondsToFull, dRate);
+	}
+
+	private void addToSums(forecastSeries xSeries, long lTime, long lUsed)
+	{
+		double dX = (lTime - xSeries.m_lBaseTime) / 1000.0;
+		double dY = lUsed - xSeries.m_lBaseUsed;
+
+		xSeries.m_dSumX		+= dX;
+		xSeries.m_dSumY		+= dY;
+		xSeries.m_dSumXX	+= dX * dX;
+		xSeries.m_dSumXY	+= dX * dY;
+	}
+
+	private void removeFromSums(forecastSeries xSeries, long lTime, long lUsed)
+	{
+		double dX = (lTime - xSeries.m_lBaseTime) / 1000.0;
+		double dY = lUsed - xSeries.m_lBaseUsed;
+
+		xSeries.m_dSumX		-= dX;
+		xSeries.m_dSumY		-= dY;
+		xSeries.m_dSumXX	-= dX * dX;
+		xSeries.m_dSumXY	-= dX * dY;
+	}
+
+	/**
+	 * Move the base to the newest sample and recompute the sums.  This is
+	 * O(window), but the base only moves again after another REBASE_SECONDS
+	 * and a whole window of new samples, so the cost per sample stays O(1).
+	 */
+	private void rebase(forecastSeries xSeries)
+	{
+		int iOldest = (xSeries.m_iPos - xSeries.m_iCount + xSeries.m_aTimes.length) % xSeries.m_aTimes.length;
+		int iNewest = this.lastIndex(xSeries);
+
+		xSeries.m_lBaseTime		= xSeries.m_aTimes[iNewest];
+		xSeries.m_lBaseUsed		= xSeries.m_aUsed[iNewest];
+		xSeries.m_iSinceRebase	= 0;
+		xSeries.m_dSumX			= 0;
+		xSeries.m_dSumY			= 0;
+		xSeries.m_dSumXX		= 0;
+		xSeries.m_dSumXY		= 0;
+
+		for (int i = 0; i < xSeries.m_iCount; i++)
+		{
+			int iIndex = (iOldest + i) % xSeries.m_aTimes.length;
+			this.addToSums(xSeries, xSeries.m_aTimes[iIndex], xSeries.m_aUsed[iIndex]);
+		}
+	}
+
+	private int lastIndex(forecastSeries xSeries)
+	{
+		return (xSeries.m_iPos - 1 + xSeries.m_aTimes.length) % xSeries.m_aTimes.length;
+	}
+
+	/**
+	 * The least squares slope in bytes per second, 0 if we don't have enough samples.
+	 */
+	private double slope(forecastSeries xSeries)
+	{
+		int iCount = xSeries.m_iCount;
+		if (iCount < MIN_SAMPLES)
+			return 0;
+
+		double dDenominator = iCount * xSeries.m_dSumXX - xSeries.m_dSumX * xSeries.m_dSumX;
+		if (dDenominator <= 0)
+			return 0;
+
+		return (iCount * xSeries.m_dSumXY - xSeries.m_dSumX * xSeries.m_dSumY) / dDenominator;
+	}
+
+	/**
+	 * Project the time until the filesystem is full from the fitted line.
+	 */
+	private long timeToFull(forecastSeries xSeries, double dSlope)
+	{
+		if (dSlope <= 0 || xSeries.m_lTotalBytes <= 0)
+			return NEVER;
+
+		//* where the fitted line is at the latest sample
+		int iCount = xSeries.m_iCount;
+		double dIntercept = (xSeries.m_dSumY - dSlope * xSeries.m_dSumX) / iCount;
+		double dLastX = (xSeries.m_aTimes[this.lastIndex(xSeries)] - xSeries.m_lBaseTime) / 1000.0;
+		double dUsedNow = xSeries.m_lBaseUsed + dIntercept + dSlope * dLastX;
+
+		double dSeconds = (xSeries.m_lTotalBytes - dUsedNow) / dSlope;
+		if (dSeconds <= 0)
+			return 0;
+
+		return (dSeconds >= NEVER) ? NEVER : (long)dSeconds;
+	}
+
+	/**
+	 * Get the estimated fill rate of a filesystem.
+	 *
+	 * @param sFilesystem The filesystem name used in addSample().
+	 * @return The rate in bytes per second, negative if space is being freed, 0 if there aren't enough samples.
+	 */
+	public synchronized double getFillRate(String sFilesystem)
+	{
+		forecastSeries xSeries = this.m_xSeries.get(sFilesystem);
+		return (xSeries == null) ? 0 : this.slope(xSeries);
+	}
+
+	/**
+	 * Get the projected time until the filesystem is full.
+	 *
+	 * @param sFilesystem The filesystem name used in addSample().
+	 * @return The number of seconds, or NEVER if it isn't filling up.
+	 */
+	public synchronized long getTimeToFull(String sFilesystem)
+	{
+		forecastSeries xSeries = this.m_xSeries.get(sFilesystem);
+		if (xSeries == null)
+			return NEVER;
+
+		return this.timeToFull(xSeries, this.slope(xSeries));
+	}
+
+	/**
+	 * Get the number of samples in the window of a filesystem.
+	 */
+	public synchronized int getSampleCount(String sFilesystem)
+	{
+		forecastSeries xSeries = this.m_xSeries.get(sFilesystem);
+		return (xSeries == null) ? 0 : xSeries.m_iCount;
+	}
+
+	/**
+	 * Get the names of the filesystems being tracked.
+	 */
+	public synchronized List<String> getFilesystems()
+	{
+		return new ArrayList<String>(this.m_xSeries.keySet());
+	}
+
+	/**
+	 * Stop tracking a filesystem.
+	 */
+	public synchronized void remove(String sFilesystem)
+	{
+		this.m_xSeries.remove(sFilesystem);
+	}
+}
@@ -0,0 +1,23 @@
+/**
+ * This interface is implemented by anyone who wants to be told when a
+ * filesystem is projected to fill up soon.
+ *
+ * @author Emil Diego
+ *
+ */
+
+package com.emildiego.devicediscovery;
+
+public interface storageForecastListener
+{
+	/**
+	 * Called when the projected time until the filesystem is full drops below
+	 * the alert threshold.  Not called again for the same filesystem until the
+	 * projection goes back above the threshold.
+	 *
+	 * @param sFilesystem The filesystem (path) the forecast is for.
+	 * @param lSecondsToFull The projected number of seconds until it is full.
+	 * @param dBytesPerSecond The estimated fill rate.
+	 */
+	public void onTimeToFullAlert(String sFilesystem, long lSecondsToFull, double dBytesPerSecond);
+}
@@ -0,0 +1,228 @@
+/**
+ * sysfsFile
+ *
+ * A sysfs attribute kept open between reads.  Opening the file is most of
+ * the cost of reading a sysfs value, so the file is opened once and every
+ * read seeks back to the start and reads the fresh value into a reused
+ * buffer.  Nothing is allocated per read.
+ *
+ * A read error (a driver returning -EBUSY, a device that went away) closes
+ * the file, and it is opened again on a later read with a backoff so a
+ * transient error doesn't stop the attribute from being read for good.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * A single kept-open sysfs attribute.
+ */
+class sysfsFile
+{
+	static final int			BUFFER_SIZE		= 64;
+	static final long			RETRY_MIN_NS	= 1000000000L;
+	static final long			RETRY_MAX_NS	= 60000000000L;
+
+	private String				m_sPath;
+	private RandomAccessFile	m_xFile;
+	private byte[]				m_aBuffer;
+	private int					m_iLength;
+
+	//* set when the file was closed by a read error rather than by close()
+	private boolean				m_bReopen;
+	private long				m_lRetryDelayNs;
+	private long				m_lRetryAtNs;
+
+	sysfsFile(String sPath)
+	{
+		this.m_sPath	= sPath;
+		this.m_aBuffer	= new byte[BUFFER_SIZE];
+	}
+
+	/**
+	 * Open the attribute.
+	 *
+	 * @return True if it is open.
+	 */
+	boolean open()
+	{
+		if (this.m_xFile != null)
+			return true;
+
+		try
+		{
+			this.m_xFile = new RandomAccessFile(this.m_sPath, "r");
+			return true;
+		}
+		catch (IOException exp)
+		{
+			return false;
+		}
+		catch (SecurityException exp)
+		{
+			return false;
+		}
+	}
+
+	boolean isOpen()
+	{
+		return this.m_xFile != null;
+	}
+
+	String getPath()
+	{
+		return this.m_sPath;
+	}
+
+	/**
+	 * Read the current contents into the buffer.  The file is closed if the
+	 * read fails so a driver that went away doesn't fail on every sample,
+	 * and opened again once the backoff has passed.
+	 */
+	private boolean fill()
+	{
+		if (this.m_xFile == null && !this.reopen())
+			return false;
+
+		try
+		{
+			this.m_xFile.seek(0);
+			this.m_iLength = 0;
+
+			int iRead;
+			while (this.m_iLength < this.m_aBuffer.length &&
+					(iRead = this.m_xFile.read(this.m_aBuffer, this.m_iLength, this.m_aBuffer.length - this.m_iLength)) > 0)
+				this.m_iLength += iRead;
+
+			this.m_lRetryDelayNs = 0;
+			return this.m_iLength > 0;
+		}
+		catch (IOException exp)
+		{
+			this.close();
+			this.scheduleReopen();
+			return false;
+		}
+	}
+
+	/**
+	 * Wait before the next open, twice as long as last time.
+	 */
+	private void scheduleReopen()
+	{
+		this.m_bReopen			= true;
+		this.m_lRetryDelayNs	= (this.m_lRetryDelayNs == 0) ? RETRY_MIN_NS : Math.min(RETRY_MAX_NS, this.m_lRetryDelayNs * 2);
+		this.m_lRetryAtNs		= System.nanoTime() + this.m_lRetryDelayNs;
+	}
+
+	/**
+	 * Open the file again after a read error once the backoff has passed.
+	 */
+	private boolean reopen()
+	{
+		if (!this.m_bReopen || System.nanoTime() - this.m_lRetryAtNs < 0)
+			return false;
+
+		if (!this.open())
+		{
+			this.scheduleReopen();
+			return false;
+		}
+
+		this.m_bReopen = false;
+		return true;
+	}
+
+	/**
+	 * Read the attribute as a number.
+	 *
+	 * @param lDefault Returned if the attribute can't be read or isn't a number.
+	 * @return The value.
+	 */
+	long readLong(long lDefault)
+	{
+		if (!this.fill())
+			return lDefault;
+
+		int			iPos		= 0;
+		boolean		bNegative	= false;
+		long		lValue		= 0;
+
+		while (iPos < this.m_iLength && this.m_aBuffer[iPos] == ' ')
+			iPos++;
+
+		if (iPos < this.m_iLength && this.m_aBuffer[iPos] == '-')
+		{
+			bNegative = true;
+			iPos++;
+		}
+
+		int iStart = iPos;
+		while (iPos < this.m_iLength && this.m_aBuffer[iPos] >= '0' && this.m_aBuffer[iPos] <= '9')
+		{
+			lValue = lValue * 10 + (this.m_aBuffer[iPos] - '0');
+			iPos++;
+		}
+
+		if (iPos == iStart)
+			return lDefault;
+
+		return bNegative ? -lValue : lValue;
+	}
+
+	/**
+	 * Read the attribute as a string.  Allocates, meant for values that are read once.
+	 *
+	 * @return The first line of the attribute or null if it can't be read.
+	 */
+	String readString()
+	{
+		if (!this.fill())
+			return null;
+
+		int iEnd = 0;
+		while (iEnd < this.m_iLength && this.m_aBuffer[iEnd] != '\n')
+			iEnd++;
+
+		return new String(this.m_aBuffer, 0, iEnd);
+	}
+
+	/**
+	 * Check if the attribute starts with the text, without allocating.
+	 */
+	boolean startsWith(String sText)
+	{
+		if (!this.fill() || this.m_iLength < sText.length())
+			return false;
+
+		for (int i = 0; i < sText.length(); i++)
+		{
+			if (this.m_aBuffer[i] != sText.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Close the attribute.  It isn't opened again until open() is called.
+	 */
+	void close()
+	{
+		this.m_bReopen = false;
+		if (this.m_xFile == null)
+			return;
+
+		try
+		{
+			this.m_xFile.close();
+		}
+		catch (IOException exp)
+		{
+			//* nothing to do
+		}
+		this.m_xFile = null;
+	}
+}
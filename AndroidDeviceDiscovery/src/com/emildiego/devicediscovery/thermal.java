@@ -0,0 +1,628 @@
+/**
+ * thermal
+ *
+ * Reads the temperature of every thermal zone in /sys/class/thermal, the
+ * state of every cooling device and the frequency caps of every CPU, and
+ * works out from them whether the device is throttling.
+ *
+ * All the attributes that change are kept open as sysfsFile handles so a
+ * query is just a seek and a read per value.
+ *
+ * A CPU whose scaling_max_freq is below its cpuinfo_max_freq is capped, but
+ * that can also be a power saving policy.  The device is only considered
+ * throttling when a cap lines up with thermal activity: a cooling device
+ * that is engaged or a zone at or above one of its passive trip points.
+ * Cooling devices whose state follows something else (the backlight
+ * brightness, the charge current limit) are listed but don't count.
+ *
+ * CPUs go on and offline, so /sys/devices/system/cpu/online is read on
+ * every query.  Offline CPUs are skipped and a CPU that comes online has
+ * its attributes opened then.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import android.content.Context;
+
+/**
+ * A thermal zone and its trip points.
+ */
+class thermalZone
+{
+	String			m_sName;
+	String			m_sType;
+	sysfsFile		m_xTemp;
+	long			m_lTemp;			//* millidegrees C
+
+	sysfsFile[]		m_aTripTemp;
+	String[]		m_aTripType;
+	long[]			m_aTripValue;
+}
+
+/**
+ * A cooling device.
+ */
+class coolingDevice
+{
+	String			m_sName;
+	String			m_sType;
+	sysfsFile		m_xCurState;
+	long			m_lMaxState;
+	long			m_lState;
+	long			m_lChanges;
+	boolean			m_bThermal;			//* false for devices whose state isn't thermal mitigation
+}
+
+/**
+ * The main class used to query the device about its temperatures.
+ */
+public class thermal extends discoveryBase
+{
+	static final String			THERMAL_DIR		= "/sys/class/thermal";
+	static final String			CPU_DIR			= "/sys/devices/system/cpu";
+	static final String			CPU_ONLINE		= CPU_DIR + "/online";
+
+	/**
+	 * Cooling device types (substrings, lower case) whose cur_state isn't thermal mitigation.
+	 */
+	static final String[]		NON_THERMAL_COOLING = {
+		"backlight", "charge", "battery", "usb", "led", "flash", "display", "panel"
+	};
+
+	/**
+	 * Value returned for a temperature that can't be read.
+	 */
+	public static final long	UNKNOWN_TEMP	= Long.MIN_VALUE;
+
+	private List<thermalZone>	m_listZones;
+	private List<coolingDevice>	m_listCooling;
+
+	//* the per cpu frequency caps
+	private sysfsFile			m_xOnline;
+	private boolean[]			m_abOnline;
+	private sysfsFile[]			m_aScalingMax;
+	private long[]				m_aCpuMaxFreq;
+	private long[]				m_aFreqCap;			//* 0 while offline or unreadable
+
+	private boolean				m_bDiscovered;
+
+	//* throttling state
+	private boolean				m_bFreqCapped;
+	private boolean				m_bCoolingActive;
+	private boolean				m_bOverTrip;
+	private boolean				m_bThrottling;
+	private long				m_lThrottleCount;
+	private long				m_lThrottleStart;
+	private long				m_lThrottledTime;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param xContext The application context
+	 * @param sLogTag The Tag to be used by the Android message logger
+	 */
+	public thermal(Context xContext, String sLogTag)
+	{
+		super(xContext, sLogTag);
+
+		this.m_listZones	= new ArrayList<thermalZone>();
+		this.m_listCooling	= new ArrayList<coolingDevice>();
+		this.m_abOnline		= new boolean[0];
+		this.m_aScalingMax	= new sysfsFile[0];
+		this.m_aCpuMaxFreq	= new long[0];
+		this.m_aFreqCap		= new long[0];
+	}
+
+	/**
+	 * Find the thermal zones, cooling devices and cpus and open the attributes that change.
+	 */
+	private void discover()
+	{
+		File[] aEntries = new File(THERMAL_DIR).listFiles();
+		if (aEntries != null)
+		{
+			for (int i = 0; i < aEntries.length; i++)
+			{
+				String sName = aEntries[i].getName();
+				if (sName.startsWith("thermal_zone"))
+					this.addZone(aEntries[i]);
+				else if (sName.startsWith("cooling_device"))
+					this.addCoolingDevice(aEntries[i]);
+			}
+		}
+
+		List<Integer> listCpus = new ArrayList<Integer>();
+		File[] aCpus = new File(CPU_DIR).listFiles();
+		if (aCpus != null)
+		{
+			for (int i = 0; i < aCpus.length; i++)
+			{
+				String sName = aCpus[i].getName();
+				if (sName.length() > 3 && sName.startsWith("cpu") && Character.isDigit(sName.charAt(3)))
+				{
+					try
+					{
+						listCpus.add(Integer.parseInt(sName.substring(3)));
+					}
+					catch (NumberFormatException exp)
+					{
+						//* not a cpu directory
+					}
+				}
+			}
+		}
+
+		int iCpus = 0;
+		for (int i = 0; i < listCpus.size(); i++)
+			iCpus = Math.max(iCpus, listCpus.get(i) + 1);
+
+		//* the attributes of offline cpus are opened when they come online
+		this.m_xOnline		= new sysfsFile(CPU_ONLINE);
+		this.m_xOnline.open();
+		this.m_abOnline		= new boolean[iCpus];
+		this.m_aScalingMax	= new sysfsFile[iCpus];
+		this.m_aCpuMaxFreq	= new long[iCpus];
+		this.m_aFreqCap		= new long[iCpus];
+		for (int i = 0; i < iCpus; i++)
+			this.m_aScalingMax[i] = new sysfsFile(CPU_DIR + "/cpu" + i + "/cpufreq/scaling_max_freq");
+
+		this.m_bDiscovered = true;
+	}
+
+	/**
+	 * Parse a cpu list like "0-3,6" into the online flags.
+	 *
+	 * @return False if the list couldn't be parsed, the flags are then all set.
+	 */
+	static boolean parseCpuList(String sList, boolean[] abOnline)
+	{
+		for (int i = 0; i < abOnline.length; i++)
+			abOnline[i] = false;
+
+		try
+		{
+			String[] aRanges = sList.trim().split(",");
+			for (int i = 0; i < aRanges.length; i++)
+			{
+				if (aRanges[i].length() == 0)
+					continue;
+
+				int iDash = aRanges[i].indexOf('-');
+				int iFirst = Integer.parseInt((iDash < 0) ? aRanges[i] : aRanges[i].substring(0, iDash));
+				int iLast = (iDash < 0) ? iFirst : Integer.parseInt(aRanges[i].substring(iDash + 1));
+
+				for (int j = Math.max(0, iFirst); j <= iLast && j < abOnline.length; j++)
+					abOnline[j] = true;
+			}
+			return true;
+		}
+		catch (NumberFormatException exp)
+		{
+			for (int i = 0; i < abOnline.length; i++)
+				abOnline[i] = true;
+			return false;
+		}
+	}
+
+	/**
+	 * Check if a cooling device's state is thermal mitigation, from its type.
+	 */
+	static boolean isThermalCooling(String sType)
+	{
+		String sLower = sType.toLowerCase();
+		for (int i = 0; i < NON_THERMAL_COOLING.length; i++)
+		{
+			if (sLower.indexOf(NON_THERMAL_COOLING[i]) >= 0)
+				return false;
+		}
+		return true;
+	}
+
+	private void addZone(File xDir)
+	{
+		String sDir = xDir.getPath() + "/";
+
+		thermalZone xZone = new thermalZone();
+		xZone.m_sName	= xDir.getName();
+		xZone.m_sType	= readStringOnce(sDir + "type");
+		xZone.m_xTemp	= new sysfsFile(sDir + "temp");
+		if (!xZone.m_xTemp.open())
+			return;
+
+		//* trip points are numbered from 0 with no gaps
+		List<sysfsFile> listTrips = new ArrayList<sysfsFile>();
+		List<String> listTypes = new ArrayList<String>();
+		for (int i = 0; ; i++)
+		{
+			sysfsFile xTrip = new sysfsFile(sDir + "trip_point_" + i + "_temp");
+			if (!xTrip.open())
+				break;
+
+			listTrips.add(xTrip);
+			listTypes.add(readStringOnce(sDir + "trip_point_" + i + "_type"));
+		}
+
+		xZone.m_aTripTemp	= listTrips.toArray(new sysfsFile[listTrips.size()]);
+		xZone.m_aTripType	= listTypes.toArray(new String[listTypes.size()]);
+		xZone.m_aTripValue	= new long[listTrips.size()];
+
+		this.m_listZones.add(xZone);
+	}
+
+	private void addCoolingDevice(File xDir)
+	{
+		String sDir = xDir.getPath() + "/";
+
+		coolingDevice xDevice = new coolingDevice();
+		xDevice.m_sName		= xDir.getName();
+		xDevice.m_sType		= readStringOnce(sDir + "type");
+		xDevice.m_lMaxState	= readOnce(sDir + "max_state");
+		xDevice.m_bThermal	= isThermalCooling(xDevice.m_sType);
+		xDevice.m_xCurState	= new sysfsFile(sDir + "cur_state");
+		if (!xDevice.m_xCurState.open())
+			return;
+
+		xDevice.m_lState = xDevice.m_xCurState.readLong(0);
+		this.m_listCooling.add(xDevice);
+	}
+
+	/**
+	 * Read a value that doesn't change.
+	 */
+	static long readOnce(String sPath)
+	{
+		sysfsFile xFile = new sysfsFile(sPath);
+		if (!xFile.open())
+			return 0;
+
+		long lValue = xFile.readLong(0);
+		xFile.close();
+		return lValue;
+	}
+
+	static String readStringOnce(String sPath)
+	{
+		sysfsFile xFile = new sysfsFile(sPath);
+		if (!xFile.open())
+			return "unknown";
+
+		String sValue = xFile.readString();
+		xFile.close();
+		return (sValue == null) ? "unknown" : sValue.trim();
+	}
+
+	/**
+	 * Most zones report millidegrees, some older drivers report degrees.
+	 */
+	static long toMillidegrees(long lValue)
+	{
+		if (lValue != UNKNOWN_TEMP && lValue > -273 && lValue < 1000)
+			return lValue * 1000;
+
+		return lValue;
+	}
+
+	/**
+	 * Read every zone, cooling device and frequency cap and update the throttling state.
+	 *
+	 * @return True if any thermal zone was read.
+	 */
+	@Override
+	public synchronized boolean query()
+	{
+		if (!this.m_bDiscovered)
+			this.discover();
+
+		if (this.m_listZones.size() == 0)
+		{
+			this.logDebug("No thermal zones found in " + THERMAL_DIR);
+			return false;
+		}
+
+		long lNow = System.currentTimeMillis();
+
+		//* temperatures and trip points
+		this.m_bOverTrip = false;
+		for (int i = 0; i < this.m_listZones.size(); i++)
+		{
+			thermalZone xZone = this.m_listZones.get(i);
+			xZone.m_lTemp = toMillidegrees(xZone.m_xTemp.readLong(UNKNOWN_TEMP));
+
+			for (int j = 0; j < xZone.m_aTripTemp.length; j++)
+			{
+				xZone.m_aTripValue[j] = toMillidegrees(xZone.m_aTripTemp[j].readLong(UNKNOWN_TEMP));
+
+				if ("passive".equals(xZone.m_aTripType[j]) && xZone.m_lTemp != UNKNOWN_TEMP &&
+						xZone.m_aTripValue[j] != UNKNOWN_TEMP && xZone.m_aTripValue[j] > 0 && xZone.m_lTemp >= xZone.m_aTripValue[j])
+					this.m_bOverTrip = true;
+			}
+		}
+
+		//* cooling devices
+		this.m_bCoolingActive = false;
+		for (int i = 0; i < this.m_listCooling.size(); i++)
+		{
+			coolingDevice xDevice = this.m_listCooling.get(i);
+			long lState = xDevice.m_xCurState.readLong(xDevice.m_lState);
+			if (lState != xDevice.m_lState)
+				xDevice.m_lChanges++;
+
+			xDevice.m_lState = lState;
+			if (lState > 0 && xDevice.m_bThermal)
+				this.m_bCoolingActive = true;
+		}
+
+		//* frequency caps of the cpus that are online now
+		String sOnline = this.m_xOnline.readString();
+		if (sOnline == null || !parseCpuList(sOnline, this.m_abOnline))
+		{
+			//* no online list, try every cpu, the offline ones just fail to read
+			for (int i = 0; i < this.m_abOnline.length; i++)
+				this.m_abOnline[i] = true;
+		}
+
+		this.m_bFreqCapped = false;
+		for (int i = 0; i < this.m_aScalingMax.length; i++)
+		{
+			sysfsFile xScalingMax = this.m_aScalingMax[i];
+			if (!this.m_abOnline[i])
+			{
+				//* the cpufreq attributes go away with the cpu
+				xScalingMax.close();
+				this.m_aFreqCap[i] = 0;
+				continue;
+			}
+
+			if (!xScalingMax.isOpen())
+			{
+				if (!xScalingMax.open())
+				{
+					this.m_aFreqCap[i] = 0;
+					continue;
+				}
+				if (this.m_aCpuMaxFreq[i] == 0)
+					this.m_aCpuMaxFreq[i] = readOnce(CPU_DIR + "/cpu" + i + "/cpufreq/cpuinfo_max_freq");
+			}
+
+			//* a cap that can't be read doesn't count, rather than keeping a stale one
+			long lCap = xScalingMax.readLong(0);
+			this.m_aFreqCap[i] = lCap;
+
+			if (lCap > 0 && this.m_aCpuMaxFreq[i] > 0 && lCap < this.m_aCpuMaxFreq[i])
+				this.m_bFreqCapped = true;
+		}
+
+		//* a cap only counts as throttling when something thermal is going on at the same time
+		boolean bThrottling = this.m_bFreqCapped && (this.m_bCoolingActive || this.m_bOverTrip);
+		if (bThrottling && !this.m_bThrottling)
+		{
+			this.m_lThrottleCount++;
+			this.m_lThrottleStart = lNow;
+		}
+		else if (!bThrottling && this.m_bThrottling)
+		{
+			this.m_lThrottledTime += lNow - this.m_lThrottleStart;
+		}
+		this.m_bThrottling = bThrottling;
+
+		return true;
+	}
+
+	/**
+	 * Close all the sysfs files.  The next query discovers everything again.
+	 */
+	public synchronized void close()
+	{
+		for (int i = 0; i < this.m_listZones.size(); i++)
+		{
+			thermalZone xZone = this.m_listZones.get(i);
+			xZone.m_xTemp.close();
+			for (int j = 0; j < xZone.m_aTripTemp.length; j++)
+				xZone.m_aTripTemp[j].close();
+		}
+
+		for (int i = 0; i < this.m_listCooling.size(); i++)
+			this.m_listCooling.get(i).m_xCurState.close();
+
+		for (int i = 0; i < this.m_aScalingMax.length; i++)
+			this.m_aScalingMax[i].close();
+		if (this.m_xOnline != null)
+			this.m_xOnline.close();
+
+		this.m_listZones.clear();
+		this.m_listCooling.clear();
+		this.m_bDiscovered = false;
+	}
+
+	public synchronized int getZoneCount()
+	{
+		return this.m_listZones.size();
+	}
+
+	public synchronized String getZoneType(int iZone)
+	{
+		return this.m_listZones.get(iZone).m_sType;
+	}
+
+	/**
+	 * Get the temperature of a zone as of the last query.
+	 * @return Millidegrees C, or UNKNOWN_TEMP.
+	 */
+	public synchronized long getZoneTemperature(int iZone)
+	{
+		return this.m_listZones.get(iZone).m_lTemp;
+	}
+
+	public synchronized int getTripPointCount(int iZone)
+	{
+		return this.m_listZones.get(iZone).m_aTripTemp.length;
+	}
+
+	/**
+	 * @return The trip temperature in millidegrees C, or UNKNOWN_TEMP.
+	 */
+	public synchronized long getTripPointTemperature(int iZone, int iTrip)
+	{
+		return this.m_listZones.get(iZone).m_aTripValue[iTrip];
+	}
+
+	/**
+	 * @return passive, active, hot or critical.
+	 */
+	public synchronized String getTripPointType(int iZone, int iTrip)
+	{
+		return this.m_listZones.get(iZone).m_aTripType[iTrip];
+	}
+
+	/**
+	 * Get the zone with the highest temperature.
+	 * @return The zone index, -1 if no zone could be read.
+	 */
+	public synchronized int getHottestZone()
+	{
+		int iHottest = -1;
+		long lHottest = UNKNOWN_TEMP;
+
+		for (int i = 0; i < this.m_listZones.size(); i++)
+		{
+			long lTemp = this.m_listZones.get(i).m_lTemp;
+			if (lTemp != UNKNOWN_TEMP && (iHottest < 0 || lTemp > lHottest))
+			{
+				iHottest = i;
+				lHottest = lTemp;
+			}
+		}
+		return iHottest;
+	}
+
+	public synchronized int getCoolingDeviceCount()
+	{
+		return this.m_listCooling.size();
+	}
+
+	public synchronized String getCoolingDeviceType(int iDevice)
+	{
+		return this.m_listCooling.get(iDevice).m_sType;
+	}
+
+	public synchronized long getCoolingDeviceState(int iDevice)
+	{
+		return this.m_listCooling.get(iDevice).m_lState;
+	}
+
+	/**
+	 * Check if the cooling device counts as thermal activity.  Backlight and
+	 * charger devices don't, their state follows the brightness and the charge limit.
+	 */
+	public synchronized boolean isCoolingDeviceThermal(int iDevice)
+	{
+		return this.m_listCooling.get(iDevice).m_bThermal;
+	}
+
+	public synchronized long getCoolingDeviceMaxState(int iDevice)
+	{
+		return this.m_listCooling.get(iDevice).m_lMaxState;
+	}
+
+	/**
+	 * @return The number of times the device changed state between queries.
+	 */
+	public synchronized long getCoolingDeviceChanges(int iDevice)
+	{
+		return this.m_listCooling.get(iDevice).m_lChanges;
+	}
+
+	public synchronized int getCpuCount()
+	{
+		return this.m_aScalingMax.length;
+	}
+
+	/**
+	 * @return The highest frequency the cpu supports in kHz.
+	 */
+	public synchronized long getCpuMaxFrequency(int iCpu)
+	{
+		return this.m_aCpuMaxFreq[iCpu];
+	}
+
+	/**
+	 * @return The frequency the cpu is currently capped at in kHz, 0 if it is offline or can't be read.
+	 */
+	public synchronized long getCpuFrequencyCap(int iCpu)
+	{
+		return this.m_aFreqCap[iCpu];
+	}
+
+	/**
+	 * Check if the device was throttling at the last query.
+	 */
+	public synchronized boolean isThrottling()
+	{
+		return this.m_bThrottling;
+	}
+
+	/**
+	 * Check if any cpu was capped below its max, thermal or not.
+	 */
+	public synchronized boolean isFrequencyCapped()
+	{
+		return this.m_bFreqCapped;
+	}
+
+	/**
+	 * @return The number of times throttling started.
+	 */
+	public synchronized long getThrottleCount()
+	{
+		return this.m_lThrottleCount;
+	}
+
+	/**
+	 * Get the total time spent throttling, as seen by the queries.
+	 * @return Milliseconds.
+	 */
+	public synchronized long getThrottledTime()
+	{
+		if (this.m_bThrottling)
+			return this.m_lThrottledTime + System.currentTimeMillis() - this.m_lThrottleStart;
+
+		return this.m_lThrottledTime;
+	}
+
+	/**
+	 * Summarize the thermal information into a string.
+	 *
+	 * @return The temperatures, the engaged cooling devices and the throttling state.
+	 */
+	@Override
+	public synchronized String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Thermal Zones: \n";
+		for (int i = 0; i < this.m_listZones.size(); i++)
+		{
+			thermalZone xZone = this.m_listZones.get(i);
+			if (xZone.m_lTemp != UNKNOWN_TEMP)
+				sSummary += xZone.m_sType + ": " + (xZone.m_lTemp / 1000f) + " C\n";
+		}
+
+		for (int i = 0; i < this.m_listCooling.size(); i++)
+		{
+			coolingDevice xDevice = this.m_listCooling.get(i);
+			if (xDevice.m_lState > 0 && xDevice.m_bThermal)
+				sSummary += "Cooling " + xDevice.m_sType + ": " + xDevice.m_lState + "/" + xDevice.m_lMaxState + "\n";
+		}
+
+		sSummary += "Throttling: " + this.m_bThrottling + "\n";
+		sSummary += "Throttle Events: " + this.m_lThrottleCount + "\n";
+		sSummary += "Throttled Time: " + (this.getThrottledTime() / 1000) + " s\n";
+
+		return sSummary;
+	}
+}
@@ -0,0 +1,30 @@
+/**
+ * threadEntry
+ *
+ * The CPU use and run state of a single thread.  Returned by
+ * threadSampler.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * A single thread.
+ */
+public class threadEntry
+{
+	public int				m_iPid;
+	public int				m_iTid;
+	public String			m_sName;
+	public char				m_cState;			//* R running, S sleeping, D disk wait, ...
+	public int				m_iNice;
+	public int				m_iProcessor;		//* the CPU it last ran on
+	public long				m_lCpuTicks;		//* utime + stime since it started
+	public double			m_dCpuPercent;		//* of one core, over the last sample
+
+	public threadEntry(int iPid, int iTid)
+	{
+		this.m_iPid		= iPid;
+		this.m_iTid		= iTid;
+	}
+}
@@ -0,0 +1,454 @@
+/**
+ * threadSampler
+ *
+ * An opt-in sampler that breaks the CPU use of selected processes down to
+ * their threads, so we can see whether it's the RenderThread, a binder
+ * thread or a worker pool that is hot.  For every pid on the watch list we
+ * list /proc/[pid]/task and read each thread's stat for its run state and
+ * CPU time, and turn the CPU time into a percentage of one core with the
+ * previous sample.
+ *
+ * The per thread state is kept in a map by tid, threads that weren't seen
+ * in a sample have exited and are evicted.  The thread name is read from
+ * comm when a thread shows up and then only every few samples, since
+ * threads rename themselves after they start.  A sample of 200 threads is
+ * around 200 small reads into one shared buffer, cheap enough to leave
+ * running at 1 Hz.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+
+/**
+ * What we keep between samples for each thread.
+ */
+class threadState
+{
+	threadEntry		m_xEntry;
+	long			m_lStartTime;		//* to tell a reused tid from the same thread
+	long			m_lLastSample;
+	int				m_iNameAge;
+}
+
+/**
+ * The sampler class.
+ */
+public class threadSampler extends discoveryBase
+{
+	static final long					DEFAULT_INTERVAL	= 1000;		//* ms
+	static final long					MIN_INTERVAL		= 100;
+	static final int					TICKS_PER_SECOND	= 100;		//* USER_HZ
+	static final int					NAME_REFRESH		= 10;		//* samples
+	static final int					SUMMARY_THREAD_COUNT = 5;
+	static final String					UPTIME_PATH			= "/proc/uptime";
+
+	/**
+	 * Orders threads by CPU use, the busiest first.
+	 */
+	static final Comparator<threadEntry>	BUSIEST_FIRST = new Comparator<threadEntry>()
+	{
+		public int compare(threadEntry xLeft, threadEntry xRight)
+		{
+			return Double.compare(xRight.m_dCpuPercent, xLeft.m_dCpuPercent);
+		}
+	};
+
+	private procfsReader				m_xReader;
+	private Map<Integer, threadState>	m_xThreads;
+	private List<Integer>				m_listWatch;
+
+	private long						m_lInterval;
+	private long						m_lSample;
+	private long						m_lLastSampleNs;
+	private long						m_lSampleCostNs;
+
+	//* the uptime of the previous sample in ticks, to tell threads that started during the interval
+	private long						m_lPrevUptimeTicks;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param xContext The application context
+	 * @param sLogTag The Tag to be used by the Android message logger
+	 */
+	public threadSampler(Context xContext, String sLogTag)
+	{
+		super(xContext, sLogTag);
+
+		this.m_xReader		= new procfsReader(512);
+		this.m_xThreads		= new HashMap<Integer, threadState>();
+		this.m_listWatch	= new ArrayList<Integer>();
+		this.m_lInterval	= DEFAULT_INTERVAL;
+		this.m_lPrevUptimeTicks	= -1;
+	}
+
+	/**
+	 * Add a process to the watch list.
+	 *
+	 * @param iPid The process id, ie. android.os.Process.myPid().
+	 */
+	public synchronized void watch(int iPid)
+	{
+		if (!this.m_listWatch.contains(iPid))
+			this.m_listWatch.add(iPid);
+	}
+
+	/**
+	 * Remove a process from the watch list and forget its threads.
+	 *
+	 * @param iPid The process id.
+	 */
+	public synchronized void unwatch(int iPid)
+	{
+		this.m_listWatch.remove(Integer.valueOf(iPid));
+
+		Iterator<threadState> xIter = this.m_xThreads.values().iterator();
+		while (xIter.hasNext())
+		{
+			if (xIter.next().m_xEntry.m_iPid == iPid)
+				xIter.remove();
+		}
+	}
+
+	/**
+	 * Return the pids on the watch list.
+	 */
+	public synchronized List<Integer> getWatchList()
+	{
+		return new ArrayList<Integer>(this.m_listWatch);
+	}
+
+	/**
+	 * Take a sample of all the threads of the watched processes.  Processes
+	 * that exited are dropped from the watch list.
+	 *
+	 * @return True if at least one process was sampled.
+	 */
+	@Override
+	public synchronized boolean query()
+	{
+		long	lStart		= System.nanoTime();
+		double	dElapsedSec	= (this.m_lSample > 0) ? (lStart - this.m_lLastSampleNs) / 1000000000.0 : 0;
+		boolean	bSampled	= false;
+		long	lUptimeTicks = -1;
+
+		//* read before the threads, a thread that starts after this is charged next time.  A copy
+		//* from earlier in the tick only moves the line back, which a new thread can't have crossed.
+		if (this.m_xReader.readCached(UPTIME_PATH))
+			lUptimeTicks = (long)(this.m_xReader.nextDouble() * TICKS_PER_SECOND);
+
+		this.m_lSample++;
+
+		for (int i = this.m_listWatch.size() - 1; i >= 0; i--)
+		{
+			int			iPid	= this.m_listWatch.get(i);
+			String[]	aTids	= new File("/proc/" + iPid + "/task").list();
+
+			if (aTids == null)
+			{
+				this.logDebug("Process " + iPid + " exited, removing it from the watch list");
+				this.m_listWatch.remove(i);
+				continue;
+			}
+
+			for (int j = 0; j < aTids.length; j++)
+			{
+				try
+				{
+					this.sampleThread(iPid, Integer.parseInt(aTids[j]), dElapsedSec);
+				}
+				catch (NumberFormatException exp)
+				{
+					//* not a thread
+				}
+			}
+			bSampled = true;
+		}
+
+		//* evict the threads that exited
+		Iterator<threadState> xIter = this.m_xThreads.values().iterator();
+		while (xIter.hasNext())
+		{
+			if (xIter.next().m_lLastSample != this.m_lSample)
+				xIter.remove();
+		}
+
+		this.m_lLastSampleNs	= lStart;
+		this.m_lSampleCostNs	= System.nanoTime() - lStart;
+		this.m_lPrevUptimeTicks	= lUptimeTicks;
+
+		return bSampled;
+	}
+
+	/**
+	 * Read the stat of one thread and update its state.
+	 *
+	 * "tid (comm) S ppid pgrp session tty tpgid flags minflt cminflt majflt
+	 * cmajflt utime stime cutime cstime priority nice num_threads itrealvalue
+	 * starttime ... processor ..."
+	 */
+	private void sampleThread(int iPid, int iTid, double dElapsedSec)
+	{
+		String sBase = "/proc/" + iPid + "/task/" + iTid + "/";
+
+		//* the thread can exit between the listing and the read
+		if (!this.m_xReader.read(sBase + "stat") || !this.m_xReader.skipPastLast(')'))
+			return;
+
+		char cState = this.m_xReader.nextChar();
+		if (cState == 0)
+			return;
+
+		for (int i = 0; i < 10; i++)
+			this.m_xReader.skipToken();
+		long lTicks = this.m_xReader.nextLong() + this.m_xReader.nextLong();
+
+		this.m_xReader.skipToken();
+		this.m_xReader.skipToken();
+		this.m_xReader.skipToken();
+		int iNice = (int)this.m_xReader.nextLong();
+
+		this.m_xReader.skipToken();
+		this.m_xReader.skipToken();
+		long lStartTime = this.m_xReader.nextLong();
+
+		for (int i = 0; i < 16; i++)
+			this.m_xReader.skipToken();
+		int iProcessor = (int)this.m_xReader.nextLong();
+
+		threadState xState = this.m_xThreads.get(iTid);
+
+		//* a reused tid is a new thread
+		if (xState != null && (xState.m_lStartTime != lStartTime || xState.m_xEntry.m_iPid != iPid))
+			xState = null;
+
+		long lPrevious;
+		if (xState == null)
+		{
+			xState = new threadState();
+			xState.m_xEntry		= new threadEntry(iPid, iTid);
+			xState.m_lStartTime	= lStartTime;
+			xState.m_iNameAge	= NAME_REFRESH;
+			this.m_xThreads.put(iTid, xState);
+
+			//* only a thread that started during the interval is charged all its time.  One
+			//* that was already running (a newly watched process, a missed listing) gets
+			//* a baseline and reports 0 until the next sample.
+			if (dElapsedSec > 0 && this.m_lPrevUptimeTicks >= 0 && lStartTime >= this.m_lPrevUptimeTicks)
+				lPrevious = 0;
+			else
+				lPrevious = lTicks;
+		}
+		else
+		{
+			lPrevious = xState.m_xEntry.m_lCpuTicks;
+		}
+
+		threadEntry xEntry = xState.m_xEntry;
+
+		if (++xState.m_iNameAge >= NAME_REFRESH || xEntry.m_sName == null)
+		{
+			xState.m_iNameAge = 0;
+			if (this.m_xReader.read(sBase + "comm"))
+				xEntry.m_sName = this.m_xReader.restOfLine();
+		}
+
+		xEntry.m_cState			= cState;
+		xEntry.m_iNice			= iNice;
+		xEntry.m_iProcessor		= iProcessor;
+		xEntry.m_dCpuPercent	= (dElapsedSec > 0) ? Math.max(0, lTicks - lPrevious) * 100.0 / (dElapsedSec * TICKS_PER_SECOND) : 0;
+		xEntry.m_lCpuTicks		= lTicks;
+
+		xState.m_lLastSample	= this.m_lSample;
+	}
+
+	/**
+	 * Start sampling on the update thread.
+	 *
+	 * @param lInterval The time between samples in ms, at least 100.
+	 * @return True if the sampler is running.
+	 */
+	public synchronized boolean start(long lInterval)
+	{
+		this.m_lInterval = Math.max(MIN_INTERVAL, lInterval);
+
+		if (this.m_xUpdateThread != null)
+			return true;
+
+		this.m_bRun = true;
+		this.m_xUpdateThread = new Thread(new Runnable()
+		{
+			public void run()
+			{
+				threadSampler.this.sampleLoop();
+			}
+		}, "threadSampler");
+		this.m_xUpdateThread.setDaemon(true);
+		this.m_xUpdateThread.start();
+
+		return true;
+	}
+	public boolean start()
+	{
+		return this.start(DEFAULT_INTERVAL);
+	}
+
+	/**
+	 * Stop sampling and wait for the thread to finish.  The watch list is kept.
+	 */
+	public void stop()
+	{
+		Thread xThread;
+
+		synchronized (this)
+		{
+			xThread = this.m_xUpdateThread;
+			this.m_xUpdateThread = null;
+			this.m_bRun = false;
+		}
+
+		if (xThread == null)
+			return;
+
+		xThread.interrupt();
+		try
+		{
+			xThread.join(1000);
+		}
+		catch (InterruptedException exp)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void sampleLoop()
+	{
+		Thread xSelf = Thread.currentThread();
+		long lInterval;
+
+		while (!xSelf.isInterrupted())
+		{
+			synchronized (this)
+			{
+				if (!this.m_bRun || this.m_xUpdateThread != xSelf)
+					return;
+
+				this.query();
+				lInterval = this.m_lInterval;
+			}
+
+			try
+			{
+				Thread.sleep(lInterval);
+			}
+			catch (InterruptedException exp)
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * The threads of a watched process, the busiest first.
+	 *
+	 * @param iPid The process id.
+	 * @return Copies of the entries as of the last sample.
+	 */
+	public synchronized List<threadEntry> getThreads(int iPid)
+	{
+		List<threadEntry> xResult = new ArrayList<threadEntry>();
+
+		for (threadState xState : this.m_xThreads.values())
+		{
+			if (xState.m_xEntry.m_iPid == iPid)
+				xResult.add(threadSampler.copy(xState.m_xEntry));
+		}
+
+		Collections.sort(xResult, BUSIEST_FIRST);
+		return xResult;
+	}
+
+	/**
+	 * The busiest threads over all the watched processes.
+	 *
+	 * @param iCount The maximum number of threads returned.
+	 * @return Copies of the entries as of the last sample.
+	 */
+	public synchronized List<threadEntry> getBusiest(int iCount)
+	{
+		List<threadEntry> xResult = new ArrayList<threadEntry>(this.m_xThreads.size());
+
+		for (threadState xState : this.m_xThreads.values())
+			xResult.add(threadSampler.copy(xState.m_xEntry));
+
+		Collections.sort(xResult, BUSIEST_FIRST);
+		return (xResult.size() > iCount) ? new ArrayList<threadEntry>(xResult.subList(0, iCount)) : xResult;
+	}
+
+	public synchronized int getThreadCount()
+	{
+		return this.m_xThreads.size();
+	}
+
+	/**
+	 * How long the last sample took.
+	 *
+	 * @return The time in microseconds.
+	 */
+	public synchronized long getSampleCost()
+	{
+		return this.m_lSampleCostNs / 1000;
+	}
+
+	static threadEntry copy(threadEntry xEntry)
+	{
+		threadEntry xCopy	= new threadEntry(xEntry.m_iPid, xEntry.m_iTid);
+		xCopy.m_sName		= xEntry.m_sName;
+		xCopy.m_cState		= xEntry.m_cState;
+		xCopy.m_iNice		= xEntry.m_iNice;
+		xCopy.m_iProcessor	= xEntry.m_iProcessor;
+		xCopy.m_lCpuTicks	= xEntry.m_lCpuTicks;
+		xCopy.m_dCpuPercent	= xEntry.m_dCpuPercent;
+		return xCopy;
+	}
+
+	/**
+	 * Summarize the busiest threads of every watched process.
+	 *
+	 * @return A string with the summary information.
+	 */
+	@Override
+	public synchronized String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "Thread Sampler: " + this.m_xThreads.size() + " threads, last sample " + this.getSampleCost() + " us\n";
+
+		for (int i = 0; i < this.m_listWatch.size(); i++)
+		{
+			int					iPid		= this.m_listWatch.get(i);
+			List<threadEntry>	xThreads	= this.getThreads(iPid);
+
+			sSummary += "Process " + iPid + ": " + xThreads.size() + " threads\n";
+			for (int j = 0; j < Math.min(SUMMARY_THREAD_COUNT, xThreads.size()); j++)
+			{
+				threadEntry xEntry = xThreads.get(j);
+				sSummary += xEntry.m_iTid + " " + xEntry.m_sName + " " + xEntry.m_cState;
+				sSummary += " " + String.format("%.1f", xEntry.m_dCpuPercent) + "% cpu" + xEntry.m_iProcessor + "\n";
+			}
+		}
+
+		return sSummary;
+	}
+}
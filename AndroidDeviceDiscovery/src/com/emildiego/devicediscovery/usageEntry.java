@@ -0,0 +1,24 @@
+/**
+ * usageEntry
+ *
+ * A path and the amount of storage it uses.  Returned by directoryUsage for
+ * the largest directories and files.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * A single path/size pair.
+ */
+public class usageEntry
+{
+	public String			m_sPath;
+	public long				m_lBytes;
+
+	public usageEntry(String sPath, long lBytes)
+	{
+		this.m_sPath	= sPath;
+		this.m_lBytes	= lBytes;
+	}
+}
@@ -0,0 +1,495 @@
+/**
+ * vmstat
+ *
+ * This class reads the kernel's virtual memory event counters from
+ * /proc/vmstat ("name value" per line, ~200 lines).  The levels in meminfo
+ * don't say much about jank, the rates of these events do: major faults,
+ * swapping, reclaim, allocation and compaction stalls and refaults.
+ *
+ * The names are interned into an index the first time the file is read,
+ * after that every query only checks each name in place and fills a reused
+ * long[] with the values.  Per second rates are computed for a configurable
+ * set of metrics.  A metric is a counter name and also covers the counters
+ * that start with "name_", so "allocstall" is the sum of allocstall_normal,
+ * allocstall_movable, ... on kernels that split it.
+ *
+ * The rates of every query are kept in the history like memory does.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.Context;
+
+/**
+ * The object used to store the history for this object.
+ */
+class vmstatHistoryEntry
+{
+	public double[]					m_aRates;
+	public Date						m_dtTimestamp;
+
+	public vmstatHistoryEntry(double[] aRates)
+	{
+		m_aRates		= aRates;
+		m_dtTimestamp	= new Date();
+	}
+}
+
+/**
+ * The main class used to collect the vm event counters.
+ */
+public class vmstat extends discoveryBase implements discoveryHistory
+{
+	static final String					VMSTAT_PATH		= "/proc/vmstat";
+
+	/**
+	 * The metrics that have rates unless setRateMetrics() is called.
+	 */
+	static final String[]				DEFAULT_METRICS	= { "pgmajfault", "pswpin", "pswpout", "pgsteal_kswapd", "pgsteal_direct",
+															"allocstall", "compact_stall", "workingset_refault", "oom_kill" };
+
+	/**
+	 * Maps a counter name to its index in the counter arrays.
+	 */
+	private Map<String, Integer>		m_xIndex;
+	private List<String>				m_listNames;
+	private boolean						m_bIndexValid;
+
+	/**
+	 * The counter values from the last two queries.
+	 */
+	private long[]						m_aCounters;
+	private long[]						m_aPrevCounters;
+	private long						m_lLastSampleNs;
+	private boolean						m_bHavePrevious;
+
+	/**
+	 * The metrics with rates and the counter indexes each one adds up.
+	 */
+	private String[]					m_aMetrics;
+	private int[][]						m_aMetricIndexes;
+	private double[]					m_aRates;
+
+	private procfsReader				m_xReader;
+
+	/**
+	 * Keep track of our history
+	 */
+	protected int						m_iMaxHistory = 20;		//* Default to 20
+	protected ArrayList<Object>			m_xHistoryList;
+
+	/**
+	 * Default constructor
+	 *
+	 * @param xContext The application context
+	 * @param sLogTag The Tag to be used by the Android message logger
+	 */
+	public vmstat(Context xContext, String sLogTag)
+	{
+		super(xContext, sLogTag);
+
+		this.m_xIndex			= new HashMap<String, Integer>();
+		this.m_listNames		= new ArrayList<String>();
+		this.m_bIndexValid		= false;
+
+		this.m_aCounters		= new long[0];
+		this.m_aPrevCounters	= new long[0];
+		this.m_bHavePrevious	= false;
+
+		this.m_aMetrics			= DEFAULT_METRICS;
+		this.m_aMetricIndexes	= new int[0][];
+		this.m_aRates			= new double[DEFAULT_METRICS.length];
+
+		this.m_xReader			= new procfsReader(8192);
+		this.m_xHistoryList		= new ArrayList<Object>();
+	}
+
+	/**
+	 * Set the metrics rates are computed for.  Clears the history since the entries
+	 * no longer line up.
+	 *
+	 * @param aMetrics Counter names, each one also covering the counters named "name_*".
+	 */
+	public synchronized void setRateMetrics(String[] aMetrics)
+	{
+		this.m_aMetrics	= aMetrics.clone();
+		this.m_aRates	= new double[aMetrics.length];
+		this.m_xHistoryList.clear();
+
+		if (this.m_bIndexValid)
+			this.resolveMetrics();
+	}
+
+	/**
+	 * Read /proc/vmstat, compute the rates and add them to the history.
+	 *
+	 * @return True if the query was successfull, false if it wasn't.
+	 */
+	@Override
+	public synchronized boolean query()
+	{
+		long lNow = System.nanoTime();
+
+		if (!this.m_xReader.read(VMSTAT_PATH))
+		{
+			this.logError("Unable to read " + VMSTAT_PATH);
+			return false;
+		}
+
+		//* swap the counter arrays so the current values become the previous ones
+		long[] aTmp = this.m_aPrevCounters;
+		this.m_aPrevCounters = this.m_aCounters;
+		this.m_aCounters = aTmp;
+
+		if (!this.m_bIndexValid || !this.readValues())
+		{
+			//* first query or the kernel changed the layout, rates restart from here
+			this.buildIndex();
+			this.m_bHavePrevious = false;
+			if (!this.readValues())
+				return false;
+		}
+
+		if (this.m_bHavePrevious && lNow > this.m_lLastSampleNs)
+		{
+			double dSeconds = (lNow - this.m_lLastSampleNs) / 1e9;
+			for (int i = 0; i < this.m_aMetricIndexes.length; i++)
+			{
+				long lDelta = 0;
+				int[] aIndexes = this.m_aMetricIndexes[i];
+				for (int j = 0; j < aIndexes.length; j++)
+					lDelta += this.m_aCounters[aIndexes[j]] - this.m_aPrevCounters[aIndexes[j]];
+
+				this.m_aRates[i] = (lDelta > 0) ? lDelta / dSeconds : 0;
+			}
+
+			this.addHistoryEntry(new vmstatHistoryEntry(this.m_aRates.clone()));
+		}
+
+		this.m_lLastSampleNs = lNow;
+		this.m_bHavePrevious = true;
+
+		return true;
+	}
+
+	/**
+	 * Intern the names of the file in the reader.
+	 */
+	private void buildIndex()
+	{
+		this.m_xIndex.clear();
+		this.m_listNames.clear();
+
+		this.m_xReader.rewind();
+		while (!this.m_xReader.atEnd())
+		{
+			String sName = this.m_xReader.nextToken();
+			if (sName != null)
+			{
+				this.m_xIndex.put(sName, this.m_listNames.size());
+				this.m_listNames.add(sName);
+			}
+			if (!this.m_xReader.nextLine())
+				break;
+		}
+
+		int iCount = this.m_listNames.size();
+		this.m_aCounters		= new long[iCount];
+		this.m_aPrevCounters	= new long[iCount];
+
+		this.resolveMetrics();
+		this.m_bIndexValid = true;
+		this.logDebug("Indexed " + iCount + " vm counters.");
+	}
+
+	/**
+	 * Find the counters each metric adds up.
+	 */
+	private void resolveMetrics()
+	{
+		this.m_aMetricIndexes = new int[this.m_aMetrics.length][];
+
+		for (int i = 0; i < this.m_aMetrics.length; i++)
+		{
+			String sMetric = this.m_aMetrics[i];
+			List<Integer> listIndexes = new ArrayList<Integer>();
+
+			for (int j = 0; j < this.m_listNames.size(); j++)
+			{
+				String sName = this.m_listNames.get(j);
+				if (sName.equals(sMetric) || sName.startsWith(sMetric + "_"))
+					listIndexes.add(j);
+			}
+
+			//* if the kernel has both the total and the split counters only use the total
+			Integer xExact = this.m_xIndex.get(sMetric);
+			if (xExact != null)
+			{
+				listIndexes.clear();
+				listIndexes.add(xExact);
+			}
+
+			int[] aIndexes = new int[listIndexes.size()];
+			for (int j = 0; j < aIndexes.length; j++)
+				aIndexes[j] = listIndexes.get(j);
+			this.m_aMetricIndexes[i] = aIndexes;
+		}
+	}
+
+	/**
+	 * Fill the counter array from the file in the reader.
+	 *
+	 * @return False if the names no longer match the index.
+	 */
+	private boolean readValues()
+	{
+		procfsReader xReader = this.m_xReader;
+		int iSlot = 0;
+
+		xReader.rewind();
+		while (!xReader.atEnd())
+		{
+			if (xReader.atEndOfLine())
+			{
+				if (!xReader.nextLine())
+					break;
+				continue;
+			}
+
+			//* check the name without creating a String
+			if (iSlot >= this.m_aCounters.length || !xReader.matchToken(this.m_listNames.get(iSlot)))
+				return false;
+
+			this.m_aCounters[iSlot++] = xReader.nextLong();
+			if (!xReader.nextLine())
+				break;
+		}
+
+		return iSlot == this.m_aCounters.length;
+	}
+
+	/**
+	 * Get the index of a counter.
+	 *
+	 * @param sName The counter name as it appears in /proc/vmstat.
+	 * @return The index or -1 if the kernel doesn't have the counter.
+	 */
+	public synchronized int getIndex(String sName)
+	{
+		Integer xIndex = this.m_xIndex.get(sName);
+		return (xIndex == null) ? -1 : xIndex.intValue();
+	}
+
+	/**
+	 * Get the number of counters in /proc/vmstat.
+	 */
+	public synchronized int getCounterCount()
+	{
+		return this.m_aCounters.length;
+	}
+
+	public synchronized String getCounterName(int iIndex) throws IndexOutOfBoundsException
+	{
+		return this.m_listNames.get(iIndex);
+	}
+
+	/**
+	 * Get the raw value of a counter from the last query.
+	 *
+	 * @param iIndex The index returned by getIndex().
+	 * @return The value or 0 for an invalid index.
+	 */
+	public synchronized long getCounter(int iIndex)
+	{
+		if (iIndex < 0 || iIndex >= this.m_aCounters.length)
+			return 0;
+
+		return this.m_aCounters[iIndex];
+	}
+
+	public long getCounter(String sName)
+	{
+		return this.getCounter(this.getIndex(sName));
+	}
+
+	/**
+	 * Get the number of metrics with rates.
+	 */
+	public synchronized int getMetricCount()
+	{
+		return this.m_aMetrics.length;
+	}
+
+	public synchronized String getMetricName(int iMetric)
+	{
+		return this.m_aMetrics[iMetric];
+	}
+
+	/**
+	 * Get the index of a metric.
+	 * @return The index or -1 if there is no rate for it.
+	 */
+	public synchronized int getMetricIndex(String sMetric)
+	{
+		for (int i = 0; i < this.m_aMetrics.length; i++)
+		{
+			if (this.m_aMetrics[i].equals(sMetric))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Check if the kernel has any counter for the metric.
+	 */
+	public synchronized boolean hasMetric(int iMetric)
+	{
+		return iMetric >= 0 && iMetric < this.m_aMetricIndexes.length && this.m_aMetricIndexes[iMetric].length > 0;
+	}
+
+	/**
+	 * Get the per second rate of a metric between the last two queries.
+	 *
+	 * @param iMetric The index returned by getMetricIndex().
+	 * @return The rate or 0 for an invalid index.
+	 */
+	public synchronized double getRate(int iMetric)
+	{
+		if (iMetric < 0 || iMetric >= this.m_aRates.length)
+			return 0;
+
+		return this.m_aRates[iMetric];
+	}
+
+	public double getRate(String sMetric)
+	{
+		return this.getRate(this.getMetricIndex(sMetric));
+	}
+
+	/**
+	 * Get the average rate of a metric over the history.
+	 */
+	public synchronized double getAverageRate(int iMetric)
+	{
+		int iSize = this.m_xHistoryList.size();
+		if (iMetric < 0 || iMetric >= this.m_aRates.length || iSize == 0)
+			return 0;
+
+		double dSum = 0;
+		for (int i = 0; i < iSize; i++)
+			dSum += ((vmstatHistoryEntry)this.m_xHistoryList.get(i)).m_aRates[iMetric];
+
+		return dSum / iSize;
+	}
+
+	/**
+	 * Get the highest rate of a metric in the history.
+	 */
+	public synchronized double getMaxRate(int iMetric)
+	{
+		if (iMetric < 0 || iMetric >= this.m_aRates.length)
+			return 0;
+
+		double dMax = 0;
+		for (int i = 0; i < this.m_xHistoryList.size(); i++)
+			dMax = Math.max(dMax, ((vmstatHistoryEntry)this.m_xHistoryList.get(i)).m_aRates[iMetric]);
+
+		return dMax;
+	}
+
+	/**
+	 * Summarize the vm event rates.
+	 *
+	 * @return A string with the rate and history average of every metric the kernel has.
+	 */
+	@Override
+	public synchronized String summaryString()
+	{
+		String sSummary = "";
+
+		sSummary += "VM Events (per second): \n";
+		for (int i = 0; i < this.m_aMetrics.length; i++)
+		{
+			if (this.hasMetric(i))
+				sSummary += this.m_aMetrics[i] + ": " + String.format("%.1f", this.m_aRates[i]) +
+						" (avg " + String.format("%.1f", this.getAverageRate(i)) + ")\n";
+		}
+
+		return sSummary;
+	}
+
+	/**
+	 * Add an entry to the history list, dropping the oldest entries beyond the maximum.
+	 *
+	 * @param xEntry A history entry we want to add to the history
+	 */
+	public synchronized void addHistoryEntry(Object xEntry) throws NullPointerException
+	{
+		if (xEntry == null)
+			throw new NullPointerException();
+
+		this.m_xHistoryList.add(xEntry);
+
+		while (this.m_xHistoryList.size() > this.m_iMaxHistory)
+			this.m_xHistoryList.remove(0);
+	}
+
+	/**
+	 * Retreive the specified entry from the history list.
+	 *
+	 * @param iEntryIndex The index of the entry we want to retreive
+	 */
+	public synchronized Object getHistoryEntry(int iEntryIndex) throws IndexOutOfBoundsException
+	{
+		if (iEntryIndex < 0 || iEntryIndex >= this.m_xHistoryList.size())
+			throw new IndexOutOfBoundsException();
+
+		return this.m_xHistoryList.get(iEntryIndex);
+	}
+
+	/**
+	 * Remove the history entry specified by the index.
+	 *
+	 * @param iEntryIndex The index of the entry we want to remove.
+	 */
+	public synchronized void removeHistoryEntry(int iEntryIndex) throws IndexOutOfBoundsException
+	{
+		if (iEntryIndex < 0 || iEntryIndex >= this.m_xHistoryList.size())
+			throw new IndexOutOfBoundsException();
+
+		this.m_xHistoryList.remove(iEntryIndex);
+	}
+
+	/**
+	 * Get/Set the maximum number of history entries.
+	 *
+	 * @param iMaxEntries The max number of entries we want to save
+	 */
+	public synchronized void setMaxHistoryEntries(int iMaxEntries)
+	{
+		this.m_iMaxHistory = iMaxEntries;
+
+		while (this.m_xHistoryList.size() > this.m_iMaxHistory)
+			this.m_xHistoryList.remove(0);
+	}
+
+	public int getMaxHistoryEntries()
+	{
+		return this.m_iMaxHistory;
+	}
+
+	/**
+	 * Retrun the number of history entries currently in the list
+	 */
+	public synchronized int getHistorySize()
+	{
+		return this.m_xHistoryList.size();
+	}
+}
@@ -0,0 +1,544 @@
+/**
+ * wifiChannelAnalyzer
+ *
+ * Works out how congested each wifi channel is from the access points seen
+ * in a scan.  For every scan we build per channel and per band aggregates:
+ *
+ *  - the number of access points on the channel
+ *  - an interference score, the sum of the received power (in mW, so the
+ *    RSSI is the weight) of every access point on the channel plus a
+ *    fraction of the power of the ones on overlapping channels
+ *  - the strongest co-channel and adjacent channel neighbor
+ *
+ * Each channel also keeps a rolling history of its interference score so the
+ * "best channel right now" is based on the last few scans rather than one.
+ * The best channel of each band is worked out at the end of the scan so
+ * asking for it is constant time.  A band where nothing was heard over the
+ * whole history (6GHz on hardware without it) has no best channel.
+ *
+ * The class doesn't depend on the Android scan result objects, the access
+ * points are passed in as plain values so it can be fed fixture data.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+/**
+ * The channel analyzer class.
+ */
+public class wifiChannelAnalyzer
+{
+	/**
+	 * The wifi bands
+	 */
+	public static final int			BAND_2GHZ		= 0;
+	public static final int			BAND_5GHZ		= 1;
+	public static final int			BAND_6GHZ		= 2;
+	static final int				BAND_COUNT		= 3;
+
+	/**
+	 * Each band gets its own range of slots in the per channel arrays, indexed
+	 * by channel number, and BAND_CHANNELS is one past its highest channel.
+	 * Overlap into channels past the end of the band (15 from 14) is clipped.
+	 */
+	static final int[]				BAND_BASE		= { 0, 16, 16 + 200 };
+	static final int[]				BAND_CHANNELS	= { 15, 178, 234 };
+	static final int				SLOT_COUNT		= 16 + 200 + 240;
+
+	/**
+	 * The channels we consider when looking for the best channel.
+	 */
+	static final int[]				CANDIDATES_2GHZ	= { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13 };
+	static final int[]				CANDIDATES_5GHZ	= { 36, 40, 44, 48, 52, 56, 60, 64, 100, 104, 108, 112, 116, 120, 124, 128, 132, 136, 140, 144, 149, 153, 157, 161, 165 };
+	static final int[]				CANDIDATES_6GHZ;
+
+	/**
+	 * How much of an access point's power leaks into a channel d channels away.
+	 * 2.4GHz channels are 22MHz wide and 5MHz apart so they overlap up to 4
+	 * channels away.  5/6GHz channels are 20MHz wide and numbered every 5MHz
+	 * so the nearest neighbour is 4 channel numbers away and leaks very little.
+	 */
+	static final double[]			OVERLAP_2GHZ	= { 1.0, 0.8, 0.6, 0.4, 0.2 };
+	static final double				OVERLAP_5GHZ_ADJACENT = 0.1;
+
+	static final int				DEFAULT_HISTORY	= 8;
+
+	static
+	{
+		CANDIDATES_6GHZ = new int[59];
+		for (int i = 0; i < CANDIDATES_6GHZ.length; i++)
+			CANDIDATES_6GHZ[i] = 1 + i * 4;
+	}
+
+	/**
+	 * The per channel aggregates for the current scan.
+	 */
+	private int[]					m_aApCount;
+	private double[]				m_aCoChannelMw;
+	private double[]				m_aAdjacentMw;
+	private int[]					m_aStrongestCoLevel;
+	private String[]				m_aStrongestCoBssid;
+	private int[]					m_aStrongestAdjLevel;
+	private String[]				m_aStrongestAdjBssid;
+
+	/**
+	 * The per band aggregates for the current scan.
+	 */
+	private int[]					m_aBandApCount;
+	private double[]				m_aBandPowerMw;
+
+	/**
+	 * The rolling interference history of every channel.  Each slot owns
+	 * m_iHistoryDepth entries of m_aHistory, used as a ring.
+	 */
+	private int						m_iHistoryDepth;
+	private double[]				m_aHistory;
+	private int[]					m_aHistoryPos;
+	private int[]					m_aHistoryCount;
+	private double[]				m_aHistorySum;
+
+	/**
+	 * The best channel of each band, worked out at the end of every scan.
+	 */
+	private int[]					m_aBestChannel;
+	private double[]				m_aBestScore;
+
+	/**
+	 * The access point we are connected to isn't interference.
+	 */
+	private String					m_sConnectedBssid;
+
+	/**
+	 * Scan bookkeeping
+	 */
+	private boolean					m_bScanInProgress;
+	private long					m_lLastScanTime;
+	private long					m_lScanCount;
+
+	/**
+	 * Default constructor, keeps the last 8 scans of history.
+	 */
+	public wifiChannelAnalyzer()
+	{
+		this(DEFAULT_HISTORY);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param iHistoryDepth The number of scans the rolling channel history covers.
+	 */
+	public wifiChannelAnalyzer(int iHistoryDepth)
+	{
+		if (iHistoryDepth < 1)
+			iHistoryDepth = 1;
+
+		this.m_aApCount				= new int[SLOT_COUNT];
+		this.m_aCoChannelMw			= new double[SLOT_COUNT];
+		this.m_aAdjacentMw			= new double[SLOT_COUNT];
+		this.m_aStrongestCoLevel	= new int[SLOT_COUNT];
+		this.m_aStrongestCoBssid	= new String[SLOT_COUNT];
+		this.m_aStrongestAdjLevel	= new int[SLOT_COUNT];
+		this.m_aStrongestAdjBssid	= new String[SLOT_COUNT];
+
+		this.m_aBandApCount			= new int[BAND_COUNT];
+		this.m_aBandPowerMw			= new double[BAND_COUNT];
+
+		this.m_iHistoryDepth		= iHistoryDepth;
+		this.m_aHistory				= new double[SLOT_COUNT * iHistoryDepth];
+		this.m_aHistoryPos			= new int[SLOT_COUNT];
+		this.m_aHistoryCount		= new int[SLOT_COUNT];
+		this.m_aHistorySum			= new double[SLOT_COUNT];
+
+		this.m_aBestChannel			= new int[BAND_COUNT];
+		this.m_aBestScore			= new double[BAND_COUNT];
+
+		this.clearScan();
+	}
+
+	/**
+	 * Set the BSSID of the access point we are connected to so it isn't counted as interference.
+	 *
+	 * @param sBssid The BSSID or null if we are not connected.
+	 */
+	public synchronized void setConnectedBssid(String sBssid)
+	{
+		this.m_sConnectedBssid = sBssid;
+	}
+
+	/**
+	 * Start a new scan.  Clears the aggregates of the previous scan, the
+	 * rolling history is kept.
+	 *
+	 * @param lTimestamp The time of the scan (ms).
+	 */
+	public synchronized void beginScan(long lTimestamp)
+	{
+		this.clearScan();
+		this.m_bScanInProgress	= true;
+		this.m_lLastScanTime	= lTimestamp;
+	}
+
+	/**
+	 * Add an access point seen in the current scan.
+	 *
+	 * @param sBssid The BSSID of the access point.
+	 * @param sSsid The SSID of the access point.
+	 * @param iFrequency The center frequency in MHz.
+	 * @param iLevel The received signal level in dBm.
+	 */
+	public synchronized void addAccessPoint(String sBssid, String sSsid, int iFrequency, int iLevel)
+	{
+		int			iBand		= wifiChannelAnalyzer.frequencyToBand(iFrequency);
+		int			iChannel	= wifiChannelAnalyzer.frequencyToChannel(iFrequency);
+		double		dPowerMw;
+
+		if (iBand < 0 || iChannel <= 0 || iChannel >= BAND_CHANNELS[iBand])
+			return;
+
+		//* our own access point isn't interference
+		if (sBssid != null && sBssid.equalsIgnoreCase(this.m_sConnectedBssid))
+			return;
+
+		if (!this.m_bScanInProgress)
+			this.beginScan(System.currentTimeMillis());
+
+		dPowerMw = Math.pow(10.0, iLevel / 10.0);
+
+		//* band totals
+		this.m_aBandApCount[iBand]++;
+		this.m_aBandPowerMw[iBand] += dPowerMw;
+
+		//* the channel the access point is on
+		int iSlot = BAND_BASE[iBand] + iChannel;
+		this.m_aApCount[iSlot]++;
+		this.m_aCoChannelMw[iSlot] += dPowerMw;
+		if (this.m_aStrongestCoBssid[iSlot] == null || iLevel > this.m_aStrongestCoLevel[iSlot])
+		{
+			this.m_aStrongestCoLevel[iSlot] = iLevel;
+			this.m_aStrongestCoBssid[iSlot] = sBssid;
+		}
+
+		//* and the channels it overlaps
+		if (iBand == BAND_2GHZ)
+		{
+			for (int d = 1; d < OVERLAP_2GHZ.length; d++)
+			{
+				this.addAdjacent(iBand, iChannel - d, sBssid, iLevel, dPowerMw * OVERLAP_2GHZ[d]);
+				this.addAdjacent(iBand, iChannel + d, sBssid, iLevel, dPowerMw * OVERLAP_2GHZ[d]);
+			}
+		}
+		else
+		{
+			this.addAdjacent(iBand, iChannel - 4, sBssid, iLevel, dPowerMw * OVERLAP_5GHZ_ADJACENT);
+			this.addAdjacent(iBand, iChannel + 4, sBssid, iLevel, dPowerMw * OVERLAP_5GHZ_ADJACENT);
+		}
+	}
+
+	/**
+	 * Finish the current scan.  Pushes the interference score of every
+	 * candidate channel into its history and works out the best channel of each band.
+	 */
+	public synchronized void endScan()
+	{
+		this.updateBand(BAND_2GHZ, CANDIDATES_2GHZ);
+		this.updateBand(BAND_5GHZ, CANDIDATES_5GHZ);
+		this.updateBand(BAND_6GHZ, CANDIDATES_6GHZ);
+
+		this.m_bScanInProgress = false;
+		this.m_lScanCount++;
+	}
+
+	/**
+	 * Add leaked power from an access point to a neighbouring channel.
+	 */
+	private void addAdjacent(int iBand, int iChannel, String sBssid, int iLevel, double dPowerMw)
+	{
+		if (iChannel <= 0 || iChannel >= BAND_CHANNELS[iBand])
+			return;
+
+		int iSlot = BAND_BASE[iBand] + iChannel;
+		this.m_aAdjacentMw[iSlot] += dPowerMw;
+		if (this.m_aStrongestAdjBssid[iSlot] == null || iLevel > this.m_aStrongestAdjLevel[iSlot])
+		{
+			this.m_aStrongestAdjLevel[iSlot] = iLevel;
+			this.m_aStrongestAdjBssid[iSlot] = sBssid;
+		}
+	}
+
+	/**
+	 * Push the scores of the band's candidate channels into their history and
+	 * pick the best one.  With nothing heard on any of them over the history
+	 * every channel is as good as the next, the band has no best channel.
+	 */
+	private void updateBand(int iBand, int[] aCandidates)
+	{
+		int			iBest = 0;
+		double		dBestScore = Double.MAX_VALUE;
+		double		dWorstScore = 0;
+
+		for (int i = 0; i < aCandidates.length; i++)
+		{
+			int iSlot = BAND_BASE[iBand] + aCandidates[i];
+			double dScore = this.m_aCoChannelMw[iSlot] + this.m_aAdjacentMw[iSlot];
+
+			//* push into the ring, dropping the oldest entry once it is full
+			int iPos = iSlot * this.m_iHistoryDepth + this.m_aHistoryPos[iSlot];
+			if (this.m_aHistoryCount[iSlot] == this.m_iHistoryDepth)
+				this.m_aHistorySum[iSlot] -= this.m_aHistory[iPos];
+			else
+				this.m_aHistoryCount[iSlot]++;
+
+			this.m_aHistory[iPos] = dScore;
+			this.m_aHistorySum[iSlot] += dScore;
+			this.m_aHistoryPos[iSlot] = (this.m_aHistoryPos[iSlot] + 1) % this.m_iHistoryDepth;
+
+			double dAverage = this.m_aHistorySum[iSlot] / this.m_aHistoryCount[iSlot];
+			if (dAverage < dBestScore)
+			{
+				dBestScore	= dAverage;
+				iBest		= aCandidates[i];
+			}
+			dWorstScore = Math.max(dWorstScore, dAverage);
+		}
+
+		if (dWorstScore <= 0)
+		{
+			iBest		= 0;
+			dBestScore	= 0;
+		}
+
+		this.m_aBestChannel[iBand]	= iBest;
+		this.m_aBestScore[iBand]	= dBestScore;
+	}
+
+	/**
+	 * Reset the aggregates of the current scan.
+	 */
+	private void clearScan()
+	{
+		for (int i = 0; i < SLOT_COUNT; i++)
+		{
+			this.m_aApCount[i]				= 0;
+			this.m_aCoChannelMw[i]			= 0;
+			this.m_aAdjacentMw[i]			= 0;
+			this.m_aStrongestCoLevel[i]		= 0;
+			this.m_aStrongestCoBssid[i]		= null;
+			this.m_aStrongestAdjLevel[i]	= 0;
+			this.m_aStrongestAdjBssid[i]	= null;
+		}
+
+		for (int i = 0; i < BAND_COUNT; i++)
+		{
+			this.m_aBandApCount[i]	= 0;
+			this.m_aBandPowerMw[i]	= 0;
+		}
+	}
+
+	/**
+	 * Get the slot of a channel or -1 if it is out of range.
+	 */
+	private int slot(int iBand, int iChannel)
+	{
+		if (iBand < 0 || iBand >= BAND_COUNT || iChannel <= 0 || iChannel >= BAND_CHANNELS[iBand])
+			return -1;
+
+		return BAND_BASE[iBand] + iChannel;
+	}
+
+	/**
+	 * Get the best channel of the band, the one with the lowest average
+	 * interference over the rolling history.  Constant time.
+	 *
+	 * @param iBand BAND_2GHZ, BAND_5GHZ or BAND_6GHZ.
+	 * @return The channel number or 0 if no scan has completed or nothing was heard on the band.
+	 */
+	public synchronized int getBestChannel(int iBand)
+	{
+		if (iBand < 0 || iBand >= BAND_COUNT || this.m_lScanCount == 0)
+			return 0;
+
+		return this.m_aBestChannel[iBand];
+	}
+
+	/**
+	 * Get the average interference of the best channel in the band in dBm.
+	 */
+	public synchronized double getBestChannelInterference(int iBand)
+	{
+		if (iBand < 0 || iBand >= BAND_COUNT || this.m_lScanCount == 0)
+			return wifiChannelAnalyzer.toDbm(0);
+
+		return wifiChannelAnalyzer.toDbm(this.m_aBestScore[iBand]);
+	}
+
+	/**
+	 * Get the number of access points on a channel in the last scan.
+	 */
+	public synchronized int getApCount(int iBand, int iChannel)
+	{
+		int iSlot = this.slot(iBand, iChannel);
+		return (iSlot < 0) ? 0 : this.m_aApCount[iSlot];
+	}
+
+	/**
+	 * Get the interference score of a channel in the last scan, the co-channel
+	 * power plus the weighted power leaking in from overlapping channels.
+	 *
+	 * @return The score in dBm, very low (-200) when the channel is clear.
+	 */
+	public synchronized double getInterference(int iBand, int iChannel)
+	{
+		int iSlot = this.slot(iBand, iChannel);
+		if (iSlot < 0)
+			return wifiChannelAnalyzer.toDbm(0);
+
+		return wifiChannelAnalyzer.toDbm(this.m_aCoChannelMw[iSlot] + this.m_aAdjacentMw[iSlot]);
+	}
+
+	/**
+	 * Get the interference score of a channel averaged over the rolling history, in dBm.
+	 */
+	public synchronized double getAverageInterference(int iBand, int iChannel)
+	{
+		int iSlot = this.slot(iBand, iChannel);
+		if (iSlot < 0 || this.m_aHistoryCount[iSlot] == 0)
+			return wifiChannelAnalyzer.toDbm(0);
+
+		return wifiChannelAnalyzer.toDbm(this.m_aHistorySum[iSlot] / this.m_aHistoryCount[iSlot]);
+	}
+
+	/**
+	 * Get the BSSID of the strongest access point on the channel, or null if there is none.
+	 */
+	public synchronized String getStrongestCoChannelBssid(int iBand, int iChannel)
+	{
+		int iSlot = this.slot(iBand, iChannel);
+		return (iSlot < 0) ? null : this.m_aStrongestCoBssid[iSlot];
+	}
+
+	/**
+	 * Get the level (dBm) of the strongest access point on the channel.
+	 */
+	public synchronized int getStrongestCoChannelLevel(int iBand, int iChannel)
+	{
+		int iSlot = this.slot(iBand, iChannel);
+		return (iSlot < 0 || this.m_aStrongestCoBssid[iSlot] == null) ? 0 : this.m_aStrongestCoLevel[iSlot];
+	}
+
+	/**
+	 * Get the BSSID of the strongest access point on an overlapping channel, or null if there is none.
+	 */
+	public synchronized String getStrongestAdjacentBssid(int iBand, int iChannel)
+	{
+		int iSlot = this.slot(iBand, iChannel);
+		return (iSlot < 0) ? null : this.m_aStrongestAdjBssid[iSlot];
+	}
+
+	/**
+	 * Get the level (dBm) of the strongest access point on an overlapping channel.
+	 */
+	public synchronized int getStrongestAdjacentLevel(int iBand, int iChannel)
+	{
+		int iSlot = this.slot(iBand, iChannel);
+		return (iSlot < 0 || this.m_aStrongestAdjBssid[iSlot] == null) ? 0 : this.m_aStrongestAdjLevel[iSlot];
+	}
+
+	/**
+	 * Get the number of access points seen on the band in the last scan.
+	 */
+	public synchronized int getBandApCount(int iBand)
+	{
+		return (iBand < 0 || iBand >= BAND_COUNT) ? 0 : this.m_aBandApCount[iBand];
+	}
+
+	/**
+	 * Get the total power received on the band in the last scan, in dBm.
+	 */
+	public synchronized double getBandPower(int iBand)
+	{
+		return (iBand < 0 || iBand >= BAND_COUNT) ? wifiChannelAnalyzer.toDbm(0) : wifiChannelAnalyzer.toDbm(this.m_aBandPowerMw[iBand]);
+	}
+
+	/**
+	 * Get the time of the last scan.
+	 */
+	public synchronized long getLastScanTime()
+	{
+		return this.m_lLastScanTime;
+	}
+
+	/**
+	 * Get the number of scans that have completed.
+	 */
+	public synchronized long getScanCount()
+	{
+		return this.m_lScanCount;
+	}
+
+	/**
+	 * Summarize the congestion of both bands.
+	 *
+	 * @return A string with the summary.
+	 */
+	public synchronized String summaryString()
+	{
+		String sSummary = "Wifi Channel Congestion: \n";
+
+		sSummary += "2.4GHz: " + this.m_aBandApCount[BAND_2GHZ] + " access points, best channel " + this.getBestChannel(BAND_2GHZ) + "\n";
+		sSummary += "5GHz: " + this.m_aBandApCount[BAND_5GHZ] + " access points, best channel " + this.getBestChannel(BAND_5GHZ) + "\n";
+		if (this.m_aBandApCount[BAND_6GHZ] > 0)
+			sSummary += "6GHz: " + this.m_aBandApCount[BAND_6GHZ] + " access points, best channel " + this.getBestChannel(BAND_6GHZ) + "\n";
+
+		return sSummary;
+	}
+
+	/**
+	 * Work out the band of a frequency.
+	 *
+	 * @param iFrequency The frequency in MHz.
+	 * @return The band or -1 if the frequency isn't a wifi channel we know.
+	 */
+	public static int frequencyToBand(int iFrequency)
+	{
+		if (iFrequency >= 2412 && iFrequency <= 2484)
+			return BAND_2GHZ;
+		if (iFrequency >= 5160 && iFrequency <= 5885)
+			return BAND_5GHZ;
+		if (iFrequency >= 5955 && iFrequency <= 7115)
+			return BAND_6GHZ;
+
+		return -1;
+	}
+
+	/**
+	 * Work out the channel number of a frequency.
+	 *
+	 * @param iFrequency The frequency in MHz.
+	 * @return The channel or 0 if the frequency isn't a wifi channel we know.
+	 */
+	public static int frequencyToChannel(int iFrequency)
+	{
+		if (iFrequency == 2484)
+			return 14;
+		if (iFrequency >= 2412 && iFrequency < 2484)
+			return (iFrequency - 2407) / 5;
+		if (iFrequency >= 5160 && iFrequency <= 5885)
+			return (iFrequency - 5000) / 5;
+		if (iFrequency >= 5955 && iFrequency <= 7115)
+			return (iFrequency - 5950) / 5;
+
+		return 0;
+	}
+
+	/**
+	 * Convert a power in mW to dBm.  0 mW is reported as -200 dBm.
+	 */
+	static double toDbm(double dPowerMw)
+	{
+		if (dPowerMw <= 0)
+			return -200.0;
+
+		return 10.0 * Math.log10(dPowerMw);
+	}
+}
@@ -31,20 +31,38 @@ public class wifiScanReceiver extends BroadcastReceiver
 		//* Find the SSID we are connected to
 		String sConnectedSSID = m_xNetworkInfo.getWifiSSID();
 		
-		//* Get the connection information for the matching SSID.
-		for (int i=0; i < xResults.size(); i++)
+		//* WifiInfo quotes the SSID when it is valid UTF-8, the scan results don't
+		if (sConnectedSSID != null && sConnectedSSID.length() >= 2 && sConnectedSSID.startsWith("\"") && sConnectedSSID.endsWith("\""))
+			sConnectedSSID = sConnectedSSID.substring(1, sConnectedSSID.length() - 1);
+		
+		//* Every access point in the scan feeds the channel congestion analyzer
+		wifiChannelAnalyzer xAnalyzer = m_xNetworkInfo.getChannelAnalyzer();
+		xAnalyzer.beginScan(System.currentTimeMillis());
+		
+		try
 		{
-			//* Get the entry
-			xTmpEntry = xResults.get(i);
-			
-			//* Match the SSID
-			if (xTmpEntry.SSID.compareTo(sConnectedSSID) == 0)
+			//* Get the connection information for the matching SSID.
+			for (int i=0; xResults != null && i < xResults.size(); i++)
 			{
-				//* we have a match.  Let's set the channel and signal level
-				this.m_xNetworkInfo.setSignalLevel( xTmpEntry.level );
-				this.m_xNetworkInfo.setChannelFrequency( xTmpEntry.frequency );
+				//* Get the entry
+				xTmpEntry = xResults.get(i);
+				
+				xAnalyzer.addAccessPoint(xTmpEntry.BSSID, xTmpEntry.SSID, xTmpEntry.frequency, xTmpEntry.level);
+				
+				//* Match the SSID, we may not be connected and hidden access points have none
+				if (sConnectedSSID != null && xTmpEntry.SSID != null && xTmpEntry.SSID.equals(sConnectedSSID))
+				{
+					//* we have a match.  Let's set the channel and signal level
+					this.m_xNetworkInfo.setSignalLevel( xTmpEntry.level );
+					this.m_xNetworkInfo.setChannelFrequency( xTmpEntry.frequency );
+				}
+				
 			}
-			
+		}
+		finally
+		{
+			//* never leave the analyzer in the middle of a scan
+			xAnalyzer.endScan();
 		}
 	}
 }
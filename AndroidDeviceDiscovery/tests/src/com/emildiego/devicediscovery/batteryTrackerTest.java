@@ -0,0 +1,89 @@
+/**
+ * batteryTrackerTest
+ *
+ * Feeds batteryTracker scripted battery changed events and checks the
+ * rates and estimates it works out from them.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class batteryTrackerTest
+{
+	static final long			MINUTE		= 60 * 1000L;
+	static final long			HOUR		= 60 * MINUTE;
+	static final int			AC			= 1;
+
+	private batteryTracker		m_xTracker;
+
+	@Before
+	public void setUp()
+	{
+		this.m_xTracker = new batteryTracker();
+	}
+
+	private void level(long lTime, int iLevel, int iPlugged)
+	{
+		this.m_xTracker.onBatteryChanged(lTime, iLevel, 100, 4000, 300, iPlugged, 0);
+	}
+
+	@Test
+	public void firstStepAfterStartOnlyReanchors()
+	{
+		//* tracking starts a minute before the level drops, that step isn't a whole hour
+		this.level(0, 50, 0);
+		this.level(MINUTE, 49, 0);
+		assertEquals(0, this.m_xTracker.getDrainRate(), 0);
+
+		this.level(MINUTE + HOUR, 48, 0);
+		assertEquals(1.0, this.m_xTracker.getDrainRate(), 1e-9);
+	}
+
+	@Test
+	public void eventsWithinAStepDontMeasure()
+	{
+		this.level(0, 50, 0);
+		this.level(10 * MINUTE, 49, 0);
+		this.level(40 * MINUTE, 49, 0);
+		this.level(70 * MINUTE, 48, 0);
+
+		assertEquals(1.0, this.m_xTracker.getDrainRate(), 1e-9);
+	}
+
+	@Test
+	public void plugChangeStartsMidStep()
+	{
+		this.level(0, 50, 0);
+		this.level(MINUTE, 49, 0);
+		this.level(MINUTE + HOUR, 48, 0);
+
+		//* plugged in halfway through a step, the first step up is partial
+		this.level(MINUTE + HOUR + 30 * MINUTE, 48, AC);
+		this.level(MINUTE + HOUR + 31 * MINUTE, 49, AC);
+		assertEquals(0, this.m_xTracker.getChargeRate(), 0);
+
+		this.level(MINUTE + HOUR + 37 * MINUTE, 50, AC);
+		assertEquals(10.0, this.m_xTracker.getChargeRate(), 1e-9);
+
+		//* the drain rate survives the charge
+		assertEquals(1.0, this.m_xTracker.getDrainRate(), 1e-9);
+	}
+
+	@Test
+	public void timeToEmptyFromDrainRate()
+	{
+		this.level(0, 50, 0);
+		this.level(MINUTE, 49, 0);
+		this.level(MINUTE + 2 * HOUR, 48, 0);
+
+		//* half a percent an hour from 48%
+		assertEquals(0.5, this.m_xTracker.getDrainRate(), 1e-9);
+		assertEquals(96 * 3600, this.m_xTracker.getTimeToEmpty());
+		assertEquals(batteryTracker.UNKNOWN, this.m_xTracker.getTimeToFull());
+	}
+}
@@ -0,0 +1,75 @@
+/**
+ * cpuResidencyTest
+ *
+ * Feeds fixture time_in_state contents through cpuResidency into
+ * energyAttribution and checks the power a busy CPU second is charged.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class cpuResidencyTest
+{
+	private cpuResidency		m_xResidency;
+	private energyAttribution	m_xAttribution;
+	private procfsReader		m_xReader;
+
+	@Before
+	public void setUp()
+	{
+		this.m_xResidency	= new cpuResidency();
+		this.m_xAttribution	= new energyAttribution();
+		this.m_xReader		= new procfsReader();
+	}
+
+	private void window(long lTime, String sTimeInState, long lProcessTicks)
+	{
+		byte[] aData = sTimeInState.getBytes(procfsReader.CHARSET);
+		this.m_xReader.load(aData, aData.length);
+
+		this.m_xAttribution.beginWindow(lTime);
+		assertTrue(this.m_xResidency.feed(this.m_xAttribution, 0, this.m_xReader));
+		this.m_xAttribution.addProcess(100, 10000, "app", 500, lProcessTicks);
+		this.m_xAttribution.endWindow();
+	}
+
+	@Test
+	public void defaultModelFollowsTheCubeOfTheFrequency()
+	{
+		this.window(1000, "500000 0\n1000000 0\n", 1000);
+
+		//* half the time at half the top frequency
+		this.window(2000, "500000 50\n1000000 50\n", 1100);
+
+		double dExpected = (cpuResidency.DEFAULT_MAX_POWER_MW / 8 + cpuResidency.DEFAULT_MAX_POWER_MW) / 2;
+		assertEquals(dExpected, this.m_xAttribution.getLastCpuPower(), 1e-9);
+		assertEquals(dExpected / 3600.0, this.m_xAttribution.getUidEnergy(10000), 1e-9);
+	}
+
+	@Test
+	public void givenModelIsKept()
+	{
+		this.m_xAttribution.setPowerModel(energyAttribution.ALL_CORES, new long[] { 500000, 1000000 }, new double[] { 50, 200 });
+
+		this.window(1000, "500000 0\n1000000 0\n", 1000);
+		this.window(2000, "500000 100\n1000000 0\n", 1100);
+
+		assertEquals(50, this.m_xAttribution.getLastCpuPower(), 1e-9);
+	}
+
+	@Test
+	public void emptyFileIsNotRead()
+	{
+		this.m_xReader.load(new byte[0], 0);
+
+		assertFalse(this.m_xResidency.feed(this.m_xAttribution, 0, this.m_xReader));
+		assertFalse(this.m_xAttribution.hasPowerModel(0));
+	}
+}
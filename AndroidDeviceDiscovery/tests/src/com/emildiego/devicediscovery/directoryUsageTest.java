@@ -0,0 +1,144 @@
+/**
+ * directoryUsageTest
+ *
+ * Generates a directory tree and scans it cold and again, to show the
+ * cached listings are reused, and checks that a scan that times out leaves
+ * no walk behind.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class directoryUsageTest
+{
+	static final int			BRANCHES		= 20;
+	static final int			LEAVES			= 20;
+	static final int			FILES			= 5;
+	static final int			FILE_SIZE		= 100;
+	static final int			DIRECTORIES		= 1 + BRANCHES + BRANCHES * LEAVES;
+
+	private File				m_xRoot;
+	private directoryUsage		m_xUsage;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.m_xRoot = File.createTempFile("directoryUsage", null);
+		this.m_xRoot.delete();
+		this.m_xRoot.mkdir();
+
+		//* the mtimes are set back so the listings aren't within the mtime granularity
+		long lPast = System.currentTimeMillis() - 60000;
+		for (int i = 0; i < BRANCHES; i++)
+		{
+			File xBranch = new File(this.m_xRoot, "b" + i);
+			xBranch.mkdir();
+			for (int j = 0; j < LEAVES; j++)
+			{
+				File xLeaf = new File(xBranch, "l" + j);
+				xLeaf.mkdir();
+				for (int k = 0; k < FILES; k++)
+					this.write(new File(xLeaf, "f" + k), FILE_SIZE);
+				xLeaf.setLastModified(lPast);
+			}
+			xBranch.setLastModified(lPast);
+		}
+		this.m_xRoot.setLastModified(lPast);
+
+		this.m_xUsage = new directoryUsage(4, 10);
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.m_xUsage.close();
+		directoryUsageTest.delete(this.m_xRoot);
+	}
+
+	private void write(File xFile, int iSize) throws Exception
+	{
+		FileOutputStream xOut = new FileOutputStream(xFile);
+		try
+		{
+			xOut.write(new byte[iSize]);
+		}
+		finally
+		{
+			xOut.close();
+		}
+	}
+
+	private static void delete(File xFile)
+	{
+		File[] aEntries = xFile.listFiles();
+		if (aEntries != null)
+		{
+			for (int i = 0; i < aEntries.length; i++)
+				directoryUsageTest.delete(aEntries[i]);
+		}
+		xFile.delete();
+	}
+
+	private static int countScannerThreads()
+	{
+		int iCount = 0;
+		for (Thread xThread : Thread.getAllStackTraces().keySet())
+		{
+			if (xThread.isAlive() && "directoryUsage".equals(xThread.getName()))
+				iCount++;
+		}
+		return iCount;
+	}
+
+	@Test
+	public void rescanReusesTheListings() throws Exception
+	{
+		long lTotal = (long)BRANCHES * LEAVES * FILES * FILE_SIZE;
+
+		assertTrue(this.m_xUsage.scan(this.m_xRoot.getPath()));
+		long lColdMs = this.m_xUsage.getScanTime();
+		assertEquals(DIRECTORIES, this.m_xUsage.getDirectoriesListed());
+		assertEquals(0, this.m_xUsage.getDirectoriesReused());
+		assertEquals(lTotal, this.m_xUsage.getTotalBytes());
+
+		assertTrue(this.m_xUsage.scan(this.m_xRoot.getPath()));
+		long lWarmMs = this.m_xUsage.getScanTime();
+		assertEquals("cold " + lColdMs + " ms, re-scan " + lWarmMs + " ms", 0, this.m_xUsage.getDirectoriesListed());
+		assertEquals(DIRECTORIES, this.m_xUsage.getDirectoriesReused());
+		assertEquals(lTotal, this.m_xUsage.getTotalBytes());
+
+		//* a new file only lists its own directory again
+		File xLeaf = new File(this.m_xRoot, "b0" + File.separator + "l0");
+		this.write(new File(xLeaf, "new"), 1000);
+		xLeaf.setLastModified(System.currentTimeMillis() - 30000);
+
+		assertTrue(this.m_xUsage.scan(this.m_xRoot.getPath()));
+		assertEquals(1, this.m_xUsage.getDirectoriesListed());
+		assertEquals(DIRECTORIES - 1, this.m_xUsage.getDirectoriesReused());
+		assertEquals(lTotal + 1000, this.m_xUsage.getTotalBytes());
+	}
+
+	@Test
+	public void timedOutScanLeavesNoWalkBehind()
+	{
+		this.m_xUsage.setScanTimeout(0);
+		assertFalse(this.m_xUsage.scan(this.m_xRoot.getPath()));
+		assertEquals(0, directoryUsageTest.countScannerThreads());
+
+		//* the next scan isn't raced by the abandoned one
+		this.m_xUsage.setScanTimeout(directoryUsage.DEFAULT_SCAN_TIMEOUT_MS);
+		assertTrue(this.m_xUsage.scan(this.m_xRoot.getPath()));
+		assertEquals((long)BRANCHES * LEAVES * FILES * FILE_SIZE, this.m_xUsage.getTotalBytes());
+	}
+}
@@ -0,0 +1,141 @@
+/**
+ * energyAttributionTest
+ *
+ * Replays small recorded fixtures through energyAttribution and checks
+ * what each process is charged.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class energyAttributionTest
+{
+	//* 100 ticks (one second) on a 100mW core
+	static final double			ONE_SECOND_MWH	= 100 / 3600.0;
+
+	private energyAttribution	m_xAttribution;
+
+	@Before
+	public void setUp()
+	{
+		this.m_xAttribution = new energyAttribution();
+		this.m_xAttribution.setPowerModel(energyAttribution.ALL_CORES, new long[] { 1000000 }, new double[] { 100 });
+	}
+
+	private int replay(String sFixture) throws Exception
+	{
+		return this.m_xAttribution.replay(new BufferedReader(new StringReader(sFixture)));
+	}
+
+	@Test
+	public void missedWindowIsNotChargedTwice() throws Exception
+	{
+		String sFixture =
+			"window 1000\n" +
+			"freq 0 1000000 0\n" +
+			"proc 100 10000 app 500 1000\n" +
+			"end\n" +
+			"window 2000\n" +
+			"freq 0 1000000 100\n" +
+			"proc 100 10000 app 500 1100\n" +
+			"end\n" +
+			"# the process wasn't read in this window\n" +
+			"window 3000\n" +
+			"freq 0 1000000 200\n" +
+			"end\n" +
+			"window 4000\n" +
+			"freq 0 1000000 300\n" +
+			"proc 100 10000 app 500 1200\n" +
+			"end\n";
+
+		assertEquals(4, this.replay(sFixture));
+
+		List<energyEntry> listTop = this.m_xAttribution.getTopProcesses(10);
+		assertEquals(1, listTop.size());
+		assertEquals(100, listTop.get(0).m_iPid);
+		assertEquals(200, listTop.get(0).m_lCpuTicks);
+		assertEquals(2 * ONE_SECOND_MWH, listTop.get(0).m_dEnergyMwh, 1e-9);
+		assertEquals(2 * ONE_SECOND_MWH, this.m_xAttribution.getUidEnergy(10000), 1e-9);
+	}
+
+	@Test
+	public void reusedPidIsANewProcess() throws Exception
+	{
+		String sFixture =
+			"window 1000\n" +
+			"freq 0 1000000 0\n" +
+			"proc 100 10000 app 500 1000\n" +
+			"end\n" +
+			"window 2000\n" +
+			"freq 0 1000000 100\n" +
+			"proc 100 10000 app 500 1100\n" +
+			"end\n" +
+			"# same pid, started later, all its time is in this window\n" +
+			"window 3000\n" +
+			"freq 0 1000000 200\n" +
+			"proc 100 10000 app 2500 50\n" +
+			"end\n";
+
+		this.replay(sFixture);
+
+		List<energyEntry> listTop = this.m_xAttribution.getTopProcesses(10);
+		assertEquals(2, listTop.size());
+		assertEquals(100, listTop.get(0).m_lCpuTicks);
+		assertEquals(50, listTop.get(1).m_lCpuTicks);
+		assertEquals(1.5 * ONE_SECOND_MWH, this.m_xAttribution.getUidEnergy(10000), 1e-9);
+	}
+
+	@Test
+	public void renameKeepsTheProcess() throws Exception
+	{
+		//* an app forked from zygote renames itself, the start time says it is the same process
+		String sFixture =
+			"window 1000\n" +
+			"freq 0 1000000 0\n" +
+			"proc 100 10000 zygote 500 1000\n" +
+			"end\n" +
+			"window 2000\n" +
+			"freq 0 1000000 100\n" +
+			"proc 100 10000 com.example.app 500 1100\n" +
+			"end\n";
+
+		this.replay(sFixture);
+
+		List<energyEntry> listTop = this.m_xAttribution.getTopProcesses(10);
+		assertEquals(1, listTop.size());
+		assertEquals(ONE_SECOND_MWH, listTop.get(0).m_dEnergyMwh, 1e-9);
+	}
+
+	@Test
+	public void missingLongerThanTheGraceHasExited() throws Exception
+	{
+		String sFixture =
+			"window 1000\n" +
+			"freq 0 1000000 0\n" +
+			"proc 100 10000 app 500 1000\n" +
+			"end\n" +
+			"window 2000\n" +
+			"freq 0 1000000 100\n" +
+			"proc 100 10000 app 500 1100\n" +
+			"end\n";
+
+		for (int i = 0; i < energyAttribution.GRACE_WINDOWS; i++)
+			sFixture += "window " + (3000 + i * 1000) + "\nend\n";
+
+		this.replay(sFixture);
+
+		//* retired, still listed once with what it used
+		List<energyEntry> listTop = this.m_xAttribution.getTopProcesses(10);
+		assertEquals(1, listTop.size());
+		assertEquals(ONE_SECOND_MWH, listTop.get(0).m_dEnergyMwh, 1e-9);
+	}
+}
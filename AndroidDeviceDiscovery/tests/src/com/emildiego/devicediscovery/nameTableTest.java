@@ -0,0 +1,94 @@
+/**
+ * nameTableTest
+ *
+ * Checks that nameTable counts the references to its names and drops a
+ * name with its last one.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class nameTableTest
+{
+	private nameTable		m_xNames;
+
+	@Before
+	public void setUp()
+	{
+		this.m_xNames = new nameTable();
+	}
+
+	@Test
+	public void internCountsReferences()
+	{
+		int iId = this.m_xNames.intern("system_server");
+		assertEquals(iId, this.m_xNames.intern("system_server"));
+		assertEquals(2, this.m_xNames.getReferences(iId));
+
+		this.m_xNames.release(iId);
+		assertEquals("system_server", this.m_xNames.getName(iId));
+
+		this.m_xNames.release(iId);
+		assertNull(this.m_xNames.getName(iId));
+		assertEquals(nameTable.NONE, this.m_xNames.getId("system_server"));
+		assertEquals(0, this.m_xNames.size());
+	}
+
+	@Test
+	public void retainKeepsTheName()
+	{
+		int iId = this.m_xNames.intern("com.android.phone");
+		this.m_xNames.retain(iId);
+		this.m_xNames.release(iId);
+
+		assertEquals("com.android.phone", this.m_xNames.getName(iId));
+		assertEquals(1, this.m_xNames.size());
+	}
+
+	@Test
+	public void isolatedNamesDontGrowTheTable()
+	{
+		//* numbered sandboxed processes come and go, the table stays the size of the live set
+		for (int i = 0; i < 10 * nameTable.DEFAULT_CAPACITY; i++)
+		{
+			int iId = this.m_xNames.intern("com.android.chrome:sandboxed_process" + i);
+			assertEquals(0, nameTable.slot(iId));
+			this.m_xNames.release(iId);
+		}
+
+		assertEquals(0, this.m_xNames.size());
+	}
+
+	@Test
+	public void staleIdDoesntAlias()
+	{
+		int iOld = this.m_xNames.intern("com.android.chrome:sandboxed_process0");
+		this.m_xNames.release(iOld);
+
+		//* the slot goes to another name, the old id must not reach it
+		int iNew = this.m_xNames.intern("com.android.chrome:sandboxed_process1");
+		assertEquals(nameTable.slot(iOld), nameTable.slot(iNew));
+		assertNull(this.m_xNames.getName(iOld));
+		assertEquals(0, this.m_xNames.getReferences(iOld));
+
+		//* a release through the old id doesn't free the new name
+		this.m_xNames.release(iOld);
+		assertEquals("com.android.chrome:sandboxed_process1", this.m_xNames.getName(iNew));
+		assertEquals(1, this.m_xNames.getReferences(iNew));
+	}
+
+	@Test
+	public void noneIsIgnored()
+	{
+		assertEquals(nameTable.NONE, this.m_xNames.intern(null));
+		this.m_xNames.retain(nameTable.NONE);
+		this.m_xNames.release(nameTable.NONE);
+		assertEquals(0, this.m_xNames.size());
+	}
+}
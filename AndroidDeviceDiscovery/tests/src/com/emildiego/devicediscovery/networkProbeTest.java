@@ -0,0 +1,117 @@
+/**
+ * networkProbeTest
+ *
+ * Runs the networkProbe against the networkProbeServer on the loopback
+ * interface, so the conditions the probes see are known.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class networkProbeTest
+{
+	static final String			NETWORK		= "loopback";
+
+	private networkProbeServer	m_xServer;
+	private networkProbe		m_xProbe;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.m_xServer	= new networkProbeServer(65536);
+		this.m_xProbe	= new networkProbe();
+
+		this.m_xProbe.addEndpoint("127.0.0.1", this.m_xServer.start(), "/");
+		this.m_xProbe.setUploadSize(65536);
+		this.m_xProbe.setTimeout(2000);
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.m_xServer.stop();
+	}
+
+	@Test
+	public void probesLoopbackEndpoint()
+	{
+		assertEquals(1, this.m_xProbe.runProbes(NETWORK));
+
+		//* one connection for the download, one for the upload
+		assertEquals(2, this.m_xServer.getRequestCount());
+		assertEquals(1, this.m_xProbe.getConnectLatency(NETWORK).getCount());
+		assertEquals(1, this.m_xProbe.getFirstByteLatency(NETWORK).getCount());
+		assertTrue(this.m_xProbe.getAverageDownloadThroughput(NETWORK) > 0);
+		assertTrue(this.m_xProbe.getAverageUploadThroughput(NETWORK) > 0);
+		assertEquals(0, this.m_xProbe.getFailureRate(NETWORK), 0);
+		assertNull(this.m_xProbe.getConnectLatency("other"));
+	}
+
+	@Test
+	public void responseDelayIsFirstByteLatency()
+	{
+		this.m_xServer.setResponseDelay(200);
+		this.m_xProbe.runProbes(NETWORK);
+
+		long lFirstByteUs = this.m_xProbe.getFirstByteLatency(NETWORK).getMin();
+		assertTrue("first byte " + lFirstByteUs, lFirstByteUs >= 190000);
+	}
+
+	@Test
+	public void uploadMeasuresTheLimitedRate()
+	{
+		//* the whole body has to get through the limit before the server acknowledges it, 
+		//* and the 200 ms response delay comes after the acknowledgement
+		this.m_xServer.setBandwidthLimit(131072);
+		this.m_xServer.setResponseDelay(200);
+		this.m_xProbe.setUploadSize(131072);
+		this.m_xProbe.runProbes(NETWORK);
+
+		double dUploadBps = this.m_xProbe.getAverageUploadThroughput(NETWORK);
+		assertTrue("upload " + dUploadBps, dUploadBps > 0.8 * 131072 && dUploadBps < 1.25 * 131072);
+	}
+
+	@Test
+	public void bandwidthLimitCapsDownload()
+	{
+		this.m_xServer.setBandwidthLimit(262144);
+		this.m_xProbe.setUploadSize(0);
+		this.m_xProbe.runProbes(NETWORK);
+
+		double dDownloadBps = this.m_xProbe.getAverageDownloadThroughput(NETWORK);
+		assertTrue("download " + dDownloadBps, dDownloadBps > 0 && dDownloadBps < 2 * 262144);
+	}
+
+	@Test
+	public void histogramsAreCopies()
+	{
+		this.m_xProbe.runProbes(NETWORK);
+		latencyHistogram xConnect = this.m_xProbe.getConnectLatency(NETWORK);
+
+		this.m_xProbe.runProbes(NETWORK);
+		assertEquals(1, xConnect.getCount());
+		assertEquals(2, this.m_xProbe.getConnectLatency(NETWORK).getCount());
+	}
+
+	@Test
+	public void closedPortIsAFailure()
+	{
+		int iPort = this.m_xServer.getPort();
+		this.m_xServer.stop();
+
+		networkProbe xProbe = new networkProbe();
+		xProbe.addEndpoint("127.0.0.1", iPort, "/");
+		xProbe.setTimeout(1000);
+
+		assertEquals(0, xProbe.runProbes(NETWORK));
+		assertEquals(1, xProbe.getFailureRate(NETWORK), 0);
+	}
+}
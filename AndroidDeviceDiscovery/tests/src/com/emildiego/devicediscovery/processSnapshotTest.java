@@ -0,0 +1,67 @@
+/**
+ * processSnapshotTest
+ *
+ * Builds processSnapshots by hand and checks the CPU use worked out
+ * between them.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class processSnapshotTest
+{
+	static final long			SECOND_NS	= 1000000000L;
+	static final int			PID			= 100;
+
+	private processSnapshot snapshot(long lTime, long lCpuTicks, long lCpuReadNs)
+	{
+		processSnapshot xSnapshot = new processSnapshot();
+		xSnapshot.clear(lTime);
+		xSnapshot.add(PID, 10000, 100, nameTable.NONE, nameTable.NONE, 1024, lCpuTicks, lCpuReadNs);
+		return xSnapshot;
+	}
+
+	@Test
+	public void cpuFromTheSnapshotTimes()
+	{
+		processSnapshot xPrevious	= this.snapshot(1000, 100, 0);
+		processSnapshot xCurrent	= this.snapshot(2000, 150, 0);
+
+		xCurrent.computeCpu(xPrevious);
+		assertEquals(50.0, xCurrent.getCpu(0), 1e-3);
+	}
+
+	@Test
+	public void cpuFromTheReadTimes()
+	{
+		//* the CPU time was read 1s apart though the snapshots are 100ms apart
+		processSnapshot xPrevious	= this.snapshot(1000, 100, SECOND_NS);
+		processSnapshot xCurrent	= this.snapshot(1100, 150, 2 * SECOND_NS);
+
+		xCurrent.computeCpu(xPrevious);
+		assertEquals(50.0, xCurrent.getCpu(0), 1e-3);
+	}
+
+	@Test
+	public void sameCachedReadKeepsTheCpu()
+	{
+		processSnapshot xFirst	= this.snapshot(1000, 100, SECOND_NS);
+		processSnapshot xSecond	= this.snapshot(2000, 200, 2 * SECOND_NS);
+		xSecond.computeCpu(xFirst);
+		assertEquals(100.0, xSecond.getCpu(0), 1e-3);
+
+		//* queried again in the same tick, the cache served the same read
+		processSnapshot xThird	= this.snapshot(2200, 200, 2 * SECOND_NS);
+		xThird.computeCpu(xSecond);
+		assertEquals(100.0, xThird.getCpu(0), 1e-3);
+
+		//* and the next read is measured from it, not doubled
+		processSnapshot xFourth	= this.snapshot(3000, 300, 3 * SECOND_NS);
+		xFourth.computeCpu(xThird);
+		assertEquals(100.0, xFourth.getCpu(0), 1e-3);
+	}
+}
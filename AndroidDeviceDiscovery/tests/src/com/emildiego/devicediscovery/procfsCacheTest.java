@@ -0,0 +1,139 @@
+/**
+ * procfsCacheTest
+ *
+ * Reads a scratch file through a procfsCache and checks that a copy
+ * served from the cache carries the time the file was really read.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class procfsCacheTest
+{
+	private procfsCache		m_xCache;
+	private File			m_xFile;
+
+	@Before
+	public void setUp() throws Exception
+	{
+		this.m_xCache	= new procfsCache();
+		this.m_xFile	= File.createTempFile("stat", null);
+		this.write("ctxt 100\n");
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.m_xFile.delete();
+	}
+
+	private void write(String sContents) throws Exception
+	{
+		FileOutputStream xOut = new FileOutputStream(this.m_xFile);
+		try
+		{
+			xOut.write(sContents.getBytes("US-ASCII"));
+		}
+		finally
+		{
+			xOut.close();
+		}
+	}
+
+	private long readCtxt(procfsReader xReader)
+	{
+		assertTrue(this.m_xCache.read(this.m_xFile.getPath(), xReader));
+		assertTrue(xReader.findLine("ctxt"));
+		return xReader.nextLong();
+	}
+
+	@Test
+	public void hitCarriesTheReadTime() throws Exception
+	{
+		procfsReader xFirst		= new procfsReader();
+		procfsReader xSecond	= new procfsReader();
+
+		assertEquals(100, this.readCtxt(xFirst));
+
+		//* the file moved on, the second reader gets the copy and when it was taken
+		this.write("ctxt 200\n");
+		Thread.sleep(5);
+		assertEquals(100, this.readCtxt(xSecond));
+		assertEquals(xFirst.getReadTime(), xSecond.getReadTime());
+		assertEquals(1, this.m_xCache.getHits());
+	}
+
+	@Test
+	public void nextTickReadsAgain() throws Exception
+	{
+		procfsReader xReader = new procfsReader();
+
+		this.readCtxt(xReader);
+		long lFirst = xReader.getReadTime();
+
+		this.write("ctxt 200\n");
+		Thread.sleep(5);
+		this.m_xCache.nextTick();
+
+		assertEquals(200, this.readCtxt(xReader));
+		assertTrue(xReader.getReadTime() > lFirst);
+		assertEquals(2, this.m_xCache.getMisses());
+	}
+
+	@Test
+	public void olderThanTheMaxAgeReadsAgain() throws Exception
+	{
+		procfsReader xReader = new procfsReader();
+
+		this.m_xCache.setMaxAge(1);
+		this.readCtxt(xReader);
+		long lFirst = xReader.getReadTime();
+
+		this.write("ctxt 200\n");
+		Thread.sleep(5);
+
+		assertEquals(200, this.readCtxt(xReader));
+		assertTrue(xReader.getReadTime() > lFirst);
+	}
+
+	@Test
+	public void fullTickEvictsTheLeastRecentlyUsed() throws Exception
+	{
+		procfsReader	xReader = new procfsReader();
+		File			xOther	= File.createTempFile("stat", null);
+		File			xThird	= File.createTempFile("stat", null);
+
+		try
+		{
+			//* every path is used in this tick, the oldest use makes room
+			this.m_xCache.setMaxEntries(2);
+			this.readCtxt(xReader);
+			this.m_xCache.read(xOther.getPath(), xReader);
+			this.readCtxt(xReader);
+			this.m_xCache.read(xThird.getPath(), xReader);
+
+			assertEquals(2, this.m_xCache.size());
+			assertEquals(1, this.m_xCache.getEvictions());
+
+			//* the scratch file was used last and is still there
+			long lMisses = this.m_xCache.getMisses();
+			this.readCtxt(xReader);
+			assertEquals(lMisses, this.m_xCache.getMisses());
+		}
+		finally
+		{
+			xOther.delete();
+			xThird.delete();
+		}
+	}
+}
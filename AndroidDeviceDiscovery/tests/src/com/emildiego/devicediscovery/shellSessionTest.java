@@ -0,0 +1,91 @@
+/**
+ * shellSessionTest
+ *
+ * Runs commands through a shellSession on /bin/sh and checks the outputs,
+ * the exit codes and how a hung or closed shell is handled.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class shellSessionTest
+{
+	static final long			TIMEOUT		= 5000;
+
+	private shellSession		m_xSession;
+
+	@Before
+	public void setUp()
+	{
+		this.m_xSession = new shellSession(shellSession.DEFAULT_SHELL, 2);
+	}
+
+	@After
+	public void tearDown()
+	{
+		this.m_xSession.close();
+	}
+
+	@Test
+	public void runReturnsTheOutput()
+	{
+		shellResult xResult = this.m_xSession.run("echo hello", TIMEOUT);
+
+		assertTrue(xResult.isSuccess());
+		assertEquals(0, xResult.m_iExitCode);
+		assertEquals("hello", xResult.m_sOutput.trim());
+	}
+
+	@Test
+	public void missingCommandIsNotASuccess()
+	{
+		//* the shell ran it, so the status is OK, but the exit code is 127
+		shellResult xResult = this.m_xSession.run("no_such_command_shellSessionTest", TIMEOUT);
+
+		assertEquals(shellResult.STATUS_OK, xResult.m_iStatus);
+		assertEquals(127, xResult.m_iExitCode);
+		assertFalse(xResult.isSuccess());
+	}
+
+	@Test
+	public void runAllSplitsTheOutputs()
+	{
+		shellResult[] aResults = this.m_xSession.runAll(new String[] { "echo one", "false", "echo " + shellSession.quote("it's") }, TIMEOUT);
+
+		assertEquals("one", aResults[0].m_sOutput.trim());
+		assertTrue(aResults[0].isSuccess());
+		assertEquals(1, aResults[1].m_iExitCode);
+		assertEquals("it's", aResults[2].m_sOutput.trim());
+		assertEquals(1, this.m_xSession.getStarts());
+	}
+
+	@Test
+	public void hungCommandRestartsTheShell()
+	{
+		shellResult xResult = this.m_xSession.run("sleep 10", 200);
+		assertEquals(shellResult.STATUS_TIMEOUT, xResult.m_iStatus);
+		assertEquals(1, this.m_xSession.getTimeouts());
+
+		//* the next command gets a new shell
+		assertTrue(this.m_xSession.run("true", TIMEOUT).isSuccess());
+		assertEquals(2, this.m_xSession.getStarts());
+	}
+
+	@Test
+	public void closedSessionFails()
+	{
+		this.m_xSession.close();
+
+		shellResult xResult = this.m_xSession.run("echo hello", TIMEOUT);
+		assertEquals(shellResult.STATUS_DIED, xResult.m_iStatus);
+		assertFalse(xResult.isSuccess());
+	}
+}
@@ -0,0 +1,89 @@
+/**
+ * wifiChannelAnalyzerTest
+ *
+ * Feeds fixture scans through wifiChannelAnalyzer and checks the best
+ * channel of each band and the rolling history of the channels.
+ *
+ * @author Emil Diego
+ */
+package com.emildiego.devicediscovery;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class wifiChannelAnalyzerTest
+{
+	private wifiChannelAnalyzer		m_xAnalyzer;
+
+	@Before
+	public void setUp()
+	{
+		this.m_xAnalyzer = new wifiChannelAnalyzer();
+	}
+
+	/**
+	 * Access points on 1, 6 and 11, the usual 2.4GHz plan, and one on 36.
+	 */
+	private void scan(long lTime)
+	{
+		this.m_xAnalyzer.beginScan(lTime);
+		this.m_xAnalyzer.addAccessPoint("00:00:00:00:00:01", "one", 2412, -40);
+		this.m_xAnalyzer.addAccessPoint("00:00:00:00:00:06", "six", 2437, -50);
+		this.m_xAnalyzer.addAccessPoint("00:00:00:00:00:0b", "eleven", 2462, -60);
+		this.m_xAnalyzer.addAccessPoint("00:00:00:00:00:24", "thirtysix", 5180, -50);
+		this.m_xAnalyzer.endScan();
+	}
+
+	@Test
+	public void bestChannelAvoidsTheBusyOnes()
+	{
+		this.scan(1000);
+
+		//* 13 only gets the leak from 11 two channels away
+		assertEquals(13, this.m_xAnalyzer.getBestChannel(wifiChannelAnalyzer.BAND_2GHZ));
+		assertEquals(1, this.m_xAnalyzer.getApCount(wifiChannelAnalyzer.BAND_2GHZ, 6));
+		assertEquals(3, this.m_xAnalyzer.getBandApCount(wifiChannelAnalyzer.BAND_2GHZ));
+
+		//* 40 gets the leak from 36, 44 is the first clear one
+		assertEquals(44, this.m_xAnalyzer.getBestChannel(wifiChannelAnalyzer.BAND_5GHZ));
+	}
+
+	@Test
+	public void silentBandHasNoBestChannel()
+	{
+		this.scan(1000);
+
+		assertEquals(0, this.m_xAnalyzer.getBestChannel(wifiChannelAnalyzer.BAND_6GHZ));
+	}
+
+	@Test
+	public void historyAveragesTheScans()
+	{
+		this.scan(1000);
+
+		//* the next scan hears nothing, the channels keep half their score
+		this.m_xAnalyzer.beginScan(2000);
+		this.m_xAnalyzer.endScan();
+
+		assertEquals(-200.0, this.m_xAnalyzer.getInterference(wifiChannelAnalyzer.BAND_2GHZ, 1), 1e-9);
+		assertEquals(10 * Math.log10(1e-4 / 2), this.m_xAnalyzer.getAverageInterference(wifiChannelAnalyzer.BAND_2GHZ, 1), 1e-9);
+		assertEquals(13, this.m_xAnalyzer.getBestChannel(wifiChannelAnalyzer.BAND_2GHZ));
+		assertEquals(2, this.m_xAnalyzer.getScanCount());
+	}
+
+	@Test
+	public void channel14DoesntLeakPastTheBand()
+	{
+		this.m_xAnalyzer.beginScan(1000);
+		this.m_xAnalyzer.addAccessPoint("00:00:00:00:00:0e", "fourteen", 2484, -40);
+		this.m_xAnalyzer.endScan();
+
+		assertEquals(1, this.m_xAnalyzer.getApCount(wifiChannelAnalyzer.BAND_2GHZ, 14));
+		assertEquals("00:00:00:00:00:0e", this.m_xAnalyzer.getStrongestAdjacentBssid(wifiChannelAnalyzer.BAND_2GHZ, 13));
+		assertNull(this.m_xAnalyzer.getStrongestAdjacentBssid(wifiChannelAnalyzer.BAND_2GHZ, 15));
+		assertEquals(-200.0, this.m_xAnalyzer.getInterference(wifiChannelAnalyzer.BAND_2GHZ, 15), 1e-9);
+	}
+}